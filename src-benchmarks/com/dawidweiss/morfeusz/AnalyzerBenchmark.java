@@ -0,0 +1,133 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Per-word cost of the native analysis. The difference between single-word
+ * and batch calls is the per-call JNI overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzerBenchmark {
+    private static final int BATCH = 100;
+
+    private Analyzer analyzer;
+    private Analyzer directAnalyzer;
+    private String [] words;
+    private byte [][] wordBytes;
+    private String [] batch;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        analyzer = Morfeusz.getInstance().getAnalyzer();
+        directAnalyzer = Morfeusz.getInstance().getAnalyzer(true);
+        words = Corpora.sampleWords();
+        wordBytes = new byte [words.length][];
+        for (int i = 0; i < words.length; i++) {
+            wordBytes[i] = words[i].getBytes(Morfeusz.ENCODING_UTF8);
+        }
+        batch = new String [BATCH];
+    }
+
+    private String nextWord() {
+        final String word = words[next];
+        next = (next + 1) % words.length;
+        return word;
+    }
+
+    @Benchmark
+    public int analyzeWord() {
+        analyzer.analyze(nextWord());
+        return analyzer.getTokensNumber();
+    }
+
+    /**
+     * Like {@link #analyzeWord()}, without encoding the term.
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public int analyzeWordBytes() {
+        final byte [] word = wordBytes[next];
+        next = (next + 1) % words.length;
+        analyzer.analyze(word);
+        return analyzer.getTokensNumber();
+    }
+
+    @Benchmark
+    public int analyzeWordDirectBuffer() {
+        directAnalyzer.analyze(nextWord());
+        return directAnalyzer.getTokensNumber();
+    }
+
+    @Benchmark
+    public int analyzeWordTagsOnly() {
+        final InterpMorf[] analysis = analyzer.analyze(nextWord());
+        int sum = 0;
+        for (int i = 0; i < analyzer.getTokensNumber(); i++) {
+            sum += analysis[i].getTagBuffer().get(0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int analyzeWordTagsOnlyDirectBuffer() {
+        final InterpMorf[] analysis = directAnalyzer.analyze(nextWord());
+        int sum = 0;
+        for (int i = 0; i < directAnalyzer.getTokensNumber(); i++) {
+            sum += analysis[i].getTagBuffer().get(0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int analyzeWordImages() {
+        final InterpMorf[] analysis = analyzer.analyze(nextWord());
+        int sum = 0;
+        for (int i = 0; i < analyzer.getTokensNumber(); i++) {
+            sum += analysis[i].getTokenImage().length()
+                + analysis[i].getLemmaImage().length()
+                + analysis[i].getTagImage().length();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int analyzeWordChars() {
+        final InterpMorf[] analysis = analyzer.analyze(nextWord());
+        int sum = 0;
+        for (int i = 0; i < analyzer.getTokensNumber(); i++) {
+            sum += analysis[i].getTokenChars().length()
+                + analysis[i].getLemmaChars().length()
+                + analysis[i].getTagChars().length();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int analyzeBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = nextWord();
+        }
+        return analyzer.analyzeBatch(batch).size();
+    }
+}
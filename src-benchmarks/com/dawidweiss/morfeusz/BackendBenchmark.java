@@ -0,0 +1,87 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Per-word cost of the analysis with different backends, on the words of
+ * the samples corpus (pure-Java backends use a dictionary of these words).
+ * The concurrent benchmark shows the cost of serialization on the native
+ * library, which pure-Java backends avoid. Run with <code>-p backend=trie,fsa</code>
+ * on machines without Morfeusz.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackendBenchmark {
+    @State(Scope.Benchmark)
+    public static class Backend {
+        @Param({"native", "trie", "fsa"})
+        public String backend;
+
+        Morfeusz morfeusz;
+        ConcurrentAnalyzer concurrentAnalyzer;
+        String [] words;
+
+        @Setup
+        public void setup() throws IOException {
+            if ("native".equals(backend)) {
+                morfeusz = Morfeusz.getInstance();
+            } else if ("trie".equals(backend)) {
+                morfeusz = Morfeusz.newInstance(
+                    DictionaryBackend.load(new StringReader(Corpora.sampleDictionary())));
+            } else {
+                morfeusz = Morfeusz.newInstance(
+                    FSADictionary.build(new StringReader(Corpora.sampleDictionary())));
+            }
+            concurrentAnalyzer = morfeusz.getConcurrentAnalyzer();
+            words = Corpora.sampleWords();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        Analyzer analyzer;
+        int next;
+
+        @Setup
+        public void setup(Backend backend) {
+            analyzer = backend.morfeusz.getAnalyzer();
+        }
+
+        String nextWord(Backend backend) {
+            final String word = backend.words[next];
+            next = (next + 1) % backend.words.length;
+            return word;
+        }
+    }
+
+    @Benchmark
+    public int analyzeWord(Backend backend, Cursor cursor) {
+        cursor.analyzer.analyze(cursor.nextWord(backend));
+        return cursor.analyzer.getTokensNumber();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int analyzeConcurrent(Backend backend, Cursor cursor) {
+        return backend.concurrentAnalyzer.analyze(cursor.nextWord(backend)).length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Input data for benchmarks, read from test corpora (test classes 
+ * must be on the classpath).
+ */
+public final class Corpora {
+    private static final String SAMPLES = "/com/dawidweiss/ipipan/corpus/tokens.samples.ipi-wstepny.txt";
+    private static final String UNIQUE_TAGS = "/com/dawidweiss/ipipan/corpus/tokens.unique.ipi-wstepny.txt";
+
+    private Corpora() {
+        // no instances.
+    }
+
+    /**
+     * Returns words from the samples corpus. The corpus consists of blocks
+     * of lines separated with an empty line, the first line of each block
+     * is an IPI PAN tag, followed by words.
+     */
+    public static String [] sampleWords() throws IOException {
+        final List<String> words = new ArrayList<String>();
+        final List<String> lines = readLines(SAMPLES);
+        boolean tagLine = true;
+        for (String line : lines) {
+            if (line.trim().length() == 0) {
+                tagLine = true;
+            } else if (tagLine) {
+                tagLine = false;
+            } else {
+                words.add(line.trim());
+            }
+        }
+        return words.toArray(new String [words.size()]);
+    }
+
+    /**
+     * Returns a dictionary (in the format of {@link DictionaryBackend})
+     * with the words of the samples corpus, each with its block's tag and
+     * itself as the lemma.
+     */
+    public static String sampleDictionary() throws IOException {
+        final StringBuilder dictionary = new StringBuilder();
+        final List<String> lines = readLines(SAMPLES);
+        String tag = null;
+        for (String line : lines) {
+            if (line.trim().length() == 0) {
+                tag = null;
+            } else if (tag == null) {
+                tag = line.trim();
+            } else {
+                final String word = line.trim();
+                dictionary.append(word).append('\t').append(word).append('\t').append(tag).append('\n');
+            }
+        }
+        return dictionary.toString();
+    }
+
+    /**
+     * Returns unique IPI PAN tags.
+     */
+    public static String [] uniqueTags() throws IOException {
+        final List<String> lines = readLines(UNIQUE_TAGS);
+        return lines.toArray(new String [lines.size()]);
+    }
+
+    private static List<String> readLines(String resource) throws IOException {
+        final InputStream is = Corpora.class.getResourceAsStream(resource);
+        if (is == null) {
+            throw new IOException("Corpus not found on the classpath: " + resource);
+        }
+        final List<String> lines = new ArrayList<String>();
+        final LineNumberReader reader = new LineNumberReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,122 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dawidweiss.ipipan.corpus.Tag;
+import com.dawidweiss.ipipan.corpus.TagPredicate;
+import com.dawidweiss.ipipan.corpus.TagQuery;
+
+
+/**
+ * Per-code cost of bulk tag matching versus scalar loops over
+ * {@link Tag#contained(long, long)} and {@link Tag#agree(long, long, long)},
+ * and of compiled queries versus predicates built on 
+ * {@link Tag#contained(long, long)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagArraysBenchmark {
+    private static final int CODES = 1 << 16;
+    private static final long AGREEMENT = Tag.MASK_CASE | Tag.MASK_NUMBER | Tag.MASK_GENDER;
+
+    private long [] codes;
+    private long wider;
+    private BitSet out;
+    private TagPredicate within;
+    private TagQuery query;
+
+    @Setup
+    public void setup() throws IOException {
+        final String [] tags = Corpora.uniqueTags();
+        final Random rnd = new Random(0x11223344);
+        codes = new long [CODES];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Tag.parseCode(tags[rnd.nextInt(tags.length)]);
+        }
+        wider = Tag.parseCode("subst:_:gen:_");
+        out = new BitSet(CODES);
+        within = Tag.within("subst:pl:_:_|subst:_:gen:_|adj:_:gen:_:_");
+        query = TagQuery.compile("subst:pl|subst:gen|adj:gen");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int containedScalar() {
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (Tag.contained(wider, codes[i])) {
+                out.set(i);
+                count++;
+            } else {
+                out.clear(i);
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int containedMask() {
+        return Tag.containedMask(wider, codes, 0, codes.length, out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int agreementScalar() {
+        int count = 0;
+        for (int i = 0; i < codes.length - 1; i++) {
+            if (Tag.agree(codes[i], codes[i + 1], AGREEMENT)) {
+                out.set(i);
+                count++;
+            } else {
+                out.clear(i);
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int agreementMask() {
+        return Tag.agreementMask(codes, 0, codes, 1, codes.length - 1, AGREEMENT, out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int queryWithin() {
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (within.matches(codes[i])) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int queryCompiled() {
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (query.matches(codes[i])) count++;
+        }
+        return count;
+    }
+}
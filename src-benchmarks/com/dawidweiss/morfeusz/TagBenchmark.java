@@ -0,0 +1,114 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dawidweiss.ipipan.corpus.Tag;
+
+
+/**
+ * Per-tag cost of parsing IPI PAN tags into numeric codes: the object
+ * parser ({@link Tag#create(String)}) versus the single-pass code parser,
+ * of rendering tags and codes back to strings and of the containment test.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagBenchmark {
+    private String [] tags;
+    private byte [][] tagBytes;
+    private long [] codes;
+    private long [] tagCodes;
+    private long [] widerCodes;
+    private Tag [] tagObjects;
+    private StringBuilder builder;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        tags = Corpora.uniqueTags();
+        tagBytes = new byte [tags.length][];
+        for (int i = 0; i < tags.length; i++) {
+            tagBytes[i] = tags[i].getBytes("US-ASCII");
+        }
+        codes = new long [4];
+        tagCodes = new long [tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            tagCodes[i] = Tag.parseCode(tags[i]);
+        }
+        // Wider tags: the same tags with any number.
+        widerCodes = new long [tags.length];
+        tagObjects = new Tag [tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            widerCodes[i] = tagCodes[i] & ~(Tag.NUMBER_SG | Tag.NUMBER_PL);
+            tagObjects[i] = Tag.create(tags[i])[0];
+        }
+        builder = new StringBuilder();
+    }
+
+    private int nextIndex() {
+        final int index = next;
+        next = (next + 1) % tags.length;
+        return index;
+    }
+
+    @Benchmark
+    public long createTag() {
+        return Tag.create(tags[nextIndex()])[0].getCode();
+    }
+
+    @Benchmark
+    public long parseCodeString() {
+        return Tag.parseCode(tags[nextIndex()]);
+    }
+
+    @Benchmark
+    public long parseCodeBytes() {
+        final byte [] bytes = tagBytes[nextIndex()];
+        return Tag.parseCode(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public long parseCodesBytes() {
+        final byte [] bytes = tagBytes[nextIndex()];
+        Tag.parseCodes(bytes, 0, bytes.length, codes);
+        return codes[0];
+    }
+
+    @Benchmark
+    public int codeToString() {
+        return Tag.toString(tagCodes[nextIndex()]).length();
+    }
+
+    @Benchmark
+    public int appendCode() {
+        builder.setLength(0);
+        return Tag.appendTo(builder, tagCodes[nextIndex()]).length();
+    }
+
+    @Benchmark
+    public int tagToString() {
+        return tagObjects[nextIndex()].toString().length();
+    }
+
+    @Benchmark
+    public boolean contained() {
+        final int index = nextIndex();
+        return Tag.contained(widerCodes[index], tagCodes[(index + 1) % tagCodes.length])
+            ^ Tag.contained(widerCodes[index], tagCodes[index]);
+    }
+}
@@ -1,29 +1,134 @@
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
 #include "com_dawidweiss_morfeusz_Analyzer.h"
 #include "morfeusz.h"
 
 const static char *CVSID =
 	"$Id$";
 
+/** Initial length of the token buffer (grown on demand). */
+#define INITIAL_TOKEN_LENGTH 4096
+
+/** 
+ * An internal buffer to copy the token to. It is only used (and grown)
+ * while library_lock is held, so a single buffer is enough.
+ */
+static char *token_buffer;
+static jsize token_buffer_length;
+
+/**
+ * A monitor held by every entry point calling the library: Morfeusz and
+ * the token buffer are process-global, while Java code may call several
+ * analyzers from different threads.
+ */
+static jobject library_lock;
+
+
 /*
- * Adjust these if you need longer tokens (although it is more reasonable
- * to split them before passing to the analyzer in such case...)
+ * Class and field IDs, resolved once in initIDs(). The global reference
+ * to InterpMorf class keeps it (and its field IDs) valid.
+ */
+static jclass   runtime_exception_class;
+static jclass   interp_morf_class;
+
+static jfieldID morphological_analysis_array_id;
+static jfieldID token_id;
+static jfieldID token_length_id;
+static jfieldID lemma_id;
+static jfieldID lemma_length_id;
+static jfieldID tag_id;
+static jfieldID tag_length_id;
+static jfieldID p_id;
+static jfieldID k_id;
+
+
+/**
+ * Throws a java.lang.RuntimeException with the given message.
+ */
+static void throwRuntimeException(JNIEnv *env, const char *message)
+{
+	(*env)->ThrowNew(env, runtime_exception_class, message);
+}
+
+
+/**
+ * Resolves a class and makes a global reference to it.
+ */
+static jclass findGlobalClass(JNIEnv *env, const char *name)
+{
+	jclass local = (*env)->FindClass(env, name);
+	if (local == NULL) return NULL;
+	jclass global = (jclass) (*env)->NewGlobalRef(env, local);
+	(*env)->DeleteLocalRef(env, local);
+	return global;
+}
+
+
+/** 
+ * JNI method implementation: resolves and caches class and field IDs.
+ * Invoked once from Analyzer's static initializer.
+ *
+ * @see com.dawidweiss.morfeusz.Analyzer#initIDs()
  */
+JNIEXPORT void JNICALL Java_com_dawidweiss_morfeusz_Analyzer_initIDs
+  (JNIEnv *env, jclass analyzer_class)
+{
+	if ((runtime_exception_class = findGlobalClass(env, "java/lang/RuntimeException")) == NULL) return;
 
-/** Maximum length of a single token. */
-#define MAX_TOKEN_LENGTH 4096
+	jclass object_class = (*env)->FindClass(env, "java/lang/Object");
+	if (object_class == NULL) return;
+	jmethodID constructor = (*env)->GetMethodID(env, object_class, "<init>", "()V");
+	if (constructor == NULL) return;
+	jobject lock = (*env)->NewObject(env, object_class, constructor);
+	if (lock == NULL) return;
+	library_lock = (*env)->NewGlobalRef(env, lock);
+	(*env)->DeleteLocalRef(env, lock);
+	(*env)->DeleteLocalRef(env, object_class);
+	if (library_lock == NULL) return;
 
-/** An internal buffer to copy the token to. */
-static char token_buffer[ MAX_TOKEN_LENGTH ];
+	if ((interp_morf_class = findGlobalClass(env, "com/dawidweiss/morfeusz/InterpMorf")) == NULL) return;
+
+	morphological_analysis_array_id = (*env)->GetFieldID(env, analyzer_class,
+		"morphologicalAnalysis", "[Lcom/dawidweiss/morfeusz/InterpMorf;");
+	if (morphological_analysis_array_id == NULL) return;
+
+	if ((token_id = (*env)->GetFieldID(env, interp_morf_class, "token", "[B")) == NULL) return;
+	if ((token_length_id = (*env)->GetFieldID(env, interp_morf_class, "tokenLength", "I")) == NULL) return;
+	if ((lemma_id = (*env)->GetFieldID(env, interp_morf_class, "lemma", "[B")) == NULL) return;
+	if ((lemma_length_id = (*env)->GetFieldID(env, interp_morf_class, "lemmaLength", "I")) == NULL) return;
+	if ((tag_id = (*env)->GetFieldID(env, interp_morf_class, "tag", "[B")) == NULL) return;
+	if ((tag_length_id = (*env)->GetFieldID(env, interp_morf_class, "tagLength", "I")) == NULL) return;
+	if ((p_id = (*env)->GetFieldID(env, interp_morf_class, "p", "I")) == NULL) return;
+	if ((k_id = (*env)->GetFieldID(env, interp_morf_class, "k", "I")) == NULL) return;
+}
+
+
+/**
+ * Enters library_lock. Returns 0 (with a pending Java exception) on failure.
+ */
+static int lockLibrary(JNIEnv *env)
+{
+	return (*env)->MonitorEnter(env, library_lock) == JNI_OK;
+}
+
+
+/**
+ * Exits library_lock (also with a pending Java exception).
+ */
+static void unlockLibrary(JNIEnv *env)
+{
+	(*env)->MonitorExit(env, library_lock);
+}
 
 
 /**
  * A helper function to copy the contents of a string into
  * a Java array and a field that stores the length of the copied
- * string.
+ * string. If the array is too small, nothing is copied, the length
+ * field is set to the required length and 0 is returned.
  */
-inline int copyCharArray( JNIEnv *env, jobject object,
+static inline int copyCharArray( JNIEnv *env, jobject object,
 	jfieldID array_id, jfieldID array_length_id, char *src)
 {
 	if (src == NULL) {
@@ -31,154 +136,328 @@ inline int copyCharArray( JNIEnv *env, jobject object,
 		return 1;
 	}
 
-	jcharArray array =  (*env)->GetObjectField(env, object, array_id);
-	char *array_contents = (*env)->GetByteArrayElements(env, array, NULL);
-
-	jsize max_length = (*env)->GetArrayLength(env, array);
-
-	int i = 0;
-	char *tmpsrc = src;
-	char *tmpdst = array_contents;
-	while (tmpsrc[0] != 0) {
-		if (i == max_length) {
-			break;
-		} else {
-			*(tmpdst++) = *(tmpsrc++);
-		}
-		i++;
+	jsize length = (jsize) strlen(src);
+	jbyteArray array =  (*env)->GetObjectField(env, object, array_id);
+	int fits = (length <= (*env)->GetArrayLength(env, array));
+	if (fits) {
+		(*env)->SetByteArrayRegion(env, array, 0, length, (jbyte *) src);
 	}
+	(*env)->DeleteLocalRef(env, array);
 
-	(*env)->ReleaseByteArrayElements(env, array, array_contents, 0);
+	(*env)->SetIntField(env, object, array_length_id, (jint) length);
+	return fits;
+}
 
-	if (i == max_length) {
-		char message[512];
-		
-		sprintf(message, "Buffer array length exceeded: [%li bytes needed]", strlen(src));
 
-		jclass exception_class =
-			(*env)->FindClass(env, "java/lang/RuntimeException");
-		if (exception_class == NULL)
+/**
+ * Copies a term (term_length bytes at offset) from a Java array to
+ * the token buffer and terminates it with a NUL. The buffer is grown if
+ * needed. Returns 0 (and throws a Java exception) if memory cannot be
+ * allocated.
+ */
+static int copyTerm(JNIEnv *env, jbyteArray term_array, jint offset, jsize term_length)
+{
+	if (term_length + 1 > token_buffer_length) {
+		jsize length = token_buffer_length == 0 ? INITIAL_TOKEN_LENGTH : token_buffer_length;
+		while (length < term_length + 1) length *= 2;
+
+		char *buffer = (char *) realloc(token_buffer, length);
+		if (buffer == NULL) {
+			throwRuntimeException(env, "Out of memory for the token buffer.");
 			return 0;
-		(*env)->ThrowNew(env, exception_class, message);
-		return 0;
-	} else {
-		(*env)->SetIntField(env, object, array_length_id, (jint) i);
-		return 1;
+		}
+		token_buffer = buffer;
+		token_buffer_length = length;
 	}
+
+	(*env)->GetByteArrayRegion(env, term_array, offset, term_length, (jbyte *) token_buffer);
+	if ((*env)->ExceptionCheck(env))
+		return 0;
+	token_buffer[ term_length ] = 0;
+	return 1;
 }
 
 
 /** 
- * JNI method implementation.
- * @see com.dawidweiss.morfeusz.Analyzer#analyse()
+ * Analyzes a term and copies segments to the analyzer's segment objects
+ * (called with library_lock held).
  */
-JNIEXPORT jint JNICALL Java_com_dawidweiss_morfeusz_Analyzer_morfeusz_1analyse
-  (JNIEnv *env, jobject object, jbyteArray term_array)
+static jint analyseToObjects(JNIEnv *env, jobject object, jbyteArray term_array)
 {
-	char *term_bytes = (*env)->GetByteArrayElements(env, term_array, NULL);
-	jsize term_length = (*env)->GetArrayLength(env, term_array );
-	if (term_length + 1 > MAX_TOKEN_LENGTH) {
-		jclass exception_class =
-			(*env)->FindClass(env, "java/lang/RuntimeException");
-		if (exception_class == NULL)
-			return 0;
-		(*env)->ThrowNew(env, exception_class,
-			"Token too long. Adjust MAX_TOKEN_LENGTH");
-		(*env)->ReleaseByteArrayElements(env, term_array, term_bytes, JNI_ABORT);
+	if (copyTerm(env, term_array, 0, (*env)->GetArrayLength(env, term_array)) == 0)
 		return 0;
-	} else {
-		strncpy(&token_buffer[0], term_bytes, term_length);
-		token_buffer[ term_length ] = 0;
-		(*env)->ReleaseByteArrayElements(env, term_array, term_bytes, JNI_ABORT);
-	}
 	
 	// perform the analysis.
 	InterpMorf *interp_morf = morfeusz_analyse(token_buffer);
 
 	// get a handle to the array of morphological analysis blocks for tokens.
-	jclass myClass = (*env)->GetObjectClass(env, object);
-	
-	jfieldID morphological_analysis_array_id = (*env)->GetFieldID(env, 
-		myClass,
-		"morphologicalAnalysis",
-		"[Lcom/dawidweiss/morfeusz/InterpMorf;");
-	if (morphological_analysis_array_id == NULL) return 0;
-	
 	jobjectArray morphological_analysis_array = 
 		(jobjectArray) (*env)->GetObjectField(env, object,
 			morphological_analysis_array_id);
 	if (morphological_analysis_array == NULL) return 0;
-	
-	// get method/ field IDs
-	jclass interp_morf_class = (*env)->FindClass(env,
-		"com/dawidweiss/morfeusz/InterpMorf");
-	if (interp_morf_class == NULL) return 0;
-
-	jfieldID token_id = (*env)->GetFieldID(env, interp_morf_class, "token", "[B");
-	if (token_id == NULL) return 0;
-	jfieldID token_length_id = (*env)->GetFieldID(env, interp_morf_class, "tokenLength", "I");
-	if (token_length_id == NULL) return 0;
-
-	jfieldID lemma_id = (*env)->GetFieldID(env, interp_morf_class, "lemma", "[B");
-	if (lemma_id == NULL) return 0;
-	jfieldID lemma_length_id = (*env)->GetFieldID(env, interp_morf_class, "lemmaLength", "I");
-	if (lemma_length_id == NULL) return 0;
-
-	jfieldID tag_id = (*env)->GetFieldID(env, interp_morf_class, "tag", "[B");
-	if (tag_id == NULL) return 0;
-	jfieldID tag_length_id = (*env)->GetFieldID(env, interp_morf_class, "tagLength", "I");
-	if (tag_length_id == NULL) return 0;
-
-	jfieldID p_id = (*env)->GetFieldID(env, interp_morf_class, "p", "I");
-	if (p_id == NULL) return 0;
-	jfieldID k_id = (*env)->GetFieldID(env, interp_morf_class, "k", "I");
-	if (k_id == NULL) return 0;
 
+	// count the segments first; if there are more segments than objects,
+	// return their negated number so that the caller can grow the array and retry.
+	jsize segments = 0;
+	while (interp_morf[segments].p != -1) {
+		segments++;
+	}
+	if (segments > (*env)->GetArrayLength(env, morphological_analysis_array)) {
+		return (jint) -segments;
+	}
 
 	// now go through the elements of interp_morf and copy them to
-	// analyzer's morphological_analysis_array fields.
-	
-	jsize max_segment_number = (*env)->GetArrayLength(env, morphological_analysis_array);
-
-	jsize segment_index = 0;
-	while (interp_morf->p != -1) {
+	// analyzer's morphological_analysis_array fields. Segments whose arrays
+	// are too small are only marked with the required lengths.
+	int fits = 1;
+	jsize segment_index;
+	for (segment_index = 0; segment_index < segments; segment_index++, interp_morf++) {
+		jobject morph_segment = 
+			(*env)->GetObjectArrayElement(env, 
+				morphological_analysis_array, segment_index);
 
-		if (segment_index >= max_segment_number) {
-			jclass exception_class =
-				(*env)->FindClass(env, "java/lang/RuntimeException");
-			if (exception_class == NULL)
-				return 0;
-			(*env)->ThrowNew(env, exception_class,
-				"Tokens array length exceeded. Recompile with greater Analyzer.MAX_GRAPH_NODES");
-			return 0;
-		}
-		
 		// any Java exceptions (synchronous or asynchronous)?
 		if ((*env)->ExceptionOccurred(env) != NULL)
 			return 0;
 
-		jobject morph_segment = 
-			(*env)->GetObjectArrayElement(env, 
-				morphological_analysis_array, segment_index);
-
 		// copy start node and end node.
 		(*env)->SetIntField(env, morph_segment, p_id, (jint) interp_morf->p );
 		(*env)->SetIntField(env, morph_segment, k_id, (jint) interp_morf->k );
 		
 		// copy the token, lemma and tag arrays
-		
-		if (copyCharArray(env, morph_segment, token_id, token_length_id, interp_morf->forma ) == 0)
-			return 0;
-		if (copyCharArray(env, morph_segment, lemma_id, lemma_length_id, interp_morf->haslo ) == 0)
-			return 0;
-		if (copyCharArray(env, morph_segment, tag_id,   tag_length_id,   interp_morf->interp) == 0)
-			return 0;
+		fits &= copyCharArray(env, morph_segment, token_id, token_length_id, interp_morf->forma );
+		fits &= copyCharArray(env, morph_segment, lemma_id, lemma_length_id, interp_morf->haslo );
+		fits &= copyCharArray(env, morph_segment, tag_id,   tag_length_id,   interp_morf->interp);
+
+		(*env)->DeleteLocalRef(env, morph_segment);
+	}
+
+	(*env)->DeleteLocalRef(env, morphological_analysis_array);
+	return (jint) (fits ? segments : -segments);
+}
+
+
+/** 
+ * JNI method implementation.
+ * @see com.dawidweiss.morfeusz.Analyzer#analyse()
+ */
+JNIEXPORT jint JNICALL Java_com_dawidweiss_morfeusz_Analyzer_morfeusz_1analyse
+  (JNIEnv *env, jobject object, jbyteArray term_array)
+{
+	if (lockLibrary(env) == 0)
+		return 0;
+	jint result = analyseToObjects(env, object, term_array);
+	unlockLibrary(env);
+	return result;
+}
+
+/** Must match Analyzer.BATCH_DATA_OVERFLOW */
+#define BATCH_DATA_OVERFLOW -1
+
+/** Must match Analyzer.BATCH_SEGMENTS_OVERFLOW */
+#define BATCH_SEGMENTS_OVERFLOW -2
+
+/** Must match AnalysisBatch.SEGMENT_INTS */
+#define SEGMENT_INTS 5
+
+/**
+ * Appends a NUL-terminated string to the data buffer. Returns the new
+ * data length or -1 if the buffer is too small.
+ */
+static jint appendString(jbyte *data, jint data_length, jint max_length, char *src)
+{
+	if (src == NULL) {
+		return data_length;
+	}
+
+	size_t length = strlen(src);
+	if (data_length + length > (size_t) max_length) {
+		return -1;
+	}
+	memcpy(data + data_length, src, length);
+	return data_length + (jint) length;
+}
+
+/** 
+ * JNI method implementation: analyzes a batch of packed,
+ * NUL-terminated terms in a single call.
+ *
+ * @see com.dawidweiss.morfeusz.Analyzer#analyzeBatch()
+ */
+JNIEXPORT jint JNICALL Java_com_dawidweiss_morfeusz_Analyzer_morfeusz_1analyse_1batch
+  (JNIEnv *env, jobject object, jbyteArray terms_array, jint count,
+   jbyteArray data_array, jintArray segments_array, jintArray word_ends_array)
+{
+	jsize max_data = (*env)->GetArrayLength(env, data_array);
+	jsize max_segments = (*env)->GetArrayLength(env, segments_array) / SEGMENT_INTS;
+
+	jbyte *terms = (*env)->GetByteArrayElements(env, terms_array, NULL);
+	if (terms == NULL) return 0;
+	jbyte *data = (*env)->GetByteArrayElements(env, data_array, NULL);
+	if (data == NULL) {
+		(*env)->ReleaseByteArrayElements(env, terms_array, terms, JNI_ABORT);
+		return 0;
+	}
+	jint *segments = (*env)->GetIntArrayElements(env, segments_array, NULL);
+	if (segments == NULL) {
+		(*env)->ReleaseByteArrayElements(env, data_array, data, JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env, terms_array, terms, JNI_ABORT);
+		return 0;
+	}
+	jint *word_ends = (*env)->GetIntArrayElements(env, word_ends_array, NULL);
+	if (word_ends == NULL) {
+		(*env)->ReleaseIntArrayElements(env, segments_array, segments, JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env, data_array, data, JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env, terms_array, terms, JNI_ABORT);
+		return 0;
+	}
+
+	if (lockLibrary(env) == 0) {
+		(*env)->ReleaseIntArrayElements(env, word_ends_array, word_ends, JNI_ABORT);
+		(*env)->ReleaseIntArrayElements(env, segments_array, segments, JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env, data_array, data, JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env, terms_array, terms, JNI_ABORT);
+		return 0;
+	}
+
+	jint result = 0;
+	jint data_length = 0;
+	char *term = (char *) terms;
+	jint word;
+	for (word = 0; word < count; word++) {
+		// terms are NUL-terminated, pass them to Morfeusz directly.
+		InterpMorf *interp_morf = morfeusz_analyse(term);
+		term += strlen(term) + 1;
+
+		while (interp_morf->p != -1) {
+			if (result >= max_segments) {
+				result = BATCH_SEGMENTS_OVERFLOW;
+				goto release;
+			}
+
+			jint *segment = segments + result * SEGMENT_INTS;
+			segment[0] = (jint) interp_morf->p;
+			segment[1] = (jint) interp_morf->k;
+			if ((data_length = appendString(data, data_length, max_data, interp_morf->forma)) < 0) {
+				result = BATCH_DATA_OVERFLOW;
+				goto release;
+			}
+			segment[2] = data_length;
+			if ((data_length = appendString(data, data_length, max_data, interp_morf->haslo)) < 0) {
+				result = BATCH_DATA_OVERFLOW;
+				goto release;
+			}
+			segment[3] = data_length;
+			if ((data_length = appendString(data, data_length, max_data, interp_morf->interp)) < 0) {
+				result = BATCH_DATA_OVERFLOW;
+				goto release;
+			}
+			segment[4] = data_length;
+
+			interp_morf++;
+			result++;
+		}
+		word_ends[word] = result;
+	}
+
+release:
+	unlockLibrary(env);
+	(*env)->ReleaseIntArrayElements(env, word_ends_array, word_ends, 0);
+	(*env)->ReleaseIntArrayElements(env, segments_array, segments, 0);
+	(*env)->ReleaseByteArrayElements(env, data_array, data, 0);
+	(*env)->ReleaseByteArrayElements(env, terms_array, terms, JNI_ABORT);
+	return result;
+}
+
+
+
+/** Must match Analyzer.DIRECT_BUFFER_OVERFLOW */
+#define DIRECT_BUFFER_OVERFLOW -1
+
+/** Must match Analyzer.DIRECT_FIELD_TOO_LONG */
+#define DIRECT_FIELD_TOO_LONG -2
+
+/**
+ * Writes a length-prefixed string to a segment record and advances *dst
+ * past the written data. Returns 0, DIRECT_FIELD_TOO_LONG if the string
+ * is longer than a record permits or DIRECT_BUFFER_OVERFLOW if there is
+ * not enough space.
+ */
+static jint writeString(char **dst, char *end, char *src)
+{
+	size_t length = (src == NULL ? 0 : strlen(src));
+	if (length > 0xffff) {
+		return DIRECT_FIELD_TOO_LONG;
+	}
+	if (*dst + 2 + length > end) {
+		return DIRECT_BUFFER_OVERFLOW;
+	}
+
+	unsigned short prefix = (unsigned short) length;
+	memcpy(*dst, &prefix, 2);
+	memcpy(*dst + 2, src, length);
+	*dst += 2 + length;
+	return 0;
+}
+
+/** 
+ * Analyzes a term and writes segment records to out (called with
+ * library_lock held).
+ */
+static jint analyseToBuffer(JNIEnv *env, jbyteArray term_array, jint offset, jint length,
+	char *out, char *end)
+{
+	if (copyTerm(env, term_array, offset, (jsize) length) == 0)
+		return 0;
+
+	InterpMorf *interp_morf = morfeusz_analyse(token_buffer);
+
+	jint segments = 0;
+	while (interp_morf->p != -1) {
+		if (out + 2 * sizeof(jint) > end)
+			return DIRECT_BUFFER_OVERFLOW;
+
+		jint node = (jint) interp_morf->p;
+		memcpy(out, &node, sizeof(jint));
+		node = (jint) interp_morf->k;
+		memcpy(out + sizeof(jint), &node, sizeof(jint));
+		out += 2 * sizeof(jint);
+
+		jint status;
+		if ((status = writeString(&out, end, interp_morf->forma)) != 0)
+			return status;
+		if ((status = writeString(&out, end, interp_morf->haslo)) != 0)
+			return status;
+		if ((status = writeString(&out, end, interp_morf->interp)) != 0)
+			return status;
 
-		// advance to the next token.
 		interp_morf++;
-		segment_index++;
+		segments++;
 	}
 
-	return (jint) segment_index;
+	return segments;
 }
 
+
+/** 
+ * JNI method implementation: writes segment records to a direct buffer.
+ * See InterpMorf#bind() for the record layout.
+ *
+ * @see com.dawidweiss.morfeusz.Analyzer#analyzeNative()
+ */
+JNIEXPORT jint JNICALL Java_com_dawidweiss_morfeusz_Analyzer_morfeusz_1analyse_1direct
+  (JNIEnv *env, jclass clazz, jbyteArray term_array, jint offset, jint length, jobject buffer)
+{
+	char *out = (char *) (*env)->GetDirectBufferAddress(env, buffer);
+	jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+	if (out == NULL || capacity < 0) {
+		throwRuntimeException(env, "Not a direct buffer.");
+		return 0;
+	}
+
+	if (lockLibrary(env) == 0)
+		return 0;
+	jint result = analyseToBuffer(env, term_array, offset, length, out, out + capacity);
+	unlockLibrary(env);
+	return result;
+}
@@ -14,7 +14,7 @@ const static char *CVSID =
  * @see com.dawidweiss.morfeusz.Morfeusz#about()
  */
 JNIEXPORT jbyteArray JNICALL Java_com_dawidweiss_morfeusz_Morfeusz_aboutJniNative
-  (JNIEnv *env, jobject object)
+  (JNIEnv *env, jclass clazz)
 {
     char *about_text = morfeusz_about();
 
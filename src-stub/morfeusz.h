@@ -0,0 +1,28 @@
+/*
+ * Declarations of the subset of Morfeusz's API used by the Java binding,
+ * for the stub library (see morfeusz_stub.c). Builds against the real
+ * library use morfeusz.h distributed with Morfeusz.
+ */
+#ifndef MORFEUSZ_H
+#define MORFEUSZ_H
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct _InterpMorf {
+	int p, k;
+	char *forma, *haslo, *interp;
+} InterpMorf;
+
+#define MORFOPT_ENCODING 1
+
+char *morfeusz_about();
+InterpMorf *morfeusz_analyse(char *tekst);
+int morfeusz_set_option(int option, int value);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
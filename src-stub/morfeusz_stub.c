@@ -0,0 +1,79 @@
+#include <string.h>
+#include "morfeusz.h"
+
+/*
+ * A stand-in for the Morfeusz library, used to build, test and benchmark
+ * the binding on machines without Morfeusz (see 'stub' target in build.xml).
+ *
+ * Every space-separated word of the input becomes two segments, with
+ * the word as both the token and the lemma: a noun and an adjective with
+ * two alternative tags. Like Morfeusz, the stub returns pointers to static
+ * buffers, valid until the next call.
+ */
+
+/** Maximum number of segments of a single analysis. */
+#define MAX_SEGMENTS 512
+
+static InterpMorf result[MAX_SEGMENTS + 1];
+
+/** Words of the input (copied and NUL-separated). */
+static char words[256 * 1024];
+
+static char *NOUN = "subst:sg:nom:m3";
+static char *ADJECTIVE = "adj:sg:nom:m1.m2.m3:pos|adj:sg:acc:m3:pos";
+
+char *morfeusz_about()
+{
+	return "Morfeusz stub library (for testing only, no real analysis).";
+}
+
+int morfeusz_set_option(int option, int value)
+{
+	return 1;
+}
+
+static void add(int *n, int node, char *word, char *tag)
+{
+	InterpMorf *segment = &result[(*n)++];
+	segment->p = node;
+	segment->k = node + 1;
+	segment->forma = word;
+	segment->haslo = word;
+	segment->interp = tag;
+}
+
+InterpMorf *morfeusz_analyse(char *text)
+{
+	size_t length = strlen(text);
+	if (length >= sizeof(words)) {
+		length = sizeof(words) - 1;
+	}
+	memcpy(words, text, length);
+	words[length] = 0;
+
+	int n = 0;
+	int node = 0;
+	char *s = words;
+	while (*s && n + 2 <= MAX_SEGMENTS) {
+		while (*s == ' ') {
+			*s++ = 0;
+		}
+		if (!*s) {
+			break;
+		}
+
+		char *word = s;
+		while (*s && *s != ' ') {
+			s++;
+		}
+		if (*s) {
+			*s++ = 0;
+		}
+
+		add(&n, node, word, NOUN);
+		add(&n, node, word, ADJECTIVE);
+		node++;
+	}
+	result[n].p = -1;
+	return result;
+}
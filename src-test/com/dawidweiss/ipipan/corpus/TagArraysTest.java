@@ -0,0 +1,93 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests bulk operations on arrays of tag codes.
+ *
+ * @author Dawid Weiss
+ */
+public class TagArraysTest extends TestCase {
+
+    public TagArraysTest(String s) {
+        super(s);
+    }
+
+    private static long [] uniqueCodes() throws IOException {
+        ArrayList<String> tags = TagParserTest.readTags();
+        long [] codes = new long [tags.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Tag.parseCode(tags.get(i));
+        }
+        return codes;
+    }
+
+    public void testContainedMaskEqualsScalar() throws IOException {
+        long [] codes = uniqueCodes();
+        BitSet out = new BitSet();
+        for (int w = 0; w < codes.length; w++) {
+            out.set(0, codes.length + 1);
+            int count = Tag.containedMask(codes[w], codes, 1, codes.length, out);
+            int expected = 0;
+            for (int i = 1; i < codes.length; i++) {
+                boolean contained = Tag.contained(codes[w], codes[i]);
+                assertEquals(contained, out.get(i));
+                if (contained) expected++;
+            }
+            assertEquals(expected, count);
+            assertTrue(out.get(0));
+            assertTrue(out.get(codes.length));
+        }
+    }
+
+    public void testAgreement() {
+        long categories = Tag.MASK_CASE | Tag.MASK_NUMBER | Tag.MASK_GENDER;
+        long adj = Tag.parseCode("adj:sg:nom.acc:m3:pos");
+        assertTrue(Tag.agree(adj, Tag.parseCode("subst:sg:acc:m3"), categories));
+        assertFalse(Tag.agree(adj, Tag.parseCode("subst:sg:acc:m1"), categories));
+        assertFalse(Tag.agree(adj, Tag.parseCode("subst:pl:acc:m3"), categories));
+        assertFalse(Tag.agree(adj, Tag.parseCode("subst:sg:gen:m3"), categories));
+        assertTrue(Tag.agree(adj, Tag.parseCode("subst:sg:gen:m3"), Tag.MASK_NUMBER));
+        assertFalse(Tag.agree(adj, Tag.parseCode("adv:pos"), Tag.MASK_CASE));
+        assertTrue(Tag.agree(Tag.parseCode("adj:sg:nom:n:pos"), 
+            Tag.parseCode("subst:sg:nom:n2"), categories));
+        assertFalse(Tag.agree(Tag.parseCode("adj:sg:nom:n:pos"), 
+            Tag.parseCode("subst:sg:nom:m1"), categories));
+    }
+
+    public void testAgreementMaskEqualsScalar() throws IOException {
+        long [] codes = uniqueCodes();
+        long [] categories = {
+            Tag.MASK_CASE | Tag.MASK_NUMBER | Tag.MASK_GENDER,
+            Tag.MASK_GENDER, Tag.MASK_PERSON | Tag.MASK_ASPECT,
+            Tag.MASK_VOCALITY | Tag.MASK_NEGATION | Tag.MASK_DEGREE, 0
+        };
+        BitSet out = new BitSet();
+        for (int c = 0; c < categories.length; c++) {
+            for (int shift = 1; shift < 50; shift += 7) {
+                int length = codes.length - shift;
+                int count = Tag.agreementMask(codes, 0, codes, shift, length, categories[c], out);
+                int expected = 0;
+                for (int i = 0; i < length; i++) {
+                    boolean agree = Tag.agree(codes[i], codes[i + shift], categories[c]);
+                    assertEquals(agree, out.get(i));
+                    if (agree) expected++;
+                }
+                assertEquals(expected, count);
+            }
+        }
+    }
+
+    public void testRangeChecks() {
+        try {
+            Tag.containedMask(Tag.ADV, new long [2], 1, 3, new BitSet());
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+}
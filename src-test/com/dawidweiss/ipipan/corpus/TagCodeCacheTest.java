@@ -0,0 +1,96 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of tag codes.
+ *
+ * @author Dawid Weiss
+ */
+public class TagCodeCacheTest extends TestCase {
+
+    public TagCodeCacheTest(String s) {
+        super(s);
+    }
+
+    public void testAlternatives() {
+        TagCodeCache cache = new TagCodeCache();
+        String tag = "adj:sg:nom:m1.m2.m3:pos|adj:sg:acc:m3:pos";
+        long [] codes = cache.getCodes(tag);
+        assertEquals(2, codes.length);
+        assertEquals(Tag.create(tag)[0].getCode(), codes[0]);
+        assertEquals(Tag.create(tag)[1].getCode(), codes[1]);
+        assertSame(codes, cache.getCodes(new String(tag)));
+        assertEquals(0, cache.getCodes("").length);
+
+        byte [] bytes = ("xx" + tag + "xx").getBytes();
+        assertSame(codes, cache.getCodes(bytes, 2, bytes.length - 4));
+        assertEquals(2, cache.size());
+    }
+
+    public void testInvalidTag() {
+        TagCodeCache cache = new TagCodeCache();
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getCodes("foo:bar".getBytes(), 0, 7);
+                fail();
+            } catch (TagParserException e) {
+                // Expected.
+            }
+        }
+    }
+
+    public void testAllUniqueTags() throws IOException {
+        ArrayList<String> tags = readUniqueTags();
+        TagCodeCache cache = new TagCodeCache();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < tags.size(); i++) {
+                String tag = tags.get(i);
+                byte [] bytes = tag.getBytes("US-ASCII");
+                long [] codes = cache.getCodes(bytes, 0, bytes.length);
+                assertEquals(1, codes.length);
+                assertEquals(Tag.create(tag)[0].getCode(), codes[0]);
+                assertSame(codes, cache.getCodes(tag));
+            }
+        }
+        assertEquals(tags.size(), cache.size());
+    }
+
+    /**
+     * Tags beyond the limit are parsed, but not remembered.
+     */
+    public void testBounded() throws IOException {
+        ArrayList<String> tags = readUniqueTags();
+        TagCodeCache cache = new TagCodeCache(10);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < tags.size(); i++) {
+                String tag = tags.get(i);
+                byte [] bytes = tag.getBytes("US-ASCII");
+                assertEquals(Tag.create(tag)[0].getCode(), cache.getCodes(bytes, 0, bytes.length)[0]);
+                assertEquals(Tag.create(tag)[0].getCode(), cache.getCodes(tag)[0]);
+            }
+        }
+        assertEquals(10, cache.size());
+        assertSame(cache.getCodes(tags.get(0)), cache.getCodes(tags.get(0)));
+    }
+
+    private static ArrayList<String> readUniqueTags() throws IOException {
+        ArrayList<String> tags = new ArrayList<String>();
+        LineNumberReader reader = new LineNumberReader(new InputStreamReader(
+            TagCodeCacheTest.class.getResourceAsStream("tokens.unique.ipi-wstepny.txt")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tags.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return tags;
+    }
+}
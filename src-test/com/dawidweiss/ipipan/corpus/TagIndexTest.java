@@ -0,0 +1,259 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares {@link TagIndex} searches with scans of all codes.
+ *
+ * @author Dawid Weiss
+ */
+public class TagIndexTest extends TestCase {
+    private final static String [] QUERIES = {
+        "subst", "subst:pl:gen", "subst:pl:gen|adj:*:gen", "*:gen.acc:f",
+        "!subst:!gen.acc", "subst.depr:pl", "fin.praet:sg:m1.f", "ppron3:ter:gen",
+        "*:*", "adj:!pos", "adja|qub|conj",
+    };
+
+    private long [] codes;
+    private int [] tokenIds;
+    private TagIndex index;
+
+    public TagIndexTest(String s) {
+        super(s);
+    }
+
+    protected void setUp() throws IOException {
+        final ArrayList<String> tags = TagParserTest.readTags();
+        final long [] buffer = new long [16];
+        final ArrayList<long []> rows = new ArrayList<long []>();
+
+        final TagIndexBuilder builder = new TagIndexBuilder();
+        for (int token = 0; token < tags.size(); token++) {
+            final int count = Tag.parseCodes(tags.get(token), buffer);
+            builder.add(token * 2, buffer, 0, count);
+            for (int i = 0; i < count; i++) {
+                rows.add(new long [] {token * 2, buffer[i]});
+            }
+        }
+
+        codes = new long [rows.size()];
+        tokenIds = new int [rows.size()];
+        for (int i = 0; i < codes.length; i++) {
+            final long [] row = rows.get(i);
+            tokenIds[i] = (int) row[0];
+            codes[i] = row[1];
+        }
+        assertEquals(codes.length, builder.getRowsCount());
+        index = builder.build();
+    }
+
+    public void testSearch() {
+        for (int q = 0; q < QUERIES.length; q++) {
+            final TagQuery query = TagQuery.compile(QUERIES[q]);
+            assertEquals(QUERIES[q], expected(query), index.search(query));
+        }
+        assertEquals(index.all(), index.search(TagQuery.compile("*")));
+    }
+
+    public void testWithAll() {
+        final long values = Tag.CASE_GEN | Tag.GENDER_F;
+        final RunBitmap.Writer expected = new RunBitmap.Writer();
+        for (int i = 0; i < codes.length; i++) {
+            if ((codes[i] & values) == values) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected.toBitmap(), index.withAll(values));
+        assertEquals(index.bit(Tag.CASE_GEN).and(index.bit(Tag.GENDER_F)), index.withAll(values));
+
+        try {
+            index.bit(Tag.CASE_GEN | Tag.CASE_ACC);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    public void testTokens() {
+        final RunBitmap rows = index.search(TagQuery.compile("adj:sg:nom|adj:sg:acc"));
+        final int [] tokens = index.tokens(rows);
+        assertTrue(tokens.length > 0);
+        for (int i = 0; i < tokens.length; i++) {
+            assertEquals(0, tokens[i] % 2);
+            if (i > 0) assertTrue(tokens[i - 1] < tokens[i]);
+        }
+        final int [] rowIds = rows.toArray();
+        for (int i = 0; i < rowIds.length; i++) {
+            assertEquals(tokenIds[rowIds[i]], index.getTokenId(rowIds[i]));
+        }
+
+        // Both alternatives of a token match, the token is returned once.
+        final TagIndexBuilder builder = new TagIndexBuilder();
+        builder.add(7, Tag.codesOf("adj:sg:nom:m1.m2.m3:pos|adj:sg:acc:m3:pos"));
+        builder.add(9, Tag.codesOf("subst:sg:nom:m3"));
+        final TagIndex small = builder.build();
+        final RunBitmap adj = small.search(TagQuery.compile("adj:sg:nom|adj:sg:acc"));
+        assertEquals(2, adj.cardinality());
+        assertEquals(1, small.tokens(adj).length);
+        assertEquals(7, small.tokens(adj)[0]);
+        assertEquals(0, small.search(TagQuery.compile("adj:nom:m3:!pos")).cardinality());
+        assertEquals(0, small.search(TagQuery.compile("adj:acc:m1")).cardinality());
+    }
+
+    public void testFile() throws IOException {
+        final TagIndexBuilder builder = new TagIndexBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            builder.add(tokenIds[i], codes[i]);
+        }
+
+        final File file = File.createTempFile("tagindex", ".bin");
+        try {
+            builder.write(file);
+            final TagIndex mapped = TagIndex.open(file);
+            assertEquals(codes.length, mapped.getRowsCount());
+            for (int q = 0; q < QUERIES.length; q++) {
+                final TagQuery query = TagQuery.compile(QUERIES[q]);
+                assertEquals(QUERIES[q], index.search(query), mapped.search(query));
+            }
+            assertEquals(tokenIds[codes.length - 1], mapped.getTokenId(codes.length - 1));
+        } finally {
+            file.delete();
+        }
+
+        final File invalid = File.createTempFile("tagindex", ".bin");
+        try {
+            TagIndex.open(invalid);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            invalid.delete();
+        }
+    }
+
+    public void testRunBitmap() {
+        final Random rnd = new Random(0x1234);
+        final int [] containers = new int [2];
+        for (int round = 0; round < 200; round++) {
+            final BitSet a = randomSet(rnd);
+            final BitSet b = randomSet(rnd);
+            final RunBitmap x = toBitmap(a);
+            final RunBitmap y = toBitmap(b);
+            containers[x.getContainer()]++;
+            assertEquals(a.cardinality(), x.cardinality());
+            assertEquals(toString(a), x.toString());
+            final int [] values = x.toArray();
+            assertEquals(a.cardinality(), values.length);
+            for (int i = 0; i < values.length; i++) {
+                assertTrue(a.get(values[i]));
+            }
+
+            BitSet expected = (BitSet) a.clone();
+            expected.and(b);
+            assertEquals(toBitmap(expected), x.and(y));
+            expected = (BitSet) a.clone();
+            expected.or(b);
+            assertEquals(toBitmap(expected), x.or(y));
+            expected = (BitSet) a.clone();
+            expected.andNot(b);
+            assertEquals(toBitmap(expected), x.andNot(y));
+
+            for (int i = -1; i < 600; i++) {
+                assertEquals(a.get(Math.max(i, 0)) && i >= 0, x.contains(i));
+            }
+        }
+        assertTrue(containers[RunBitmap.RUNS] > 0);
+        assertTrue(containers[RunBitmap.BITS] > 0);
+    }
+
+    public void testContainers() throws IOException {
+        // Rows sorted by tag: long runs.
+        final RunBitmap subst = index.partOfSpeech(Tag.NOUN_SUBST);
+        assertEquals(RunBitmap.RUNS, subst.getContainer());
+
+        // Rows of a common attribute in corpus order: short runs, a bitset.
+        final ArrayList<Long> shuffled = new ArrayList<Long>();
+        for (int i = 0; i < codes.length; i++) {
+            shuffled.add(Long.valueOf(codes[i]));
+        }
+        Collections.shuffle(shuffled, new Random(0xc0de));
+        final TagIndexBuilder builder = new TagIndexBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            builder.add(i, shuffled.get(i).longValue());
+        }
+        final TagIndex corpus = builder.build();
+        final RunBitmap gen = corpus.bit(Tag.CASE_GEN);
+        assertEquals(RunBitmap.BITS, gen.getContainer());
+        assertTrue(2 * gen.getRunsCount() > (codes.length + 31) / 32);
+        assertEquals(index.bit(Tag.CASE_GEN).cardinality(), gen.cardinality());
+        assertEquals(subst.cardinality(), corpus.partOfSpeech(Tag.NOUN_SUBST).cardinality());
+
+        final File file = File.createTempFile("tagindex", ".bin");
+        try {
+            builder.write(file);
+            final TagIndex mapped = TagIndex.open(file);
+            assertEquals(gen, mapped.bit(Tag.CASE_GEN));
+            assertEquals(RunBitmap.BITS, mapped.bit(Tag.CASE_GEN).getContainer());
+            for (int q = 0; q < QUERIES.length; q++) {
+                final TagQuery query = TagQuery.compile(QUERIES[q]);
+                assertEquals(QUERIES[q], corpus.search(query), mapped.search(query));
+            }
+        } finally {
+            file.delete();
+        }
+
+        // Containers of results are canonical.
+        assertEquals(RunBitmap.RUNS, corpus.all().getContainer());
+        assertEquals(corpus.all(), gen.or(corpus.all().andNot(gen)));
+        assertEquals(RunBitmap.EMPTY, gen.andNot(gen));
+    }
+
+    private static BitSet randomSet(Random rnd) {
+        final BitSet set = new BitSet();
+        boolean in = rnd.nextBoolean();
+        final int gaps = rnd.nextBoolean() ? 4 : 200;
+        for (int i = 0; i < 512; ) {
+            final int run = 1 + rnd.nextInt(rnd.nextBoolean() ? 4 : 40);
+            if (in) set.set(i, i + run);
+            i += in ? run : rnd.nextInt(gaps);
+            in = !in;
+        }
+        return set;
+    }
+
+    private static String toString(BitSet set) {
+        final StringBuilder b = new StringBuilder("[");
+        for (int i = set.nextSetBit(0); i >= 0; ) {
+            final int end = set.nextClearBit(i);
+            if (b.length() > 1) b.append(", ");
+            b.append(i).append('-').append(end - 1);
+            i = set.nextSetBit(end);
+        }
+        return b.append(']').toString();
+    }
+
+    private static RunBitmap toBitmap(BitSet set) {
+        final RunBitmap.Writer writer = new RunBitmap.Writer();
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            writer.add(i);
+        }
+        return writer.toBitmap();
+    }
+
+    private RunBitmap expected(TagQuery query) {
+        final RunBitmap.Writer writer = new RunBitmap.Writer();
+        for (int i = 0; i < codes.length; i++) {
+            if (query.matches(codes[i])) {
+                writer.add(i);
+            }
+        }
+        return writer.toBitmap();
+    }
+}
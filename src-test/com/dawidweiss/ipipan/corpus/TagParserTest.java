@@ -0,0 +1,109 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the single-pass tag parser with {@link Tag#create(String)}.
+ *
+ * @author Dawid Weiss
+ */
+public class TagParserTest extends TestCase {
+
+    public TagParserTest(String s) {
+        super(s);
+    }
+
+    public void testAllUniqueTags() throws IOException {
+        ArrayList<String> tags = readTags();
+        assertTrue(tags.size() > 1000);
+        for (int i = 0; i < tags.size(); i++) {
+            String tag = tags.get(i);
+            long expected = Tag.create(tag)[0].getCode();
+            assertEquals(tag, expected, Tag.parseCode(tag));
+
+            byte [] bytes = ("::" + tag + "::").getBytes("US-ASCII");
+            assertEquals(tag, expected, Tag.parseCode(bytes, 2, bytes.length - 4));
+        }
+    }
+
+    public void testSpecialCases() {
+        String [] tags = {
+            "qub", "qub:wok", "prep:gen", "prep:gen:nwok",
+            "subst:_:nom:n", "adj:sg:nom:_:pos", "siebie:acc:extra",
+            "num:pl:nom:m2:rec", "num:pl:nom:m2:rec:extra", "num:pl:acc:m1",
+            "ppron3:sg:gen:m1:ter", "ppron3:sg:gen:m1:ter:akc",
+            "ppron3:sg:gen:m1:ter:npraep", "ppron3:sg:gen:m1:ter:nakc:praep",
+            "ppron12:sg:nom:m1:pri:akc", "praet:sg:m1:perf:nagl",
+        };
+        for (int i = 0; i < tags.length; i++) {
+            assertEquals(tags[i], Tag.create(tags[i])[0].getCode(), Tag.parseCode(tags[i]));
+        }
+    }
+
+    public void testAlternatives() {
+        String tag = "adj:sg:nom:m1.m2.m3:pos|adj:sg:acc:m3:pos|subst:pl:gen:f";
+        Tag [] expected = Tag.create(tag);
+
+        long [] codes = new long [2];
+        assertEquals(3, Tag.parseCodes(tag, codes));
+        assertEquals(expected[0].getCode(), codes[0]);
+        assertEquals(expected[1].getCode(), codes[1]);
+
+        codes = new long [3];
+        assertEquals(3, Tag.parseCodes(tag.getBytes(), 0, tag.length(), codes));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getCode(), codes[i]);
+        }
+
+        assertEquals(0, Tag.parseCodes("", codes));
+        assertEquals(1, Tag.parseCodes("adja|", codes));
+    }
+
+    public void testInvalidTags() {
+        String [] unknownPos = {"", "foo", "Subst:sg:nom:m1", "ąę", "|adja"};
+        for (int i = 0; i < unknownPos.length; i++) {
+            try {
+                Tag.parseCodes(unknownPos[i] + "|", new long [1]);
+                if (unknownPos[i].length() > 0) fail(unknownPos[i]);
+            } catch (TagParserException e) {
+                // Expected.
+            }
+        }
+
+        String [] invalid = {
+            "adja:sg", "subst:sg:nom", "subst:sg:nom:m1:pos", "subst:sg:abc:m1",
+            "subst:sg:nom.:m1", "adv", "adj:sg:nom:m1:", "aglt:sg:pri:imperf",
+            "ppron3:sg:gen:m1:ter:praep:akc",
+        };
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                Tag.parseCode(invalid[i]);
+                fail(invalid[i]);
+            } catch (TagParserException e) {
+                fail(invalid[i]);
+            } catch (RuntimeException e) {
+                // Expected.
+            }
+        }
+    }
+
+    static ArrayList<String> readTags() throws IOException {
+        ArrayList<String> tags = new ArrayList<String>();
+        LineNumberReader reader = new LineNumberReader(new InputStreamReader(
+            TagParserTest.class.getResourceAsStream("tokens.unique.ipi-wstepny.txt")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tags.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return tags;
+    }
+}
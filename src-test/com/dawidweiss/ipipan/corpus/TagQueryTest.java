@@ -0,0 +1,128 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests compiled tag queries.
+ *
+ * @author Dawid Weiss
+ */
+public class TagQueryTest extends TestCase {
+
+    public TagQueryTest(String s) {
+        super(s);
+    }
+
+    private static void assertMatches(String query, String tag, boolean expected) {
+        assertEquals(query + " ~ " + tag, expected,
+            TagQuery.compile(query).matches(Tag.parseCode(tag)));
+    }
+
+    public void testBasicQueries() {
+        assertMatches("subst:pl:gen|adj:*:gen", "subst:pl:gen:m1", true);
+        assertMatches("subst:pl:gen|adj:*:gen", "subst:pl:gen.acc:f", true);
+        assertMatches("subst:pl:gen|adj:*:gen", "subst:sg:gen:f", false);
+        assertMatches("subst:pl:gen|adj:*:gen", "adj:sg:gen:m1:pos", true);
+        assertMatches("subst:pl:gen|adj:*:gen", "adj:sg:nom:m1:pos", false);
+        assertMatches("subst:pl:gen|adj:*:gen", "depr:pl:gen:m2", false);
+
+        // Order of fields does not matter.
+        assertMatches("subst:gen:pl", "subst:pl:gen:m1", true);
+        assertMatches("*:gen", "prep:gen:nwok", true);
+        assertMatches("_:gen", "prep:acc", false);
+        assertMatches("*", "interp", true);
+        assertMatches("subst.depr:gen", "depr:sg:gen:m2", true);
+    }
+
+    public void testAlternativeValues() {
+        assertMatches("subst:gen.acc", "subst:sg:acc:m1", true);
+        assertMatches("subst:gen.acc", "subst:sg:nom:m1", false);
+        assertMatches("subst:gen.acc:m1.f", "subst:sg:acc:f", true);
+        assertMatches("subst:gen.acc:m1.f", "subst:sg:acc:m3", false);
+        assertEquals(4, TagQuery.compile("subst:gen.acc:m1.f").size());
+
+        // Two fields of one category: both values required.
+        assertMatches("subst:gen:acc", "subst:sg:gen.acc:f", true);
+        assertMatches("subst:gen:acc", "subst:sg:gen:f", false);
+
+        // Neuter "n" matches specific neuter genders.
+        assertMatches("adj:n", "adj:sg:nom:n:pos", true);
+        assertMatches("adj:n", "subst:sg:nom:n2", false);
+        assertMatches("subst:n", "subst:sg:nom:n2", true);
+        assertMatches("subst:m1", "subst:sg:nom:m2", false);
+    }
+
+    public void testNegation() {
+        assertMatches("!subst", "adj:sg:gen:m1:pos", true);
+        assertMatches("!subst", "subst:sg:gen:m1", false);
+        assertMatches("!subst.depr:gen", "depr:sg:gen:m2", false);
+        assertMatches("!subst:gen", "adj:sg:gen:m1:pos", true);
+        assertMatches("subst:!gen", "subst:sg:nom:m1", true);
+        assertMatches("subst:!gen", "subst:sg:nom.gen:m1", false);
+        assertMatches("subst:!gen.acc", "subst:sg:acc:m1", false);
+        assertMatches("subst:!gen.acc", "subst:sg:dat:m1", true);
+        assertMatches("subst:!m1", "subst:sg:dat:m2", true);
+        assertMatches("subst:!m1", "subst:sg:dat:m1.m2", false);
+        assertMatches("subst:!sg", "adj:sg:nom:m1:pos", false);
+
+        // Contradictions never match.
+        assertEquals(0, TagQuery.compile("subst:gen:!gen").size());
+        assertEquals(1, TagQuery.compile("subst:gen.acc:!gen").size());
+    }
+
+    public void testEquivalentToContained() throws IOException {
+        String [][] pairs = {
+            {"subst:gen", "subst:_:gen:_"},
+            {"adj:*:gen|subst:pl:gen", "adj:_:gen:_:_|subst:pl:gen:_"},
+            {"ppron3:ter:gen", "ppron3:_:gen:_:ter"},
+            {"fin:sg:imperf", "fin:sg:_:imperf"},
+        };
+        ArrayList<String> tags = TagParserTest.readTags();
+        for (int p = 0; p < pairs.length; p++) {
+            TagQuery query = TagQuery.compile(pairs[p][0]);
+            TagPredicate within = Tag.within(pairs[p][1]);
+            int matches = 0;
+            for (int i = 0; i < tags.size(); i++) {
+                long code = Tag.parseCode(tags.get(i));
+                assertEquals(pairs[p][0] + " ~ " + tags.get(i), within.matches(code), query.matches(code));
+                if (query.matches(code)) matches++;
+            }
+            assertTrue(matches > 0);
+        }
+    }
+
+    public void testTagsMatchThemselves() throws IOException {
+        ArrayList<String> tags = TagParserTest.readTags();
+        for (int i = 0; i < tags.size(); i++) {
+            String tag = tags.get(i);
+            assertTrue(tag, TagQuery.compile(tag).matches(Tag.parseCode(tag)));
+        }
+    }
+
+    public void testInvalidQueries() {
+        String [] unknownPos = {"", "foo:gen", "subst|", "!"};
+        for (int i = 0; i < unknownPos.length; i++) {
+            try {
+                TagQuery.compile(unknownPos[i]);
+                fail(unknownPos[i]);
+            } catch (TagParserException e) {
+                // Expected.
+            }
+        }
+
+        String [] invalid = {"subst:foo", "subst:gen.", "subst:gen.sg", "subst:", "subst:!"};
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                TagQuery.compile(invalid[i]);
+                fail(invalid[i]);
+            } catch (TagParserException e) {
+                fail(invalid[i]);
+            } catch (RuntimeException e) {
+                // Expected.
+            }
+        }
+    }
+}
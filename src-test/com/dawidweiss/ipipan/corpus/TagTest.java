@@ -55,4 +55,75 @@ public class TagTest extends TestCase {
                 Tag.contained(Tag.create("subst:sg:inst:f")[0].getCode(),
                 Tag.create("adj:sg:inst:f:pos")[0].getCode()));
     }
+
+    public void testCategoryAccessors() {
+        long code = Tag.codesOf("subst:pl:gen.loc:m1.m2")[0];
+        assertEquals(Tag.NOUN_SUBST, Tag.partOfSpeechOf(code));
+        assertEquals(Tag.NUMBER_PL, Tag.numberOf(code));
+        assertEquals(Tag.CASE_GEN | Tag.CASE_LOC, Tag.caseOf(code));
+        assertEquals(Tag.GENDER_M1 | Tag.GENDER_M2, Tag.genderOf(code));
+        assertEquals(0, Tag.personOf(code));
+        assertEquals(0, Tag.aspectOf(code));
+        assertTrue(Tag.has(code, Tag.CASE_GEN | Tag.GENDER_M2));
+        assertFalse(Tag.has(code, Tag.CASE_GEN | Tag.GENDER_M3));
+
+        code = Tag.codesOf("ppron3:sg:gen:m1:ter:nakc:praep")[0];
+        assertEquals(Tag.PERSON_TER, Tag.personOf(code));
+        assertEquals(Tag.ACC_NACC, Tag.accentabilityOf(code));
+        assertEquals(Tag.PPRAEP_PRAEP, Tag.postPrepositionalityOf(code));
+
+        code = Tag.codesOf("ger:sg:nom:n:imperf:neg")[0];
+        assertEquals(Tag.ASPECT_IMPERF, Tag.aspectOf(code));
+        assertEquals(Tag.NEG_NEG, Tag.negationOf(code));
+        assertEquals(Tag.VOCALITY_NWOK, Tag.vocalityOf(Tag.codesOf("prep:gen:nwok")[0]));
+        assertEquals(Tag.ACCOM_REC, Tag.accommodabilityOf(Tag.codesOf("num:pl:nom:m1:rec")[0]));
+        assertEquals(Tag.AGLUT_AGL, Tag.agglutinationOf(Tag.codesOf("praet:sg:m1:perf:agl")[0]));
+        assertEquals(Tag.DEGREE_SUP, Tag.degreeOf(Tag.codesOf("adv:sup")[0]));
+
+        assertSame(Tag.codesOf("adv:sup"), Tag.codesOf("adv:sup"));
+        byte [] bytes = "adv:sup".getBytes();
+        assertSame(Tag.codesOf("adv:sup"), Tag.codesOf(bytes, 0, bytes.length));
+    }
+
+    public void testPredicates() {
+        TagPredicate genitiveNoun = Tag.within("subst:_:gen:_|depr:_:gen:_");
+        assertTrue(genitiveNoun.matches(Tag.parseCode("subst:sg:gen:m1")));
+        assertTrue(genitiveNoun.matches(Tag.parseCode("depr:pl:gen.acc:m2")));
+        assertFalse(genitiveNoun.matches(Tag.parseCode("subst:sg:nom:m1")));
+        assertFalse(genitiveNoun.matches(Tag.parseCode("adj:sg:gen:m1:pos")));
+
+        TagPredicate plural = Tag.within("subst:pl:_:_");
+        assertTrue(genitiveNoun.and(plural).matches(Tag.parseCode("subst:pl:gen:f")));
+        assertFalse(genitiveNoun.and(plural).matches(Tag.parseCode("subst:sg:gen:f")));
+        assertTrue(genitiveNoun.or(plural).matches(Tag.parseCode("subst:pl:nom:f")));
+        assertTrue(genitiveNoun.negate().matches(Tag.parseCode("subst:sg:nom:f")));
+
+        long [] codes = Tag.codesOf("adj:sg:nom:m1.m2.m3:pos|subst:sg:gen:m3");
+        assertTrue(genitiveNoun.matchesAny(codes));
+        assertFalse(genitiveNoun.matchesAny(codes, 0, 1));
+        assertTrue(Tag.within(codes[0]).matches(Tag.parseCode("adj:sg:nom:m2:pos")));
+    }
+
+    public void testToString() throws java.io.IOException {
+        String tag = "adj:sg:nom:m1.m2.m3:pos";
+        long code = Tag.parseCode(tag);
+        assertEquals(tag, Tag.toString(code));
+        assertSame(Tag.toString(code), Tag.toString(code));
+        assertEquals(tag, Tag.render(code));
+
+        StringBuilder builder = new StringBuilder("x|");
+        assertSame(builder, Tag.appendTo(builder, code));
+        assertEquals("x|" + tag, builder.toString());
+
+        StringBuffer buffer = new StringBuffer();
+        Tag.appendTo((Appendable) buffer, code);
+        assertEquals(tag, buffer.toString());
+
+        try {
+            Tag.toString(0xf0);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+    }
 }
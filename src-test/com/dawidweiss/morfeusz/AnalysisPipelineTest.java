@@ -0,0 +1,107 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the parallel analysis pipeline.
+ */
+public class AnalysisPipelineTest extends TestCase {
+    private final static String [] WORDS = {
+        "Ala", "ma", "kota", "żółtodzioby", "3,14", ".", ",", "kominiarz", "Żółw", "𝐀b"
+    };
+
+    /** Writes tokens and tag images of all segments. */
+    private final static AnalysisPipeline.Formatter FORMATTER = new AnalysisPipeline.Formatter() {
+        public void format(String token, InterpMorf[] analysis, StringBuilder out) {
+            out.append(token);
+            for (int i = 0; i < analysis.length; i++) {
+                out.append(' ').append(analysis[i].getTagImage());
+            }
+            out.append('\n');
+        }
+    };
+
+    /**
+     * Required by JUnit.
+     */
+    public AnalysisPipelineTest(String s) {
+        super(s);
+    }
+
+    public void testOrder() throws IOException {
+        ConcurrentAnalyzer analyzer = Morfeusz.getInstance().getConcurrentAnalyzer();
+        String text = randomText(new Random(0x5eed), 20000);
+        String expected = serial(text, analyzer);
+
+        int [] chunkSizes = {13, 17, 100, AnalysisPipeline.DEFAULT_CHUNK_SIZE};
+        for (int i = 0; i < chunkSizes.length; i++) {
+            for (int threads = 1; threads <= 4; threads++) {
+                StringWriter output = new StringWriter();
+                AnalysisPipeline pipeline = new AnalysisPipeline(analyzer, null, threads, chunkSizes[i]);
+                long tokens = pipeline.run(new StringReader(text), output, FORMATTER);
+                assertEquals(expected, output.toString());
+                assertEquals(20000, tokens);
+            }
+        }
+    }
+
+    public void testFarm() throws IOException {
+        ProcessAnalyzerFarm farm = new ProcessAnalyzerFarm(
+            ProcessAnalyzerFarm.javaCommand(StubAnalyzerWorker.class.getName()), 2);
+        try {
+            String text = randomText(new Random(0xfa53), 5000);
+            StringWriter output = new StringWriter();
+            AnalysisPipeline pipeline = new AnalysisPipeline(null, farm, 3, 256);
+            assertEquals(5000, pipeline.run(new StringReader(text), output, FORMATTER));
+
+            String [] lines = output.toString().split("\n");
+            assertEquals(5000, lines.length);
+            Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+            for (int i = 0; i < lines.length; i++) {
+                assertTrue(tokenizer.next());
+                assertEquals(tokenizer.getImage() + " ign", lines[i]);
+            }
+        } finally {
+            farm.close();
+        }
+    }
+
+    public void testErrors() throws IOException {
+        AnalysisPipeline pipeline = new AnalysisPipeline(
+            Morfeusz.getInstance().getConcurrentAnalyzer(), 2);
+        try {
+            pipeline.run(new StringReader("a b c"), new StringWriter(), new AnalysisPipeline.Formatter() {
+                public void format(String token, InterpMorf[] analysis, StringBuilder out) {
+                    throw new IllegalStateException(token);
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    private static String randomText(Random rnd, int words) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            b.append(WORDS[rnd.nextInt(WORDS.length)]);
+            b.append(rnd.nextInt(5) == 0 ? "\n" : " ");
+        }
+        return b.toString();
+    }
+
+    private static String serial(String text, ConcurrentAnalyzer analyzer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+        while (tokenizer.next()) {
+            FORMATTER.format(tokenizer.getImage(), analyzer.analyze(tokenizer.getImage()), out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests compact analysis results.
+ */
+public class AnalysisResultTest extends TestCase {
+    /**
+     * Required by JUnit.
+     */
+    public AnalysisResultTest(String s) {
+        super(s);
+    }
+
+    public void testSegments()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+        InterpMorf[] analysis = analyzer.analyze("ja zostałem");
+        AnalysisResult result = AnalysisResult.create(analysis, analyzer.getTokensNumber());
+
+        assertEquals(analyzer.getTokensNumber(), result.size());
+        StringBuffer expected = new StringBuffer();
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(analysis[i].getNodeStart(), result.getNodeStart(i));
+            assertEquals(analysis[i].getNodeEnd(), result.getNodeEnd(i));
+            assertEquals(analysis[i].getTokenImage(), result.getTokenImage(i));
+            assertEquals(analysis[i].getLemmaImage(), result.getLemmaImage(i));
+            assertEquals(analysis[i].getTagImage(), result.getTagImage(i));
+            assertEquals(result.getTagId(i), AnalysisResult.getTags().getId(result.getTagImage(i)));
+            expected.append(analysis[i].toString()).append('\n');
+        }
+        assertEquals(expected.toString(), result.toString());
+    }
+
+    public void testEquality()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer(true);
+        AnalysisResult first = AnalysisResult.create(
+            analyzer.analyze("kominiarz"), analyzer.getTokensNumber());
+        AnalysisResult second = AnalysisResult.create(
+            analyzer.analyze("kominiarz"), analyzer.getTokensNumber());
+        AnalysisResult other = AnalysisResult.create(
+            analyzer.analyze("komin"), analyzer.getTokensNumber());
+
+        assertNotSame(first, second);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertFalse(first.equals(other));
+
+        assertSame(AnalysisResult.EMPTY, AnalysisResult.create(new InterpMorf[0], 0));
+        assertEquals(0, AnalysisResult.EMPTY.size());
+    }
+
+    public void testForms() throws UnsupportedEncodingException {
+        int [] nodes = {0, 1, 0, 1, 1, 2};
+        String [] images = {
+            "kota", new String("kot"), "subst:sg:gen:m2",
+            new String("kota"), new String("kota"), "subst:sg:nom:f",
+            "ma", new String("ma"), "fin:sg:ter:imperf"};
+        AnalysisResult result = create(nodes, images, 3);
+        assertEquals("kot", result.getLemmaImage(0));
+        assertSame(result.getTokenImage(0), result.getTokenImage(1));
+        assertSame(result.getTokenImage(1), result.getLemmaImage(1));
+        assertSame(result.getTokenImage(2), result.getLemmaImage(2));
+        assertTrue(result.getEstimatedBytes() > 3 * 40);
+
+        // Forms are part of the result's identity.
+        images[4] = "kot";
+        assertFalse(result.equals(create(nodes, images, 3)));
+        images[4] = "kota";
+        assertEquals(result, create(nodes, images, 3));
+    }
+
+    public void testSymbolTable() {
+        SymbolTable table = new SymbolTable();
+        assertEquals(-1, table.getId("a"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("s" + i));
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("s" + i));
+            assertEquals("s" + i, table.get(i));
+        }
+        try {
+            table.get(1000);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+
+        SymbolTable bounded = new SymbolTable(2);
+        assertEquals(0, bounded.intern("a"));
+        assertEquals(1, bounded.intern("b"));
+        assertEquals(-1, bounded.intern("c"));
+        assertEquals(-1, bounded.getId("c"));
+        assertEquals(1, bounded.intern("b"));
+        assertEquals(2, bounded.size());
+    }
+
+    /**
+     * Once the shared table of tags is full, results keep their own tags.
+     */
+    public void testTagsOverflow() throws UnsupportedEncodingException {
+        int [] nodes = {0, 1, 0, 1};
+        String [] images = {"kota", "kot", "subst:sg:gen:m2", "kota", "kota", null};
+        for (int i = 0; i <= AnalysisResult.MAX_TAGS; i++) {
+            images[5] = "overflow" + i;
+            if (create(nodes, images, 2).getTagId(1) < 0) {
+                break;
+            }
+        }
+        assertEquals(AnalysisResult.MAX_TAGS, AnalysisResult.getTags().size());
+
+        images[5] = "other";
+        AnalysisResult result = create(nodes, images, 2);
+        assertTrue(result.getTagId(0) >= 0);
+        assertEquals(-1, result.getTagId(1));
+        assertEquals("subst:sg:gen:m2", result.getTagImage(0));
+        assertEquals("other", result.getTagImage(1));
+        assertTrue(result.toString().indexOf(": other") >= 0);
+        assertEquals(result, create(nodes, images.clone(), 2));
+        assertEquals(result.hashCode(), create(nodes, images, 2).hashCode());
+
+        images[5] = "another";
+        AnalysisResult another = create(nodes, images, 2);
+        assertEquals(-1, another.getTagId(1));
+        assertFalse(result.equals(another));
+
+        // Own tags are included in the estimate, interned ones are not.
+        images[5] = images[2];
+        assertTrue(another.getEstimatedBytes() > create(nodes, images, 2).getEstimatedBytes());
+    }
+
+    /**
+     * Creates a result from nodes and images of <code>count</code> segments
+     * (start and end node, token, lemma and tag of each segment).
+     */
+    private static AnalysisResult create(int [] nodes, String [] images, int count)
+        throws UnsupportedEncodingException {
+        InterpMorf [] segments = new InterpMorf [count];
+        for (int i = 0; i < count; i++) {
+            InterpMorf segment = new InterpMorf(Morfeusz.ENCODING_UTF8,
+                images[3 * i].getBytes(Morfeusz.ENCODING_UTF8),
+                images[3 * i + 1].getBytes(Morfeusz.ENCODING_UTF8),
+                images[3 * i + 2].getBytes(Morfeusz.ENCODING_UTF8));
+            segment.p = nodes[2 * i];
+            segment.k = nodes[2 * i + 1];
+            segment.tokenLength = segment.token.length;
+            segment.lemmaLength = segment.lemma.length;
+            segment.tagLength = segment.tag.length;
+            segments[i] = segment;
+        }
+        return AnalysisResult.create(segments, count);
+    }
+}
@@ -0,0 +1,318 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the caching analyzer.
+ */
+public class CachingAnalyzerTest extends TestCase {
+    private final static String [] WORDS = {
+        "ja zostałem",
+        "wziąć",
+        "kominiarz",
+        "komin",
+        "kominiarka",
+        "jak",
+        "żółtodzioby"
+    };
+
+    /**
+     * Required by JUnit.
+     */
+    public CachingAnalyzerTest(String s) {
+        super(s);
+    }
+
+    public void testHitsAndMisses()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        CachingAnalyzer analyzer = new CachingAnalyzer(concurrent, 100, 1024 * 1024);
+
+        AnalysisResult first = analyzer.analyze(WORDS[0]);
+        AnalysisResult second = analyzer.analyze(WORDS[0]);
+        assertEquals(1, analyzer.getMissesCount());
+        assertEquals(1, analyzer.getHitsCount());
+        assertEquals(1, analyzer.getEntriesCount());
+        assertTrue(analyzer.getEstimatedBytes() > 0);
+
+        // Results are shared.
+        assertSame(first, second);
+        assertEquals(toString(concurrent.analyze(WORDS[0])), second.toString());
+
+        analyzer.clear();
+        assertEquals(0, analyzer.getEntriesCount());
+        assertEquals(0, analyzer.getEstimatedBytes());
+    }
+
+    public void testEntriesBound()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        CachingAnalyzer analyzer = new CachingAnalyzer(
+            Morfeusz.getInstance().getConcurrentAnalyzer(), 3, 1024 * 1024);
+
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[1]);
+        analyzer.analyze(WORDS[2]);
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[3]);
+        assertEquals(3, analyzer.getEntriesCount());
+        assertEquals(1, analyzer.getEvictionsCount());
+
+        // WORDS[1] was the least recently used.
+        analyzer.resetStatistics();
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[2]);
+        analyzer.analyze(WORDS[3]);
+        assertEquals(3, analyzer.getHitsCount());
+        analyzer.analyze(WORDS[1]);
+        assertEquals(1, analyzer.getMissesCount());
+    }
+
+    public void testBytesBound()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        CachingAnalyzer analyzer = new CachingAnalyzer(
+            Morfeusz.getInstance().getConcurrentAnalyzer(), 1000, 1024);
+
+        for (int i = 0; i < WORDS.length; i++) {
+            analyzer.analyze(WORDS[i]);
+            assertTrue(analyzer.getEstimatedBytes() <= 1024);
+        }
+        assertTrue(analyzer.getEvictionsCount() > 0);
+        assertTrue(analyzer.getEntriesCount() < WORDS.length);
+    }
+
+    public void testBatch()
+        throws UnsupportedEncodingException, SecurityException,
+            UnsatisfiedLinkError {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        CachingAnalyzer analyzer = new CachingAnalyzer(concurrent, 100, 1024 * 1024);
+
+        analyzer.analyze(WORDS[1]);
+        AnalysisResult[] analyses = analyzer.analyzeBatch(WORDS);
+        assertEquals(WORDS.length, analyses.length);
+        assertEquals(1, analyzer.getHitsCount());
+        assertEquals(WORDS.length, analyzer.getMissesCount());
+        for (int i = 0; i < WORDS.length; i++) {
+            assertEquals(toString(concurrent.analyze(WORDS[i])), analyses[i].toString());
+            assertSame(analyses[i], analyzer.analyze(WORDS[i]));
+        }
+    }
+
+    public void testSnapshot() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        CachingAnalyzer analyzer = new CachingAnalyzer(concurrent, 100, 1024 * 1024);
+        for (int i = 0; i < WORDS.length; i++) {
+            analyzer.analyze(WORDS[i]);
+        }
+        analyzer.analyze(WORDS[0]);
+
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            // The three most recently used entries.
+            assertEquals(3, analyzer.saveSnapshot(file, 3));
+
+            CachingAnalyzer restored = new CachingAnalyzer(concurrent, 100, 1024 * 1024);
+            assertEquals(3, restored.loadSnapshot(file));
+            assertEquals(3, restored.getEntriesCount());
+            assertEquals(0, restored.getMissesCount());
+            String [] saved = {WORDS[0], WORDS[5], WORDS[6]};
+            for (int i = 0; i < saved.length; i++) {
+                assertEquals(analyzer.analyze(saved[i]), restored.analyze(saved[i]));
+            }
+            assertEquals(3, restored.getHitsCount());
+            assertEquals(0, restored.getMissesCount());
+
+            // Bounds apply, the most recently used entries are kept.
+            CachingAnalyzer small = new CachingAnalyzer(concurrent, 1, 1024 * 1024);
+            assertEquals(3, small.loadSnapshot(file));
+            assertEquals(1, small.getEntriesCount());
+            small.analyze(WORDS[0]);
+            assertEquals(1, small.getHitsCount());
+
+            // Snapshots of other backends are rejected.
+            CachingAnalyzer other = Morfeusz.newInstance(FSADictionary.build(
+                new StringReader("kot\tkot\tsubst:sg:nom:m2\n"))).getCachingAnalyzer();
+            try {
+                other.loadSnapshot(file);
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write("kot\tkot\tsubst:sg:nom:m2\n");
+            writer.close();
+            try {
+                restored.loadSnapshot(file);
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSnapshotChecksum() throws IOException {
+        // Dictionaries with the same counts (and information strings).
+        Morfeusz morfeusz = Morfeusz.newInstance(FSADictionary.build(
+            new StringReader("kot\tkota\tsubst:sg:nom:m2\n")));
+        Morfeusz other = Morfeusz.newInstance(FSADictionary.build(
+            new StringReader("kot\tkoty\tsubst:sg:nom:m2\n")));
+        assertEquals(morfeusz.getBackend().about(), other.getBackend().about());
+
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            morfeusz.getCachingAnalyzer().analyze("kot");
+            assertEquals(1, morfeusz.getCachingAnalyzer().saveSnapshot(file, 10));
+            try {
+                other.getCachingAnalyzer().loadSnapshot(file);
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+            Morfeusz same = Morfeusz.newInstance(FSADictionary.build(
+                new StringReader("kot\tkota\tsubst:sg:nom:m2\n")));
+            assertEquals(1, same.getCachingAnalyzer().loadSnapshot(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSnapshotListener() throws IOException {
+        final List<String> errors = new ArrayList<String>();
+        Morfeusz.setSnapshotListener(new Morfeusz.SnapshotListener() {
+            public void loadFailed(File file, IOException e) {
+                errors.add("load " + file.getName());
+            }
+
+            public void saveFailed(File file, IOException e) {
+                errors.add("save " + file.getName());
+            }
+        });
+
+        File file = File.createTempFile("snapshot", ".bin");
+        File directory = new File(file.getPath() + ".dir");
+        try {
+            Morfeusz morfeusz = Morfeusz.newInstance(FSADictionary.build(
+                new StringReader("kot\tkot\tsubst:sg:nom:m2\n")));
+            assertFalse(morfeusz.loadCacheSnapshot(file));
+            assertEquals("[load " + file.getName() + "]", errors.toString());
+
+            // A directory in place of the snapshot cannot be replaced.
+            assertTrue(directory.mkdir());
+            new File(directory, "x").createNewFile();
+            assertFalse(morfeusz.saveCacheSnapshot(directory, 10));
+            assertEquals(2, errors.size());
+            assertEquals("save " + directory.getName(), errors.get(1));
+
+            assertTrue(morfeusz.saveCacheSnapshot(file, 10));
+            assertTrue(morfeusz.loadCacheSnapshot(file));
+            assertFalse(morfeusz.loadCacheSnapshot(new File(file.getPath() + ".none")));
+            assertEquals(2, errors.size());
+        } finally {
+            Morfeusz.setSnapshotListener(null);
+            new File(directory, "x").delete();
+            directory.delete();
+            file.delete();
+        }
+    }
+
+    public void testStripes() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        assertEquals(1, new CachingAnalyzer(concurrent, 100, 1024 * 1024).getStripesCount());
+        assertEquals(CachingAnalyzer.DEFAULT_STRIPES, new CachingAnalyzer(concurrent,
+            CachingAnalyzer.DEFAULT_MAX_ENTRIES, CachingAnalyzer.DEFAULT_MAX_BYTES).getStripesCount());
+
+        CachingAnalyzer analyzer = new CachingAnalyzer(concurrent, 30, 1024 * 1024, 3);
+        assertEquals(4, analyzer.getStripesCount());
+        assertEquals(32, analyzer.getMaxEntries());
+        for (int i = 0; i < 200; i++) {
+            String word = "w" + (i % 50);
+            assertEquals(toString(concurrent.analyze(word)), analyzer.analyze(word).toString());
+            assertTrue(analyzer.getEntriesCount() <= 32);
+        }
+        assertEquals(200, analyzer.getHitsCount() + analyzer.getMissesCount());
+        assertEquals(analyzer.getMissesCount() - analyzer.getEntriesCount(),
+            analyzer.getEvictionsCount());
+
+        // The most recently used entry of every stripe is saved.
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            int count = analyzer.getEntriesCount();
+            assertEquals(count, analyzer.saveSnapshot(file, 1000));
+            assertEquals(4, analyzer.saveSnapshot(file, 4));
+            CachingAnalyzer restored = new CachingAnalyzer(concurrent, 30, 1024 * 1024, 4);
+            assertEquals(4, restored.loadSnapshot(file));
+            restored.analyze("w49");
+            assertEquals(1, restored.getHitsCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Run cached analyses from many threads and compare with
+     * single-threaded results.
+     */
+    public void testConcurrentAnalyses() throws Exception {
+        final CachingAnalyzer analyzer = new CachingAnalyzer(
+            Morfeusz.getInstance().getConcurrentAnalyzer(), 4, 1024 * 1024);
+        final String [] expected = new String [WORDS.length];
+        for (int i = 0; i < WORDS.length; i++) {
+            expected[i] = analyzer.analyze(WORDS[i]).toString();
+        }
+
+        analyzer.resetStatistics();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final int threadsCount = 8;
+        final int rounds = 500;
+        Thread [] threads = new Thread [threadsCount];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            int w = (offset + i) % WORDS.length;
+                            assertEquals(expected[w], analyzer.analyze(WORDS[w]).toString());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(threadsCount * rounds, analyzer.getHitsCount() + analyzer.getMissesCount());
+        assertTrue(analyzer.getEntriesCount() <= 4);
+    }
+
+    private static String toString(InterpMorf [] analysis) {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < analysis.length; i++) {
+            buf.append(analysis[i].toString()).append('\n');
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the thread-safe analyzer.
+ */
+public class ConcurrentAnalyzerTest extends TestCase {
+    private final static String [] WORDS = {
+        "ja zostałem",
+        "wziąć",
+        "kominiarz",
+        "komin",
+        "kominiarka",
+        "jak",
+        "żółtodzioby"
+    };
+
+    /**
+     * Required by JUnit.
+     */
+    public ConcurrentAnalyzerTest(String s) {
+        super(s);
+    }
+
+    /**
+     * Returned segments should be detached copies.
+     */
+    public void testDetachedResults()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        ConcurrentAnalyzer analyzer = Morfeusz.getInstance().getConcurrentAnalyzer();
+        assertSame(analyzer, Morfeusz.getInstance().getConcurrentAnalyzer());
+
+        InterpMorf[] first = analyzer.analyze(WORDS[0]);
+        String expected = toString(first);
+        analyzer.analyze(WORDS[1]);
+        assertEquals(expected, toString(first));
+        assertTrue(first.length > 0);
+        assertEquals(first[0].getTokenLength(), first[0].getToken().length);
+    }
+
+    /**
+     * Run analyses from many threads and compare with
+     * single-threaded results.
+     */
+    public void testConcurrentAnalyses() throws Exception {
+        final ConcurrentAnalyzer analyzer = Morfeusz.getInstance().getConcurrentAnalyzer();
+        final String [] expected = new String [WORDS.length];
+        for (int i = 0; i < WORDS.length; i++) {
+            expected[i] = toString(analyzer.analyze(WORDS[i]));
+        }
+
+        analyzer.resetStatistics();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final int threadsCount = 8;
+        final int rounds = 500;
+        Thread [] threads = new Thread [threadsCount];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            int w = (offset + i) % WORDS.length;
+                            assertEquals(expected[w], 
+                                ConcurrentAnalyzerTest.toString(analyzer.analyze(WORDS[w])));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(threadsCount * rounds, analyzer.getAnalysesCount());
+        assertTrue(analyzer.getPeakQueueLength() >= 1);
+        assertTrue(analyzer.getMaxWaitNanos() >= analyzer.getAverageWaitNanos());
+    }
+
+    private static String toString(InterpMorf [] analysis) {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < analysis.length; i++) {
+            buf.append(analysis[i].toString()).append('\n');
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the pure-Java dictionary backend.
+ */
+public class DictionaryBackendTest extends TestCase {
+    private final static String DICTIONARY =
+        "# form, lemma, tag\n"
+        + "kota\tkot\tsubst:sg:gen:m2\n"
+        + "kota\tkota\tsubst:sg:nom:f\tqualifier\n"
+        + "kot\tkot\tsubst:sg:nom:m2\n"
+        + "kota\tkot\tsubst:sg:gen:m2\n"
+        + "\n"
+        + "ma\tmieć\tfin:sg:ter:imperf\n"
+        + "żółw\tżółw\tsubst:sg:nom:m2\n";
+
+    /**
+     * Required by JUnit.
+     */
+    public DictionaryBackendTest(String s) {
+        super(s);
+    }
+
+    public void testLookup() throws IOException {
+        DictionaryBackend backend = DictionaryBackend.load(new StringReader(DICTIONARY));
+        assertEquals(4, backend.getFormsCount());
+        assertEquals(5, backend.getEntriesCount());
+
+        Morfeusz morfeusz = Morfeusz.newInstance(backend);
+        assertSame(backend, morfeusz.getBackend());
+        Analyzer [] analyzers = {morfeusz.getAnalyzer(), morfeusz.getAnalyzer(true)};
+        for (int i = 0; i < analyzers.length; i++) {
+            Analyzer analyzer = analyzers[i];
+            assertTrue(analyzer.isDirectBuffer());
+
+            InterpMorf [] analysis = analyzer.analyze("kota");
+            assertEquals(2, analyzer.getTokensNumber());
+            assertSegment(analysis[0], "kota", "kot", "subst:sg:gen:m2");
+            assertSegment(analysis[1], "kota", "kota", "subst:sg:nom:f");
+
+            analysis = analyzer.analyze("Żółw");
+            assertEquals(1, analyzer.getTokensNumber());
+            assertSegment(analysis[0], "Żółw", "żółw", "subst:sg:nom:m2");
+
+            String [] unknown = {"ko", "kotaa", "x", "Mieć"};
+            for (int j = 0; j < unknown.length; j++) {
+                analysis = analyzer.analyze(unknown[j]);
+                assertEquals(1, analyzer.getTokensNumber());
+                assertSegment(analysis[0], unknown[j], "", "");
+            }
+
+            analyzer.analyze("");
+            assertEquals(0, analyzer.getTokensNumber());
+        }
+    }
+
+    public void testBatch() throws IOException {
+        Morfeusz morfeusz = Morfeusz.newInstance(
+            DictionaryBackend.load(new StringReader(DICTIONARY)));
+        Analyzer analyzer = morfeusz.getAnalyzer();
+        String [] terms = {"kota", "ma", "", "Kot", "psa", "kota"};
+        AnalysisBatch batch = analyzer.analyzeBatch(terms);
+        assertEquals(terms.length, batch.size());
+
+        Analyzer single = morfeusz.getAnalyzer();
+        for (int i = 0; i < terms.length; i++) {
+            InterpMorf [] analysis = single.analyze(terms[i]);
+            assertEquals(single.getTokensNumber(), batch.getSegmentsCount(i));
+            for (int j = 0; j < single.getTokensNumber(); j++) {
+                assertEquals(analysis[j].getNodeStart(), batch.getNodeStart(i, j));
+                assertEquals(analysis[j].getNodeEnd(), batch.getNodeEnd(i, j));
+                assertEquals(analysis[j].getTokenImage(), batch.getTokenImage(i, j));
+                assertEquals(analysis[j].getLemmaImage(), batch.getLemmaImage(i, j));
+                assertEquals(analysis[j].getTagImage(), batch.getTagImage(i, j));
+            }
+        }
+
+        AnalysisResult cached = morfeusz.getCachingAnalyzer().analyze("ma");
+        assertEquals("mieć", cached.getLemmaImage(0));
+    }
+
+    public void testRandomDictionary() throws IOException {
+        Random rnd = new Random(0xd1c7);
+        String alphabet = "aąbcćeęlłnńoóśzźżAĄŻ";
+        Map<String, String> lemmas = new HashMap<String, String>();
+        StringBuilder dictionary = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String form = randomWord(rnd, alphabet);
+            if (!lemmas.containsKey(form)) {
+                lemmas.put(form, "l" + i);
+                dictionary.append(form).append('\t').append("l" + i).append("\tign\n");
+            }
+        }
+
+        DictionaryBackend backend = DictionaryBackend.load(new StringReader(dictionary.toString()));
+        assertEquals(lemmas.size(), backend.getFormsCount());
+
+        Analyzer analyzer = Morfeusz.newInstance(backend).getAnalyzer();
+        for (Iterator<Map.Entry<String, String>> i = lemmas.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, String> e = i.next();
+            InterpMorf [] analysis = analyzer.analyze(e.getKey());
+            assertEquals(1, analyzer.getTokensNumber());
+            assertSegment(analysis[0], e.getKey(), e.getValue(), "ign");
+        }
+        for (int i = 0; i < 5000; i++) {
+            String word = randomWord(rnd, alphabet.toLowerCase());
+            InterpMorf [] analysis = analyzer.analyze(word);
+            if (!lemmas.containsKey(word)) {
+                assertSegment(analysis[0], word, "", "");
+            }
+        }
+    }
+
+    public void testMalformed() {
+        try {
+            DictionaryBackend.load(new StringReader("kot\tkot\tsubst:sg:nom:m2\nkota\tkot\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("line 2") >= 0);
+        }
+    }
+
+    private static String randomWord(Random rnd, String alphabet) {
+        StringBuilder b = new StringBuilder();
+        int length = 1 + rnd.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            b.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        }
+        return b.toString();
+    }
+
+    private static void assertSegment(InterpMorf segment, String token, String lemma, String tag) {
+        assertEquals(0, segment.getNodeStart());
+        assertEquals(1, segment.getNodeEnd());
+        assertEquals(token, segment.getTokenImage());
+        assertEquals(lemma, segment.getLemmaImage());
+        assertEquals(tag, segment.getTagImage());
+    }
+}
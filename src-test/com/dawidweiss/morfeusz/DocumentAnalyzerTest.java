@@ -0,0 +1,144 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the tokenizer and the streaming document analyzer.
+ */
+public class DocumentAnalyzerTest extends TestCase {
+    /**
+     * Required by JUnit.
+     */
+    public DocumentAnalyzerTest(String s) {
+        super(s);
+    }
+
+    public void testTokens() throws IOException {
+        String text = " Zażółć gęślą jaźń, 3,14 i 1.000.000 zł... Kennedy'ego\t(ń) x-y 12. 𝐀b";
+        String [] expected = {
+            "Zażółć", "gęślą", "jaźń", ",", "3,14", "i", "1.000.000", "zł", ".", ".", ".",
+            "Kennedy'ego", "(", "ń", ")", "x", "-", "y", "12", ".", "𝐀b"
+        };
+        int [] types = {
+            Tokenizer.WORD, Tokenizer.WORD, Tokenizer.WORD, Tokenizer.PUNCTUATION,
+            Tokenizer.NUMBER, Tokenizer.WORD, Tokenizer.NUMBER, Tokenizer.WORD,
+            Tokenizer.PUNCTUATION, Tokenizer.PUNCTUATION, Tokenizer.PUNCTUATION,
+            Tokenizer.WORD, Tokenizer.PUNCTUATION, Tokenizer.WORD, Tokenizer.PUNCTUATION,
+            Tokenizer.WORD, Tokenizer.PUNCTUATION, Tokenizer.WORD, Tokenizer.NUMBER,
+            Tokenizer.PUNCTUATION, Tokenizer.WORD
+        };
+
+        // The smallest buffer checks lookahead across refills.
+        int [] bufferSizes = {8, 9, 13, 1024};
+        for (int b = 0; b < bufferSizes.length; b++) {
+            Tokenizer tokenizer = new Tokenizer(new StringReader(text), bufferSizes[b]);
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(tokenizer.next());
+                assertEquals(expected[i], tokenizer.getImage());
+                assertEquals(expected[i], types[i], tokenizer.getType());
+                assertEquals(expected[i], text.substring(
+                    (int) tokenizer.getStartOffset(), (int) tokenizer.getEndOffset()));
+            }
+            assertFalse(tokenizer.next());
+            assertFalse(tokenizer.next());
+        }
+    }
+
+    public void testLongTokens() throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < Tokenizer.MAX_TOKEN_LENGTH * 3; i++) {
+            b.append(i % 2 == 0 ? 'ż' : '\'');
+        }
+        Tokenizer tokenizer = new Tokenizer(new StringReader(b.toString()));
+        long offset = 0;
+        while (tokenizer.next()) {
+            assertTrue(tokenizer.getLength() <= Tokenizer.MAX_TOKEN_LENGTH);
+            assertEquals(offset, tokenizer.getStartOffset());
+            offset = tokenizer.getEndOffset();
+        }
+        assertEquals(b.length(), offset);
+    }
+
+    /**
+     * A number of supplementary digits (two characters each) split near the
+     * maximum length, just before a separator.
+     */
+    public void testLongSupplementaryNumber() throws IOException {
+        StringBuilder b = new StringBuilder("11");
+        for (int i = 0; i < 127; i++) {
+            b.appendCodePoint(0x1d7ce);
+        }
+        b.append(".1");
+        Tokenizer tokenizer = new Tokenizer(new StringReader(b.toString()));
+        StringBuilder images = new StringBuilder();
+        while (tokenizer.next()) {
+            assertEquals(Tokenizer.NUMBER, tokenizer.getType());
+            assertTrue(tokenizer.getLength() <= Tokenizer.MAX_TOKEN_LENGTH);
+            images.append(tokenizer.getImage());
+        }
+        assertEquals(b.toString(), images.toString());
+    }
+
+    /**
+     * Reads a long, generated document; memory is bounded if this does
+     * not run out of it.
+     */
+    public void testLongDocument() throws IOException {
+        final String sentence = "Ala ma kota, a kot ma 2 myszy. ";
+        final long repetitions = 2000000;
+        Reader reader = new Reader() {
+            private long position;
+
+            public int read(char[] cbuf, int off, int len) {
+                long total = sentence.length() * repetitions;
+                if (position == total) return -1;
+                int count = (int) Math.min(len, total - position);
+                for (int i = 0; i < count; i++) {
+                    cbuf[off + i] = sentence.charAt((int) (position++ % sentence.length()));
+                }
+                return count;
+            }
+
+            public void close() {
+            }
+        };
+
+        Tokenizer tokenizer = new Tokenizer(reader);
+        long tokens = 0;
+        long lastOffset = -1;
+        while (tokenizer.next()) {
+            tokens++;
+            lastOffset = tokenizer.getStartOffset();
+        }
+        assertEquals(10 * repetitions, tokens);
+        assertEquals(sentence.length() * repetitions - 2, lastOffset);
+    }
+
+    public void testAnalysis()
+        throws IOException, SecurityException, UnsatisfiedLinkError {
+        String text = "Ala ma kota, kot ma Alę.";
+        CachingAnalyzer analyzer = Morfeusz.getInstance().getCachingAnalyzer();
+        DocumentAnalyzer document = DocumentAnalyzer.open(
+            Channels.newChannel(new ByteArrayInputStream(text.getBytes("UTF-8"))), "UTF-8");
+
+        List<String> tokens = new ArrayList<String>();
+        while (document.next()) {
+            tokens.add(document.getTokenImage());
+            assertEquals(document.getTokenImage(), text.substring(
+                (int) document.getStartOffset(), (int) document.getEndOffset()));
+            assertSame(analyzer.analyze(document.getTokenImage()), document.getAnalysis());
+        }
+        document.close();
+        assertEquals(8, document.getTokensCount());
+        assertEquals("[Ala, ma, kota, ,, kot, ma, Alę, .]", tokens.toString());
+    }
+}
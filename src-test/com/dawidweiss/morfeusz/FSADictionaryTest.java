@@ -0,0 +1,284 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the automaton-based dictionary backend.
+ */
+public class FSADictionaryTest extends TestCase {
+    private final static String DICTIONARY =
+        "# form, lemma, tag\n"
+        + "kota\tkot\tsubst:sg:gen:m2\n"
+        + "kota\tkota\tsubst:sg:nom:f\tqualifier\n"
+        + "kot\tkot\tsubst:sg:nom:m2\n"
+        + "kota\tkot\tsubst:sg:gen:m2\n"
+        + "\n"
+        + "ma\tmieć\tfin:sg:ter:imperf\n"
+        + "żółw\tżółw\tsubst:sg:nom:m2\n"
+        + "szli\tiść\tpraet:pl:m1:imperf\n"
+        + "Polski\tPolska\tsubst:sg:gen:f\n"
+        + "polski\tpolski\tadj:sg:nom:m3:pos|adj:sg:acc:m3:pos\n"
+        + "x\tyyy\tign\n";
+
+    private final static String ALPHABET = "aąbcćeęlłnńoóśzźżAĄŻ";
+
+    /**
+     * Required by JUnit.
+     */
+    public FSADictionaryTest(String s) {
+        super(s);
+    }
+
+    public void testLookup() throws IOException {
+        FSADictionary fsa = FSADictionary.build(new StringReader(DICTIONARY));
+        assertEquals(9, fsa.getEntriesCount());
+        assertEquals(8, fsa.getTagsCount());
+        assertEquals("subst:sg:gen:m2", fsa.getTag(0));
+        assertEquals(2, fsa.getTagCodes(6).length);
+
+        Analyzer analyzer = Morfeusz.newInstance(fsa).getAnalyzer();
+        assertEquals(set(new String [] {"kot/subst:sg:gen:m2", "kota/subst:sg:nom:f"}),
+            analyze(analyzer, "kota"));
+        assertEquals(set(new String [] {"mieć/fin:sg:ter:imperf"}), analyze(analyzer, "ma"));
+        assertEquals(set(new String [] {"iść/praet:pl:m1:imperf"}), analyze(analyzer, "szli"));
+        assertEquals(set(new String [] {"yyy/ign"}), analyze(analyzer, "x"));
+        assertEquals(set(new String [] {"Polska/subst:sg:gen:f"}), analyze(analyzer, "Polski"));
+        assertEquals(set(new String [] {"polski/adj:sg:nom:m3:pos|adj:sg:acc:m3:pos"}),
+            analyze(analyzer, "polski"));
+        assertEquals(set(new String [] {"żółw/subst:sg:nom:m2"}), analyze(analyzer, "ŻÓŁW"));
+
+        String [] unknown = {"ko", "kotaa", "y", "Mieć", "szl"};
+        for (int j = 0; j < unknown.length; j++) {
+            InterpMorf [] analysis = analyzer.analyze(unknown[j]);
+            assertEquals(1, analyzer.getTokensNumber());
+            assertEquals(unknown[j], analysis[0].getTokenImage());
+            assertEquals("", analysis[0].getLemmaImage());
+            assertEquals("", analysis[0].getTagImage());
+        }
+    }
+
+    public void testLongSuffixes() throws IOException {
+        StringBuilder form = new StringBuilder("a");
+        for (int i = 0; i < 300; i++) {
+            form.append('b');
+        }
+        String dictionary = form + "\ta\tign\n"
+            + form + "c\tac\tign\n"
+            + form + "\t" + form + "x\tign\n";
+        Analyzer analyzer = Morfeusz.newInstance(
+            FSADictionary.build(new StringReader(dictionary))).getAnalyzer();
+        assertEquals(set(new String [] {"a/ign", form + "x/ign"}), analyze(analyzer, form.toString()));
+        assertEquals(set(new String [] {"ac/ign"}), analyze(analyzer, form + "c"));
+    }
+
+    public void testSameAsDictionaryBackend() throws IOException {
+        Random rnd = new Random(0xf5a);
+        List<String> forms = new ArrayList<String>();
+        String dictionary = randomDictionary(rnd, forms);
+
+        FSADictionary fsa = FSADictionary.build(new StringReader(dictionary));
+        DictionaryBackend trie = DictionaryBackend.load(new StringReader(dictionary));
+        assertTrue(fsa.getAutomatonSize() > 0);
+        assertSameAnalyses(rnd, forms, trie, fsa);
+    }
+
+    public void testFile() throws IOException {
+        Random rnd = new Random(0xf11e);
+        List<String> forms = new ArrayList<String>();
+        String dictionary = randomDictionary(rnd, forms);
+        FSADictionary fsa = FSADictionary.build(new StringReader(dictionary));
+
+        File source = File.createTempFile("fsa", ".tsv");
+        File compiled = File.createTempFile("fsa", ".bin");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(source), "UTF-8");
+            writer.write(dictionary);
+            writer.close();
+            fsa.write(compiled);
+
+            FSADictionary mapped = FSADictionary.open(compiled);
+            assertEquals(fsa.getEntriesCount(), mapped.getEntriesCount());
+            assertEquals(fsa.getAutomatonSize(), mapped.getAutomatonSize());
+            assertEquals(fsa.getTagsCount(), mapped.getTagsCount());
+            for (int i = 0; i < fsa.getTagsCount(); i++) {
+                assertEquals(fsa.getTag(i), mapped.getTag(i));
+                assertTrue(Arrays.equals(fsa.getTagCodes(i), mapped.getTagCodes(i)));
+            }
+            assertNull(mapped.getTagCodes(mapped.getTagsCount() - 1));
+            assertSameAnalyses(rnd, forms, fsa, mapped);
+            assertEquals(fsa.getChecksum(), mapped.getChecksum());
+
+            assertTrue(FSADictionary.isCompiled(compiled));
+            assertFalse(FSADictionary.isCompiled(source));
+            assertEquals(fsa.getEntriesCount(), FSADictionary.load(compiled).getEntriesCount());
+            assertEquals(fsa.getEntriesCount(), FSADictionary.load(source).getEntriesCount());
+
+            ByteArrayOutputStream image = new ByteArrayOutputStream();
+            fsa.write(image);
+            byte [] truncated = new byte [image.size() - 1];
+            System.arraycopy(image.toByteArray(), 0, truncated, 0, truncated.length);
+            try {
+                FSADictionary.open(ByteBuffer.wrap(truncated));
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+            try {
+                FSADictionary.open(source);
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+        } finally {
+            source.delete();
+            compiled.delete();
+        }
+    }
+
+    public void testChecksum() throws IOException {
+        // Dictionaries of the same size differing in a lemma.
+        String other = DICTIONARY.replace("mieć", "miec");
+        assertEquals(FSADictionary.build(new StringReader(DICTIONARY)).getChecksum(),
+            FSADictionary.build(new StringReader(DICTIONARY)).getChecksum());
+        assertFalse(FSADictionary.build(new StringReader(DICTIONARY)).getChecksum()
+            == FSADictionary.build(new StringReader(other)).getChecksum());
+        assertEquals(DictionaryBackend.load(new StringReader(DICTIONARY)).getChecksum(),
+            DictionaryBackend.load(new StringReader(DICTIONARY)).getChecksum());
+        assertFalse(DictionaryBackend.load(new StringReader(DICTIONARY)).getChecksum()
+            == DictionaryBackend.load(new StringReader(other)).getChecksum());
+    }
+
+    public void testConcurrent() throws Exception {
+        final Morfeusz morfeusz = Morfeusz.newInstance(
+            FSADictionary.build(new StringReader(DICTIONARY)));
+        final ConcurrentAnalyzer analyzer = morfeusz.getConcurrentAnalyzer();
+        final String [] words = {"kota", "ma", "Polski", "żółw", "psa"};
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread [] threads = new Thread [4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            String word = words[i % words.length];
+                            InterpMorf [] analysis = analyzer.analyze(word);
+                            assertEquals(word.equals("kota") ? 2 : 1, analysis.length);
+                            assertEquals(word, analysis[0].getTokenImage());
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(threads.length * 2000, analyzer.getAnalysesCount());
+        assertEquals(0, analyzer.getTotalWaitNanos());
+    }
+
+    public void testInvalidTags() throws IOException {
+        FSADictionary fsa = FSADictionary.build(new StringReader(
+            "foo\tfoo\tsubst:xx:nom\nbar\tbar\tsubst:sg:nom:m1:extra\nkot\tkot\tsubst:sg:nom:m2\n"));
+        assertEquals(3, fsa.getTagsCount());
+        int valid = 0;
+        for (int i = 0; i < fsa.getTagsCount(); i++) {
+            if (fsa.getTagCodes(i) != null) valid++;
+        }
+        assertEquals(1, valid);
+
+        Analyzer analyzer = Morfeusz.newInstance(fsa).getAnalyzer();
+        assertEquals(set(new String [] {"foo/subst:xx:nom"}), analyze(analyzer, "foo"));
+    }
+
+    public void testMalformed() {
+        try {
+            FSADictionary.build(new StringReader("kot\tk\u0000t\tsubst:sg:nom:m2\n"));
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+    }
+
+    /**
+     * Returns a random dictionary; the last tag is not an IPI PAN tag.
+     */
+    private static String randomDictionary(Random rnd, List<String> forms) {
+        String [] tags = {"subst:sg:nom:m1", "adj:pl:acc:f:comp", "fin:sg:ter:imperf", "foo:bar"};
+        StringBuilder dictionary = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String form = randomWord(rnd, ALPHABET);
+            String lemma = rnd.nextBoolean() ? form : form.substring(0, rnd.nextInt(form.length()))
+                + randomWord(rnd, ALPHABET);
+            dictionary.append(form).append('\t').append(lemma).append('\t')
+                .append(tags[i < tags.length ? i : rnd.nextInt(tags.length)]).append('\n');
+            forms.add(form);
+        }
+        return dictionary.toString();
+    }
+
+    /**
+     * Compares analyses of known and random words.
+     */
+    private static void assertSameAnalyses(Random rnd, List<String> forms,
+        MorfeuszBackend expectedBackend, MorfeuszBackend actualBackend) {
+        Analyzer expected = Morfeusz.newInstance(expectedBackend).getAnalyzer();
+        Analyzer actual = Morfeusz.newInstance(actualBackend).getAnalyzer();
+        for (int i = 0; i < 10000; i++) {
+            String word = (i % 2 == 0) ? forms.get(rnd.nextInt(forms.size())) : randomWord(rnd, ALPHABET);
+            assertEquals(word, analyze(expected, word), analyze(actual, word));
+        }
+    }
+
+    /**
+     * Returns interpretations (lemma/tag) of a word as a set, since their order
+     * depends on the backend.
+     */
+    private static Set<String> analyze(Analyzer analyzer, String word) {
+        InterpMorf [] analysis = analyzer.analyze(word);
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i < analyzer.getTokensNumber(); i++) {
+            assertEquals(word, analysis[i].getTokenImage());
+            result.add(analysis[i].getLemmaImage() + "/" + analysis[i].getTagImage());
+        }
+        return result;
+    }
+
+    private static Set<String> set(String [] elements) {
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i < elements.length; i++) {
+            result.add(elements[i]);
+        }
+        return result;
+    }
+
+    private static String randomWord(Random rnd, String alphabet) {
+        StringBuilder b = new StringBuilder();
+        int length = 1 + rnd.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            b.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        }
+        return b.toString();
+    }
+}
@@ -3,6 +3,10 @@ package com.dawidweiss.morfeusz;
 import junit.framework.TestCase;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.dawidweiss.ipipan.corpus.Tag;
 
 
 /**
@@ -79,4 +83,315 @@ public class LowLevelAnalyzerTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Batch analyses should be identical to term-by-term analyses.
+     */
+    public void testBatchAnalysis()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+
+        String [] words = new String [500];
+        for (int i = 0; i < words.length; i++) {
+            String [] base = {"ja zostałem", "wziąć", "kominiarz", "żółtodzioby", "jak"};
+            words[i] = base[i % base.length] + (i % 7 == 0 ? "" : " " + i);
+        }
+
+        AnalysisBatch batch = analyzer.analyzeBatch(words);
+        assertEquals(words.length, batch.size());
+        for (int i = 0; i < words.length; i++) {
+            InterpMorf[] analysis = analyzer.analyze(words[i]);
+            assertEquals(analyzer.getTokensNumber(), batch.getSegmentsCount(i));
+            InterpMorf[] copies = batch.getSegments(i);
+            for (int j = 0; j < analyzer.getTokensNumber(); j++) {
+                assertEquals(analysis[j].getNodeStart(), batch.getNodeStart(i, j));
+                assertEquals(analysis[j].getNodeEnd(), batch.getNodeEnd(i, j));
+                assertEquals(analysis[j].getTokenImage(), batch.getTokenImage(i, j));
+                assertEquals(analysis[j].getLemmaImage(), batch.getLemmaImage(i, j));
+                assertEquals(analysis[j].getTagImage(), batch.getTagImage(i, j));
+                assertEquals(analysis[j].toString(), copies[j].toString());
+            }
+        }
+
+        assertEquals(0, analyzer.analyzeBatch(new String [0]).size());
+    }
+
+    /**
+     * Terms are NUL-terminated in the packed buffer, so a NUL inside a term
+     * would shift the results of all following terms.
+     */
+    public void testBatchWithNul()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+        String [] words = {"a\u0000b", "c"};
+        try {
+            analyzer.analyzeBatch(words);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            Morfeusz.getInstance().getConcurrentAnalyzer().analyzeBatch(words);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        AnalysisBatch batch = analyzer.analyzeBatch(new String [] {"ab", "c"});
+        assertEquals(2, batch.size());
+        assertEquals("c", batch.getTokenImage(1, 0));
+    }
+
+    /**
+     * Direct buffer transport should return the same results as arrays.
+     */
+    public void testDirectBufferAnalysis()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+        Analyzer direct = Morfeusz.getInstance().getAnalyzer(true);
+        assertFalse(analyzer.isDirectBuffer());
+        assertTrue(direct.isDirectBuffer());
+
+        StringBuffer longInput = new StringBuffer();
+        for (int i = 0; i < 24; i++) {
+            longInput.append(" kominiarka-żółtodzioby-kominiarka-żółtodzioby-kominiarka-żółtodzioby" + i);
+        }
+
+        String [] words = {
+            "ja zostałem",
+            "wziąć",
+            "żółtodzioby",
+            longInput.toString().trim(),
+            "jak"
+        };
+
+        for (int i = 0; i < words.length; i++) {
+            InterpMorf[] expected = analyzer.analyze(words[i]);
+            InterpMorf[] analysis = direct.analyze(words[i]);
+            assertEquals(analyzer.getTokensNumber(), direct.getTokensNumber());
+            for (int j = 0; j < direct.getTokensNumber(); j++) {
+                assertEquals(expected[j].toString(), analysis[j].toString());
+                assertEquals(expected[j].getTagImage(), 
+                    new String(toArray(analysis[j].getTagBuffer()), "UTF-8"));
+                assertEquals(expected[j].getTokenImage(), 
+                    new String(toArray(analysis[j].getTokenBuffer()), "UTF-8"));
+                assertEquals(expected[j].getLemmaImage(), 
+                    new String(toArray(expected[j].getLemmaBuffer()), "UTF-8"));
+                assertEquals(expected[j].getTokenLength(), analysis[j].getTokenLength());
+                assertEquals(new String(expected[j].getToken(), 0, expected[j].getTokenLength(), "UTF-8"),
+                    new String(analysis[j].getToken(), 0, analysis[j].getTokenLength(), "UTF-8"));
+            }
+        }
+    }
+
+    public void testCharacterAccessors()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer [] analyzers = {
+            Morfeusz.getInstance().getAnalyzer(),
+            Morfeusz.getInstance().getAnalyzer(true)
+        };
+        String [] words = { "ja zostałem", "żółtodzioby", "jak" };
+
+        for (int a = 0; a < analyzers.length; a++) {
+            for (int i = 0; i < words.length; i++) {
+                InterpMorf[] analysis = analyzers[a].analyze(words[i]);
+                for (int j = 0; j < analyzers[a].getTokensNumber(); j++) {
+                    InterpMorf segment = analysis[j];
+                    assertEquals(segment.getTokenImage(), segment.getTokenChars().toString());
+                    assertEquals(segment.getLemmaImage(), segment.getLemmaChars().toString());
+                    assertEquals(segment.getTagImage(), segment.getTagChars().toString());
+
+                    StringBuilder builder = new StringBuilder(">");
+                    segment.appendLemmaImage(builder).append(':');
+                    segment.appendTagImage(builder);
+                    assertEquals(">" + segment.getLemmaImage() + ":" + segment.getTagImage(), 
+                        builder.toString());
+
+                    char [] chars = new char [segment.getTokenLength() + 1];
+                    int length = segment.getTokenImage(chars, 1);
+                    assertEquals(segment.getTokenImage(), new String(chars, 1, length));
+                }
+            }
+
+            // Views are reused, but must reflect the most recent analysis.
+            InterpMorf first = analyzers[a].analyze("ja")[0];
+            CharSequence view = first.getTokenChars();
+            assertEquals("ja", view.toString());
+            analyzers[a].analyze("żółtodzioby");
+            assertSame(view, first.getTokenChars());
+            assertEquals("żółtodzioby", view.toString());
+            assertEquals('ż', view.charAt(0));
+            assertEquals("ółt", view.subSequence(1, 4).toString());
+        }
+    }
+
+    public void testGrowingOnOverflow()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer [] analyzers = {
+            Morfeusz.getInstance().getAnalyzer(),
+            Morfeusz.getInstance().getAnalyzer(true)
+        };
+
+        // Many segments, each one with a long token and lemma.
+        StringBuffer longInput = new StringBuffer();
+        for (int i = 0; i < 40; i++) {
+            longInput.append(" kominiarka-żółtodzioby-kominiarka-żółtodzioby-kominiarka-żółtodzioby-"
+                + "kominiarka-żółtodzioby-kominiarka-żółtodzioby-kominiarka-żółtodzioby" + i);
+        }
+        String input = longInput.toString().trim();
+
+        for (int a = 0; a < analyzers.length; a++) {
+            Analyzer analyzer = analyzers[a];
+            analyzer.analyze("jak");
+            assertEquals(0, analyzer.getOverflowsCount());
+
+            InterpMorf[] analysis = analyzer.analyze(input);
+            assertEquals(80, analyzer.getTokensNumber());
+            assertTrue(analyzer.getOverflowsCount() > 0);
+            for (int j = 0; j < analyzer.getTokensNumber(); j++) {
+                assertTrue(analysis[j].getTokenImage().startsWith("kominiarka-"));
+                assertEquals(analysis[j].getTokenImage(), analysis[j].getLemmaImage());
+            }
+
+            // Once grown, structures are reused.
+            int overflows = analyzer.getOverflowsCount();
+            analyzer.analyze(input);
+            assertEquals(overflows, analyzer.getOverflowsCount());
+        }
+    }
+
+    public void testTagCodes()
+        throws UnsupportedEncodingException, SecurityException, 
+            UnsatisfiedLinkError {
+        Analyzer [] analyzers = {
+            Morfeusz.getInstance().getAnalyzer(),
+            Morfeusz.getInstance().getAnalyzer(true)
+        };
+        for (int a = 0; a < analyzers.length; a++) {
+            InterpMorf[] analysis = analyzers[a].analyze("ja zostałem");
+            for (int j = 0; j < analyzers[a].getTokensNumber(); j++) {
+                Tag [] tags = Tag.create(analysis[j].getTagImage());
+                long [] codes = analysis[j].getTagCodes();
+                assertEquals(tags.length, codes.length);
+                for (int i = 0; i < tags.length; i++) {
+                    assertEquals(tags[i].getCode(), codes[i]);
+                }
+            }
+        }
+    }
+
+    private static byte [] toArray(java.nio.ByteBuffer buffer) {
+        byte [] bytes = new byte [buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Malformed UTF-8 (overlong forms, encoded surrogates, truncated
+     * sequences) must decode to the same replacement characters as in
+     * the JDK.
+     */
+    public void testMalformedUtf8() throws UnsupportedEncodingException {
+        int [][] sequences = {
+            { 0xc0, 0x80 },
+            { 0xc1, 0xbf, 0x61 },
+            { 0xe0, 0x80, 0x80 },
+            { 0xf0, 0x80, 0x80, 0x80 },
+            { 0xed, 0xa0, 0x80 },
+            { 0xed, 0xbf, 0xbf, 0x61 },
+            { 0xf4, 0x90, 0x80, 0x80 },
+            { 0xe4, 0xb8, 0x61 },
+            { 0x61, 0xf0, 0x9f, 0x98 },
+            { 0xf8, 0x88, 0x80, 0x80, 0x80 },
+        };
+        for (int i = 0; i < sequences.length; i++) {
+            byte [] bytes = new byte [sequences[i].length];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) sequences[i][j];
+            }
+            assertDecodedAsJdk(bytes);
+        }
+
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < 10000; i++) {
+            byte [] bytes = new byte [1 + random.nextInt(8)];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) (random.nextBoolean() ? 0x80 | random.nextInt(0x80) : random.nextInt());
+            }
+            assertDecodedAsJdk(bytes);
+        }
+    }
+
+    private static void assertDecodedAsJdk(byte [] bytes) throws UnsupportedEncodingException {
+        final String expected = new String(bytes, "UTF-8");
+        final CharDecoder decoder = CharDecoder.forEncoding(Morfeusz.ENCODING_UTF8);
+        assertEquals(expected, decoder.toString(bytes, 0, bytes.length));
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 1);
+        buffer.put((byte) 'x').put(bytes);
+        final char [] chars = new char [bytes.length];
+        assertEquals(expected, new String(chars, 0, decoder.decode(buffer, 1, bytes.length, chars, 0)));
+    }
+
+    /**
+     * Segment records cannot hold tokens longer than 65535 bytes; direct
+     * buffer mode must fail rather than grow its buffer forever.
+     */
+    public void testTooLongToken() throws UnsupportedEncodingException {
+        StringBuffer word = new StringBuffer();
+        for (int i = 0; i < 70000; i++) {
+            word.append('k');
+        }
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer(true);
+        try {
+            InterpMorf [] analysis = analyzer.analyze(word.toString());
+            // The library may shorten long tokens.
+            assertTrue(analysis[0].getTokenLength() <= 0xffff);
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals("jak", analyzer.analyze("jak")[0].getTokenImage());
+    }
+
+    /**
+     * Separate analyzers used by many threads call the (process-global)
+     * library at the same time; terms of varying length make the native
+     * code grow its token buffer.
+     */
+    public void testAnalyzersInThreads() throws Exception {
+        final Throwable [] error = new Throwable [1];
+        Thread [] threads = new Thread [4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer(thread % 2 == 0);
+                        StringBuffer word = new StringBuffer("k" + thread);
+                        for (int i = 0; i < 300; i++) {
+                            for (int j = 0; j < i; j++) {
+                                word.append('a');
+                            }
+                            InterpMorf [] analysis = analyzer.analyze(word.toString());
+                            assertEquals(word.toString(), analysis[0].getTokenImage());
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        if (error[0] != null) {
+            fail(error[0].toString());
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Compares the memory-mapped, byte-level analysis of files with
+ * the analysis of tokens from {@link Tokenizer}.
+ */
+public class MappedFileAnalyzerTest extends TestCase {
+    private final static String [] WORDS = {
+        "Ala", "ma", "kota", "żółtodzioby", "3,14", "1.000", "12.", "Kennedy'ego", "x'",
+        "gęś’lą", "(", "...", "𝐀b", "áb", " ", "\t", " ", "zł,", "\u0000"
+    };
+
+    private File file;
+
+    /**
+     * Required by JUnit.
+     */
+    public MappedFileAnalyzerTest(String s) {
+        super(s);
+    }
+
+    protected void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".txt");
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testSameAsTokenizer() throws IOException {
+        Random rnd = new Random(0xbeef);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            b.append(WORDS[rnd.nextInt(WORDS.length)]);
+            if (rnd.nextInt(100) == 0) {
+                // A token longer than Tokenizer.MAX_TOKEN_LENGTH.
+                for (int j = 0; j < 300; j++) b.append('ą');
+            }
+            b.append(rnd.nextInt(3) == 0 ? "" : " ");
+        }
+        String text = b.toString();
+        write(text.getBytes("UTF-8"));
+
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+        String expected = expected(text, analyzer);
+        int [] windows = {4 * Tokenizer.MAX_TOKEN_LENGTH + 8, 5000, MappedFileAnalyzer.DEFAULT_WINDOW_SIZE};
+        for (int i = 0; i < windows.length; i++) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            long tokens = new MappedFileAnalyzer(analyzer, windows[i])
+                .analyze(file, Channels.newChannel(os));
+            assertEquals(expected, new String(os.toByteArray(), "UTF-8"));
+            assertEquals(count(text), tokens);
+        }
+    }
+
+    public void testMalformedInput() throws IOException {
+        byte [] bytes = {'a', (byte) 0xc5, ' ', (byte) 0xff, 'b', (byte) 0xe2, (byte) 0x80};
+        write(bytes);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long tokens = new MappedFileAnalyzer(Morfeusz.getInstance().getAnalyzer(),
+            MappedFileAnalyzer.DEFAULT_WINDOW_SIZE).analyze(file, Channels.newChannel(os));
+        assertEquals(5, tokens);
+        assertEquals(count(new String(bytes, "UTF-8")), tokens);
+    }
+
+    /**
+     * Overlong forms and encoded surrogates are replaced like in
+     * <code>new String(bytes, "UTF-8")</code>.
+     */
+    public void testOverlongAndSurrogates() throws IOException {
+        byte [] bytes = {
+            'a', (byte) 0xc0, (byte) 0x80, 'b', ' ',
+            (byte) 0xe0, (byte) 0x80, (byte) 0x80, '1', ' ',
+            'c', (byte) 0xed, (byte) 0xa0, (byte) 0x80, 'd'
+        };
+        write(bytes);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long tokens = new MappedFileAnalyzer(Morfeusz.getInstance().getAnalyzer(),
+            MappedFileAnalyzer.DEFAULT_WINDOW_SIZE).analyze(file, Channels.newChannel(os));
+        assertEquals(count(new String(bytes, "UTF-8")), tokens);
+    }
+
+    /**
+     * Supplementary digits take two chars of a token.
+     */
+    public void testLongSupplementaryNumber() throws IOException {
+        StringBuilder b = new StringBuilder("11");
+        for (int i = 0; i < 127; i++) {
+            b.appendCodePoint(0x1d7ce);
+        }
+        String text = b.append(".1").toString();
+        write(text.getBytes("UTF-8"));
+
+        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long tokens = new MappedFileAnalyzer(analyzer, MappedFileAnalyzer.DEFAULT_WINDOW_SIZE)
+            .analyze(file, Channels.newChannel(os));
+        assertEquals(expected(text, analyzer), new String(os.toByteArray(), "UTF-8"));
+        assertEquals(count(text), tokens);
+    }
+
+    public void testEmptyFile() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertEquals(0, new MappedFileAnalyzer().analyze(file, Channels.newChannel(os)));
+        assertEquals(0, os.size());
+    }
+
+    private void write(byte [] bytes) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(bytes);
+        os.close();
+    }
+
+    private static long count(String text) throws IOException {
+        Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+        long count = 0;
+        while (tokenizer.next()) count++;
+        return count;
+    }
+
+    private static String expected(String text, Analyzer analyzer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+        while (tokenizer.next()) {
+            String token = tokenizer.getImage();
+            InterpMorf [] analysis = analyzer.analyze(token);
+            out.append(token).append(' ');
+            if (analyzer.getTokensNumber() == 0) out.append('?');
+            for (int j = 0; j < analyzer.getTokensNumber(); j++) {
+                if (j > 0) out.append("; ");
+                out.append(analysis[j].getTokenImage()).append(',')
+                    .append(analysis[j].getLemmaImage()).append(',')
+                    .append(analysis[j].getTagImage());
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the off-heap caching analyzer.
+ */
+public class OffHeapCachingAnalyzerTest extends TestCase {
+    private final static String [] WORDS = {
+        "ja zostałem",
+        "wziąć",
+        "kominiarz",
+        "komin",
+        "kominiarka",
+        "jak",
+        "żółtodzioby"
+    };
+
+    /**
+     * Required by JUnit.
+     */
+    public OffHeapCachingAnalyzerTest(String s) {
+        super(s);
+    }
+
+    public void testHitsAndMisses() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 100);
+        assertEquals(112, analyzer.getMaxEntries());
+        assertEquals(OffHeapCachingAnalyzer.DEFAULT_SLOT_BYTES, analyzer.getSlotBytes());
+        assertTrue(analyzer.getOffHeapBytes() >= 112 * OffHeapCachingAnalyzer.DEFAULT_SLOT_BYTES);
+
+        for (int i = 0; i < WORDS.length; i++) {
+            assertEquals(toString(concurrent.analyze(WORDS[i])), toString(analyzer.analyze(WORDS[i])));
+            InterpMorf [] cached = analyzer.analyze(WORDS[i]);
+            assertEquals(toString(concurrent.analyze(WORDS[i])), toString(cached));
+            assertNotSame(cached, analyzer.analyze(WORDS[i]));
+        }
+        assertEquals(WORDS.length, analyzer.getMissesCount());
+        assertEquals(2 * WORDS.length, analyzer.getHitsCount());
+        assertEquals(WORDS.length, analyzer.getEntriesCount());
+
+        analyzer.clear();
+        assertEquals(0, analyzer.getEntriesCount());
+        analyzer.analyze(WORDS[0]);
+        assertEquals(WORDS.length + 1, analyzer.getMissesCount());
+    }
+
+    public void testTokensAndEmptyAnalyses() throws IOException {
+        // Lower-case lookups and terms with no segments.
+        Morfeusz morfeusz = Morfeusz.newInstance(FSADictionary.build(
+            new StringReader("kot\tkot\tsubst:sg:nom:m2\nmają\tmieć\tfin:pl:ter:imperf\n")));
+        ConcurrentAnalyzer concurrent = morfeusz.getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 10, 1);
+        String [] terms = {"KOT", "mają", "", "Mają", "pies"};
+        for (int r = 0; r < 2; r++) {
+            for (int i = 0; i < terms.length; i++) {
+                assertEquals(toString(concurrent.analyze(terms[i])), toString(analyzer.analyze(terms[i])));
+            }
+        }
+        assertEquals(terms.length, analyzer.getHitsCount());
+    }
+
+    public void testFormsReleasedOnEviction() throws IOException {
+        Morfeusz morfeusz = Morfeusz.newInstance(FSADictionary.build(new StringReader(
+            "mają\tmieć\tfin:pl:ter:imperf\nma\tmieć\tfin:sg:ter:imperf\nkot\tkot\tsubst:sg:nom:m2\n")));
+        ConcurrentAnalyzer concurrent = morfeusz.getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 2, 1);
+
+        // Lemmas that are not a part of their terms are kept on the heap, once.
+        analyzer.analyze("mają");
+        analyzer.analyze("ma");
+        assertEquals(1, analyzer.getFormsCount());
+        assertEquals(toString(concurrent.analyze("ma")), toString(analyzer.analyze("ma")));
+
+        // ...and dropped with their last entry.
+        analyzer.analyze("kot");
+        assertEquals(1, analyzer.getFormsCount());
+        analyzer.analyze("x");
+        analyzer.analyze("y");
+        assertEquals(0, analyzer.getFormsCount());
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(i % 2 == 0 ? "mają" : "w" + i);
+        }
+        assertTrue(analyzer.getFormsCount() <= 1);
+        assertEquals(toString(concurrent.analyze("mają")), toString(analyzer.analyze("mają")));
+
+        analyzer.clear();
+        assertEquals(0, analyzer.getFormsCount());
+    }
+
+    public void testEviction() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 3, 1);
+        assertEquals(3, analyzer.getMaxEntries());
+
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[1]);
+        analyzer.analyze(WORDS[2]);
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[3]);
+        assertEquals(3, analyzer.getEntriesCount());
+        assertEquals(1, analyzer.getEvictionsCount());
+
+        // WORDS[1] was the first entry not referenced since insertion.
+        analyzer.resetStatistics();
+        analyzer.analyze(WORDS[0]);
+        analyzer.analyze(WORDS[2]);
+        analyzer.analyze(WORDS[3]);
+        assertEquals(3, analyzer.getHitsCount());
+        analyzer.analyze(WORDS[1]);
+        assertEquals(1, analyzer.getMissesCount());
+
+        // Many evictions keep the index consistent.
+        for (int i = 0; i < 1000; i++) {
+            String word = "w" + (i % 7);
+            assertEquals(toString(concurrent.analyze(word)), toString(analyzer.analyze(word)));
+        }
+        assertEquals(3, analyzer.getEntriesCount());
+    }
+
+    public void testLongTerm() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 40, 1);
+
+        // Entries larger than a slot take several.
+        String term = repeat('x', OffHeapCachingAnalyzer.DEFAULT_SLOT_BYTES);
+        analyzer.analyze(term);
+        assertEquals(toString(concurrent.analyze(term)), toString(analyzer.analyze(term)));
+        assertEquals(1, analyzer.getEntriesCount());
+        assertEquals(1, analyzer.getHitsCount());
+
+        // Entries larger than a stripe are not cached.
+        String longer = repeat('y', 40 * OffHeapCachingAnalyzer.DEFAULT_SLOT_BYTES);
+        analyzer.analyze(longer);
+        assertEquals(toString(concurrent.analyze(longer)), toString(analyzer.analyze(longer)));
+        assertEquals(1, analyzer.getEntriesCount());
+        assertEquals(3, analyzer.getMissesCount());
+        assertEquals(2, analyzer.getUncacheableCount());
+        assertTrue(analyzer.toString().indexOf("uncacheable: 2") >= 0);
+    }
+
+    /**
+     * Entries of various sizes, in small slots, evicted and reused.
+     */
+    public void testSmallSlots() throws IOException {
+        ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 24, 1,
+            OffHeapCachingAnalyzer.MIN_SLOT_BYTES);
+        assertEquals(OffHeapCachingAnalyzer.MIN_SLOT_BYTES, analyzer.getSlotBytes());
+
+        Random rnd = new Random(0xcafe);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder term = new StringBuilder();
+            for (int w = rnd.nextInt(5); w >= 0; w--) {
+                term.append(WORDS[rnd.nextInt(WORDS.length)]).append(rnd.nextInt(4)).append(' ');
+            }
+            String t = term.toString().trim();
+            assertEquals(t, toString(concurrent.analyze(t)), toString(analyzer.analyze(t)));
+            assertTrue(analyzer.getEntriesCount() <= 24);
+        }
+        assertTrue(analyzer.getHitsCount() > 0);
+        assertTrue(analyzer.getEvictionsCount() > 0);
+        assertEquals(0, analyzer.getUncacheableCount());
+
+        analyzer.clear();
+        assertEquals(0, analyzer.getEntriesCount());
+        assertEquals(0, analyzer.getFormsCount());
+        assertEquals(toString(concurrent.analyze(WORDS[0])), toString(analyzer.analyze(WORDS[0])));
+
+        try {
+            new OffHeapCachingAnalyzer(concurrent, 24, 1, OffHeapCachingAnalyzer.MIN_SLOT_BYTES - 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Run cached analyses from many threads and compare with
+     * single-threaded results.
+     */
+    public void testConcurrentAnalyses() throws Exception {
+        final ConcurrentAnalyzer concurrent = Morfeusz.getInstance().getConcurrentAnalyzer();
+        final OffHeapCachingAnalyzer analyzer = new OffHeapCachingAnalyzer(concurrent, 16, 4);
+        final String [] words = new String [40];
+        final String [] expected = new String [words.length];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = WORDS[i % WORDS.length] + (i / WORDS.length);
+            expected[i] = toString(concurrent.analyze(words[i]));
+        }
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread [] threads = new Thread [8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            int w = (offset + i) % words.length;
+                            assertEquals(expected[w], OffHeapCachingAnalyzerTest.toString(analyzer.analyze(words[w])));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertTrue(analyzer.getEntriesCount() <= 16);
+        assertTrue(analyzer.getHitsCount() > 0);
+    }
+
+    private static String toString(InterpMorf [] analysis) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < analysis.length; i++) {
+            b.append(analysis[i].getNodeStart()).append('-').append(analysis[i].getNodeEnd())
+                .append(' ').append(analysis[i].getTokenImage())
+                .append('/').append(analysis[i].getLemmaImage())
+                .append('/').append(analysis[i].getTagImage()).append(';');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the multi-process analyzer farm (using a pure-Java
+ * stand-in worker and the default worker with a dictionary backend).
+ */
+public class ProcessAnalyzerFarmTest extends TestCase {
+    private ProcessAnalyzerFarm farm;
+
+    /**
+     * Required by JUnit.
+     */
+    public ProcessAnalyzerFarmTest(String s) {
+        super(s);
+    }
+
+    protected void setUp() throws Exception {
+        farm = new ProcessAnalyzerFarm(
+            ProcessAnalyzerFarm.javaCommand(StubAnalyzerWorker.class.getName()), 3);
+    }
+
+    protected void tearDown() throws Exception {
+        farm.close();
+    }
+
+    public void testSingleWord() throws IOException {
+        InterpMorf [] analysis = farm.analyze("Żółw Ala");
+        assertEquals(2, analysis.length);
+        assertEquals("0-1 : Żółw : żółw : ign", analysis[0].toString());
+        assertEquals("1-2 : Ala : ala : ign", analysis[1].toString());
+    }
+
+    public void testBatchOrder() throws IOException {
+        String [] words = new String [1001];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "Słowo" + i;
+        }
+
+        InterpMorf [][] result = farm.analyze(words);
+        assertEquals(words.length, result.length);
+        for (int i = 0; i < words.length; i++) {
+            assertEquals(1, result[i].length);
+            assertEquals(words[i], result[i][0].getTokenImage());
+            assertEquals(words[i].toLowerCase(), result[i][0].getLemmaImage());
+        }
+
+        assertEquals(0, farm.analyze(new String [0]).length);
+        assertEquals(2, farm.analyze(new String [] {"a", "b"}).length);
+    }
+
+    public void testFailedRequest() throws IOException {
+        String [] words = new String [30];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "w" + i;
+        }
+        for (int crash = 0; crash < words.length; crash += 7) {
+            String [] failing = words.clone();
+            failing[crash] = StubAnalyzerWorker.CRASH;
+            try {
+                farm.analyze(failing);
+                fail();
+            } catch (IOException e) {
+                // Expected.
+            }
+
+            // No stale replies are left, crashed workers are restarted.
+            InterpMorf [][] result = farm.analyze(words);
+            for (int i = 0; i < words.length; i++) {
+                assertEquals(words[i], result[i][0].getTokenImage());
+            }
+        }
+    }
+
+    public void testLongTerm() throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 0x10000 / 2; i++) {
+            b.append('ż');
+        }
+        try {
+            farm.analyze(new String [] {"a", b.toString(), "c"});
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        b.setLength(b.length() - 1);
+        assertEquals(b.toString(), farm.analyze(b.toString())[0].getTokenImage());
+    }
+
+    public void testBackend() throws IOException {
+        ConcurrentAnalyzer analyzer = Morfeusz.newInstance(farm).getConcurrentAnalyzer();
+        InterpMorf [] analysis = analyzer.analyze("Żółw Ala");
+        assertEquals(2, analysis.length);
+        assertEquals("0-1 : Żółw : żółw : ign", analysis[0].toString());
+        assertEquals("1-2 : Ala : ala : ign", analysis[1].toString());
+    }
+
+    public void testConcurrentCallers() throws Exception {
+        final Throwable [] error = new Throwable [1];
+        Thread [] threads = new Thread [4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++) {
+                            String word = "w" + thread + "_" + i;
+                            assertEquals(word, farm.analyze(word)[0].getTokenImage());
+                            InterpMorf [][] batch = farm.analyze(new String [] {word, "x", word});
+                            assertEquals(word, batch[2][0].getTokenImage());
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        if (error[0] != null) {
+            fail(error[0].toString());
+        }
+    }
+
+    /**
+     * Runs the default worker ({@link AnalyzerWorker#main(String[])}), its
+     * analyzer transports segments through a direct buffer.
+     */
+    public void testDictionaryWorker() throws IOException {
+        File dictionary = File.createTempFile("farm", ".tsv");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(dictionary), "UTF-8");
+            writer.write("kota\tkot\tsubst:sg:gen:m2\nżółwia\tżółw\tsubst:sg:gen:m2\n");
+            writer.close();
+
+            List<String> command = new ArrayList<String>(Arrays.asList(
+                ProcessAnalyzerFarm.javaCommand(AnalyzerWorker.class.getName())));
+            command.add(1, "-D" + Morfeusz.PROPERTY_BACKEND + "=" + Morfeusz.BACKEND_DICTIONARY);
+            command.add(1, "-D" + Morfeusz.PROPERTY_DICTIONARY + "=" + dictionary.getAbsolutePath());
+            ProcessAnalyzerFarm dictionaryFarm = new ProcessAnalyzerFarm(
+                command.toArray(new String [command.size()]), 2);
+            try {
+                InterpMorf [][] result = dictionaryFarm.analyze(new String [] {"kota", "Żółwia", "psa"});
+                assertEquals("0-1 : kota : kot : subst:sg:gen:m2", result[0][0].toString());
+                assertEquals("0-1 : Żółwia : żółw : subst:sg:gen:m2", result[1][0].toString());
+                assertEquals("psa", result[2][0].getTokenImage());
+                assertEquals("", result[2][0].getLemmaImage());
+
+                // Workers with another dictionary.
+                assertFalse(dictionaryFarm.getChecksum() == farm.getChecksum());
+            } finally {
+                dictionaryFarm.close();
+            }
+        } finally {
+            dictionary.delete();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+
+/**
+ * A pure-Java stand-in for the native worker. Every space-separated
+ * word of the input becomes a single <code>ign</code> segment, its lemma
+ * is the lower-cased word.
+ */
+public class StubAnalyzerWorker extends AnalyzerWorker {
+    /** A term terminating the worker process (to test failures). */
+    public static final String CRASH = "\u0000crash";
+
+    private final InterpMorf [] segments;
+
+    public StubAnalyzerWorker() {
+        segments = new InterpMorf [50];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new InterpMorf(Morfeusz.ENCODING_UTF8);
+        }
+    }
+
+    protected int analyze(String term) {
+        if (CRASH.equals(term)) {
+            System.exit(1);
+        }
+        try {
+            final String [] words = term.split(" ");
+            for (int i = 0; i < words.length; i++) {
+                final InterpMorf segment = new InterpMorf(Morfeusz.ENCODING_UTF8,
+                    words[i].getBytes(Morfeusz.ENCODING_UTF8),
+                    words[i].toLowerCase().getBytes(Morfeusz.ENCODING_UTF8),
+                    "ign".getBytes(Morfeusz.ENCODING_UTF8));
+                segment.p = i;
+                segment.k = i + 1;
+                segment.tokenLength = segment.token.length;
+                segment.lemmaLength = segment.lemma.length;
+                segment.tagLength = segment.tag.length;
+                segments[i] = segment;
+            }
+            return words.length;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected InterpMorf getSegment(int index) {
+        return segments[index];
+    }
+
+    protected String getEncoding() {
+        return Morfeusz.ENCODING_UTF8;
+    }
+
+    public static void main(String [] args) throws IOException {
+        final PrintStream output = System.out;
+        System.setOut(System.err);
+        new StubAnalyzerWorker().serve(System.in, output);
+    }
+}
@@ -0,0 +1,399 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.nio.IntBuffer;
+
+/**
+ * An immutable set of non-negative integers, stored in an {@link IntBuffer}
+ * (possibly a view of a memory-mapped file, see {@link TagIndex}) in one
+ * of two containers, whichever is smaller:
+ * <ul>
+ * <li>runs: a sorted list of disjoint runs <code>[start, end)</code>,
+ * stored as consecutive pairs of integers (sets of long runs, for example
+ * rows of a tag index sorted by lexeme),</li>
+ * <li>bits: a plain bitset, bit <code>b</code> of word <code>w</code>
+ * is value <code>32 * w + b</code> (sets of short runs, for example rows
+ * of common attributes in corpus order, such as {@link Tag#CASE_GEN}).</li>
+ * </ul>
+ * A set has a single (canonical) container: bits if it takes fewer
+ * integers than runs, with no trailing zero words.
+ *
+ * @author Dawid Weiss
+ */
+public final class RunBitmap {
+    /** An empty bitmap. */
+    public final static RunBitmap EMPTY = new RunBitmap(IntBuffer.allocate(0));
+
+    /** Containers (see {@link TagIndex}). */
+    final static int RUNS = 0;
+    final static int BITS = 1;
+
+    private final static int AND = 0;
+    private final static int OR = 1;
+    private final static int AND_NOT = 2;
+
+    /**
+     * Pairs of <code>[start, end)</code> or bitset words (if {@link #bits}),
+     * from index 0 to the limit.
+     */
+    private final IntBuffer runs;
+    private final boolean bits;
+
+    RunBitmap(IntBuffer runs) {
+        this(runs, RUNS);
+    }
+
+    RunBitmap(IntBuffer data, int container) {
+        this.runs = data;
+        this.bits = (container == BITS);
+    }
+
+    /**
+     * Returns a bitmap of a single run <code>[start, end)</code>.
+     */
+    public static RunBitmap range(int start, int end) {
+        if (start >= end) {
+            return EMPTY;
+        }
+        final Writer writer = new Writer();
+        writer.addRun(start, end);
+        return writer.toBitmap();
+    }
+
+    /**
+     * Returns the container of this bitmap, {@link #RUNS} or {@link #BITS}.
+     */
+    int getContainer() {
+        return bits ? BITS : RUNS;
+    }
+
+    /**
+     * Returns the number of runs.
+     */
+    public int getRunsCount() {
+        if (bits) {
+            int count = 0;
+            int previous = 0;
+            for (int i = 0; i < runs.limit(); i++) {
+                final int word = runs.get(i);
+                count += Integer.bitCount(word & ~((word << 1) | (previous >>> 31)));
+                previous = word;
+            }
+            return count;
+        }
+        return runs.limit() / 2;
+    }
+
+    public boolean isEmpty() {
+        return runs.limit() == 0;
+    }
+
+    /**
+     * Returns the number of elements.
+     */
+    public int cardinality() {
+        int count = 0;
+        if (bits) {
+            for (int i = 0; i < runs.limit(); i++) {
+                count += Integer.bitCount(runs.get(i));
+            }
+            return count;
+        }
+        for (int i = 0; i < runs.limit(); i += 2) {
+            count += runs.get(i + 1) - runs.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>value</code> is in this set.
+     */
+    public boolean contains(int value) {
+        if (bits) {
+            return value >= 0 && (value >>> 5) < runs.limit()
+                && (runs.get(value >>> 5) & (1 << value)) != 0;
+        }
+        int low = 0;
+        int high = getRunsCount() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (runs.get(2 * mid + 1) <= value) {
+                low = mid + 1;
+            } else if (runs.get(2 * mid) > value) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns all elements in increasing order.
+     */
+    public int [] toArray() {
+        final int [] result = new int [cardinality()];
+        int j = 0;
+        if (bits) {
+            for (int i = 0; i < runs.limit(); i++) {
+                for (int word = runs.get(i); word != 0; word &= word - 1) {
+                    result[j++] = (i << 5) + Integer.numberOfTrailingZeros(word);
+                }
+            }
+            return result;
+        }
+        for (int i = 0; i < runs.limit(); i += 2) {
+            for (int v = runs.get(i); v < runs.get(i + 1); v++) {
+                result[j++] = v;
+            }
+        }
+        return result;
+    }
+
+    public RunBitmap and(RunBitmap other) {
+        return combine(this, other, AND);
+    }
+
+    public RunBitmap or(RunBitmap other) {
+        return combine(this, other, OR);
+    }
+
+    public RunBitmap andNot(RunBitmap other) {
+        return combine(this, other, AND_NOT);
+    }
+
+    /**
+     * Merges runs of two bitmaps. Both lists of run boundaries are scanned
+     * once, in order; the result changes its state only at boundaries.
+     * If any of the bitmaps is a bitset, bitsets are combined word by word.
+     */
+    private static RunBitmap combine(RunBitmap a, RunBitmap b, int operation) {
+        if (a.isEmpty()) {
+            return operation == OR ? b : EMPTY;
+        }
+        if (b.isEmpty()) {
+            return operation == AND ? EMPTY : a;
+        }
+        if (a.bits || b.bits) {
+            return combineWords(a.toWords(), b.toWords(), operation);
+        }
+
+        final IntBuffer x = a.runs;
+        final IntBuffer y = b.runs;
+        final int xLength = x.limit();
+        final int yLength = y.limit();
+        final Writer out = new Writer();
+        int i = 0, j = 0;
+        boolean inResult = false;
+        int start = 0;
+        while (i < xLength || j < yLength) {
+            final int xNext = i < xLength ? x.get(i) : Integer.MAX_VALUE;
+            final int yNext = j < yLength ? y.get(j) : Integer.MAX_VALUE;
+            final int boundary = Math.min(xNext, yNext);
+            if (xNext == boundary) i++;
+            if (yNext == boundary) j++;
+
+            // Odd indexes mean we are inside a run.
+            final boolean inX = (i & 1) != 0;
+            final boolean inY = (j & 1) != 0;
+            final boolean in;
+            switch (operation) {
+                case AND: in = inX && inY; break;
+                case OR: in = inX || inY; break;
+                default: in = inX && !inY; break;
+            }
+            if (in != inResult) {
+                if (in) {
+                    start = boundary;
+                } else {
+                    out.addRun(start, boundary);
+                }
+                inResult = in;
+            }
+        }
+        return out.toBitmap();
+    }
+
+    private static RunBitmap combineWords(int [] x, int [] y, int operation) {
+        final int length;
+        switch (operation) {
+            case AND: length = Math.min(x.length, y.length); break;
+            case OR: length = Math.max(x.length, y.length); break;
+            default: length = x.length; break;
+        }
+        final int [] words = new int [length];
+        for (int i = 0; i < length; i++) {
+            final int xWord = i < x.length ? x[i] : 0;
+            final int yWord = i < y.length ? y[i] : 0;
+            switch (operation) {
+                case AND: words[i] = xWord & yWord; break;
+                case OR: words[i] = xWord | yWord; break;
+                default: words[i] = xWord & ~yWord; break;
+            }
+        }
+
+        // Choose the container of the result.
+        final Writer out = new Writer();
+        for (int i = 0; i < length; i++) {
+            for (int word = words[i], shift = 0; word != 0; ) {
+                final int start = Integer.numberOfTrailingZeros(word);
+                final int end = Math.min(32, start + Integer.numberOfTrailingZeros(~(word >>> start)));
+                out.addRun((i << 5) + shift + start, (i << 5) + shift + end);
+                word = (end == 32 ? 0 : word >>> end);
+                shift += end;
+            }
+        }
+        return out.toBitmap();
+    }
+
+    /**
+     * Returns the elements of this set as bitset words.
+     */
+    private int [] toWords() {
+        if (bits) {
+            final int [] words = new int [runs.limit()];
+            runs.duplicate().get(words);
+            return words;
+        }
+        return Writer.toWords(runs, runs.limit());
+    }
+
+    /**
+     * Returns the runs of this set, as pairs of <code>[start, end)</code>.
+     */
+    private IntBuffer toRuns() {
+        if (!bits) {
+            return runs;
+        }
+        final Writer writer = new Writer();
+        final int [] values = toArray();
+        for (int i = 0; i < values.length; i++) {
+            writer.add(values[i]);
+        }
+        return IntBuffer.wrap(writer.runs, 0, writer.length).slice();
+    }
+
+    /**
+     * Sets are equal if their elements are: containers are canonical.
+     */
+    public boolean equals(Object other) {
+        if (other instanceof RunBitmap) {
+            final RunBitmap bitmap = (RunBitmap) other;
+            return bits == bitmap.bits && runs.equals(bitmap.runs);
+        }
+        return false;
+    }
+
+    public int hashCode() {
+        return runs.hashCode();
+    }
+
+    public String toString() {
+        final IntBuffer runs = toRuns();
+        final StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < runs.limit(); i += 2) {
+            if (i > 0) b.append(", ");
+            b.append(runs.get(i)).append('-').append(runs.get(i + 1) - 1);
+        }
+        return b.append(']').toString();
+    }
+
+    /**
+     * Appends values (or runs) in increasing order.
+     */
+    final static class Writer {
+        private int [] runs = new int [8];
+        private int length;
+
+        /**
+         * Adds a value not smaller than the last value added.
+         */
+        void add(int value) {
+            if (length > 0) {
+                final int end = runs[length - 1];
+                if (value < end) {
+                    if (value >= runs[length - 2]) {
+                        return;
+                    }
+                    throw new RuntimeException("Values must be added in increasing order: " + value);
+                }
+                if (value == end) {
+                    runs[length - 1] = end + 1;
+                    return;
+                }
+            }
+            addRun(value, value + 1);
+        }
+
+        /**
+         * Adds a run past the last run.
+         */
+        void addRun(int start, int end) {
+            if (length > 0 && runs[length - 1] == start) {
+                runs[length - 1] = end;
+                return;
+            }
+            if (length == runs.length) {
+                final int [] grown = new int [runs.length * 2];
+                System.arraycopy(runs, 0, grown, 0, length);
+                runs = grown;
+            }
+            runs[length++] = start;
+            runs[length++] = end;
+        }
+
+        /**
+         * Returns the container of the added values: bits if the bitset
+         * is smaller than runs.
+         */
+        int container() {
+            return length > 0 && ((runs[length - 1] + 31) >>> 5) < length ? BITS : RUNS;
+        }
+
+        /**
+         * Returns the number of integers of the container (twice the number
+         * of runs or the number of bitset words).
+         */
+        int size() {
+            return container() == BITS ? (runs[length - 1] + 31) >>> 5 : length;
+        }
+
+        /**
+         * Copies the container to <code>out</code> at <code>offset</code>.
+         */
+        void copyTo(int [] out, int offset) {
+            if (container() == BITS) {
+                final int [] words = toWords(IntBuffer.wrap(runs), length);
+                System.arraycopy(words, 0, out, offset, words.length);
+            } else {
+                System.arraycopy(runs, 0, out, offset, length);
+            }
+        }
+
+        RunBitmap toBitmap() {
+            if (length == 0) {
+                return EMPTY;
+            }
+            if (container() == BITS) {
+                return new RunBitmap(IntBuffer.wrap(toWords(IntBuffer.wrap(runs), length)), BITS);
+            }
+            return new RunBitmap(IntBuffer.wrap(runs, 0, length).slice());
+        }
+
+        /**
+         * Returns bitset words of <code>length</code> integers of runs.
+         */
+        static int [] toWords(IntBuffer runs, int length) {
+            final int [] words = new int [length == 0 ? 0 : (runs.get(length - 1) + 31) >>> 5];
+            for (int i = 0; i < length; i += 2) {
+                final int start = runs.get(i);
+                final int end = runs.get(i + 1);
+                for (int w = start >>> 5; w <= (end - 1) >>> 5; w++) {
+                    final int from = Math.max(start, w << 5) - (w << 5);
+                    final int to = Math.min(end, (w + 1) << 5) - (w << 5);
+                    words[w] |= (to == 32 ? -1 : (1 << to) - 1) & (-1 << from);
+                }
+            }
+            return words;
+        }
+    }
+}
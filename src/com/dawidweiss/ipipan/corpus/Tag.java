@@ -1,5 +1,6 @@
 package com.dawidweiss.ipipan.corpus;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -40,6 +41,9 @@ public class Tag {
      */
     private final static boolean EMIT_UNDERSCORE = false;
 
+    /** Cached string images of numeric codes. */
+    private final static TagStringCache strings = new TagStringCache();
+
     /* Numeric codes of categories and their attributes */
     
     public final static long NOUN           = (1  << 0);
@@ -131,21 +135,27 @@ public class Tag {
 
     public final static long VOCALITY_WOK   = (1l << 48);
     public final static long VOCALITY_NWOK  = (1l << 49);
+    public final static long MASK_VOCALITY  = VOCALITY_WOK | VOCALITY_NWOK;
 
     public final static long AGLUT_AGL      = (1l << 48);
     public final static long AGLUT_NAGL     = (1l << 49);
+    public final static long MASK_AGGLUTINATION = AGLUT_AGL | AGLUT_NAGL;
     
     public final static long ACCOM_CONGR    = (1l << 44);
     public final static long ACCOM_REC      = (1l << 45);
+    public final static long MASK_ACCOMMODABILITY = ACCOM_CONGR | ACCOM_REC;
     
     public final static long PPRAEP_PRAEP   = (1l << 42);
     public final static long PPRAEP_NPRAEP  = (1l << 43);
+    public final static long MASK_POST_PREPOSITIONALITY = PPRAEP_PRAEP | PPRAEP_NPRAEP;
     
     public final static long ACC_ACC        = (1l << 40);
     public final static long ACC_NACC       = (1l << 41);
+    public final static long MASK_ACCENTABILITY = ACC_ACC | ACC_NACC;
     
     public final static long NEG_AFF        = (1l << 38);
     public final static long NEG_NEG        = (1l << 39);
+    public final static long MASK_NEGATION  = NEG_AFF | NEG_NEG;
 
     private static final int EMIT_DEGREE   = 1 << 0;
     private static final int EMIT_VOCALITY = 1 << 1;
@@ -565,7 +575,38 @@ public class Tag {
         return tagCode;
     }
     
+    /**
+     * Returns the string image of a numeric code. Images are rendered once
+     * and cached, repeated calls for the same code are cheap and do not
+     * allocate.
+     *
+     * @throws RuntimeException If the code is not valid.
+     */
     public static String toString(final long code) {
+        return strings.get(code);
+    }
+
+    /**
+     * Appends the string image of a numeric code (see {@link #toString(long)})
+     * to a buffer, without allocating.
+     */
+    public static StringBuilder appendTo(final StringBuilder buf, final long code) {
+        return buf.append(strings.get(code));
+    }
+
+    /**
+     * Appends the string image of a numeric code (see {@link #toString(long)})
+     * to any {@link Appendable}.
+     */
+    public static Appendable appendTo(final Appendable out, final long code) 
+        throws IOException {
+        return out.append(strings.get(code));
+    }
+
+    /**
+     * Renders the string image of a numeric code (uncached).
+     */
+    static String render(final long code) {
         StringBuffer buf = new StringBuffer();
 
         switch ((int) (code & MASK_POS)) {
@@ -784,6 +825,178 @@ public class Tag {
         return tagList;
     }
     
+    /**
+     * Parses a single tag given as ASCII bytes and returns its numeric code
+     * (as {@link #getCode()} would). This method is much faster than
+     * {@link #create(String)} and does not allocate memory, but it is
+     * stricter: empty fields or values are errors.
+     *
+     * @throws TagParserException If the part of speech is unknown.
+     * @throws RuntimeException If the tag is not valid.
+     */
+    public static long parseCode(final byte [] buf, final int off, final int len) {
+        return TagParser.parseCode(buf, off, off + len);
+    }
+
+    /**
+     * Parses a single tag and returns its numeric code 
+     * (see {@link #parseCode(byte[], int, int)}).
+     */
+    public static long parseCode(final CharSequence tag) {
+        return TagParser.parseCode(TagParser.toBytes(tag), 0, tag.length());
+    }
+
+    /**
+     * Parses <code>'|'</code>-separated alternatives of a tag given as
+     * ASCII bytes (see {@link #parseCode(byte[], int, int)}) and stores their
+     * codes in <code>codes</code>, as many as fit.
+     *
+     * @return Returns the number of alternatives. If it is larger than the
+     * length of <code>codes</code>, some codes have not been stored.
+     */
+    public static int parseCodes(final byte [] buf, final int off, final int len, final long [] codes) {
+        return TagParser.parseCodes(buf, off, len, codes, 0);
+    }
+
+    /**
+     * Parses <code>'|'</code>-separated alternatives of a tag
+     * (see {@link #parseCodes(byte[], int, int, long[])}).
+     */
+    public static int parseCodes(final CharSequence tagAlternatives, final long [] codes) {
+        return TagParser.parseCodes(TagParser.toBytes(tagAlternatives), 0, 
+            tagAlternatives.length(), codes, 0);
+    }
+
+    /**
+     * Returns codes of all alternatives of a tag, parsed once and cached
+     * (see {@link TagCodeCache}). The returned array is <b>shared</b> and 
+     * must not be modified.
+     *
+     * @throws TagParserException If the tag cannot be parsed.
+     */
+    public static long [] codesOf(final String tagAlternatives) {
+        return TagCodeCache.getInstance().getCodes(tagAlternatives);
+    }
+
+    /**
+     * Returns codes of all alternatives of a tag given as ASCII bytes
+     * (see {@link #codesOf(String)}).
+     */
+    public static long [] codesOf(final byte [] buf, final int off, final int len) {
+        return TagCodeCache.getInstance().getCodes(buf, off, len);
+    }
+
+    /* 
+     * Category accessors. Each returns the bits of a single category of 
+     * a numeric code (zero if the category is not present). Test for 
+     * particular values with has(long, long). 
+     */
+
+    public static long partOfSpeechOf(final long code) {
+        return code & MASK_POS;
+    }
+
+    public static long numberOf(final long code) {
+        return code & MASK_NUMBER;
+    }
+
+    public static long caseOf(final long code) {
+        return code & MASK_CASE;
+    }
+
+    public static long genderOf(final long code) {
+        return code & MASK_GENDER;
+    }
+
+    public static long personOf(final long code) {
+        return code & MASK_PERSON;
+    }
+
+    public static long degreeOf(final long code) {
+        return code & MASK_DEGREE;
+    }
+
+    public static long aspectOf(final long code) {
+        return code & MASK_ASPECT;
+    }
+
+    public static long negationOf(final long code) {
+        return code & MASK_NEGATION;
+    }
+
+    public static long accentabilityOf(final long code) {
+        return code & MASK_ACCENTABILITY;
+    }
+
+    public static long postPrepositionalityOf(final long code) {
+        return code & MASK_POST_PREPOSITIONALITY;
+    }
+
+    public static long accommodabilityOf(final long code) {
+        return code & MASK_ACCOMMODABILITY;
+    }
+
+    /**
+     * Agglutination shares bits with vocality, it is only meaningful
+     * for {@link #VERB_PRAET}.
+     */
+    public static long agglutinationOf(final long code) {
+        return code & MASK_AGGLUTINATION;
+    }
+
+    public static long vocalityOf(final long code) {
+        return code & MASK_VOCALITY;
+    }
+
+    /**
+     * Returns <code>true</code> if the tag has all the given attribute 
+     * values, for example <code>has(code, CASE_GEN | NUMBER_PL)</code>.
+     */
+    public static boolean has(final long code, final long values) {
+        return (code & values) == values;
+    }
+
+    /**
+     * Returns a predicate accepting tags {@link #contained(long, long) contained}
+     * in <code>widerTag</code>.
+     */
+    public static TagPredicate within(final long widerTag) {
+        return new TagPredicate() {
+            public boolean matches(long code) {
+                return contained(widerTag, code);
+            }
+        };
+    }
+
+    /**
+     * Returns a predicate accepting tags {@link #contained(long, long) contained}
+     * in any of <code>widerTags</code>.
+     */
+    public static TagPredicate within(final long [] widerTags) {
+        final long [] copy = new long [widerTags.length];
+        System.arraycopy(widerTags, 0, copy, 0, copy.length);
+        return new TagPredicate() {
+            public boolean matches(long code) {
+                for (int i = 0; i < copy.length; i++) {
+                    if (contained(copy[i], code)) return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a predicate accepting tags {@link #contained(long, long) contained}
+     * in any alternative of <code>widerTags</code>, for example
+     * <code>within("subst:_:gen:_|depr:_:gen:_")</code>.
+     *
+     * @throws TagParserException If the tag cannot be parsed.
+     */
+    public static TagPredicate within(final String widerTags) {
+        final long [] codes = codesOf(widerTags);
+        return codes.length == 1 ? within(codes[0]) : within(codes);
+    }
+
     public static boolean contained(final long widerTag, final long narrowTag) {
         if ((widerTag & Tag.MASK_POS) == (narrowTag & Tag.MASK_POS)) {
             final long masked = narrowTag & widerTag;
@@ -805,4 +1018,47 @@ public class Tag {
         }
         return false;
     }
+
+    /**
+     * Tests codes between <code>from</code> (inclusive) and <code>to</code>
+     * (exclusive) with {@link #contained(long, long)}: bit <code>i</code> of
+     * <code>out</code> is set if <code>codes[i]</code> is contained in 
+     * <code>widerTag</code> and cleared otherwise. Other bits are not 
+     * modified. This is much faster than calling 
+     * {@link #contained(long, long)} in a loop.
+     *
+     * @return Returns the number of matching codes.
+     */
+    public static int containedMask(final long widerTag, final long [] codes, 
+        final int from, final int to, final BitSet out) {
+        return TagArrays.containedMask(widerTag, codes, from, to, out);
+    }
+
+    /**
+     * Returns <code>true</code> if two codes share at least one value in
+     * each of the given categories. Categories are a combination of 
+     * <code>MASK_*</code> constants, for example 
+     * <code>MASK_CASE | MASK_NUMBER | MASK_GENDER</code> checks if an 
+     * adjective agrees with a noun. A category absent in either code
+     * never agrees. 
+     */
+    public static boolean agree(final long code, final long other, final long categories) {
+        return TagArrays.agree(code, other, categories);
+    }
+
+    /**
+     * The bulk version of {@link #agree(long, long, long)}: checks pairs of
+     * codes <code>left[leftFrom + i]</code> and <code>right[rightFrom + i]</code>
+     * for <code>0 &lt;= i &lt; length</code> and sets (or clears) bit 
+     * <code>leftFrom + i</code> of <code>out</code> accordingly. The arrays 
+     * may be the same, for example to check agreement of consecutive tokens.
+     *
+     * @return Returns the number of agreeing pairs.
+     */
+    public static int agreementMask(final long [] left, final int leftFrom, 
+        final long [] right, final int rightFrom, final int length, 
+        final long categories, final BitSet out) {
+        return TagArrays.agreementMask(left, leftFrom, right, rightFrom, 
+            length, categories, out);
+    }
 }
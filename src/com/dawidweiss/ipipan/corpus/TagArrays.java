@@ -0,0 +1,252 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.util.BitSet;
+
+/**
+ * Bulk operations on arrays of tag codes (see
+ * {@link Tag#containedMask(long, long[], int, int, BitSet)} and
+ * {@link Tag#agreementMask(long[], int, long[], int, int, long, BitSet)}).
+ *
+ * Codes are processed in blocks. The per-code test is branch-free
+ * arithmetic writing flags to a scratch array, a loop shape the JIT
+ * compiler can vectorize. Flags are then packed into words and only the
+ * matching bits are set in the output.
+ *
+ * Categories occupy contiguous ranges of bits, so a test "each of the
+ * selected fields of <code>x</code> is not zero" takes a few operations
+ * regardless of the number of fields: adding a field's mask to its 
+ * (masked) value carries into the bit just above the field if and only if
+ * the value is not zero. The bit above a field belongs to the next one,
+ * so every other category is tested in a separate pass (even and odd 
+ * fields).
+ *
+ * @author Dawid Weiss
+ */
+final class TagArrays {
+    /** Number of codes processed in one block. */
+    private final static int BLOCK = 1024;
+
+    /** Categories in the order of their bits. */
+    private final static long [] CATEGORIES = {
+        Tag.MASK_NUMBER, Tag.MASK_CASE, Tag.MASK_GENDER, Tag.MASK_PERSON,
+        Tag.MASK_DEGREE, Tag.MASK_ASPECT, Tag.MASK_NEGATION, Tag.MASK_ACCENTABILITY,
+        Tag.MASK_POST_PREPOSITIONALITY, Tag.MASK_ACCOMMODABILITY, Tag.MASK_VOCALITY
+    };
+
+    /** Categories compared by {@link Tag#contained(long, long)}. */
+    private final static long CONTAINED_CATEGORIES = Tag.MASK_ASPECT | Tag.MASK_CASE 
+        | Tag.MASK_DEGREE | Tag.MASK_GENDER | Tag.MASK_NUMBER | Tag.MASK_PERSON;
+
+    /** Even fields of {@link #CATEGORIES}. */
+    private final static long EVEN;
+
+    /** Odd fields of {@link #CATEGORIES}. */
+    private final static long ODD;
+
+    static {
+        long even = 0, odd = 0;
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if ((i & 1) == 0) {
+                even |= CATEGORIES[i];
+            } else {
+                odd |= CATEGORIES[i];
+            }
+        }
+        EVEN = even;
+        ODD = odd;
+    }
+
+    /** Gender bits without the "any masculine/neuter/plurale" group bits. */
+    private final static long GENDER_VALUES = Tag.MASK_GENDER
+        & ~(Tag.GENDER_M | Tag.GENDER_N | Tag.GENDER_P);
+
+    /** Specific neuter genders (see {@link #genders(long)}). */
+    private final static long GENDER_N12 = (Tag.GENDER_N1 | Tag.GENDER_N2) & ~Tag.GENDER_N;
+
+    /** Bit offset of {@link Tag#GENDER_N}. */
+    private final static int GENDER_N_SHIFT = Long.numberOfTrailingZeros(Tag.GENDER_N);
+
+    /**
+     * Per-thread buffers. Codes are copied to blocks indexed from zero,
+     * just like flags; otherwise the compiler cannot prove that loads and
+     * stores do not overlap and does not vectorize the loop.
+     */
+    private final static class Scratch {
+        final long [] left = new long [BLOCK];
+        final long [] right = new long [BLOCK];
+        final long [] flags = new long [BLOCK];
+    }
+
+    private final static ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private TagArrays() {
+        // No instances.
+    }
+
+    /**
+     * Returns full masks of categories with any bit set in 
+     * <code>bits</code>.
+     */
+    private static long fields(long bits) {
+        long fields = 0;
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if ((bits & CATEGORIES[i]) != 0) {
+                fields |= CATEGORIES[i];
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Returns bits just above each field of <code>fields</code>.
+     */
+    private static long carries(long fields) {
+        long carries = 0;
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if ((fields & CATEGORIES[i]) != 0) {
+                carries |= CATEGORIES[i] + (CATEGORIES[i] & -CATEGORIES[i]);
+            }
+        }
+        return carries;
+    }
+
+    /**
+     * Returns specific gender bits of a code. The IPI PAN "n" gender
+     * (a bare {@link Tag#GENDER_N}) is expanded to "n1.n2".
+     */
+    private static long genders(long code) {
+        final long specificN = code & GENDER_N12;
+        final long bareN = ((code >>> GENDER_N_SHIFT) & 1) & ~((specificN | -specificN) >>> 63);
+        return (code & GENDER_VALUES) | (-bareN & GENDER_N12);
+    }
+
+    /**
+     * Returns the shared values of two codes, with specific gender bits 
+     * (see {@link #genders(long)}).
+     */
+    private static long shared(long a, long b) {
+        return (a & b & ~Tag.MASK_GENDER) | (genders(a) & genders(b));
+    }
+
+    /**
+     * Returns zero if all fields of <code>even</code> and <code>odd</code>
+     * are not zero in <code>x</code>.
+     */
+    private static long missing(long x, long even, long evenCarries, long odd, long oddCarries) {
+        return ((((x & even) + even) & evenCarries) ^ evenCarries)
+            | ((((x & odd) + odd) & oddCarries) ^ oddCarries);
+    }
+
+    /**
+     * The bulk equivalent of {@link Tag#contained(long, long)}.
+     */
+    static int containedMask(long wider, long [] codes, int from, int to, BitSet out) {
+        checkRange(codes.length, from, to);
+
+        final long pos = wider & Tag.MASK_POS;
+        final long values = wider & CONTAINED_CATEGORIES;
+        final long fields = fields(values);
+        final long even = fields & EVEN;
+        final long odd = fields & ODD;
+        final long evenCarries = carries(even);
+        final long oddCarries = carries(odd);
+
+        final Scratch scratch = TagArrays.scratch.get();
+        final long [] block = scratch.left;
+        final long [] flags = scratch.flags;
+        int count = 0;
+        for (int base = from; base < to; base += BLOCK) {
+            final int n = Math.min(BLOCK, to - base);
+            System.arraycopy(codes, base, block, 0, n);
+            for (int i = 0; i < n; i++) {
+                final long c = block[i];
+                final long x = ((c & Tag.MASK_POS) ^ pos)
+                    | missing(c & values, even, evenCarries, odd, oddCarries);
+                flags[i] = ~(x | -x);
+            }
+            count += copy(flags, n, base, out);
+        }
+        return count;
+    }
+
+    /**
+     * The scalar equivalent of {@link #agreementMask}.
+     */
+    static boolean agree(long left, long right, long categories) {
+        final long shared = shared(left, right);
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if ((categories & CATEGORIES[i]) != 0 && (shared & CATEGORIES[i]) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks agreement of pairs of codes from two arrays (or two ranges of
+     * the same array).
+     */
+    static int agreementMask(long [] left, int leftFrom, long [] right, int rightFrom,
+        int length, long categories, BitSet out) {
+        checkRange(left.length, leftFrom, leftFrom + length);
+        checkRange(right.length, rightFrom, rightFrom + length);
+
+        final long fields = fields(categories);
+        final long even = fields & EVEN;
+        final long odd = fields & ODD;
+        final long evenCarries = carries(even);
+        final long oddCarries = carries(odd);
+
+        final Scratch scratch = TagArrays.scratch.get();
+        final long [] leftBlock = scratch.left;
+        final long [] rightBlock = scratch.right;
+        final long [] flags = scratch.flags;
+        int count = 0;
+        for (int offset = 0; offset < length; offset += BLOCK) {
+            final int n = Math.min(BLOCK, length - offset);
+            final int base = leftFrom + offset;
+            System.arraycopy(left, base, leftBlock, 0, n);
+            System.arraycopy(right, rightFrom + offset, rightBlock, 0, n);
+            for (int i = 0; i < n; i++) {
+                final long x = missing(shared(leftBlock[i], rightBlock[i]), 
+                    even, evenCarries, odd, oddCarries);
+                flags[i] = ~(x | -x);
+            }
+            count += copy(flags, n, base, out);
+        }
+        return count;
+    }
+
+    /**
+     * Sets or clears bits <code>[base, base + n)</code> of <code>out</code>
+     * according to sign bits of flags and returns the number of set bits.
+     */
+    private static int copy(long [] flags, int n, int base, BitSet out) {
+        out.clear(base, base + n);
+        int count = 0;
+        for (int i = 0; i < n; i += 64) {
+            final int m = Math.min(64, n - i);
+            long word = 0;
+            for (int j = 0; j < m; j++) {
+                word |= (flags[i + j] >>> 63) << j;
+            }
+            count += Long.bitCount(word);
+            while (word != 0) {
+                out.set(base + i + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return count;
+    }
+
+    private static void checkRange(int length, int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to
+                + ") out of bounds of an array of length " + length);
+        }
+    }
+}
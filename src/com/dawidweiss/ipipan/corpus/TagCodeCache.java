@@ -0,0 +1,169 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe cache of numeric codes of tags (see {@link Tag#getCode()}).
+ *
+ * Morfeusz emits a small, finite set of distinct tags, so every tag string
+ * (possibly with <code>|</code>-separated alternatives) is parsed only once.
+ * Subsequent lookups cost a single hash lookup and allocate nothing. Tags may
+ * be looked up by string or directly by their (ASCII) bytes, as returned
+ * by Morfeusz.
+ *
+ * The number of remembered tags is bounded; tags beyond the limit are
+ * parsed on each lookup, but not remembered.
+ *
+ * Returned arrays are <b>shared</b> and must not be modified.
+ *
+ * @author Dawid Weiss
+ */
+public final class TagCodeCache {
+    /** Maximum number of remembered tag strings (and byte sequences). */
+    final static int MAX_ENTRIES = 1 << 16;
+
+    /** The shared instance. */
+    private final static TagCodeCache instance = new TagCodeCache();
+
+    private final int maxEntries;
+
+    /** Codes of tags, by string. */
+    private final ConcurrentHashMap<String, long[]> codes = new ConcurrentHashMap<String, long[]>();
+
+    /**
+     * Codes of tags, by bytes. A hash table of immutable chains; readers do
+     * not lock (a stale read is a miss and is retried with the lock held),
+     * writers lock on <code>this</code>.
+     */
+    private volatile Entry[] table = new Entry[1024];
+
+    /** Number of entries in {@link #table}. Guarded by <code>this</code>. */
+    private int size;
+
+    private final static class Entry {
+        final byte[] key;
+        final int hash;
+        final long[] codes;
+        final Entry next;
+
+        Entry(byte[] key, int hash, long[] codes, Entry next) {
+            this.key = key;
+            this.hash = hash;
+            this.codes = codes;
+            this.next = next;
+        }
+
+        boolean matches(byte[] bytes, int offset, int length) {
+            if (key.length != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) return false;
+            }
+            return true;
+        }
+    }
+
+    TagCodeCache() {
+        this(MAX_ENTRIES);
+    }
+
+    TagCodeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static TagCodeCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns codes of all alternatives of a tag (see 
+     * {@link Tag#parseCodes(CharSequence, long[])}).
+     *
+     * @throws TagParserException If the tag cannot be parsed.
+     */
+    public long[] getCodes(String tagAlternatives) {
+        long[] result = codes.get(tagAlternatives);
+        if (result == null) {
+            final long[] parsed = new long[4];
+            final int count = Tag.parseCodes(tagAlternatives, parsed);
+            result = new long[count];
+            if (count <= parsed.length) {
+                System.arraycopy(parsed, 0, result, 0, count);
+            } else {
+                Tag.parseCodes(tagAlternatives, result);
+            }
+            if (codes.size() < maxEntries) {
+                codes.put(tagAlternatives, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns codes of all alternatives of a tag given as
+     * ASCII bytes (see {@link #getCodes(String)}).
+     */
+    public long[] getCodes(byte[] bytes, int offset, int length) {
+        final int hash = hash(bytes, offset, length);
+        final Entry[] table = this.table;
+        for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.matches(bytes, offset, length)) {
+                return e.codes;
+            }
+        }
+        return add(bytes, offset, length, hash);
+    }
+
+    private synchronized long[] add(byte[] bytes, int offset, int length, int hash) {
+        Entry[] table = this.table;
+        for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.matches(bytes, offset, length)) {
+                return e.codes;
+            }
+        }
+
+        final char[] chars = new char[length];
+        final byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = bytes[offset + i];
+            chars[i] = (char) (key[i] & 0xff);
+        }
+        final long[] result = getCodes(new String(chars));
+        if (size >= maxEntries) {
+            return result;
+        }
+
+        if (size >= table.length * 3 / 4) {
+            final Entry[] grown = new Entry[table.length * 2];
+            for (int i = 0; i < table.length; i++) {
+                for (Entry e = table[i]; e != null; e = e.next) {
+                    final int slot = e.hash & (grown.length - 1);
+                    grown[slot] = new Entry(e.key, e.hash, e.codes, grown[slot]);
+                }
+            }
+            table = grown;
+        }
+        final int slot = hash & (table.length - 1);
+        table[slot] = new Entry(key, hash, result, table[slot]);
+        size++;
+        this.table = table;
+        return result;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the number of remembered tag strings.
+     */
+    public int size() {
+        return codes.size();
+    }
+}
@@ -0,0 +1,231 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An inverted index from tag codes to rows of <code>(tokenId, tagCode)</code>
+ * pairs (see {@link TagIndexBuilder}). There is one {@link RunBitmap} of
+ * rows per part of speech and one per each attribute bit of the code
+ * layout ({@link Tag#CASE_GEN}, {@link Tag#GENDER_F} and so on), so
+ * queries are intersections and unions of bitmaps instead of scans.
+ *
+ * Every alternative of a token's tag is a separate row; a row matches a
+ * condition only if a single alternative does. Use {@link #tokens(RunBitmap)}
+ * to map rows to tokens.
+ *
+ * An index is a flat array of integers, stored in a file as is and
+ * memory-mapped by {@link #open(File)}; bitmaps are views of the mapped
+ * file. The format (big-endian integers):
+ * <pre>
+ * magic, version, rows, keys
+ * offsets[keys + 1]   -- of bitmaps, relative to the start of bitmaps
+ * containers[keys]    -- {@link RunBitmap#RUNS} or {@link RunBitmap#BITS}
+ * tokenIds[rows]
+ * bitmaps[]           -- start, end (exclusive) pairs or bitset words
+ * </pre>
+ * Each bitmap is stored in the smaller container (see {@link RunBitmap}),
+ * so the index is compact whether rows are sorted (long runs) or in
+ * corpus order (short runs of common attributes).
+ * Keys <code>0..255</code> are parts of speech ({@link Tag#MASK_POS}), key
+ * <code>256 + b</code> is bit <code>b</code> of the code.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @author Dawid Weiss
+ */
+public final class TagIndex {
+    final static int MAGIC = 0x54494458;
+    final static int VERSION = 2;
+
+    /** Number of part of speech keys. */
+    final static int POS_KEYS = (int) Tag.MASK_POS + 1;
+
+    /** Number of keys. */
+    final static int KEYS = POS_KEYS + 64;
+
+    /** Header length (magic, version, rows, keys). */
+    final static int HEADER = 4;
+
+    private final IntBuffer data;
+    private final int rows;
+    private final int containersStart;
+    private final int tokensStart;
+    private final int runsStart;
+
+    /** Bitmaps, created on first use (benign races). */
+    private final RunBitmap [] bitmaps = new RunBitmap [KEYS];
+
+    TagIndex(IntBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER || data.get(0) != MAGIC) {
+            throw new IOException("Not a tag index.");
+        }
+        if (data.get(1) != VERSION) {
+            throw new IOException("Unsupported tag index version: " + data.get(1));
+        }
+        if (data.get(3) != KEYS) {
+            throw new IOException("Unexpected number of keys: " + data.get(3));
+        }
+        this.rows = data.get(2);
+        this.containersStart = HEADER + KEYS + 1;
+        this.tokensStart = containersStart + KEYS;
+        this.runsStart = tokensStart + rows;
+        if (data.limit() < runsStart || data.limit() != runsStart + data.get(HEADER + KEYS)) {
+            throw new IOException("Truncated tag index.");
+        }
+        for (int i = 0; i < KEYS; i++) {
+            final int container = data.get(containersStart + i);
+            if (container != RunBitmap.RUNS && container != RunBitmap.BITS) {
+                throw new IOException("Unknown bitmap container: " + container);
+            }
+        }
+    }
+
+    /**
+     * Opens (memory-maps) an index written with
+     * {@link TagIndexBuilder#write(File)}.
+     */
+    public static TagIndex open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return new TagIndex(channel.map(FileChannel.MapMode.READ_ONLY,
+                0, channel.size()).asIntBuffer());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int getRowsCount() {
+        return rows;
+    }
+
+    /**
+     * Returns the token of a row.
+     */
+    public int getTokenId(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row out of bounds: " + row);
+        }
+        return data.get(tokensStart + row);
+    }
+
+    /**
+     * Returns distinct tokens of rows, in increasing order.
+     */
+    public int [] tokens(RunBitmap rows) {
+        final int [] rowIds = rows.toArray();
+        final int [] tokens = new int [rowIds.length];
+        for (int i = 0; i < rowIds.length; i++) {
+            tokens[i] = getTokenId(rowIds[i]);
+        }
+        Arrays.sort(tokens);
+        int count = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (count == 0 || tokens[count - 1] != tokens[i]) {
+                tokens[count++] = tokens[i];
+            }
+        }
+        final int [] result = new int [count];
+        System.arraycopy(tokens, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns all rows.
+     */
+    public RunBitmap all() {
+        return RunBitmap.range(0, rows);
+    }
+
+    /**
+     * Returns rows of a part of speech (for example {@link Tag#NOUN_SUBST}).
+     */
+    public RunBitmap partOfSpeech(long pos) {
+        return bitmap((int) (pos & Tag.MASK_POS));
+    }
+
+    /**
+     * Returns rows with an attribute bit set, for example
+     * {@link Tag#CASE_GEN}.
+     */
+    public RunBitmap bit(long bit) {
+        if (Long.bitCount(bit) != 1 || (bit & Tag.MASK_POS) != 0) {
+            throw new IllegalArgumentException("Not a single attribute bit: 0x"
+                + Long.toHexString(bit));
+        }
+        return bitmap(POS_KEYS + Long.numberOfTrailingZeros(bit));
+    }
+
+    /**
+     * Returns rows with all the given attribute values (and the part of
+     * speech, if <code>values</code> has one), for example
+     * <code>withAll(Tag.CASE_GEN | Tag.GENDER_F)</code>.
+     */
+    public RunBitmap withAll(long values) {
+        RunBitmap result = (values & Tag.MASK_POS) != 0 ? partOfSpeech(values) : all();
+        for (long bits = values & ~Tag.MASK_POS; bits != 0 && !result.isEmpty(); bits &= bits - 1) {
+            result = result.and(bitmap(POS_KEYS + Long.numberOfTrailingZeros(bits)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns rows matching a compiled query.
+     */
+    public RunBitmap search(TagQuery query) {
+        RunBitmap result = RunBitmap.EMPTY;
+        for (int pair = 0; pair < query.size(); pair++) {
+            // Parts of speech.
+            RunBitmap rows = RunBitmap.EMPTY;
+            int accepted = 0;
+            for (int p = 0; p < POS_KEYS; p++) {
+                if (query.acceptsPos(pair, p)) {
+                    accepted++;
+                    rows = rows.or(bitmap(p));
+                }
+            }
+            if (accepted == POS_KEYS) {
+                rows = all();
+            }
+
+            // Present, then absent attribute bits.
+            final long mask = query.getMask(pair) & ~Tag.MASK_POS;
+            final long value = query.getValue(pair) & ~Tag.MASK_POS;
+            for (long bits = value; bits != 0 && !rows.isEmpty(); bits &= bits - 1) {
+                rows = rows.and(bitmap(POS_KEYS + Long.numberOfTrailingZeros(bits)));
+            }
+            for (long bits = mask & ~value; bits != 0 && !rows.isEmpty(); bits &= bits - 1) {
+                rows = rows.andNot(bitmap(POS_KEYS + Long.numberOfTrailingZeros(bits)));
+            }
+            result = result.or(rows);
+        }
+        return result;
+    }
+
+    private RunBitmap bitmap(int key) {
+        RunBitmap bitmap = bitmaps[key];
+        if (bitmap == null) {
+            final int start = data.get(HEADER + key);
+            final int end = data.get(HEADER + key + 1);
+            if (start == end) {
+                bitmap = RunBitmap.EMPTY;
+            } else {
+                final IntBuffer view = data.duplicate();
+                view.limit(runsStart + end);
+                view.position(runsStart + start);
+                bitmap = new RunBitmap(view.slice(), data.get(containersStart + key));
+            }
+            bitmaps[key] = bitmap;
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,137 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.IntBuffer;
+
+/**
+ * Builds a {@link TagIndex}. Rows are added in order; each row is a token
+ * identifier (any integer, typically a position in a corpus) and a single
+ * tag code. A token with alternative tags (<code>|</code>) should be added
+ * as one row per alternative, see {@link #add(int, long[], int, int)}.
+ *
+ * Rows may be added in any order of tokens. Bitmaps of keys with long runs
+ * of rows (rows sorted by lexeme or by tag) are stored as runs, others as
+ * bitsets (see {@link RunBitmap}).
+ *
+ * @author Dawid Weiss
+ */
+public final class TagIndexBuilder {
+    private final RunBitmap.Writer [] keys = new RunBitmap.Writer [TagIndex.KEYS];
+    private int [] tokenIds = new int [1024];
+    private int rows;
+
+    public TagIndexBuilder() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new RunBitmap.Writer();
+        }
+    }
+
+    /**
+     * Adds a row and returns its number.
+     */
+    public int add(int tokenId, long code) {
+        if (rows == tokenIds.length) {
+            final int [] grown = new int [tokenIds.length * 2];
+            System.arraycopy(tokenIds, 0, grown, 0, rows);
+            tokenIds = grown;
+        }
+        final int row = rows++;
+        tokenIds[row] = tokenId;
+
+        keys[(int) (code & Tag.MASK_POS)].add(row);
+        for (long bits = code & ~Tag.MASK_POS; bits != 0; bits &= bits - 1) {
+            keys[TagIndex.POS_KEYS + Long.numberOfTrailingZeros(bits)].add(row);
+        }
+        return row;
+    }
+
+    /**
+     * Adds a row for each alternative of a token's tag.
+     */
+    public void add(int tokenId, long [] codes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(tokenId, codes[i]);
+        }
+    }
+
+    /**
+     * Adds a row for each alternative of a token's tag.
+     */
+    public void add(int tokenId, long [] codes) {
+        add(tokenId, codes, 0, codes.length);
+    }
+
+    /**
+     * Returns the number of rows added so far.
+     */
+    public int getRowsCount() {
+        return rows;
+    }
+
+    /**
+     * Returns an in-memory index of the rows added so far.
+     */
+    public TagIndex build() {
+        try {
+            return new TagIndex(IntBuffer.wrap(toArray()));
+        } catch (IOException e) {
+            throw new RuntimeException("Unreachable.", e);
+        }
+    }
+
+    /**
+     * Writes the index to a file (see {@link TagIndex#open(File)}).
+     */
+    public void write(File file) throws IOException {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            write(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes the index to a stream. The stream is not closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        final int [] image = toArray();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        for (int i = 0; i < image.length; i++) {
+            out.writeInt(image[i]);
+        }
+        out.flush();
+    }
+
+    private int [] toArray() {
+        int runs = 0;
+        for (int i = 0; i < keys.length; i++) {
+            runs += keys[i].size();
+        }
+
+        final int containersStart = TagIndex.HEADER + keys.length + 1;
+        final int tokensStart = containersStart + keys.length;
+        final int [] image = new int [tokensStart + rows + runs];
+        image[0] = TagIndex.MAGIC;
+        image[1] = TagIndex.VERSION;
+        image[2] = rows;
+        image[3] = keys.length;
+
+        final int runsStart = tokensStart + rows;
+        int offset = 0;
+        for (int i = 0; i < keys.length; i++) {
+            image[TagIndex.HEADER + i] = offset;
+            image[containersStart + i] = keys[i].container();
+            keys[i].copyTo(image, runsStart + offset);
+            offset += keys[i].size();
+        }
+        image[TagIndex.HEADER + keys.length] = offset;
+        System.arraycopy(tokenIds, 0, image, tokensStart, rows);
+        return image;
+    }
+}
@@ -0,0 +1,399 @@
+package com.dawidweiss.ipipan.corpus;
+
+/**
+ * A single-pass parser of tags producing numeric codes directly (see
+ * {@link Tag#parseCode(byte[], int, int)}). No intermediate strings, arrays
+ * or {@link Tag} objects are created, except when an error is reported.
+ *
+ * The grammar is the same as in {@link Tag#create(String)}, but the parser
+ * is stricter about malformed input: empty fields and empty values (for
+ * example a trailing <code>':'</code> or <code>'.'</code>) are errors.
+ *
+ * @author Dawid Weiss
+ */
+final class TagParser {
+    /* Categories. */
+    private final static int NUMBER = 0;
+    private final static int CASE = 1;
+    private final static int GENDER = 2;
+    private final static int PERSON = 3;
+    private final static int DEGREE = 4;
+    private final static int ASPECT = 5;
+    private final static int NEGATION = 6;
+    private final static int ACCENTABILITY = 7;
+    private final static int POST_PREPOSITIONALITY = 8;
+    private final static int ACCOMMODABILITY = 9;
+    private final static int AGGLUTINATION = 10;
+    private final static int VOCALITY = 11;
+
+    /** A flag of an optional slot in a grammar. */
+    private final static int OPTIONAL = 0x100;
+
+    private final static String [] CATEGORY_NAMES = {
+        "Number", "Case", "Gender", "Person", "Degree", "Aspect", "Negation",
+        "Accentability", "Post-prepositionality", "Accommodability",
+        "Agglutination", "Vocality"
+    };
+
+    /** Value names of categories. */
+    private final static byte [][][] VALUE_NAMES = new byte [CATEGORY_NAMES.length][][];
+
+    /** Value codes of categories. */
+    private final static long [][] VALUE_CODES = new long [CATEGORY_NAMES.length][];
+
+    /** Codes of all values of categories (the <code>_</code> wildcard). */
+    private final static long [] ALL_VALUES = new long [CATEGORY_NAMES.length];
+
+    static {
+        category(NUMBER, new String [] {"sg", "pl"},
+            new long [] {Tag.NUMBER_SG, Tag.NUMBER_PL});
+        category(CASE, new String [] {"nom", "gen", "dat", "acc", "inst", "loc", "voc"},
+            new long [] {Tag.CASE_NOM, Tag.CASE_GEN, Tag.CASE_DAT, Tag.CASE_ACC,
+                Tag.CASE_INST, Tag.CASE_LOC, Tag.CASE_VOC});
+        category(GENDER, new String [] {"m1", "m2", "m3", "f", "n1", "n2", "n", "p1", "p2", "p3"},
+            new long [] {Tag.GENDER_M1, Tag.GENDER_M2, Tag.GENDER_M3, Tag.GENDER_F,
+                Tag.GENDER_N1, Tag.GENDER_N2, Tag.GENDER_N, Tag.GENDER_P1, Tag.GENDER_P2,
+                Tag.GENDER_P3});
+        category(PERSON, new String [] {"pri", "sec", "ter"},
+            new long [] {Tag.PERSON_PRI, Tag.PERSON_SEC, Tag.PERSON_TER});
+        category(DEGREE, new String [] {"pos", "comp", "sup"},
+            new long [] {Tag.DEGREE_POS, Tag.DEGREE_COMP, Tag.DEGREE_SUP});
+        category(ASPECT, new String [] {"imperf", "perf"},
+            new long [] {Tag.ASPECT_IMPERF, Tag.ASPECT_PERF});
+        category(NEGATION, new String [] {"aff", "neg"},
+            new long [] {Tag.NEG_AFF, Tag.NEG_NEG});
+        category(ACCENTABILITY, new String [] {"akc", "nakc"},
+            new long [] {Tag.ACC_ACC, Tag.ACC_NACC});
+        category(POST_PREPOSITIONALITY, new String [] {"praep", "npraep"},
+            new long [] {Tag.PPRAEP_PRAEP, Tag.PPRAEP_NPRAEP});
+        category(ACCOMMODABILITY, new String [] {"congr", "rec"},
+            new long [] {Tag.ACCOM_CONGR, Tag.ACCOM_REC});
+        category(AGGLUTINATION, new String [] {"agl", "nagl"},
+            new long [] {Tag.AGLUT_AGL, Tag.AGLUT_NAGL});
+        category(VOCALITY, new String [] {"wok", "nwok"},
+            new long [] {Tag.VOCALITY_WOK, Tag.VOCALITY_NWOK});
+    }
+
+    private static void category(int category, String [] names, long [] codes) {
+        VALUE_NAMES[category] = bytes(names);
+        VALUE_CODES[category] = codes;
+        for (int i = 0; i < codes.length; i++) {
+            ALL_VALUES[category] |= codes[i];
+        }
+    }
+
+    /**
+     * A part of speech and its grammar: categories of the following
+     * fields, in order.
+     */
+    private final static class Pos {
+        final byte [] name;
+        final long code;
+        final int [] slots;
+        /** If <code>true</code>, fields after the last slot are ignored. */
+        final boolean ignoreTrailing;
+
+        Pos(String name, long code, int [] slots, boolean ignoreTrailing) {
+            this.name = bytes(new String [] {name})[0];
+            this.code = code;
+            this.slots = slots;
+            this.ignoreTrailing = ignoreTrailing;
+        }
+    }
+
+    private final static int [] NONE = {};
+    private final static int [] NCG = {NUMBER, CASE, GENDER};
+    private final static int [] NCGAN = {NUMBER, CASE, GENDER, ASPECT, NEGATION};
+    private final static int [] NPA = {NUMBER, PERSON, ASPECT};
+    private final static int [] NGA = {NUMBER, GENDER, ASPECT};
+
+    private final static Pos [] POS = {
+        new Pos("adja", Tag.ADJ_A, NONE, false),
+        new Pos("adjp", Tag.ADJ_P, NONE, false),
+        new Pos("conj", Tag.CONJ, NONE, false),
+        new Pos("interp", Tag.INTERP, NONE, false),
+        new Pos("pred", Tag.PRED, NONE, false),
+        new Pos("xxx", Tag.XXX, NONE, false),
+        new Pos("ign", Tag.IGN, NONE, false),
+        new Pos("adv", Tag.ADV, new int [] {DEGREE}, false),
+        new Pos("imps", Tag.VERB_IMPS, new int [] {ASPECT}, false),
+        new Pos("inf", Tag.VERB_INF, new int [] {ASPECT}, false),
+        new Pos("pant", Tag.VERB_PANT, new int [] {ASPECT}, false),
+        new Pos("pcon", Tag.VERB_PCON, new int [] {ASPECT}, false),
+        new Pos("qub", Tag.QUB, new int [] {VOCALITY | OPTIONAL}, false),
+        new Pos("prep", Tag.PREP, new int [] {CASE, VOCALITY | OPTIONAL}, false),
+        new Pos("siebie", Tag.PPRON_SIEBIE, new int [] {CASE}, true),
+        new Pos("subst", Tag.NOUN_SUBST, NCG, false),
+        new Pos("depr", Tag.NOUN_DEPR, NCG, false),
+        new Pos("xxs", Tag.XXS, NCG, false),
+        new Pos("ger", Tag.VERB_GER, NCGAN, false),
+        new Pos("ppron12", Tag.PPRON_12,
+            new int [] {NUMBER, CASE, GENDER, PERSON, ACCENTABILITY | OPTIONAL}, false),
+        new Pos("ppron3", Tag.PPRON_3,
+            new int [] {NUMBER, CASE, GENDER, PERSON, ACCENTABILITY | OPTIONAL,
+                POST_PREPOSITIONALITY | OPTIONAL}, false),
+        new Pos("num", Tag.NUM,
+            new int [] {NUMBER, CASE, GENDER, ACCOMMODABILITY | OPTIONAL}, true),
+        new Pos("adj", Tag.ADJ_, new int [] {NUMBER, CASE, GENDER, DEGREE}, false),
+        new Pos("pact", Tag.VERB_PACT, NCGAN, false),
+        new Pos("ppas", Tag.VERB_PPAS, NCGAN, false),
+        new Pos("bedzie", Tag.VERB_BEDZIE, NPA, false),
+        new Pos("fin", Tag.VERB_FIN, NPA, false),
+        new Pos("impt", Tag.VERB_IMPT, NPA, false),
+        new Pos("winien", Tag.WINIEN, NGA, false),
+        new Pos("praet", Tag.VERB_PRAET,
+            new int [] {NUMBER, GENDER, ASPECT, AGGLUTINATION | OPTIONAL}, false),
+        new Pos("aglt", Tag.VERB_AGLT, new int [] {NUMBER, PERSON, ASPECT, VOCALITY}, false),
+    };
+
+    /** Parts of speech by the first letter of their name. */
+    private final static Pos [][] POS_BY_LETTER = new Pos ['z' - 'a' + 1][];
+    static {
+        for (int letter = 0; letter < POS_BY_LETTER.length; letter++) {
+            int count = 0;
+            for (int i = 0; i < POS.length; i++) {
+                if (POS[i].name[0] == 'a' + letter) count++;
+            }
+            POS_BY_LETTER[letter] = new Pos [count];
+            for (int i = 0, j = 0; i < POS.length; i++) {
+                if (POS[i].name[0] == 'a' + letter) POS_BY_LETTER[letter][j++] = POS[i];
+            }
+        }
+    }
+
+    /** Scratch buffers for parsing character sequences. */
+    private final static ThreadLocal<byte []> scratch = new ThreadLocal<byte []>() {
+        protected byte [] initialValue() {
+            return new byte [256];
+        }
+    };
+
+    private TagParser() {
+        // No instances.
+    }
+
+    /**
+     * Copies ASCII characters to a thread-local buffer (other characters
+     * are replaced with a byte that never matches).
+     */
+    static byte [] toBytes(CharSequence chars) {
+        byte [] buffer = scratch.get();
+        if (buffer.length < chars.length()) {
+            buffer = new byte [Math.max(chars.length(), buffer.length * 2)];
+            scratch.set(buffer);
+        }
+        for (int i = 0; i < chars.length(); i++) {
+            final char c = chars.charAt(i);
+            buffer[i] = (byte) (c < 0x80 ? c : 0xff);
+        }
+        return buffer;
+    }
+
+    /**
+     * Parses alternatives separated with <code>'|'</code> and stores their
+     * codes in <code>codes</code> (as many as fit).
+     *
+     * @return Returns the number of alternatives.
+     */
+    static int parseCodes(byte [] buf, int off, int len, long [] codes, int codesOffset) {
+        final int end = off + len;
+        int count = 0;
+        int start = off;
+        for (int i = off; i <= end; i++) {
+            if (i == end || buf[i] == '|') {
+                if (i == start && isTrailing(buf, i, end)) {
+                    // Trailing empty alternatives are ignored (as in Tag.create()).
+                    break;
+                }
+                final long code = parseCode(buf, start, i);
+                if (codesOffset + count < codes.length) {
+                    codes[codesOffset + count] = code;
+                }
+                count++;
+                start = i + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code> if there are only separators from
+     * <code>from</code> to <code>end</code>.
+     */
+    private static boolean isTrailing(byte [] buf, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] != '|') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a single tag from <code>start</code> to <code>end</code>.
+     */
+    static long parseCode(byte [] buf, int start, int end) {
+        int fieldEnd = indexOf(buf, ':', start, end);
+        final Pos pos = findPos(buf, start, fieldEnd);
+        if (pos == null) {
+            throw new TagParserException("Unknown POS tag: '" + string(buf, start, end) + "'");
+        }
+
+        long code = pos.code;
+        final int [] slots = pos.slots;
+        int slot = 0;
+        while (fieldEnd < end) {
+            final int fieldStart = fieldEnd + 1;
+            fieldEnd = indexOf(buf, ':', fieldStart, end);
+
+            if (slot == slots.length) {
+                if (pos.ignoreTrailing) break;
+                throw new RuntimeException("Incorrect extra tag data: " + string(buf, start, end));
+            }
+
+            long values;
+            while ((values = parseValues(slots[slot] & ~OPTIONAL, buf, fieldStart, fieldEnd)) == 0
+                && (slots[slot] & OPTIONAL) != 0 && slot + 1 < slots.length) {
+                slot++;
+            }
+            if (values == 0) {
+                throw new RuntimeException("Illegal attribute value: "
+                    + string(buf, fieldStart, fieldEnd));
+            }
+            code |= values;
+            slot++;
+        }
+
+        if (slot < slots.length && (slots[slot] & OPTIONAL) == 0) {
+            throw new RuntimeException(CATEGORY_NAMES[slots[slot]] + " not present in tag data.");
+        }
+        return code;
+    }
+
+    private static Pos findPos(byte [] buf, int start, int end) {
+        if (start == end) return null;
+        final int letter = buf[start] - 'a';
+        if (letter < 0 || letter >= POS_BY_LETTER.length) return null;
+
+        final Pos [] candidates = POS_BY_LETTER[letter];
+        for (int i = 0; i < candidates.length; i++) {
+            if (equals(candidates[i].name, buf, start, end)) {
+                return candidates[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses <code>'.'</code>-separated values (or the <code>'_'</code> wildcard)
+     * of a category.
+     *
+     * @return Returns the code of the values or 0 if any value is invalid.
+     */
+    private static long parseValues(int category, byte [] buf, int start, int end) {
+        if (end - start == 1 && buf[start] == '_') {
+            return ALL_VALUES[category];
+        }
+
+        final byte [][] names = VALUE_NAMES[category];
+        final long [] codes = VALUE_CODES[category];
+        long result = 0;
+        int valueStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buf[i] == '.') {
+                long value = 0;
+                for (int j = 0; j < names.length; j++) {
+                    if (equals(names[j], buf, valueStart, i)) {
+                        value = codes[j];
+                        break;
+                    }
+                }
+                if (value == 0) {
+                    return 0;
+                }
+                result |= value;
+                valueStart = i + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code of a part of speech or -1 if the name is unknown.
+     */
+    static long posCode(String name) {
+        final Pos pos = findPos(toBytes(name), 0, name.length());
+        return pos == null ? -1 : pos.code;
+    }
+
+    /**
+     * Returns the category of a value name (a category constant) or -1 if
+     * the name is unknown. Names of values are unique across categories,
+     * except for vocality and agglutination, which share codes.
+     */
+    static int categoryOf(String value) {
+        final byte [] buf = toBytes(value);
+        for (int category = 0; category < VALUE_NAMES.length; category++) {
+            final byte [][] names = VALUE_NAMES[category];
+            for (int j = 0; j < names.length; j++) {
+                if (equals(names[j], buf, 0, value.length())) {
+                    return category;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the code of a value of a category or 0 if the name is unknown.
+     */
+    static long valueCode(int category, String value) {
+        final byte [] buf = toBytes(value);
+        final byte [][] names = VALUE_NAMES[category];
+        for (int j = 0; j < names.length; j++) {
+            if (equals(names[j], buf, 0, value.length())) {
+                return VALUE_CODES[category][j];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the name of a category.
+     */
+    static String categoryName(int category) {
+        return CATEGORY_NAMES[category];
+    }
+
+    private static int indexOf(byte [] buf, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == c) return i;
+        }
+        return end;
+    }
+
+    private static boolean equals(byte [] name, byte [] buf, int start, int end) {
+        if (name.length != end - start) return false;
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buf[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static String string(byte [] buf, int start, int end) {
+        final char [] chars = new char [end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buf[start + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static byte [][] bytes(String [] strings) {
+        final byte [][] result = new byte [strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            result[i] = new byte [strings[i].length()];
+            for (int j = 0; j < result[i].length; j++) {
+                result[i][j] = (byte) strings[i].charAt(j);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package com.dawidweiss.ipipan.corpus;
+
+/**
+ * A condition on numeric tag codes (see {@link Tag#getCode()}). Predicates
+ * work on primitive codes only, so filtering analyses never creates
+ * {@link Tag} objects. 
+ *
+ * Predicates are usually created with {@link Tag#within(String)} and
+ * combined with {@link #and(TagPredicate)}, {@link #or(TagPredicate)} and 
+ * {@link #negate()}. Implementations must be thread-safe.
+ *
+ * @author Dawid Weiss
+ */
+public abstract class TagPredicate {
+    /**
+     * Returns <code>true</code> if the tag's code is accepted.
+     */
+    public abstract boolean matches(long code);
+
+    /**
+     * Returns <code>true</code> if any of the codes (for example
+     * alternatives of a single tag) is accepted.
+     */
+    public final boolean matchesAny(long [] codes) {
+        return matchesAny(codes, 0, codes.length);
+    }
+
+    /**
+     * Returns <code>true</code> if any of the codes between 
+     * <code>from</code> (inclusive) and <code>to</code> (exclusive)
+     * is accepted.
+     */
+    public boolean matchesAny(long [] codes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (matches(codes[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a predicate accepting codes accepted by this one and
+     * <code>other</code>.
+     */
+    public TagPredicate and(final TagPredicate other) {
+        final TagPredicate self = this;
+        return new TagPredicate() {
+            public boolean matches(long code) {
+                return self.matches(code) && other.matches(code);
+            }
+        };
+    }
+
+    /**
+     * Returns a predicate accepting codes accepted by this one or
+     * <code>other</code>.
+     */
+    public TagPredicate or(final TagPredicate other) {
+        final TagPredicate self = this;
+        return new TagPredicate() {
+            public boolean matches(long code) {
+                return self.matches(code) || other.matches(code);
+            }
+        };
+    }
+
+    /**
+     * Returns a predicate accepting codes rejected by this one.
+     */
+    public TagPredicate negate() {
+        final TagPredicate self = this;
+        return new TagPredicate() {
+            public boolean matches(long code) {
+                return !self.matches(code);
+            }
+        };
+    }
+}
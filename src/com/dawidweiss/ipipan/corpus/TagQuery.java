@@ -0,0 +1,307 @@
+package com.dawidweiss.ipipan.corpus;
+
+import java.util.ArrayList;
+
+/**
+ * A compiled tag query, for example <code>subst:pl:gen|adj:*:gen</code>.
+ *
+ * A query is a list of <code>'|'</code>-separated alternatives; a code
+ * matches if it matches any alternative. An alternative is a list of
+ * <code>':'</code>-separated fields:
+ * <ul>
+ * <li>the first field is a part of speech (<code>subst</code>), a set of
+ * parts of speech (<code>subst.depr</code>) or a wildcard (<code>*</code>
+ * or <code>_</code>),</li>
+ * <li>the remaining fields are sets of values of a single category
+ * (<code>gen</code>, <code>gen.acc</code>, <code>m1.m2</code>) or wildcards.
+ * A tag matches a set if it has at least one of its values. Categories are
+ * recognized by value names, so fields may be omitted or given in any
+ * order: <code>subst:gen</code> matches nouns in genitive of any number
+ * and gender.</li>
+ * </ul>
+ * Any field may be negated with a leading <code>'!'</code>:
+ * <code>!subst:!gen.acc</code> matches anything but nouns, in neither
+ * genitive nor accusative.
+ *
+ * Queries are compiled into a list of <code>(mask, value)</code> pairs
+ * (and sets of accepted parts of speech, if an alternative accepts more
+ * than one); matching a code takes a few bit operations per pair. Codes 
+ * with a part of speech not accepted by any alternative are rejected with
+ * a single test.
+ *
+ * @author Dawid Weiss
+ */
+public final class TagQuery extends TagPredicate {
+    /** Maximum number of pairs of a compiled query. */
+    private final static int MAX_TERMS = 1024;
+
+    /** Words of a set of parts of speech (all codes of {@link Tag#MASK_POS}). */
+    private final static int POS_WORDS = (int) (Tag.MASK_POS + 1) / 64;
+
+    /** Bits of specific genders (without the gender group bits). */
+    private final static long GENDER_GROUPS = Tag.GENDER_M | Tag.GENDER_N | Tag.GENDER_P;
+
+    private final String query;
+
+    /* Compiled pairs: code matches pair i if (code & masks[i]) == values[i] and
+     * its part of speech is in the set at pos[i * POS_WORDS] (pos is null if
+     * parts of speech are in masks and values). */
+    private final long [] masks;
+    private final long [] values;
+    private final long [] pos;
+
+    /** Parts of speech of all alternatives, checked first. */
+    private final long [] anyPos = new long [POS_WORDS];
+
+    /**
+     * A conjunction of conditions (during compilation).
+     */
+    private final static class Term {
+        final long mask;
+        final long value;
+        final long [] pos;
+
+        Term(long mask, long value, long [] pos) {
+            this.mask = mask;
+            this.value = value;
+            this.pos = pos;
+        }
+    }
+
+    private TagQuery(String query, ArrayList<Term> terms) {
+        this.query = query;
+        this.masks = new long [terms.size()];
+        this.values = new long [terms.size()];
+
+        // A single part of speech is a (mask, value) pair too.
+        boolean singlePos = true;
+        for (int i = 0; i < masks.length; i++) {
+            final Term term = terms.get(i);
+            masks[i] = term.mask;
+            values[i] = term.value;
+            int count = 0;
+            for (int w = 0; w < POS_WORDS; w++) {
+                anyPos[w] |= term.pos[w];
+                count += Long.bitCount(term.pos[w]);
+            }
+            if (count == 1) {
+                masks[i] |= Tag.MASK_POS;
+                values[i] |= firstPos(term.pos);
+            } else {
+                singlePos = false;
+            }
+        }
+
+        if (singlePos) {
+            this.pos = null;
+        } else {
+            this.pos = new long [masks.length * POS_WORDS];
+            for (int i = 0; i < masks.length; i++) {
+                System.arraycopy(terms.get(i).pos, 0, pos, i * POS_WORDS, POS_WORDS);
+            }
+        }
+    }
+
+    private static long firstPos(long [] set) {
+        for (int w = 0; ; w++) {
+            if (set[w] != 0) {
+                return w * 64 + Long.numberOfTrailingZeros(set[w]);
+            }
+        }
+    }
+
+    /**
+     * Compiles a query.
+     *
+     * @throws TagParserException If a part of speech is unknown.
+     * @throws RuntimeException If the query is not valid.
+     */
+    public static TagQuery compile(String query) {
+        final ArrayList<Term> terms = new ArrayList<Term>();
+        final String [] alternatives = query.split("\\|", -1);
+        for (int i = 0; i < alternatives.length; i++) {
+            compileAlternative(alternatives[i].trim(), terms);
+            if (terms.size() > MAX_TERMS) {
+                throw new RuntimeException("Tag query too complex: " + query);
+            }
+        }
+        return new TagQuery(query, terms);
+    }
+
+    private static void compileAlternative(String alternative, ArrayList<Term> terms) {
+        final String [] fields = alternative.split(":", -1);
+
+        ArrayList<Term> current = new ArrayList<Term>();
+        current.add(new Term(0, 0, compilePos(fields[0].trim(), alternative)));
+
+        for (int i = 1; i < fields.length; i++) {
+            String field = fields[i].trim();
+            if (isWildcard(field)) {
+                continue;
+            }
+            final boolean negated = field.startsWith("!");
+            if (negated) {
+                field = field.substring(1);
+            }
+
+            final long [] codes = compileValues(field, alternative);
+            final ArrayList<Term> next = new ArrayList<Term>();
+            for (int t = 0; t < current.size(); t++) {
+                final Term term = current.get(t);
+                if (negated) {
+                    // None of the values: a single conjunction.
+                    long absent = 0;
+                    for (int v = 0; v < codes.length; v++) {
+                        absent |= specific(codes[v]);
+                    }
+                    if ((term.value & absent) == 0) {
+                        next.add(new Term(term.mask | absent, term.value, term.pos));
+                    }
+                } else {
+                    // Any of the values: one term per value.
+                    for (int v = 0; v < codes.length; v++) {
+                        if ((term.mask & ~term.value & codes[v]) == 0) {
+                            next.add(new Term(term.mask | codes[v], term.value | codes[v], term.pos));
+                        }
+                    }
+                }
+                if (next.size() > MAX_TERMS) {
+                    throw new RuntimeException("Tag query too complex: " + alternative);
+                }
+            }
+            current = next;
+        }
+        terms.addAll(current);
+    }
+
+    /**
+     * Returns the set of parts of speech of the first field of an alternative.
+     */
+    private static long [] compilePos(String field, String alternative) {
+        final long [] set = new long [POS_WORDS];
+        if (isWildcard(field)) {
+            fill(set);
+            return set;
+        }
+
+        final boolean negated = field.startsWith("!");
+        if (negated) {
+            field = field.substring(1);
+        }
+        final String [] names = field.split("\\.", -1);
+        for (int i = 0; i < names.length; i++) {
+            final long code = TagParser.posCode(names[i]);
+            if (code < 0) {
+                throw new TagParserException("Unknown POS tag: '" + names[i] + "' in: " + alternative);
+            }
+            set[(int) code >>> 6] |= 1L << code;
+        }
+        if (negated) {
+            for (int i = 0; i < set.length; i++) {
+                set[i] = ~set[i];
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Returns codes of <code>'.'</code>-separated values of a single category.
+     */
+    private static long [] compileValues(String field, String alternative) {
+        final String [] names = field.split("\\.", -1);
+        final long [] codes = new long [names.length];
+        int category = -1;
+        for (int i = 0; i < names.length; i++) {
+            final int c = TagParser.categoryOf(names[i]);
+            if (c < 0) {
+                throw new RuntimeException("Illegal attribute value: '" + names[i] + "' in: " + alternative);
+            }
+            if (category >= 0 && c != category) {
+                throw new RuntimeException("Values of different categories ("
+                    + TagParser.categoryName(category) + ", " + TagParser.categoryName(c)
+                    + ") in: " + alternative);
+            }
+            category = c;
+            codes[i] = TagParser.valueCode(c, names[i]);
+        }
+        return codes;
+    }
+
+    /**
+     * Returns the bits which are absent in a tag without the given value.
+     * Specific genders share group bits (<code>m1</code>, <code>m2</code>),
+     * so only their own bits are used.
+     */
+    private static long specific(long code) {
+        final long specific = code & ~GENDER_GROUPS;
+        return specific != 0 ? specific : code;
+    }
+
+    private static boolean isWildcard(String field) {
+        return "*".equals(field) || "_".equals(field);
+    }
+
+    private static void fill(long [] set) {
+        for (int i = 0; i < set.length; i++) {
+            set[i] = -1L;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the code matches the query.
+     */
+    public boolean matches(long code) {
+        final int p = (int) (code & Tag.MASK_POS);
+        final long posBit = 1L << p;
+        if ((anyPos[p >>> 6] & posBit) == 0) {
+            return false;
+        }
+
+        final long [] masks = this.masks;
+        final long [] values = this.values;
+        if (pos == null) {
+            for (int i = 0; i < masks.length; i++) {
+                if ((code & masks[i]) == values[i]) return true;
+            }
+        } else {
+            for (int i = 0, w = p >>> 6; i < masks.length; i++, w += POS_WORDS) {
+                if ((code & masks[i]) == values[i] && (pos[w] & posBit) != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of compiled <code>(mask, value)</code> pairs.
+     */
+    public int size() {
+        return masks.length;
+    }
+
+    /* Compiled pairs, for TagIndex. */
+
+    long getMask(int pair) {
+        return masks[pair];
+    }
+
+    long getValue(int pair) {
+        return values[pair];
+    }
+
+    /**
+     * Returns <code>true</code> if a part of speech may match a pair.
+     */
+    boolean acceptsPos(int pair, int p) {
+        if (pos == null) {
+            return (values[pair] & Tag.MASK_POS) == p;
+        }
+        return (pos[pair * POS_WORDS + (p >>> 6)] & (1L << p)) != 0;
+    }
+
+    /**
+     * Returns the source of the query.
+     */
+    public String toString() {
+        return query;
+    }
+}
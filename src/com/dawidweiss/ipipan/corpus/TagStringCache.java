@@ -0,0 +1,90 @@
+package com.dawidweiss.ipipan.corpus;
+
+/**
+ * A thread-safe memo of tag codes rendered back to strings 
+ * (see {@link Tag#toString(long)}).
+ *
+ * Readers do not lock and do not allocate: the table is a hash table of
+ * immutable chains (a stale read is a miss and is retried with the lock 
+ * held). The number of entries is bounded; codes beyond the limit are 
+ * rendered, but not remembered.
+ *
+ * @author Dawid Weiss
+ */
+final class TagStringCache {
+    /** Maximum number of remembered codes. */
+    final static int MAX_ENTRIES = 1 << 16;
+
+    private volatile Entry [] table = new Entry [1024];
+
+    /** Number of entries in {@link #table}. Guarded by <code>this</code>. */
+    private int size;
+
+    private final static class Entry {
+        final long code;
+        final String image;
+        final Entry next;
+
+        Entry(long code, String image, Entry next) {
+            this.code = code;
+            this.image = image;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Returns the string image of a code.
+     */
+    String get(long code) {
+        final int hash = hash(code);
+        final Entry [] table = this.table;
+        for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.code == code) {
+                return e.image;
+            }
+        }
+        return add(code, hash);
+    }
+
+    private synchronized String add(long code, int hash) {
+        Entry [] table = this.table;
+        for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.code == code) {
+                return e.image;
+            }
+        }
+
+        final String image = Tag.render(code);
+        if (size >= MAX_ENTRIES) {
+            return image;
+        }
+
+        if (size >= table.length * 3 / 4) {
+            final Entry [] grown = new Entry [table.length * 2];
+            for (int i = 0; i < table.length; i++) {
+                for (Entry e = table[i]; e != null; e = e.next) {
+                    final int slot = hash(e.code) & (grown.length - 1);
+                    grown[slot] = new Entry(e.code, e.image, grown[slot]);
+                }
+            }
+            table = grown;
+        }
+        final int slot = hash & (table.length - 1);
+        table[slot] = new Entry(code, image, table[slot]);
+        size++;
+        this.table = table;
+        return image;
+    }
+
+    private static int hash(long code) {
+        final int hash = (int) (code ^ (code >>> 32)) * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the number of remembered codes.
+     */
+    synchronized int size() {
+        return size;
+    }
+}
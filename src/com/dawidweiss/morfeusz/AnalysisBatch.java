@@ -0,0 +1,180 @@
+package com.dawidweiss.morfeusz;
+
+
+/**
+ * The result of {@link Analyzer#analyzeBatch(CharSequence[])}: analyses of
+ * many terms, stored in a single packed buffer with offset tables.
+ *
+ * The native code fills the following structures:
+ * <ul>
+ *   <li><code>data</code> holds token, lemma and tag bytes of all segments
+ *   (in this order), back to back,</li>
+ *   <li><code>segments</code> holds {@link #SEGMENT_INTS} integers for every
+ *   segment: start node, end node and end offsets (in <code>data</code>) of
+ *   the token, lemma and tag; the token starts where the previous
+ *   segment's tag ends,</li>
+ *   <li><code>wordEnds</code> holds, for every term, the index of the
+ *   first segment of the next term.</li>
+ * </ul>
+ *
+ * Instances of this class are owned by an {@link Analyzer} and are
+ * <b>reused on subsequent calls</b>, as are <code>InterpMorf</code> arrays.
+ *
+ * @since 1.3
+ */
+public final class AnalysisBatch {
+    /** Number of integers describing a single segment. */
+    static final int SEGMENT_INTS = 5;
+
+    private static final int P = 0;
+    private static final int K = 1;
+    private static final int TOKEN_END = 2;
+    private static final int LEMMA_END = 3;
+    private static final int TAG_END = 4;
+
+    /** Byte-to-character encoding used in Morfeusz. */
+    private final String encoding;
+
+    /** Decoder for {@link #encoding}. */
+    private final CharDecoder decoder;
+
+    /** Packed token, lemma and tag bytes. */
+    byte[] data = new byte[4096];
+
+    /** Segment descriptors, {@link #SEGMENT_INTS} per segment. */
+    int[] segments = new int[SEGMENT_INTS * 256];
+
+    /** Exclusive end index of segments of every term. */
+    int[] wordEnds = new int[16];
+
+    /** Number of analyzed terms. */
+    int words;
+
+    AnalysisBatch(String encoding) {
+        this.encoding = encoding;
+        this.decoder = CharDecoder.forEncoding(encoding);
+    }
+
+    /**
+     * Returns the number of analyzed terms.
+     */
+    public int size() {
+        return words;
+    }
+
+    /**
+     * Returns the number of segments in the analysis of the given term.
+     */
+    public int getSegmentsCount(int word) {
+        return wordEnds[word] - firstSegment(word);
+    }
+
+    /**
+     * Returns the start node of a segment of the given term.
+     */
+    public int getNodeStart(int word, int segment) {
+        return segments[index(word, segment) + P];
+    }
+
+    /**
+     * Returns the end node of a segment of the given term.
+     */
+    public int getNodeEnd(int word, int segment) {
+        return segments[index(word, segment) + K];
+    }
+
+    /**
+     * Returns the token image of a segment of the given term.
+     */
+    public String getTokenImage(int word, int segment) {
+        final int i = index(word, segment);
+        return decode(start(i), segments[i + TOKEN_END]);
+    }
+
+    /**
+     * Returns the lemma image of a segment of the given term.
+     */
+    public String getLemmaImage(int word, int segment) {
+        final int i = index(word, segment);
+        return decode(segments[i + TOKEN_END], segments[i + LEMMA_END]);
+    }
+
+    /**
+     * Returns the tag image of a segment of the given term.
+     */
+    public String getTagImage(int word, int segment) {
+        final int i = index(word, segment);
+        return decode(segments[i + LEMMA_END], segments[i + TAG_END]);
+    }
+
+    /**
+     * Returns detached copies of the segments of the given term
+     * (see {@link InterpMorf#copy()}).
+     */
+    public InterpMorf[] getSegments(int word) {
+        final InterpMorf[] result = new InterpMorf[getSegmentsCount(word)];
+        for (int j = 0; j < result.length; j++) {
+            final int i = index(word, j);
+            final int tokenStart = start(i);
+            final int tokenEnd = segments[i + TOKEN_END];
+            final int lemmaEnd = segments[i + LEMMA_END];
+            final int tagEnd = segments[i + TAG_END];
+
+            final InterpMorf segment = new InterpMorf(encoding,
+                copyOf(tokenStart, tokenEnd), copyOf(tokenEnd, lemmaEnd), copyOf(lemmaEnd, tagEnd));
+            segment.p = segments[i + P];
+            segment.k = segments[i + K];
+            segment.tokenLength = segment.token.length;
+            segment.lemmaLength = segment.lemma.length;
+            segment.tagLength = segment.tag.length;
+            result[j] = segment;
+        }
+        return result;
+    }
+
+    /**
+     * Stores offsets (in {@link #data}) of a segment of the given term in
+     * <code>bounds</code>: token start, token end (lemma start), lemma end
+     * (tag start) and tag end.
+     */
+    void getBounds(int word, int segment, int[] bounds) {
+        final int i = index(word, segment);
+        bounds[0] = start(i);
+        bounds[1] = segments[i + TOKEN_END];
+        bounds[2] = segments[i + LEMMA_END];
+        bounds[3] = segments[i + TAG_END];
+    }
+
+    private int firstSegment(int word) {
+        if (word < 0 || word >= words) {
+            throw new IndexOutOfBoundsException("Word index out of range: " + word);
+        }
+        return word == 0 ? 0 : wordEnds[word - 1];
+    }
+
+    private int index(int word, int segment) {
+        final int first = firstSegment(word);
+        if (segment < 0 || first + segment >= wordEnds[word]) {
+            throw new IndexOutOfBoundsException("Segment index out of range: " + segment);
+        }
+        return (first + segment) * SEGMENT_INTS;
+    }
+
+    /**
+     * Returns the start offset of a segment's token (the end of
+     * the previous segment's tag).
+     */
+    private int start(int i) {
+        return i == 0 ? 0 : segments[i - SEGMENT_INTS + TAG_END];
+    }
+
+    private byte[] copyOf(int from, int to) {
+        final byte[] copy = new byte[to - from];
+        System.arraycopy(data, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    private String decode(int from, int to) {
+        return decoder.toString(data, from, to - from);
+    }
+}
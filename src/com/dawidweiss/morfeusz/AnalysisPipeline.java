@@ -0,0 +1,212 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Analyzes a stream of text on several threads, writing formatted results
+ * in the order of the input.
+ *
+ * The calling thread reads the input and cuts it into chunks at white
+ * space. Each chunk is then processed by a pool thread: it is tokenized
+ * (see {@link Tokenizer}), its tokens are encoded and analyzed with
+ * a single batch call (see {@link ConcurrentAnalyzer#analyzeBatch(CharSequence[])})
+ * and the results are decoded and formatted (see {@link Formatter}).
+ * Only the native call itself is serialized, on the lock of the
+ * {@link ConcurrentAnalyzer}; with a {@link ProcessAnalyzerFarm} batches
+ * are analyzed by several worker processes in parallel. The calling thread
+ * writes formatted chunks in their original order, keeping a bounded
+ * number of chunks in flight, so memory use does not depend on the size of
+ * the input.
+ *
+ * @since 1.3
+ */
+public final class AnalysisPipeline {
+    /** Default size of a chunk, in characters. */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Formats analyses of tokens. Called concurrently from pool threads.
+     */
+    public static interface Formatter {
+        /**
+         * Appends the analysis of a token to <code>out</code>.
+         */
+        public void format(String token, InterpMorf[] analysis, StringBuilder out);
+    }
+
+    private final ConcurrentAnalyzer analyzer;
+    private final ProcessAnalyzerFarm farm;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Creates a pipeline analyzing with the shared {@link ConcurrentAnalyzer}
+     * (a single native library).
+     */
+    public AnalysisPipeline(ConcurrentAnalyzer analyzer, int threads) {
+        this(analyzer, null, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a pipeline analyzing with a farm of worker processes.
+     */
+    public AnalysisPipeline(ProcessAnalyzerFarm farm, int threads) {
+        this(null, farm, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    AnalysisPipeline(ConcurrentAnalyzer analyzer, ProcessAnalyzerFarm farm,
+        int threads, int chunkSize) {
+        if (threads <= 0 || chunkSize < 2) {
+            throw new IllegalArgumentException("Invalid number of threads or chunk size: "
+                + threads + ", " + chunkSize);
+        }
+        this.analyzer = analyzer;
+        this.farm = farm;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Analyzes all of the input and writes formatted results to the output.
+     * Neither stream is closed.
+     *
+     * @return Returns the number of analyzed tokens.
+     */
+    public long run(Reader input, Writer output, final Formatter formatter)
+        throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "morfeusz-pipeline");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        long count = 0;
+        try {
+            final LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            final int maxPending = threads * 2;
+            final char[] buffer = new char[chunkSize];
+            int length = 0;
+            boolean eof = false;
+            while (!eof) {
+                final int read = input.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                    if (length < buffer.length) {
+                        continue;
+                    }
+                }
+
+                // Cut at the last white space, carry the rest over.
+                final int cut = eof ? length : cut(buffer, length);
+                final char[] chunk = new char[cut];
+                System.arraycopy(buffer, 0, chunk, 0, cut);
+                System.arraycopy(buffer, cut, buffer, 0, length - cut);
+                length -= cut;
+
+                if (cut == 0) {
+                    continue;
+                }
+                if (pending.size() == maxPending) {
+                    count += write(pending.removeFirst(), output);
+                }
+                pending.add(pool.submit(new Callable<Chunk>() {
+                    public Chunk call() throws IOException {
+                        return process(chunk, formatter);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                count += write(pending.removeFirst(), output);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the length of the chunk to cut off a full buffer: up to
+     * the last white space character or the whole buffer (without a trailing
+     * high surrogate) if there is none.
+     */
+    private static int cut(char[] buffer, int length) {
+        for (int i = length - 1; i > 0; i--) {
+            if (Character.isWhitespace(buffer[i]) || Character.isSpaceChar(buffer[i])) {
+                return i + 1;
+            }
+        }
+        return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
+    }
+
+    /**
+     * A formatted chunk.
+     */
+    private static final class Chunk {
+        final String text;
+        final int tokens;
+
+        Chunk(String text, int tokens) {
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+
+    /**
+     * Tokenizes, analyzes and formats a chunk (on a pool thread).
+     */
+    private Chunk process(char[] chunk, Formatter formatter) throws IOException {
+        final Tokenizer tokenizer = new Tokenizer(new CharArrayReader(chunk));
+        final ArrayList<String> terms = new ArrayList<String>();
+        while (tokenizer.next()) {
+            terms.add(tokenizer.getImage());
+        }
+
+        final String[] batch = terms.toArray(new String[terms.size()]);
+        final InterpMorf[][] analyses = (farm != null
+            ? farm.analyze(batch)
+            : analyzer.analyzeBatch(batch));
+
+        final StringBuilder out = new StringBuilder(chunk.length * 4);
+        for (int i = 0; i < batch.length; i++) {
+            formatter.format(batch[i], analyses[i], out);
+        }
+        return new Chunk(out.toString(), batch.length);
+    }
+
+    /**
+     * Waits for a chunk and writes it.
+     */
+    private static int write(Future<Chunk> future, Writer output) throws IOException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a chunk.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+        output.write(chunk.text);
+        return chunk.tokens;
+    }
+}
@@ -0,0 +1,266 @@
+package com.dawidweiss.morfeusz;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable, compact analysis of a single term.
+ *
+ * Segments are packed in a single <code>int</code> array: start node, end
+ * node and the id of the tag in a table shared by all results (tags come
+ * from a small, fixed tagset). The table is bounded; should it fill up
+ * (a dictionary with an unusually large tagset), results keep the images
+ * of tags that did not fit in it. Tokens and lemmas are
+ * kept by every result (a token or lemma equal to the previous one is
+ * stored once), so a result that is no longer referenced leaves nothing
+ * behind. Instances can be kept (for example in a cache) and shared
+ * between threads.
+ *
+ * @since 1.3
+ */
+public final class AnalysisResult {
+    /** Maximum number of interned tags. */
+    static final int MAX_TAGS = 1 << 16;
+
+    /** Interned tags. */
+    private static final SymbolTable TAGS = new SymbolTable(MAX_TAGS);
+
+    /** An analysis with no segments. */
+    public static final AnalysisResult EMPTY = new AnalysisResult(new int[0], new String[0], null);
+
+    /** Number of integers describing a single segment. */
+    private static final int SEGMENT_INTS = 3;
+
+    private static final int P = 0;
+    private static final int K = 1;
+    private static final int TAG = 2;
+
+    /** Packed segments, {@link #SEGMENT_INTS} per segment. */
+    private final int[] segments;
+
+    /** Token and lemma of every segment. */
+    private final String[] forms;
+
+    /**
+     * Tags of segments, if any of them is not in {@link #TAGS};
+     * <code>null</code> otherwise.
+     */
+    private final String[] tags;
+
+    /** Precomputed hash code. */
+    private final int hash;
+
+    private AnalysisResult(int[] segments, String[] forms, String[] tags) {
+        this.segments = segments;
+        this.forms = forms;
+        this.tags = tags;
+        this.hash = 31 * (31 * Arrays.hashCode(segments) + Arrays.hashCode(forms))
+            + Arrays.hashCode(tags);
+    }
+
+    /**
+     * Returns the table of interned tags (see {@link #getTagId(int)}).
+     */
+    static SymbolTable getTags() {
+        return TAGS;
+    }
+
+    /**
+     * Creates a result from the first <code>count</code> segments of an
+     * analysis (for example from {@link Analyzer#analyze(String)} and
+     * {@link Analyzer#getTokensNumber()}).
+     */
+    public static AnalysisResult create(InterpMorf[] analysis, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        final int[] segments = new int[count * SEGMENT_INTS];
+        final String[] forms = new String[2 * count];
+        String[] tags = null;
+        for (int i = 0, j = 0; i < count; i++, j += SEGMENT_INTS) {
+            final InterpMorf segment = analysis[i];
+            segments[j + P] = segment.p;
+            segments[j + K] = segment.k;
+            tags = setTag(segments, tags, i, count, segment.getTagImage());
+            setForms(forms, i, segment.getTokenImage(), segment.getLemmaImage());
+        }
+        return new AnalysisResult(segments, forms, tags);
+    }
+
+    /**
+     * Creates a result from nodes and images of <code>count</code> segments:
+     * <code>nodes</code> holds start and end nodes and <code>images</code>
+     * the token, lemma and tag of each segment.
+     */
+    static AnalysisResult create(int[] nodes, String[] images, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        final int[] segments = new int[count * SEGMENT_INTS];
+        final String[] forms = new String[2 * count];
+        String[] tags = null;
+        for (int i = 0, j = 0; i < count; i++, j += SEGMENT_INTS) {
+            segments[j + P] = nodes[2 * i];
+            segments[j + K] = nodes[2 * i + 1];
+            tags = setTag(segments, tags, i, count, images[3 * i + 2]);
+            setForms(forms, i, images[3 * i], images[3 * i + 1]);
+        }
+        return new AnalysisResult(segments, forms, tags);
+    }
+
+    /**
+     * Stores the id of a segment's tag. A tag that does not fit in
+     * {@link #TAGS} gets id -1 and is kept in <code>tags</code> (allocated
+     * on demand and returned).
+     */
+    private static String[] setTag(int[] segments, String[] tags, int segment, int count, String tag) {
+        final int id = TAGS.intern(tag);
+        segments[segment * SEGMENT_INTS + TAG] = id;
+        if (id < 0) {
+            if (tags == null) {
+                tags = new String[count];
+            }
+            tags[segment] = tag;
+        }
+        return tags;
+    }
+
+    /**
+     * Stores the token and lemma of a segment, reusing equal strings of
+     * the segment and of the previous one (segments of a token usually
+     * share it, many lemmas equal the token).
+     */
+    private static void setForms(String[] forms, int segment, String token, String lemma) {
+        if (segment > 0) {
+            final String previousToken = forms[2 * segment - 2];
+            if (token.equals(previousToken)) {
+                token = previousToken;
+            }
+            final String previousLemma = forms[2 * segment - 1];
+            if (lemma.equals(previousLemma)) {
+                lemma = previousLemma;
+            }
+        }
+        if (lemma.equals(token)) {
+            lemma = token;
+        }
+        forms[2 * segment] = token;
+        forms[2 * segment + 1] = lemma;
+    }
+
+    /**
+     * Returns the number of segments.
+     */
+    public int size() {
+        return segments.length / SEGMENT_INTS;
+    }
+
+    /**
+     * Returns the start node of a segment.
+     */
+    public int getNodeStart(int segment) {
+        return segments[index(segment) + P];
+    }
+
+    /**
+     * Returns the end node of a segment.
+     */
+    public int getNodeEnd(int segment) {
+        return segments[index(segment) + K];
+    }
+
+    /**
+     * Returns the id of a segment's tag, shared by all results, or -1 if
+     * the table of tags was full when the tag was first seen (compare tag
+     * images then).
+     */
+    public int getTagId(int segment) {
+        return segments[index(segment) + TAG];
+    }
+
+    /**
+     * Returns the token image of a segment.
+     */
+    public String getTokenImage(int segment) {
+        return forms[2 * index(segment) / SEGMENT_INTS];
+    }
+
+    /**
+     * Returns the lemma image of a segment.
+     */
+    public String getLemmaImage(int segment) {
+        return forms[2 * index(segment) / SEGMENT_INTS + 1];
+    }
+
+    /**
+     * Returns the tag image of a segment.
+     */
+    public String getTagImage(int segment) {
+        final int id = getTagId(segment);
+        return id < 0 ? tags[segment] : TAGS.get(id);
+    }
+
+    /**
+     * Returns the approximate memory used by this object and its tokens and
+     * lemmas, in bytes (interned tags are shared and not included).
+     */
+    public int getEstimatedBytes() {
+        int bytes = 48 + 4 * segments.length + 4 * forms.length;
+        if (tags != null) {
+            bytes += 16 + 4 * tags.length;
+            for (int i = 0; i < tags.length; i++) {
+                if (tags[i] != null) {
+                    bytes += 40 + 2 * tags[i].length();
+                }
+            }
+        }
+        for (int i = 0; i < forms.length; i++) {
+            final String form = forms[i];
+            if ((i < 1 || form != forms[i - 1]) && (i < 2 || form != forms[i - 2])) {
+                bytes += 40 + 2 * form.length();
+            }
+        }
+        return bytes;
+    }
+
+    private int index(int segment) {
+        if (segment < 0 || segment >= size()) {
+            throw new IndexOutOfBoundsException("Segment index out of range: " + segment);
+        }
+        return segment * SEGMENT_INTS;
+    }
+
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (other instanceof AnalysisResult) {
+            final AnalysisResult result = (AnalysisResult) other;
+            return hash == result.hash && Arrays.equals(segments, result.segments)
+                && Arrays.equals(forms, result.forms) && Arrays.equals(tags, result.tags);
+        }
+        return false;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Returns a visual representation of the segments, one per line
+     * (see {@link InterpMorf#toString()}).
+     */
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size(); i++) {
+            builder.append(getNodeStart(i)).append('-').append(getNodeEnd(i))
+                .append(" : ").append(getTokenImage(i))
+                .append(" : ").append(getLemmaImage(i))
+                .append(" : ").append(getTagImage(i))
+                .append('\n');
+        }
+        return builder.toString();
+    }
+}
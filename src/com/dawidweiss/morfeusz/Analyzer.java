@@ -1,6 +1,8 @@
 package com.dawidweiss.morfeusz;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 /**
@@ -11,25 +13,82 @@ import java.io.UnsupportedEncodingException;
  *
  * Analyzer class is <b>not</b> thread-safe, and every invocation of
  * <code>analyze</code> will replace the internal structures with new data.
+ * 
+ * An analyzer may transport results from the native code in one of two ways:
+ * by copying them to arrays of every <code>InterpMorf</code> object, or by
+ * writing them to a direct buffer owned by the analyzer (see
+ * {@link Morfeusz#getAnalyzer(boolean)}). In the latter case 
+ * <code>InterpMorf</code> objects are lazy views of that buffer. Backends
+ * other than the native library (see {@link MorfeuszBackend}) always use
+ * the direct buffer.
  */
 public final class Analyzer {
-    private static final int MAX_GRAPH_NODES = 50;
+    /** Initial number of segment objects (grown on demand). */
+    private static final int INITIAL_GRAPH_NODES = 8;
 
     /** Character-to-bytes encoding used by Morfeusz. */
     private final String encoding;
 
+    /** The analysis backend. */
+    private final MorfeuszBackend backend;
+
+    /** <code>true</code> if {@link #backend} is the native library. */
+    private final boolean nativeBackend;
+
+    /** Initial capacity of the direct result buffer (grown on demand). */
+    private static final int DIRECT_BUFFER_CAPACITY = 1024;
+
     private InterpMorf[] morphologicalAnalysis;
     private int tokensNumber;
 
+    /**
+     * A record stream written by the native code in direct buffer mode, 
+     * <code>null</code> otherwise. See {@link InterpMorf#bind(ByteBuffer, int)}
+     * for the record layout.
+     */
+    private ByteBuffer directBuffer;
+
+    /** Reusable result of batch analyses (lazily created). */
+    private AnalysisBatch batch;
+
+    /** Reusable buffer for packed, NUL-terminated batch terms. */
+    private byte[] batchTerms;
+
+    /** Number of times an output structure had to be grown. */
+    private int overflows;
+
     /**
      * Constructor accessible only from within package scope.
+     * 
+     * @param directBuffer If <code>true</code>, results are transported in
+     * a direct buffer (always the case for backends other than the native
+     * library).
      */
-    Analyzer(final String encoding) {
-        this.encoding = encoding;
-        morphologicalAnalysis = new InterpMorf[MAX_GRAPH_NODES];
+    Analyzer(final MorfeuszBackend backend, final boolean directBuffer) {
+        this.backend = backend;
+        this.encoding = backend.getEncoding();
+        this.nativeBackend = (backend instanceof NativeBackend);
+        if (directBuffer || !nativeBackend) {
+            this.directBuffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_CAPACITY)
+                .order(ByteOrder.nativeOrder());
+        }
+        morphologicalAnalysis = new InterpMorf[0];
+        ensureSegments(INITIAL_GRAPH_NODES);
+    }
 
-        for (int i = 0; i < morphologicalAnalysis.length; i++) {
-            morphologicalAnalysis[i] = new InterpMorf(encoding);
+    /**
+     * Makes sure there are at least <code>segments</code> segment objects,
+     * growing the array geometrically.
+     */
+    private void ensureSegments(int segments) {
+        if (segments > morphologicalAnalysis.length) {
+            final InterpMorf[] grown = new InterpMorf[
+                Math.max(segments, morphologicalAnalysis.length * 2)];
+            System.arraycopy(morphologicalAnalysis, 0, grown, 0, morphologicalAnalysis.length);
+            for (int i = morphologicalAnalysis.length; i < grown.length; i++) {
+                grown[i] = new InterpMorf(encoding);
+            }
+            morphologicalAnalysis = grown;
         }
     }
 
@@ -39,13 +98,15 @@ public final class Analyzer {
      * The result is stored and returned as an array of <code>InterpMorf</code>
      * objects. <b>These objects are reused on subsequent calls.</b>
      * Their contents will change when <code>analyze</code> is invoked again.
+     * The array may be longer than the number of tokens (see 
+     * {@link #getTokensNumber()}) and is replaced with a longer one when
+     * a term has more segments than ever before.
      * 
      * @since 1.2
      */
     public InterpMorf[] analyze(String term) {
         try {
-            tokensNumber = morfeusz_analyse(term.getBytes(encoding));
-            return morphologicalAnalysis;
+            return analyze(term.getBytes(encoding));
         } catch (UnsupportedEncodingException e) {
             // Practically unreachable.
             throw new RuntimeException();
@@ -64,10 +125,229 @@ public final class Analyzer {
      * low-level byte array version.
      */
     public InterpMorf[] analyze(byte[] term) {
-        tokensNumber = morfeusz_analyse(term);
+        if (directBuffer == null) {
+            tokensNumber = analyzeArrays(term);
+        } else {
+            tokensNumber = analyzeDirect(term);
+        }
         return morphologicalAnalysis;
     }
 
+    /**
+     * Analyzes a term, copying segments to arrays of segment objects. If
+     * there are too few segment objects or their arrays are too small, they 
+     * are grown and the term is analyzed again.
+     */
+    private int analyzeArrays(byte[] term) {
+        int segments;
+        while ((segments = morfeusz_analyse(term)) < 0) {
+            overflows++;
+            segments = -segments;
+            if (segments > morphologicalAnalysis.length) {
+                ensureSegments(segments);
+            } else {
+                for (int i = 0; i < segments; i++) {
+                    morphologicalAnalysis[i].ensureCapacity();
+                }
+            }
+        }
+
+        for (int i = 0; i < segments; i++) {
+            morphologicalAnalysis[i].reset();
+        }
+        return segments;
+    }
+
+    /**
+     * Analyzes a term in direct buffer mode and binds segments to the 
+     * buffer's records.
+     */
+    private int analyzeDirect(byte[] term) {
+        int segments;
+        while ((segments = backend.analyze(term, 0, term.length, directBuffer))
+            == MorfeuszBackend.BUFFER_OVERFLOW) {
+            overflows++;
+            directBuffer = ByteBuffer.allocateDirect(directBuffer.capacity() * 2)
+                .order(ByteOrder.nativeOrder());
+        }
+        ensureSegments(segments);
+
+        int position = 0;
+        for (int i = 0; i < segments; i++) {
+            position = morphologicalAnalysis[i].bind(directBuffer, position);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the encoding of terms passed to the native library.
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns <code>true</code> if this analyzer transports results in
+     * a direct buffer.
+     * 
+     * @since 1.3
+     */
+    public boolean isDirectBuffer() {
+        return directBuffer != null;
+    }
+
+    /**
+     * Returns the backend performing the analysis.
+     */
+    MorfeuszBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Analyzes many terms with a single call to the native code. Terms are
+     * packed into one buffer and the analyses of all of them are returned in
+     * another one, which is much cheaper than calling {@link #analyze(String)}
+     * for every term. A <code>String[]</code> array may be passed to this method.
+     * 
+     * The returned object is <b>reused on subsequent calls</b> to this method.
+     * 
+     * @throws IllegalArgumentException If a term contains a NUL character
+     * (terms are NUL-terminated in the packed buffer).
+     * @since 1.3
+     */
+    public AnalysisBatch analyzeBatch(CharSequence[] terms) {
+        batchTerms = pack(terms, batchTerms);
+        return analyzePacked(batchTerms, terms.length);
+    }
+
+    /**
+     * Encodes terms and packs them, NUL-terminated, into <code>buffer</code>
+     * (or a new, larger one if <code>buffer</code> is <code>null</code> or 
+     * too small). This method does not touch the native library or 
+     * the analyzer's state, so it can be called from any thread.
+     *
+     * @throws IllegalArgumentException If a term contains a NUL character.
+     */
+    byte[] pack(CharSequence[] terms, byte[] buffer) {
+        if (buffer == null) {
+            buffer = new byte[1024];
+        }
+        int length = 0;
+        try {
+            for (int i = 0; i < terms.length; i++) {
+                final byte[] term = terms[i].toString().getBytes(encoding);
+                for (int j = 0; j < term.length; j++) {
+                    if (term[j] == 0) {
+                        throw new IllegalArgumentException("NUL character in term " + i + ".");
+                    }
+                }
+                if (length + term.length + 1 > buffer.length) {
+                    buffer = grow(buffer, length + term.length + 1);
+                }
+                System.arraycopy(term, 0, buffer, length, term.length);
+                length += term.length;
+                buffer[length++] = 0;
+            }
+        } catch (UnsupportedEncodingException e) {
+            // Practically unreachable.
+            throw new RuntimeException();
+        }
+        return buffer;
+    }
+
+    /**
+     * Analyzes <code>count</code> terms packed with 
+     * {@link #pack(CharSequence[], byte[])}.
+     */
+    AnalysisBatch analyzePacked(byte[] packedTerms, int count) {
+        if (batch == null) {
+            batch = new AnalysisBatch(encoding);
+        }
+        if (batch.wordEnds.length < count) {
+            batch.wordEnds = new int[count];
+        }
+
+        if (!nativeBackend) {
+            analyzeRecords(packedTerms, count);
+            batch.words = count;
+            return batch;
+        }
+
+        while (true) {
+            final int result = morfeusz_analyse_batch(packedTerms, count,
+                batch.data, batch.segments, batch.wordEnds);
+            if (result == BATCH_DATA_OVERFLOW) {
+                overflows++;
+                batch.data = new byte[batch.data.length * 2];
+            } else if (result == BATCH_SEGMENTS_OVERFLOW) {
+                overflows++;
+                batch.segments = new int[batch.segments.length * 2];
+            } else {
+                break;
+            }
+        }
+        batch.words = count;
+        return batch;
+    }
+
+    /**
+     * Analyzes packed terms one by one with the backend and appends
+     * segment records from the direct buffer to the batch.
+     */
+    private void analyzeRecords(byte[] packedTerms, int count) {
+        int segmentsCount = 0;
+        int dataLength = 0;
+        int termStart = 0;
+        for (int word = 0; word < count; word++) {
+            int termEnd = termStart;
+            while (packedTerms[termEnd] != 0) {
+                termEnd++;
+            }
+
+            int segments;
+            while ((segments = backend.analyze(packedTerms, termStart, termEnd - termStart,
+                directBuffer)) == MorfeuszBackend.BUFFER_OVERFLOW) {
+                overflows++;
+                directBuffer = ByteBuffer.allocateDirect(directBuffer.capacity() * 2)
+                    .order(ByteOrder.nativeOrder());
+            }
+
+            final ByteBuffer records = directBuffer.duplicate().order(ByteOrder.nativeOrder());
+            records.clear();
+            for (int i = 0; i < segments; i++, segmentsCount++) {
+                final int index = segmentsCount * AnalysisBatch.SEGMENT_INTS;
+                if (index + AnalysisBatch.SEGMENT_INTS > batch.segments.length) {
+                    overflows++;
+                    final int[] grown = new int[batch.segments.length * 2];
+                    System.arraycopy(batch.segments, 0, grown, 0, index);
+                    batch.segments = grown;
+                }
+
+                final int[] segment = batch.segments;
+                segment[index] = records.getInt();
+                segment[index + 1] = records.getInt();
+                for (int j = 2; j < AnalysisBatch.SEGMENT_INTS; j++) {
+                    final int length = records.getShort() & 0xffff;
+                    if (dataLength + length > batch.data.length) {
+                        overflows++;
+                        batch.data = grow(batch.data, dataLength + length);
+                    }
+                    records.get(batch.data, dataLength, length);
+                    dataLength += length;
+                    segment[index + j] = dataLength;
+                }
+            }
+            batch.wordEnds[word] = segmentsCount;
+            termStart = termEnd + 1;
+        }
+    }
+
+    private static byte[] grow(byte[] array, int minLength) {
+        final byte[] copy = new byte[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
     /**
      * Returns the number of tokens for the most recently analyzed string.
      */
@@ -75,13 +355,91 @@ public final class Analyzer {
         return tokensNumber;
     }
 
+    /**
+     * Returns the number of times this analyzer had to grow its output
+     * structures (segment objects, their arrays or buffers) and repeat
+     * an analysis. Output structures start small and grow geometrically, 
+     * so this number should stop increasing quickly.
+     * 
+     * @since 1.3
+     */
+    public int getOverflowsCount() {
+        return overflows;
+    }
+
+    /**
+     * Analyzes a term with the native library in direct buffer mode
+     * (see {@link NativeBackend}).
+     *
+     * @throws IllegalArgumentException If a token, lemma or tag is longer
+     * than a segment record permits (65535 bytes).
+     */
+    static int analyzeNative(byte[] term, int offset, int length, ByteBuffer buffer) {
+        final int segments = morfeusz_analyse_direct(term, offset, length, buffer);
+        if (segments == DIRECT_FIELD_TOO_LONG) {
+            throw new IllegalArgumentException("Segment longer than 65535 bytes (term length: "
+                + length + ").");
+        }
+        return segments;
+    }
+
+    /**
+     * Resolves and caches (in the native code) class and field IDs
+     * used to copy the analysis to Java objects. Called once, after
+     * the native library has been loaded.
+     */
+    static native void initIDs();
+
     /**
      * A native binding to Morfeusz's morphological analysis. The binding
      * function in C fills <code>morphologicalAnalysis</code> array with
      * new data.
      * 
      * @param term The term to be analyzed.
-     * @return Number of tokens in the analysis array.
+     * @return Number of tokens in the analysis array or the negated number
+     * of tokens if there are too few segment objects or their arrays are 
+     * too small (required array lengths are stored in the segments).
      */
     private final native int morfeusz_analyse(byte[] term);
+
+    /** Returned from {@link #morfeusz_analyse_direct} if the buffer is too small. */
+    private static final int DIRECT_BUFFER_OVERFLOW = MorfeuszBackend.BUFFER_OVERFLOW;
+
+    /**
+     * Returned from {@link #morfeusz_analyse_direct} if a token, lemma or tag
+     * does not fit in a segment record.
+     */
+    private static final int DIRECT_FIELD_TOO_LONG = -2;
+
+    /**
+     * A native binding to Morfeusz's morphological analysis writing 
+     * a stream of segment records to a direct buffer.
+     * 
+     * @param term An array with the term to be analyzed.
+     * @param offset Offset of the term in the array.
+     * @param length Length of the term.
+     * @param buffer A direct buffer (in native byte order).
+     * @return Number of segment records written, {@link #DIRECT_BUFFER_OVERFLOW}
+     * or {@link #DIRECT_FIELD_TOO_LONG}.
+     */
+    private static native int morfeusz_analyse_direct(byte[] term, int offset, int length,
+        ByteBuffer buffer);
+
+    /** Returned from {@link #morfeusz_analyse_batch} if <code>data</code> is too small. */
+    private static final int BATCH_DATA_OVERFLOW = -1;
+
+    /** Returned from {@link #morfeusz_analyse_batch} if <code>segments</code> is too small. */
+    private static final int BATCH_SEGMENTS_OVERFLOW = -2;
+
+    /**
+     * A native binding analyzing a batch of terms in one call. The binding
+     * function in C fills the arrays of an {@link AnalysisBatch}.
+     * 
+     * @param terms Packed, NUL-terminated terms to be analyzed.
+     * @param count The number of terms in <code>terms</code>.
+     * @return Number of segments of all terms or {@link #BATCH_DATA_OVERFLOW}
+     * or {@link #BATCH_SEGMENTS_OVERFLOW} if the output arrays are too small.
+     */
+    private final native int morfeusz_analyse_batch(byte[] terms, int count,
+        byte[] data, int[] segments, int[] wordEnds);
 }
@@ -0,0 +1,209 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A worker process serving morphological analyses to a
+ * {@link ProcessAnalyzerFarm} over its standard input and output.
+ *
+ * Every worker process holds its own copy of the native library, so
+ * several workers can analyze in parallel (which is not possible within a
+ * single JVM). Subclasses may provide a different source of analyses
+ * (for example a pure-Java stand-in for tests); the default
+ * {@link #main(String[])} serves analyses from Morfeusz.
+ *
+ * <p>The protocol (all numbers are big-endian, as written by
+ * {@link DataOutputStream}):
+ * <pre>
+ * worker:  int MAGIC, UTF encoding
+ * request: int words, words x UTF word    (words == -1 terminates the worker)
+ * reply:   words x (int segments, segments x segment)
+ * segment: int p, int k, bytes token, bytes lemma, bytes tag
+ * bytes:   unsigned short length, length x byte
+ * </pre>
+ * Words and byte arrays longer than {@link #MAX_LENGTH} cannot be sent.
+ *
+ * @since 1.3
+ */
+public abstract class AnalyzerWorker {
+    /** Protocol header sent by the worker when it starts. */
+    static final int MAGIC = 0x4d4f5246;
+
+    /** Request size marking the end of the conversation. */
+    static final int SHUTDOWN = -1;
+
+    /** The maximum length of a word (in modified UTF-8) or a byte array. */
+    static final int MAX_LENGTH = 0xffff;
+
+    /** A scratch array for copying segment bytes to the output. */
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Analyzes a given term. The segments of the analysis are
+     * available from {@link #getSegment(int)}.
+     *
+     * @return Returns the number of segments in the analysis.
+     */
+    protected abstract int analyze(String term);
+
+    /**
+     * Returns the segment of the most recent analysis.
+     */
+    protected abstract InterpMorf getSegment(int index);
+
+    /**
+     * Returns the character encoding of segment byte arrays.
+     */
+    protected abstract String getEncoding();
+
+    /**
+     * Serves analysis requests until the input is exhausted or
+     * a shutdown request is received.
+     */
+    public final void serve(InputStream is, OutputStream os) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(is));
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(os));
+
+        output.writeInt(MAGIC);
+        output.writeUTF(getEncoding());
+        output.flush();
+
+        while (true) {
+            final int words;
+            try {
+                words = input.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (words == SHUTDOWN) {
+                break;
+            }
+
+            final String [] batch = new String [words];
+            for (int i = 0; i < words; i++) {
+                batch[i] = input.readUTF();
+            }
+
+            for (int i = 0; i < words; i++) {
+                final int segments = analyze(batch[i]);
+                output.writeInt(segments);
+                for (int j = 0; j < segments; j++) {
+                    final InterpMorf segment = getSegment(j);
+                    output.writeInt(segment.p);
+                    output.writeInt(segment.k);
+                    writeBytes(output, segment.getTokenBuffer());
+                    writeBytes(output, segment.getLemmaBuffer());
+                    writeBytes(output, segment.getTagBuffer());
+                }
+            }
+            output.flush();
+        }
+        output.flush();
+    }
+
+    /**
+     * Writes segment bytes, which may be an array or a view of the
+     * analyzer's direct buffer.
+     */
+    private void writeBytes(DataOutputStream output, ByteBuffer bytes) throws IOException {
+        final int length = bytes.remaining();
+        if (length > MAX_LENGTH) {
+            throw new IOException("Segment data too long: " + length);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        bytes.get(scratch, 0, length);
+        output.writeShort(length);
+        output.write(scratch, 0, length);
+    }
+
+    /**
+     * Returns the length of a string in modified UTF-8 (as written by
+     * {@link DataOutputStream#writeUTF(String)}).
+     */
+    static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                length++;
+            } else if (c <= 0x07ff) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads a single segment written by {@link #serve(InputStream, OutputStream)}.
+     */
+    static InterpMorf readSegment(DataInputStream input, String encoding) throws IOException {
+        final int p = input.readInt();
+        final int k = input.readInt();
+        final InterpMorf segment = new InterpMorf(encoding,
+            readBytes(input), readBytes(input), readBytes(input));
+        segment.p = p;
+        segment.k = k;
+        segment.tokenLength = segment.token.length;
+        segment.lemmaLength = segment.lemma.length;
+        segment.tagLength = segment.tag.length;
+        return segment;
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * A worker serving analyses from the native library.
+     */
+    private static final class NativeWorker extends AnalyzerWorker {
+        private final Morfeusz morfeusz;
+        private final Analyzer analyzer;
+        private InterpMorf[] analysis;
+
+        NativeWorker() throws IOException {
+            this.morfeusz = Morfeusz.getInstance();
+            this.analyzer = morfeusz.getAnalyzer();
+        }
+
+        protected int analyze(String term) {
+            analysis = analyzer.analyze(term);
+            return analyzer.getTokensNumber();
+        }
+
+        protected InterpMorf getSegment(int index) {
+            return analysis[index];
+        }
+
+        protected String getEncoding() {
+            return morfeusz.getEncoding();
+        }
+    }
+
+    /**
+     * Starts a worker serving analyses from the native library on
+     * standard input and output.
+     */
+    public static void main(String[] args) throws IOException {
+        // Standard output is reserved for the protocol.
+        final PrintStream output = System.out;
+        System.setOut(System.err);
+        new NativeWorker().serve(System.in, output);
+    }
+}
@@ -0,0 +1,150 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+
+/**
+ * Reads and writes snapshots of {@link CachingAnalyzer}s: cached terms
+ * and their analyses, to be reloaded after a restart. The format
+ * (big-endian; strings are an <code>int</code> length and UTF-8 bytes):
+ * <pre>
+ * int magic, version, entries
+ * long checksum               -- {@link MorfeuszBackend#getChecksum()}
+ * entries times:
+ *     string term, int segments
+ *     segments times: int p, int k, string token, string lemma, string tag
+ * </pre>
+ * Entries are stored from the least to the most recently used. Snapshots
+ * are only valid for backends with the dictionary that produced them.
+ *
+ * @since 1.3
+ */
+final class CacheSnapshot {
+    static final int MAGIC = 0x4d43534e;
+    static final int VERSION = 2;
+
+    private CacheSnapshot() {
+        // no instances.
+    }
+
+    /**
+     * Writes a snapshot. The file is replaced atomically (where the file
+     * system permits), so readers never see a partial snapshot.
+     */
+    static void write(File file, long checksum, String[] terms, AnalysisResult[] analyses)
+        throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(terms.length);
+            out.writeLong(checksum);
+            for (int i = 0; i < terms.length; i++) {
+                final AnalysisResult analysis = analyses[i];
+                writeString(out, terms[i]);
+                out.writeInt(analysis.size());
+                for (int j = 0; j < analysis.size(); j++) {
+                    out.writeInt(analysis.getNodeStart(j));
+                    out.writeInt(analysis.getNodeEnd(j));
+                    writeString(out, analysis.getTokenImage(j));
+                    writeString(out, analysis.getLemmaImage(j));
+                    writeString(out, analysis.getTagImage(j));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Could not replace: " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads (memory-maps) a snapshot and adds its entries to
+     * <code>terms</code> and <code>analyses</code>.
+     *
+     * @throws IOException If the file cannot be read, is not a snapshot
+     * or is a snapshot of another dictionary.
+     */
+    static void read(File file, long checksum, List<String> terms,
+        List<AnalysisResult> analyses) throws IOException {
+        final ByteBuffer data;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        try {
+            if (data.remaining() < 12 || data.getInt() != MAGIC) {
+                throw new IOException("Not a cache snapshot.");
+            }
+            final int version = data.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cache snapshot version: " + version);
+            }
+            final int entries = data.getInt();
+            if (data.getLong() != checksum) {
+                throw new IOException("Cache snapshot of a different dictionary.");
+            }
+
+            int[] nodes = new int[2 * 16];
+            String[] images = new String[3 * 16];
+            for (int i = 0; i < entries; i++) {
+                final String term = readString(data);
+                final int count = data.getInt();
+                if (count < 0 || count > data.remaining()) {
+                    throw new IOException("Corrupted cache snapshot.");
+                }
+                if (2 * count > nodes.length) {
+                    nodes = new int[2 * count];
+                    images = new String[3 * count];
+                }
+                for (int j = 0; j < count; j++) {
+                    nodes[2 * j] = data.getInt();
+                    nodes[2 * j + 1] = data.getInt();
+                    images[3 * j] = readString(data);
+                    images[3 * j + 1] = readString(data);
+                    images[3 * j + 2] = readString(data);
+                }
+                terms.add(term);
+                analyses.add(AnalysisResult.create(nodes, images, count));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated cache snapshot.");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(Morfeusz.ENCODING_UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer data) throws IOException {
+        final int length = data.getInt();
+        if (length < 0 || length > data.remaining()) {
+            throw new IOException("Corrupted cache snapshot.");
+        }
+        final byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, Morfeusz.ENCODING_UTF8);
+    }
+}
@@ -0,0 +1,449 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A thread-safe analyzer memoizing analyses of surface forms.
+ *
+ * Word frequencies in natural language text follow Zipf's law, so a small
+ * set of forms accounts for most tokens. This class keeps analyses of
+ * recently seen forms and asks the (serialized) native library only
+ * on cache misses. The cache is bounded by the number of entries and by the
+ * estimated size of entries in bytes; least recently used entries are
+ * evicted first.
+ *
+ * The cache is divided into stripes, selected by the hash of a term, each
+ * with its own lock, bounds and order of entries (as in
+ * {@link OffHeapCachingAnalyzer}), so threads looking up different terms
+ * rarely wait for each other. Eviction is least recently used within a
+ * stripe. Small caches have a single stripe and are exact.
+ *
+ * Analyses are cached as compact, immutable {@link AnalysisResult}s and
+ * are <b>shared</b> between all callers (and threads).
+ *
+ * The most recently used entries can be saved to a file with
+ * {@link #saveSnapshot(File, int)} and loaded after a restart with
+ * {@link #loadSnapshot(File)}, so the cache is warm before the first
+ * request (see {@link Morfeusz#PROPERTY_CACHE_SNAPSHOT}).
+ *
+ * A shared instance is available from {@link Morfeusz#getCachingAnalyzer()}.
+ *
+ * @since 1.3
+ */
+public final class CachingAnalyzer {
+    /** Default maximum number of cached analyses. */
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /** Default maximum estimated size of cached analyses. */
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /** Default number of entries saved in a snapshot. */
+    public static final int DEFAULT_SNAPSHOT_ENTRIES = 10000;
+
+    /** Maximum number of stripes chosen by {@link #CachingAnalyzer(ConcurrentAnalyzer, int, long)}. */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /** Minimum bounds of a stripe chosen by {@link #CachingAnalyzer(ConcurrentAnalyzer, int, long)}. */
+    private static final int MIN_STRIPE_ENTRIES = 1024;
+    private static final long MIN_STRIPE_BYTES = 256 * 1024;
+
+    /** Estimated overhead of a single entry (map entry and key object). */
+    private static final int ENTRY_BYTES = 80;
+
+    /** The analyzer used on cache misses. */
+    private final ConcurrentAnalyzer analyzer;
+
+    private final Stripe[] stripes;
+
+    /** Number of bits of a hash selecting the stripe. */
+    private final int stripeBits;
+
+    /** Bounds of a single stripe. */
+    private final int stripeMaxEntries;
+    private final long stripeMaxBytes;
+
+    /** Serializes writing of snapshots. */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * A part of the cache: analyses of terms with the same hash bits, the
+     * least recently used first, their estimated size and statistics.
+     * Guarded by the stripe's monitor.
+     */
+    private static final class Stripe {
+        final LinkedHashMap<String, AnalysisResult> cache =
+            new LinkedHashMap<String, AnalysisResult>(16, 0.75f, true);
+        long bytes;
+        long hits;
+        long misses;
+        long evictions;
+    }
+
+    /**
+     * Creates a cache with the given bounds in front of an analyzer. The
+     * cache has up to {@link #DEFAULT_STRIPES} stripes, fewer if the bounds
+     * are small.
+     *
+     * @param maxEntries Maximum number of cached analyses.
+     * @param maxBytes Maximum estimated size of cached analyses, in bytes.
+     */
+    public CachingAnalyzer(ConcurrentAnalyzer analyzer, int maxEntries, long maxBytes) {
+        this(analyzer, maxEntries, maxBytes, stripes(maxEntries, maxBytes));
+    }
+
+    /**
+     * Creates a cache with the given bounds in front of an analyzer, in
+     * <code>stripes</code> stripes (rounded up to a power of two). Every
+     * stripe gets an equal part of the bounds (rounded up).
+     *
+     * @param maxEntries Maximum number of cached analyses.
+     * @param maxBytes Maximum estimated size of cached analyses, in bytes.
+     */
+    public CachingAnalyzer(ConcurrentAnalyzer analyzer, int maxEntries, long maxBytes,
+        int stripes) {
+        if (maxEntries <= 0 || maxBytes <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive: "
+                + maxEntries + ", " + maxBytes + ", " + stripes);
+        }
+        int bits = 0;
+        while ((1 << bits) < stripes) {
+            bits++;
+        }
+        this.analyzer = analyzer;
+        this.stripeBits = bits;
+        this.stripes = new Stripe[1 << bits];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMaxEntries = (maxEntries + (1 << bits) - 1) >> bits;
+        this.stripeMaxBytes = (maxBytes + (1 << bits) - 1) >> bits;
+    }
+
+    /**
+     * Returns the number of stripes for the given bounds.
+     */
+    private static int stripes(int maxEntries, long maxBytes) {
+        int stripes = DEFAULT_STRIPES;
+        while (stripes > 1
+            && (maxEntries / stripes < MIN_STRIPE_ENTRIES || maxBytes / stripes < MIN_STRIPE_BYTES)) {
+            stripes >>= 1;
+        }
+        return stripes;
+    }
+
+    private Stripe stripeOf(String term) {
+        if (stripeBits == 0) {
+            return stripes[0];
+        }
+        return stripes[(term.hashCode() * 0x9e3779b9) >>> (32 - stripeBits)];
+    }
+
+    /**
+     * Returns the analysis of a given term, from the cache if possible.
+     */
+    public AnalysisResult analyze(String term) {
+        final Stripe stripe = stripeOf(term);
+        AnalysisResult analysis;
+        synchronized (stripe) {
+            analysis = stripe.cache.get(term);
+            if (analysis != null) {
+                stripe.hits++;
+            } else {
+                stripe.misses++;
+            }
+        }
+
+        if (analysis == null) {
+            final InterpMorf[] segments = analyzer.analyze(term);
+            analysis = AnalysisResult.create(segments, segments.length);
+            put(stripe, term, analysis);
+        }
+        return analysis;
+    }
+
+    /**
+     * Returns analyses of many terms. Terms missing in the cache are
+     * analyzed with a single native call (see
+     * {@link ConcurrentAnalyzer#analyzeBatch(CharSequence[])}).
+     *
+     * @return Returns an array of analyses, one for every input term.
+     */
+    public AnalysisResult[] analyzeBatch(CharSequence[] terms) {
+        final AnalysisResult[] result = new AnalysisResult[terms.length];
+        final ArrayList<String> missing = new ArrayList<String>();
+        for (int i = 0; i < terms.length; i++) {
+            final String term = terms[i].toString();
+            final Stripe stripe = stripeOf(term);
+            synchronized (stripe) {
+                result[i] = stripe.cache.get(term);
+                if (result[i] != null) {
+                    stripe.hits++;
+                } else {
+                    stripe.misses++;
+                }
+            }
+            if (result[i] == null) {
+                missing.add(term);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            final InterpMorf[][] analyses =
+                analyzer.analyzeBatch(missing.toArray(new String[missing.size()]));
+            for (int i = 0, j = 0; i < terms.length; i++) {
+                if (result[i] == null) {
+                    result[i] = AnalysisResult.create(analyses[j], analyses[j].length);
+                    put(stripeOf(missing.get(j)), missing.get(j), result[i]);
+                    j++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds an analysis to a stripe and evicts its least recently used
+     * entries if the stripe is over its bounds.
+     */
+    private void put(Stripe stripe, String term, AnalysisResult analysis) {
+        final long size = sizeOf(term, analysis);
+        if (size > stripeMaxBytes) {
+            return;
+        }
+
+        synchronized (stripe) {
+            final LinkedHashMap<String, AnalysisResult> cache = stripe.cache;
+            final AnalysisResult previous = cache.put(term, analysis);
+            if (previous != null) {
+                // Another thread has analyzed the same term.
+                stripe.bytes -= sizeOf(term, previous);
+            }
+            stripe.bytes += size;
+
+            final Iterator<Map.Entry<String, AnalysisResult>> i = cache.entrySet().iterator();
+            while (stripe.bytes > stripeMaxBytes || cache.size() > stripeMaxEntries) {
+                final Map.Entry<String, AnalysisResult> eldest = i.next();
+                stripe.bytes -= sizeOf(eldest.getKey(), eldest.getValue());
+                i.remove();
+                stripe.evictions++;
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated size of a cache entry, in bytes.
+     */
+    private static long sizeOf(String term, AnalysisResult analysis) {
+        return ENTRY_BYTES + 2 * term.length() + analysis.getEstimatedBytes();
+    }
+
+    /**
+     * Saves at most <code>maxEntries</code> most recently used analyses
+     * to a file (replacing it), to be loaded with {@link #loadSnapshot(File)}.
+     * Recency is only known within stripes, so stripes contribute their
+     * most recently used entries in turns.
+     *
+     * @return Returns the number of saved analyses.
+     */
+    public int saveSnapshot(File file, int maxEntries) throws IOException {
+        // Entries of every stripe, the most recently used first.
+        final List<List<Map.Entry<String, AnalysisResult>>> recent =
+            new ArrayList<List<Map.Entry<String, AnalysisResult>>>();
+        int total = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            final ArrayList<Map.Entry<String, AnalysisResult>> entries =
+                new ArrayList<Map.Entry<String, AnalysisResult>>();
+            synchronized (stripes[s]) {
+                entries.addAll(stripes[s].cache.entrySet());
+            }
+            final ArrayList<Map.Entry<String, AnalysisResult>> reversed =
+                new ArrayList<Map.Entry<String, AnalysisResult>>(entries.size());
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                reversed.add(entries.get(i));
+            }
+            recent.add(reversed);
+            total += reversed.size();
+        }
+
+        // Snapshots are stored from the least recently used entry.
+        final int count = Math.min(maxEntries, total);
+        final String[] terms = new String[count];
+        final AnalysisResult[] analyses = new AnalysisResult[count];
+        for (int rank = 0, j = count - 1; j >= 0; rank++) {
+            for (int s = 0; s < recent.size() && j >= 0; s++) {
+                if (rank < recent.get(s).size()) {
+                    final Map.Entry<String, AnalysisResult> e = recent.get(s).get(rank);
+                    terms[j] = e.getKey();
+                    analyses[j] = e.getValue();
+                    j--;
+                }
+            }
+        }
+        synchronized (snapshotLock) {
+            CacheSnapshot.write(file, analyzer.getBackend().getChecksum(), terms, analyses);
+        }
+        return terms.length;
+    }
+
+    /**
+     * Adds analyses saved with {@link #saveSnapshot(File, int)} to the cache
+     * (the file is memory-mapped). Loaded analyses are not counted as misses
+     * and are subject to the bounds of this cache.
+     *
+     * @return Returns the number of loaded analyses.
+     * @throws IOException If the file cannot be read, is not a snapshot or
+     * was saved with another dictionary (see {@link MorfeuszBackend#getChecksum()}).
+     */
+    public int loadSnapshot(File file) throws IOException {
+        final ArrayList<String> terms = new ArrayList<String>();
+        final ArrayList<AnalysisResult> analyses = new ArrayList<AnalysisResult>();
+        CacheSnapshot.read(file, analyzer.getBackend().getChecksum(), terms, analyses);
+        for (int i = 0; i < terms.size(); i++) {
+            put(stripeOf(terms.get(i)), terms.get(i), analyses.get(i));
+        }
+        return terms.size();
+    }
+
+    /**
+     * Removes all cached analyses.
+     */
+    public void clear() {
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].cache.clear();
+                stripes[i].bytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached analyses.
+     */
+    public int getEntriesCount() {
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                count += stripes[i].cache.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the estimated size of cached analyses, in bytes (interned
+     * tags shared by analyses are not included).
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                bytes += stripes[i].bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of stripes.
+     */
+    public int getStripesCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the maximum number of cached analyses (the requested number
+     * rounded up to a multiple of the number of stripes).
+     */
+    public int getMaxEntries() {
+        return stripeMaxEntries * stripes.length;
+    }
+
+    /**
+     * Returns the maximum estimated size of cached analyses, in bytes (the
+     * requested size rounded up to a multiple of the number of stripes).
+     */
+    public long getMaxBytes() {
+        return stripeMaxBytes * stripes.length;
+    }
+
+    /**
+     * Returns the number of analyses served from the cache.
+     */
+    public long getHitsCount() {
+        long hits = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                hits += stripes[i].hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of analyses that had to be performed by
+     * the native library.
+     */
+    public long getMissesCount() {
+        long misses = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                misses += stripes[i].misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of analyses evicted from the cache.
+     */
+    public long getEvictionsCount() {
+        long evictions = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                evictions += stripes[i].evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of analyses served from the cache.
+     */
+    public double getHitRatio() {
+        final long hits = getHitsCount();
+        final long total = hits + getMissesCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Clears the collected statistics.
+     */
+    public void resetStatistics() {
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].hits = 0;
+                stripes[i].misses = 0;
+                stripes[i].evictions = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a human-readable summary of the collected statistics.
+     */
+    public String toString() {
+        return "entries: " + getEntriesCount()
+            + ", bytes: " + getEstimatedBytes()
+            + ", hits: " + getHitsCount()
+            + ", misses: " + getMissesCount()
+            + ", evictions: " + getEvictionsCount()
+            + ", hit ratio: " + getHitRatio();
+    }
+}
@@ -0,0 +1,243 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+
+/**
+ * Decodes bytes returned by Morfeusz into characters without
+ * allocating intermediate objects.
+ *
+ * Morfeusz supports UTF-8 and a few single-byte code pages (see
+ * {@link Morfeusz#MORFOPT_ENCODING}). UTF-8 is decoded directly; single-byte
+ * code pages are decoded with a lookup table built once from the JVM's
+ * charset. Decoders are stateless and shared.
+ */
+abstract class CharDecoder {
+    /** Replacement for malformed input. */
+    private static final char REPLACEMENT = '\ufffd';
+
+    /** Decoders for encoding names. */
+    private static final HashMap<String, CharDecoder> decoders = new HashMap<String, CharDecoder>();
+
+    /**
+     * Returns a decoder for the given encoding name.
+     *
+     * @throws RuntimeException If the encoding is not supported.
+     */
+    static CharDecoder forEncoding(String encoding) {
+        synchronized (decoders) {
+            CharDecoder decoder = decoders.get(encoding);
+            if (decoder == null) {
+                if (Morfeusz.ENCODING_UTF8.equalsIgnoreCase(encoding)) {
+                    decoder = new Utf8();
+                } else {
+                    decoder = new SingleByte(encoding);
+                }
+                decoders.put(encoding, decoder);
+            }
+            return decoder;
+        }
+    }
+
+    /**
+     * Decodes <code>length</code> bytes into <code>dst</code>, which must
+     * have room for at least <code>length</code> characters.
+     *
+     * @return Returns the number of decoded characters.
+     */
+    abstract int decode(byte[] src, int offset, int length, char[] dst, int dstOffset);
+
+    /**
+     * Decodes <code>length</code> bytes, starting at the absolute
+     * <code>offset</code> of a buffer, into <code>dst</code>, which must
+     * have room for at least <code>length</code> characters.
+     *
+     * @return Returns the number of decoded characters.
+     */
+    abstract int decode(ByteBuffer src, int offset, int length, char[] dst, int dstOffset);
+
+    /**
+     * Decodes a single UTF-8 sequence starting at <code>i</code> (before
+     * <code>end</code>) of either an array or a buffer (the other one is
+     * <code>null</code>). Returns the code point and the sequence length in
+     * bytes, packed; see {@link #codePoint(int)} and
+     * {@link #sequenceLength(int)}.
+     *
+     * Malformed input (including overlong forms and encoded surrogates)
+     * decodes to U+FFFD spanning the same bytes as in
+     * <code>new String(bytes, "UTF-8")</code>: the valid prefix of a
+     * sequence (at least one byte) or a whole encoded surrogate.
+     */
+    static int decodeUtf8(byte[] array, ByteBuffer buffer, int i, int end) {
+        final int b0 = byteAt(array, buffer, i) & 0xff;
+        if (b0 < 0x80) {
+            return (1 << 21) | b0;
+        }
+
+        // Valid range of the second byte; narrower for some lead bytes.
+        int lo = 0x80;
+        int hi = 0xbf;
+        final int extra;
+        int code;
+        if (b0 < 0xc2) {
+            return malformed(1);
+        } else if (b0 < 0xe0) {
+            extra = 1;
+            code = b0 & 0x1f;
+        } else if (b0 < 0xf0) {
+            extra = 2;
+            code = b0 & 0x0f;
+            if (b0 == 0xe0) lo = 0xa0;
+        } else if (b0 < 0xf5) {
+            extra = 3;
+            code = b0 & 0x07;
+            if (b0 == 0xf0) lo = 0x90;
+            if (b0 == 0xf4) hi = 0x8f;
+        } else {
+            return malformed(1);
+        }
+
+        for (int k = 1; k <= extra; k++) {
+            if (i + k >= end) {
+                return malformed(k);
+            }
+            final int c = byteAt(array, buffer, i + k) & 0xff;
+            if (c < lo || c > hi) {
+                return malformed(k);
+            }
+            lo = 0x80;
+            hi = 0xbf;
+            code = (code << 6) | (c & 0x3f);
+        }
+        if (code >= 0xd800 && code <= 0xdfff) {
+            return malformed(extra + 1);
+        }
+        return ((extra + 1) << 21) | code;
+    }
+
+    /**
+     * Returns the code point of a sequence returned from
+     * {@link #decodeUtf8}.
+     */
+    static int codePoint(int sequence) {
+        return sequence & 0x1fffff;
+    }
+
+    /**
+     * Returns the length in bytes of a sequence returned from
+     * {@link #decodeUtf8}.
+     */
+    static int sequenceLength(int sequence) {
+        return sequence >>> 21;
+    }
+
+    private static int malformed(int length) {
+        return (length << 21) | REPLACEMENT;
+    }
+
+    private static int byteAt(byte[] array, ByteBuffer buffer, int i) {
+        return array != null ? array[i] : buffer.get(i);
+    }
+
+    /**
+     * Returns a string decoded from a byte array.
+     */
+    final String toString(byte[] src, int offset, int length) {
+        final char[] chars = new char[length];
+        return new String(chars, 0, decode(src, offset, length, chars, 0));
+    }
+
+    /**
+     * A single-byte code page decoder.
+     */
+    private static final class SingleByte extends CharDecoder {
+        private final char[] table = new char[256];
+
+        SingleByte(String encoding) {
+            final byte[] bytes = new byte[256];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            final String chars;
+            try {
+                chars = new String(bytes, encoding);
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException("Required encoding unsupported: " + encoding);
+            }
+            if (chars.length() != table.length) {
+                throw new RuntimeException("Not a single-byte encoding: " + encoding);
+            }
+            chars.getChars(0, table.length, table, 0);
+        }
+
+        int decode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = table[src[offset + i] & 0xff];
+            }
+            return length;
+        }
+
+        int decode(ByteBuffer src, int offset, int length, char[] dst, int dstOffset) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = table[src.get(offset + i) & 0xff];
+            }
+            return length;
+        }
+    }
+
+    /**
+     * UTF-8 decoder. Malformed sequences are replaced with U+FFFD.
+     */
+    private static final class Utf8 extends CharDecoder {
+        int decode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+            return decode(src, null, offset, length, dst, dstOffset);
+        }
+
+        int decode(ByteBuffer src, int offset, int length, char[] dst, int dstOffset) {
+            return decode(null, src, offset, length, dst, dstOffset);
+        }
+
+        /**
+         * Decodes bytes from either an array or a buffer (the other one is
+         * <code>null</code>).
+         */
+        private static int decode(byte[] array, ByteBuffer buffer,
+            int offset, int length, char[] dst, int dstOffset)
+        {
+            final int end = offset + length;
+            int j = dstOffset;
+            int i = offset;
+            while (i < end) {
+                final int b = byteAt(array, buffer, i);
+                if (b >= 0) {
+                    dst[j++] = (char) b;
+                    i++;
+                    continue;
+                }
+
+                final int sequence = decodeUtf8(array, buffer, i, end);
+                j = put(codePoint(sequence), dst, j);
+                i += sequenceLength(sequence);
+            }
+            return j - dstOffset;
+        }
+
+        /**
+         * Stores a code point (a surrogate pair for supplementary characters).
+         * A supplementary character takes four bytes in UTF-8, so two chars
+         * always fit.
+         */
+        private static int put(int code, char[] dst, int j) {
+            if (code < 0x10000) {
+                dst[j++] = (char) code;
+            } else {
+                code -= 0x10000;
+                dst[j++] = (char) (0xd800 + (code >> 10));
+                dst[j++] = (char) (0xdc00 + (code & 0x3ff));
+            }
+            return j;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.dawidweiss.morfeusz;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A thread-safe front to Morfeusz's morphological analysis.
+ *
+ * Morfeusz (and the JNI glue code) keeps its state in process-global
+ * buffers, so only one analysis may run at any given time. This class owns
+ * that serialization point: threads queue up on a fair lock, the analysis is
+ * performed by a single {@link Analyzer} and the result is copied to
+ * <code>InterpMorf</code> objects owned by the caller (they are never
+ * reused, so they can be kept and shared between threads).
+ *
+ * A single instance is available from {@link Morfeusz#getConcurrentAnalyzer()}.
+ * Note that {@link Analyzer} instances acquired directly from
+ * {@link Morfeusz#getAnalyzer()} bypass this lock.
+ *
+ * Backends that are thread-safe (see {@link MorfeuszBackend#isThreadSafe()},
+ * for example {@link FSADictionary}) need no serialization: every thread
+ * then analyzes with its own {@link Analyzer}, without taking the lock,
+ * and wait statistics stay at zero.
+ *
+ * @since 1.3
+ */
+public final class ConcurrentAnalyzer {
+    /** An empty analysis. */
+    private static final InterpMorf[] EMPTY = new InterpMorf[0];
+
+    /** The only analyzer instance, guarded by {@link #lock}. */
+    private final Analyzer analyzer;
+
+    /**
+     * Per-thread analyzers for thread-safe backends, <code>null</code>
+     * if the backend is not thread-safe.
+     */
+    private final ThreadLocal<Analyzer> analyzers;
+
+    /** Fair lock, threads are served in arrival order. */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /*
+     * Statistics. Volatile fields are only updated with the lock held (single
+     * writer), they can be read at any time.
+     */
+    private final AtomicLong analyses = new AtomicLong();
+    private volatile long totalWaitNanos;
+    private volatile long maxWaitNanos;
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger peakQueueLength = new AtomicInteger();
+
+    /**
+     * Constructor accessible only from within package scope.
+     */
+    ConcurrentAnalyzer(final Analyzer analyzer) {
+        this.analyzer = analyzer;
+        if (analyzer.getBackend().isThreadSafe()) {
+            this.analyzers = new ThreadLocal<Analyzer>() {
+                protected Analyzer initialValue() {
+                    return new Analyzer(analyzer.getBackend(), analyzer.isDirectBuffer());
+                }
+            };
+        } else {
+            this.analyzers = null;
+        }
+    }
+
+    /**
+     * Analyzes a given term, waiting for the native library to become
+     * available if other threads are using it.
+     *
+     * @return Returns an array of segments of the analysis (the array has
+     * exactly as many elements as there are segments). The returned objects
+     * are owned by the caller.
+     */
+    public InterpMorf[] analyze(String term) {
+        if (analyzers != null) {
+            analyses.incrementAndGet();
+            return copy(analyzers.get(), term);
+        }
+
+        final long start = enter();
+        lock.lock();
+        try {
+            return analyzeLocked(term, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Analyzes many terms with a single native call (see
+     * {@link Analyzer#analyzeBatch(CharSequence[])}). Terms are encoded
+     * before the lock is acquired; returned segments are decoded lazily,
+     * so only the native call and copying of its result are serialized.
+     *
+     * @return Returns an array of analyses, one for every input term. The
+     * returned objects are owned by the caller.
+     * @throws IllegalArgumentException If a term contains a NUL character.
+     */
+    public InterpMorf[][] analyzeBatch(CharSequence[] terms) {
+        if (analyzers != null) {
+            final Analyzer local = analyzers.get();
+            analyses.incrementAndGet();
+            return segments(local.analyzePacked(local.pack(terms, null), terms.length));
+        }
+
+        final byte[] packed = analyzer.pack(terms, null);
+        final long start = enter();
+        lock.lock();
+        try {
+            recordWait(start);
+            return segments(analyzer.analyzePacked(packed, terms.length));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static InterpMorf[][] segments(AnalysisBatch batch) {
+        final InterpMorf[][] result = new InterpMorf[batch.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = batch.getSegments(i);
+        }
+        return result;
+    }
+
+    /**
+     * Analyzes a given term, waiting at most <code>timeout</code> for
+     * the native library to become available.
+     *
+     * @return Returns the analysis (as in {@link #analyze(String)}) or
+     * <code>null</code> if the timeout elapsed before the analysis could be
+     * started.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    public InterpMorf[] analyze(String term, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        if (analyzers != null) {
+            analyses.incrementAndGet();
+            return copy(analyzers.get(), term);
+        }
+
+        final long start = enter();
+        if (!lock.tryLock(timeout, unit)) {
+            timeouts.incrementAndGet();
+            return null;
+        }
+        try {
+            return analyzeLocked(term, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the queue length before acquiring the lock and returns
+     * the wait start time.
+     */
+    private long enter() {
+        final int queueLength = lock.getQueueLength() + (lock.isLocked() ? 1 : 0);
+        int peak;
+        while (queueLength > (peak = peakQueueLength.get())) {
+            if (peakQueueLength.compareAndSet(peak, queueLength)) break;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Updates wait time statistics. Must be called with the lock held.
+     */
+    private void recordWait(long start) {
+        final long waited = System.nanoTime() - start;
+        analyses.incrementAndGet();
+        totalWaitNanos += waited;
+        if (waited > maxWaitNanos) {
+            maxWaitNanos = waited;
+        }
+    }
+
+    /**
+     * Performs the analysis and copies the result. Must be called with
+     * the lock held.
+     */
+    private InterpMorf[] analyzeLocked(String term, long start) {
+        recordWait(start);
+        return copy(analyzer, term);
+    }
+
+    /**
+     * Performs the analysis and copies the result.
+     */
+    private static InterpMorf[] copy(Analyzer analyzer, String term) {
+        final InterpMorf[] analysis = analyzer.analyze(term);
+        final int tokens = analyzer.getTokensNumber();
+        if (tokens == 0) {
+            return EMPTY;
+        }
+
+        final InterpMorf[] result = new InterpMorf[tokens];
+        for (int i = 0; i < tokens; i++) {
+            result[i] = analysis[i].copy();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the backend performing the analysis.
+     */
+    MorfeuszBackend getBackend() {
+        return analyzer.getBackend();
+    }
+
+    /**
+     * Returns the (approximate) number of threads currently waiting for
+     * the native library.
+     */
+    public int getQueueLength() {
+        return lock.getQueueLength();
+    }
+
+    /**
+     * Returns the largest number of threads observed waiting for
+     * (or holding) the native library.
+     */
+    public int getPeakQueueLength() {
+        return peakQueueLength.get();
+    }
+
+    /**
+     * Returns the number of analyses performed so far.
+     */
+    public long getAnalysesCount() {
+        return analyses.get();
+    }
+
+    /**
+     * Returns the number of calls that timed out waiting for the lock.
+     */
+    public long getTimeoutsCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the total time threads spent waiting for the native
+     * library, in nanoseconds.
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+     * Returns the longest time a single thread waited for the native
+     * library, in nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Returns the average wait time per analysis, in nanoseconds.
+     */
+    public long getAverageWaitNanos() {
+        final long count = analyses.get();
+        return count == 0 ? 0 : totalWaitNanos / count;
+    }
+
+    /**
+     * Clears the collected statistics.
+     */
+    public void resetStatistics() {
+        lock.lock();
+        try {
+            analyses.set(0);
+            totalWaitNanos = 0;
+            maxWaitNanos = 0;
+            timeouts.set(0);
+            peakQueueLength.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a human-readable summary of the collected statistics.
+     */
+    public String toString() {
+        return "analyses: " + getAnalysesCount()
+            + ", timeouts: " + getTimeoutsCount()
+            + ", queue: " + getQueueLength()
+            + ", peak queue: " + getPeakQueueLength()
+            + ", avg wait [ns]: " + getAverageWaitNanos()
+            + ", max wait [ns]: " + getMaxWaitNanos();
+    }
+}
@@ -0,0 +1,281 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+
+/**
+ * A pure-Java {@link MorfeuszBackend} looking up forms in a dictionary,
+ * loaded from a text file into a compact trie. It can replace the native
+ * library where Morfeusz is not available (tests, benchmarks, capacity
+ * planning), see {@link Morfeusz#getInstance()}.
+ *
+ * The dictionary is a UTF-8 text file with a line per interpretation of
+ * a form, with tab-separated columns:
+ * <pre>
+ * form TAB lemma TAB tag
+ * </pre>
+ * Further columns are ignored, as are empty lines and lines starting
+ * with <code>'#'</code>.
+ *
+ * Every interpretation of a known form is returned as a segment between
+ * nodes 0 and 1, in the order of the dictionary file. Forms are looked up
+ * as they are and, if not found, in lower case. Unknown forms get
+ * a single segment with an empty lemma and tag (Morfeusz returns
+ * unknown words this way). Forms are not split into several segments.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @since 1.3
+ */
+public final class DictionaryBackend extends LookupBackend {
+    /**
+     * Labels of trie nodes, in breadth-first order. Node 0 is the root
+     * (its label is not used).
+     */
+    private final byte[] labels;
+
+    /**
+     * Children of node <code>n</code> are nodes from <code>firstChild[n]</code>
+     * to <code>firstChild[n + 1] - 1</code>, sorted by (unsigned) labels.
+     */
+    private final int[] firstChild;
+
+    /** The form ending at a node or -1. */
+    private final int[] nodeForms;
+
+    /**
+     * Interpretations of form <code>f</code> are entries from
+     * <code>formEntries[f]</code> to <code>formEntries[f + 1] - 1</code>.
+     */
+    private final int[] formEntries;
+
+    /** Lemma and tag ids of entries. */
+    private final int[] entryLemmas;
+    private final int[] entryTags;
+
+    /** UTF-8 encoded lemmas and tags, by id. */
+    private final byte[][] lemmas;
+    private final byte[][] tags;
+
+    private DictionaryBackend(byte[] labels, int[] firstChild, int[] nodeForms,
+        int[] formEntries, int[] entryLemmas, int[] entryTags, byte[][] lemmas, byte[][] tags) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.nodeForms = nodeForms;
+        this.formEntries = formEntries;
+        this.entryLemmas = entryLemmas;
+        this.entryTags = entryTags;
+        this.lemmas = lemmas;
+        this.tags = tags;
+    }
+
+    /**
+     * Loads a dictionary file.
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static DictionaryBackend load(File file) throws IOException {
+        return build(DictionaryReader.read(file));
+    }
+
+    /**
+     * Loads a dictionary from a reader (the reader is not closed).
+     *
+     * @throws IOException If the dictionary cannot be read or is malformed.
+     */
+    public static DictionaryBackend load(Reader reader) throws IOException {
+        return build(DictionaryReader.read(reader));
+    }
+
+    /**
+     * Sorts entries by form and lays out the trie of distinct forms.
+     */
+    private static DictionaryBackend build(DictionaryReader dictionary) {
+        final byte[][] forms = dictionary.forms;
+        final int[] lemmaOf = dictionary.lemmaOf;
+        final int[] tagOf = dictionary.tagOf;
+        final int count = dictionary.count;
+        final Integer[] order = dictionary.sortedByForm();
+
+        // Distinct forms and their (distinct) interpretations.
+        final byte[][] distinct = new byte[count][];
+        final int[] formEntries = new int[count + 1];
+        final int[] entryLemmas = new int[count];
+        final int[] entryTags = new int[count];
+        int formsCount = 0;
+        int entries = 0;
+        for (int i = 0; i < count; i++) {
+            final int entry = order[i].intValue();
+            if (formsCount == 0 || DictionaryReader.compareBytes(distinct[formsCount - 1], forms[entry]) != 0) {
+                distinct[formsCount] = forms[entry];
+                formEntries[formsCount++] = entries;
+            } else if (contains(entryLemmas, entryTags, formEntries[formsCount - 1], entries,
+                lemmaOf[entry], tagOf[entry])) {
+                continue;
+            }
+            entryLemmas[entries] = lemmaOf[entry];
+            entryTags[entries] = tagOf[entry];
+            entries++;
+        }
+        formEntries[formsCount] = entries;
+
+        // Nodes are created breadth-first, so children of consecutive nodes
+        // are consecutive. Every node covers a range of sorted forms with
+        // a common prefix of the node's depth; a form equal to the prefix
+        // is the first one in the range.
+        int capacity = 1024;
+        byte[] labels = new byte[capacity];
+        int[] firstChild = new int[capacity + 1];
+        int[] nodeForms = new int[capacity];
+        int[] from = new int[capacity];
+        int[] to = new int[capacity];
+        int[] depth = new int[capacity];
+        from[0] = 0;
+        to[0] = formsCount;
+        depth[0] = 0;
+        int nodes = 1;
+        for (int node = 0; node < nodes; node++) {
+            int start = from[node];
+            final int end = to[node];
+            final int d = depth[node];
+
+            nodeForms[node] = -1;
+            if (start < end && distinct[start].length == d) {
+                nodeForms[node] = start++;
+            }
+            firstChild[node] = nodes;
+            while (start < end) {
+                final byte label = distinct[start][d];
+                int next = start + 1;
+                while (next < end && distinct[next][d] == label) {
+                    next++;
+                }
+                if (nodes == capacity) {
+                    capacity *= 2;
+                    labels = resize(labels, capacity);
+                    firstChild = resize(firstChild, capacity + 1);
+                    nodeForms = resize(nodeForms, capacity);
+                    from = resize(from, capacity);
+                    to = resize(to, capacity);
+                    depth = resize(depth, capacity);
+                }
+                labels[nodes] = label;
+                from[nodes] = start;
+                to[nodes] = next;
+                depth[nodes] = d + 1;
+                nodes++;
+                start = next;
+            }
+        }
+        firstChild[nodes] = nodes;
+
+        return new DictionaryBackend(resize(labels, nodes), resize(firstChild, nodes + 1),
+            resize(nodeForms, nodes), resize(formEntries, formsCount + 1),
+            resize(entryLemmas, entries), resize(entryTags, entries),
+            dictionary.lemmas.toArray(new byte[dictionary.lemmas.size()][]),
+            dictionary.tags.toArray(new byte[dictionary.tags.size()][]));
+    }
+
+    /**
+     * Returns the number of distinct forms in the dictionary.
+     */
+    public int getFormsCount() {
+        return formEntries.length - 1;
+    }
+
+    /**
+     * Returns the number of distinct interpretations in the dictionary.
+     */
+    public int getEntriesCount() {
+        return entryLemmas.length;
+    }
+
+    public String about() {
+        return "Dictionary backend (pure Java): " + getFormsCount() + " forms, "
+            + getEntriesCount() + " interpretations, " + labels.length + " trie nodes.";
+    }
+
+    void updateChecksum(Checksum checksum) {
+        checksum.update(labels, 0, labels.length);
+        update(checksum, firstChild);
+        update(checksum, nodeForms);
+        update(checksum, formEntries);
+        update(checksum, entryLemmas);
+        update(checksum, entryTags);
+        update(checksum, lemmas);
+        update(checksum, tags);
+    }
+
+    int lookup(byte[] key, int keyOffset, int keyLength,
+        byte[] term, int offset, int length, ByteBuffer out) {
+        final int form = find(key, keyOffset, keyLength);
+        if (form < 0) {
+            return 0;
+        }
+
+        final int first = formEntries[form];
+        final int last = formEntries[form + 1];
+        for (int entry = first; entry < last; entry++) {
+            final byte[] lemma = lemmas[entryLemmas[entry]];
+            final byte[] tag = tags[entryTags[entry]];
+            if (!startRecord(out, term, offset, length, lemma.length, tag.length)) {
+                return BUFFER_OVERFLOW;
+            }
+            out.putShort((short) lemma.length).put(lemma);
+            out.putShort((short) tag.length).put(tag);
+        }
+        return last - first;
+    }
+
+    /**
+     * Returns the form of the given bytes or -1 if there is no such form.
+     */
+    private int find(byte[] term, int offset, int length) {
+        int node = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int label = term[i] & 0xff;
+            int low = firstChild[node];
+            int high = firstChild[node + 1] - 1;
+            node = -1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int middleLabel = labels[middle] & 0xff;
+                if (middleLabel < label) {
+                    low = middle + 1;
+                } else if (middleLabel > label) {
+                    high = middle - 1;
+                } else {
+                    node = middle;
+                    break;
+                }
+            }
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return nodeForms[node];
+    }
+
+    private static boolean contains(int[] lemmaOf, int[] tagOf, int from, int to, int lemma, int tag) {
+        for (int i = from; i < to; i++) {
+            if (lemmaOf[i] == lemma && tagOf[i] == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] resize(byte[] array, int length) {
+        final byte[] copy = new byte[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[] resize(int[] array, int length) {
+        return DictionaryReader.resize(array, length);
+    }
+}
@@ -0,0 +1,172 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Reads dictionaries of {@link LookupBackend}s: UTF-8 text with a line per
+ * interpretation of a form and tab-separated columns:
+ * <pre>
+ * form TAB lemma TAB tag
+ * </pre>
+ * Further columns are ignored, as are empty lines and lines starting
+ * with <code>'#'</code>. Lemmas and tags are interned; their ids are
+ * consecutive, in the order of first appearance.
+ *
+ * @since 1.3
+ */
+final class DictionaryReader {
+    /** UTF-8 encoded forms of entries. */
+    byte[][] forms = new byte[1024][];
+
+    /** Lemma and tag ids of entries. */
+    int[] lemmaOf = new int[forms.length];
+    int[] tagOf = new int[forms.length];
+
+    /** Number of entries. */
+    int count;
+
+    /** UTF-8 encoded lemmas and tags, by id. */
+    final List<byte[]> lemmas = new ArrayList<byte[]>();
+    final List<byte[]> tags = new ArrayList<byte[]>();
+
+    private final HashMap<String, Integer> lemmaIds = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+
+    private DictionaryReader() {
+        // use read().
+    }
+
+    /**
+     * Reads a dictionary file.
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    static DictionaryReader read(File file) throws IOException {
+        final Reader reader = new InputStreamReader(new FileInputStream(file), Morfeusz.ENCODING_UTF8);
+        try {
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a dictionary (the reader is not closed).
+     *
+     * @throws IOException If the dictionary cannot be read or is malformed.
+     */
+    static DictionaryReader read(Reader reader) throws IOException {
+        final DictionaryReader dictionary = new DictionaryReader();
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+            final int lemmaStart = line.indexOf('\t') + 1;
+            final int tagStart = (lemmaStart == 0 ? 0 : line.indexOf('\t', lemmaStart) + 1);
+            if (tagStart == 0) {
+                throw new IOException("Expected form, lemma and tag in line " + lineNumber
+                    + ": " + line);
+            }
+            int tagEnd = line.indexOf('\t', tagStart);
+            if (tagEnd < 0) {
+                tagEnd = line.length();
+            }
+            dictionary.add(encode(line.substring(0, lemmaStart - 1), lineNumber),
+                dictionary.intern(dictionary.lemmaIds, dictionary.lemmas,
+                    line.substring(lemmaStart, tagStart - 1), lineNumber),
+                dictionary.intern(dictionary.tagIds, dictionary.tags,
+                    line.substring(tagStart, tagEnd), lineNumber));
+        }
+        return dictionary;
+    }
+
+    private void add(byte[] form, int lemma, int tag) {
+        if (count == forms.length) {
+            final int length = count * 2;
+            final byte[][] grown = new byte[length][];
+            System.arraycopy(forms, 0, grown, 0, count);
+            forms = grown;
+            lemmaOf = resize(lemmaOf, length);
+            tagOf = resize(tagOf, length);
+        }
+        forms[count] = form;
+        lemmaOf[count] = lemma;
+        tagOf[count] = tag;
+        count++;
+    }
+
+    /**
+     * Returns the id of a symbol, adding its UTF-8 bytes to
+     * <code>symbols</code> if it is new.
+     */
+    private int intern(HashMap<String, Integer> ids, List<byte[]> symbols,
+        String symbol, int lineNumber) throws IOException {
+        final Integer id = ids.get(symbol);
+        if (id != null) {
+            return id.intValue();
+        }
+        symbols.add(encode(symbol, lineNumber));
+        ids.put(symbol, Integer.valueOf(symbols.size() - 1));
+        return symbols.size() - 1;
+    }
+
+    /**
+     * Returns indices of entries sorted by form bytes. The sort is stable,
+     * so interpretations of a form keep their order.
+     */
+    Integer[] sortedByForm() {
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return compareBytes(forms[a.intValue()], forms[b.intValue()]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Compares byte arrays lexicographically, as unsigned bytes.
+     */
+    static int compareBytes(byte[] a, byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static byte[] encode(String symbol, int lineNumber) throws IOException {
+        final byte[] bytes = symbol.getBytes(Morfeusz.ENCODING_UTF8);
+        if (bytes.length > 0xffff) {
+            throw new IOException("Form, lemma or tag too long (line " + lineNumber + ").");
+        }
+        return bytes;
+    }
+
+    static int[] resize(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
@@ -0,0 +1,140 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Analyzes a stream of text: splits it into tokens (see {@link Tokenizer})
+ * and returns their analyses, one token at a time.
+ *
+ * The input is read incrementally and only the current token is kept, so
+ * memory use is bounded regardless of the size of the document (apart from
+ * the bounded cache of the {@link CachingAnalyzer}). Typical use:
+ * <pre>
+ * DocumentAnalyzer document = new DocumentAnalyzer(reader);
+ * while (document.next()) {
+ *     document.getTokenImage();
+ *     document.getStartOffset();
+ *     document.getAnalysis();
+ * }
+ * document.close();
+ * </pre>
+ *
+ * Instances are not thread-safe.
+ *
+ * @since 1.3
+ */
+public final class DocumentAnalyzer {
+    private final Tokenizer tokenizer;
+    private final CachingAnalyzer analyzer;
+
+    /** Analysis of the current token (lazily computed). */
+    private AnalysisResult analysis;
+
+    private long tokens;
+
+    /**
+     * Analyzes text from a reader with the shared
+     * {@link Morfeusz#getCachingAnalyzer()}.
+     */
+    public DocumentAnalyzer(Reader reader)
+        throws UnsupportedEncodingException, SecurityException, UnsatisfiedLinkError {
+        this(new Tokenizer(reader), Morfeusz.getInstance().getCachingAnalyzer());
+    }
+
+    /**
+     * Analyzes text from a reader with the given analyzer.
+     */
+    public DocumentAnalyzer(Reader reader, CachingAnalyzer analyzer) {
+        this(new Tokenizer(reader), analyzer);
+    }
+
+    /**
+     * Analyzes tokens of a tokenizer with the given analyzer.
+     */
+    public DocumentAnalyzer(Tokenizer tokenizer, CachingAnalyzer analyzer) {
+        this.tokenizer = tokenizer;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Analyzes text read from a channel, in the given encoding, with the
+     * shared {@link Morfeusz#getCachingAnalyzer()}.
+     */
+    public static DocumentAnalyzer open(ReadableByteChannel channel, String encoding)
+        throws UnsupportedEncodingException, SecurityException, UnsatisfiedLinkError {
+        return new DocumentAnalyzer(Channels.newReader(channel, encoding));
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return Returns <code>false</code> at the end of the input.
+     */
+    public boolean next() throws IOException {
+        analysis = null;
+        if (tokenizer.next()) {
+            tokens++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the image of the current token.
+     */
+    public String getTokenImage() {
+        return tokenizer.getImage();
+    }
+
+    /**
+     * Returns the type of the current token (see {@link Tokenizer#getType()}).
+     */
+    public int getTokenType() {
+        return tokenizer.getType();
+    }
+
+    /**
+     * Returns the offset of the first character of the current token,
+     * in <code>char</code>s from the start of the input.
+     */
+    public long getStartOffset() {
+        return tokenizer.getStartOffset();
+    }
+
+    /**
+     * Returns the offset just past the last character of the current token.
+     */
+    public long getEndOffset() {
+        return tokenizer.getEndOffset();
+    }
+
+    /**
+     * Returns the analysis of the current token. Analyses are shared and
+     * may be kept.
+     */
+    public AnalysisResult getAnalysis() {
+        if (analysis == null) {
+            analysis = analyzer.analyze(tokenizer.getImage());
+        }
+        return analysis;
+    }
+
+    /**
+     * Returns the number of tokens read so far.
+     */
+    public long getTokensCount() {
+        return tokens;
+    }
+
+    /**
+     * Closes the input.
+     */
+    public void close() throws IOException {
+        tokenizer.close();
+    }
+}
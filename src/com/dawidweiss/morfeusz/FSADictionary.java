@@ -0,0 +1,724 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Checksum;
+
+import com.dawidweiss.ipipan.corpus.Tag;
+
+
+/**
+ * A pure-Java {@link MorfeuszBackend} with a dictionary compiled into
+ * a minimal deterministic automaton, stored in a single byte array.
+ * The source dictionary has the format of {@link DictionaryBackend}.
+ * A compiled dictionary can be saved with {@link #write(File)} and
+ * memory-mapped with {@link #open(File)}, which takes no time to load.
+ *
+ * Every interpretation of a form is a path in the automaton: the form's
+ * bytes, a separator (a zero byte), the lemma encoded as a suffix edit of
+ * the form (the number of bytes to remove from the end of the form plus one,
+ * followed by bytes to append), another separator and a two-byte id of the
+ * tag in the tag table. Regular inflection makes these suffixes repeat,
+ * so forms with common endings share states and the automaton is many
+ * times smaller than a trie of forms. A lookup follows the bytes of
+ * a form and the separator, then enumerates all paths that follow.
+ *
+ * A state of the automaton is a list of arcs, sorted by label:
+ * <pre>
+ * byte label, byte flags, [address of the target state]
+ * </pre>
+ * {@link #FLAG_LAST} marks the last arc of a state. Arcs with
+ * {@link #FLAG_FINAL} end a path and have no address; other arcs have
+ * a big-endian address of the target's first arc, in as few bytes
+ * as the size of the automaton requires.
+ *
+ * The file format (big-endian):
+ * <pre>
+ * int magic, version, entries, tags, root, addressBytes, maxDepth,
+ *     automatonLength, tagBytesLength, codesCount
+ * int tagOffsets[tags + 1]    -- of UTF-8 tags in tagBytes
+ * int codeOffsets[tags + 1]   -- of tags' codes in codes (none if unparseable)
+ * byte tagBytes[tagBytesLength], padding to a multiple of 8
+ * long codes[codesCount]      -- see {@link Tag#codesOf(String)}
+ * byte automaton[automatonLength]
+ * </pre>
+ * There is no lemma pool: lemmas are stored in the automaton.
+ *
+ * Instances are immutable and lookups use no shared mutable state, so
+ * any number of threads can analyze at the same time, without locks
+ * (see {@link ConcurrentAnalyzer}). Unlike in {@link DictionaryBackend},
+ * interpretations of a form are returned in the order of their paths,
+ * not in the order of the source dictionary.
+ *
+ * @since 1.3
+ */
+public final class FSADictionary extends LookupBackend {
+    /** Separates the form, the lemma and the tag in a path. */
+    static final byte SEPARATOR = 0;
+
+    /** Marks the last arc of a state. */
+    static final int FLAG_LAST = 0x01;
+
+    /** Marks an arc ending a path (with no target address). */
+    static final int FLAG_FINAL = 0x02;
+
+    /** Lemma code replacing the whole form. */
+    private static final int REPLACE_ALL = 0xff;
+
+    /** Maximum number of tags (ids are stored in two bytes). */
+    static final int MAX_TAGS = 1 << 16;
+
+    /** File format magic (<code>FSAD</code>) and version. */
+    static final int MAGIC = 0x46534144;
+    static final int VERSION = 1;
+
+    /** Header length, in bytes. */
+    static final int HEADER = 10 * 4;
+
+    /** States of the automaton (a heap buffer or a view of a mapped file). */
+    final ByteBuffer automaton;
+
+    /** Address of the initial state. */
+    final int root;
+
+    /** Number of bytes of an arc's target address. */
+    final int addressBytes;
+
+    /** The longest path following a form (lemma and tag). */
+    final int maxDepth;
+
+    /** UTF-8 encoded tags, by id. */
+    final byte[][] tags;
+
+    /** Codes of tags (<code>null</code> if a tag cannot be parsed). */
+    private final long[][] tagCodes;
+
+    /** Number of paths (distinct interpretations). */
+    final int entries;
+
+    FSADictionary(ByteBuffer automaton, int root, int addressBytes, int maxDepth,
+        byte[][] tags, long[][] tagCodes, int entries) {
+        this.automaton = automaton;
+        this.root = root;
+        this.addressBytes = addressBytes;
+        this.maxDepth = maxDepth;
+        this.tags = tags;
+        this.tagCodes = tagCodes;
+        this.entries = entries;
+    }
+
+    /**
+     * Parses tags, <code>null</code> for tags that cannot be parsed.
+     */
+    static long[][] codesOf(byte[][] tags) {
+        final long[][] codes = new long[tags.length][];
+        for (int i = 0; i < tags.length; i++) {
+            try {
+                codes[i] = Tag.codesOf(tags[i], 0, tags[i].length);
+            } catch (RuntimeException e) {
+                // Not an IPI PAN tag (an unknown part of speech or attribute value).
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Compiles a dictionary file (see {@link DictionaryBackend}).
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static FSADictionary build(File file) throws IOException {
+        return build(DictionaryReader.read(file));
+    }
+
+    /**
+     * Compiles a dictionary (see {@link DictionaryBackend}) from a reader
+     * (the reader is not closed).
+     *
+     * @throws IOException If the dictionary cannot be read or is malformed.
+     */
+    public static FSADictionary build(Reader reader) throws IOException {
+        return build(DictionaryReader.read(reader));
+    }
+
+    /**
+     * Opens (memory-maps) a dictionary written with {@link #write(File)}.
+     * The automaton is used in place, so opening takes constant time and
+     * processes mapping the same file share its pages.
+     *
+     * @throws IOException If the file cannot be read or is not a compiled
+     * dictionary.
+     */
+    public static FSADictionary open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a compiled dictionary file (see {@link #open(File)}) or
+     * compiles a source dictionary (see {@link #build(File)}), depending
+     * on the file's header.
+     *
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static FSADictionary load(File file) throws IOException {
+        return (isCompiled(file) ? open(file) : build(file));
+    }
+
+    /**
+     * Returns <code>true</code> if a file starts with the header of
+     * a compiled dictionary.
+     */
+    static boolean isCompiled(File file) throws IOException {
+        final DataInputStream is = new DataInputStream(new FileInputStream(file));
+        try {
+            return is.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads a compiled dictionary from a buffer (see {@link #write(OutputStream)}).
+     * The automaton is a view of the buffer.
+     */
+    static FSADictionary open(ByteBuffer buffer) throws IOException {
+        final ByteBuffer data = buffer.duplicate();
+        if (data.limit() < HEADER || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled dictionary.");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported dictionary version: " + data.getInt(4));
+        }
+        final int entries = data.getInt(8);
+        final int tagsCount = data.getInt(12);
+        final int root = data.getInt(16);
+        final int addressBytes = data.getInt(20);
+        final int maxDepth = data.getInt(24);
+        final int automatonLength = data.getInt(28);
+        final int tagBytesLength = data.getInt(32);
+        final int codesCount = data.getInt(36);
+        if (tagsCount < 0 || tagsCount > MAX_TAGS || addressBytes < 1 || addressBytes > 4
+            || automatonLength < 0 || tagBytesLength < 0 || codesCount < 0) {
+            throw new IOException("Corrupted dictionary header.");
+        }
+        final int tagsStart = HEADER + 2 * 4 * (tagsCount + 1);
+        final int codesStart = align(tagsStart + tagBytesLength);
+        final int automatonStart = codesStart + 8 * codesCount;
+        if (data.limit() != (long) automatonStart + automatonLength
+            || (automatonLength > 0 && (root < 0 || root >= automatonLength))) {
+            throw new IOException("Truncated dictionary.");
+        }
+
+        final byte[][] tags = new byte[tagsCount][];
+        final long[][] tagCodes = new long[tagsCount][];
+        for (int i = 0; i < tagsCount; i++) {
+            final int tagStart = data.getInt(HEADER + 4 * i);
+            final int tagEnd = data.getInt(HEADER + 4 * (i + 1));
+            final int codeStart = data.getInt(HEADER + 4 * (tagsCount + 1 + i));
+            final int codeEnd = data.getInt(HEADER + 4 * (tagsCount + 2 + i));
+            if (tagStart < 0 || tagStart > tagEnd || tagEnd > tagBytesLength
+                || codeStart < 0 || codeStart > codeEnd || codeEnd > codesCount) {
+                throw new IOException("Corrupted tag table.");
+            }
+            tags[i] = new byte[tagEnd - tagStart];
+            data.position(tagsStart + tagStart);
+            data.get(tags[i]);
+            if (codeEnd > codeStart) {
+                tagCodes[i] = new long[codeEnd - codeStart];
+                for (int j = 0; j < tagCodes[i].length; j++) {
+                    tagCodes[i][j] = data.getLong(codesStart + 8 * (codeStart + j));
+                }
+            }
+        }
+
+        data.position(automatonStart);
+        data.limit(automatonStart + automatonLength);
+        return new FSADictionary(data.slice(), root, addressBytes, maxDepth,
+            tags, tagCodes, entries);
+    }
+
+    /**
+     * Writes the compiled dictionary to a file, to be opened with
+     * {@link #open(File)}.
+     */
+    public void write(File file) throws IOException {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            write(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes the compiled dictionary to a stream. The stream is not closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        int tagBytesLength = 0;
+        int codesCount = 0;
+        for (int i = 0; i < tags.length; i++) {
+            tagBytesLength += tags[i].length;
+            codesCount += (tagCodes[i] == null ? 0 : tagCodes[i].length);
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries);
+        out.writeInt(tags.length);
+        out.writeInt(root);
+        out.writeInt(addressBytes);
+        out.writeInt(maxDepth);
+        out.writeInt(automaton.limit());
+        out.writeInt(tagBytesLength);
+        out.writeInt(codesCount);
+
+        for (int i = 0, offset = 0; i <= tags.length; i++) {
+            out.writeInt(offset);
+            offset += (i < tags.length ? tags[i].length : 0);
+        }
+        for (int i = 0, offset = 0; i <= tags.length; i++) {
+            out.writeInt(offset);
+            offset += (i < tags.length && tagCodes[i] != null ? tagCodes[i].length : 0);
+        }
+        for (int i = 0; i < tags.length; i++) {
+            out.write(tags[i]);
+        }
+        final int tagsEnd = HEADER + 2 * 4 * (tags.length + 1) + tagBytesLength;
+        for (int i = tagsEnd; i < align(tagsEnd); i++) {
+            out.writeByte(0);
+        }
+        for (int i = 0; i < tags.length; i++) {
+            for (int j = 0; tagCodes[i] != null && j < tagCodes[i].length; j++) {
+                out.writeLong(tagCodes[i][j]);
+            }
+        }
+        for (int i = 0; i < automaton.limit(); i++) {
+            out.writeByte(automaton.get(i));
+        }
+        out.flush();
+    }
+
+    /**
+     * Compiles a source dictionary into a file for {@link #open(File)}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: FSADictionary <source dictionary> <compiled dictionary>");
+            System.exit(1);
+        }
+        final FSADictionary dictionary = build(new File(args[0]));
+        dictionary.write(new File(args[1]));
+        System.out.println(dictionary.about());
+    }
+
+    /**
+     * Rounds an offset up to a multiple of 8 (so tag codes are aligned).
+     */
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static FSADictionary build(DictionaryReader dictionary) throws IOException {
+        if (dictionary.tags.size() > MAX_TAGS) {
+            throw new IOException("Too many distinct tags: " + dictionary.tags.size());
+        }
+
+        // Encode and sort paths.
+        final byte[][] paths = new byte[dictionary.count][];
+        int maxDepth = 0;
+        for (int i = 0; i < dictionary.count; i++) {
+            final byte[] form = dictionary.forms[i];
+            final byte[] lemma = dictionary.lemmas.get(dictionary.lemmaOf[i]);
+            if (indexOf(form, SEPARATOR) >= 0 || indexOf(lemma, SEPARATOR) >= 0) {
+                throw new IOException("Forms and lemmas must not contain NUL characters.");
+            }
+            paths[i] = encode(form, lemma, dictionary.tagOf[i]);
+            maxDepth = Math.max(maxDepth, paths[i].length - form.length);
+        }
+        Arrays.sort(paths, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return DictionaryReader.compareBytes(a, b);
+            }
+        });
+
+        final Builder builder = new Builder();
+        int entries = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (i == 0 || !Arrays.equals(paths[i - 1], paths[i])) {
+                builder.add(paths[i]);
+                entries++;
+            }
+        }
+        builder.finish();
+
+        return builder.compile(maxDepth,
+            dictionary.tags.toArray(new byte[dictionary.tags.size()][]), entries);
+    }
+
+    /**
+     * Encodes a path: form, separator, lemma's suffix edit, separator, tag id.
+     */
+    private static byte[] encode(byte[] form, byte[] lemma, int tag) {
+        int common = 0;
+        final int max = Math.min(form.length, lemma.length);
+        while (common < max && form[common] == lemma[common]) {
+            common++;
+        }
+        final int remove = form.length - common;
+        if (remove + 1 >= REPLACE_ALL) {
+            common = 0;
+        }
+
+        final int suffixLength = lemma.length - common;
+        final byte[] path = new byte[form.length + 1 + 1 + suffixLength + 1 + 2];
+        int i = 0;
+        System.arraycopy(form, 0, path, i, form.length);
+        i += form.length;
+        path[i++] = SEPARATOR;
+        path[i++] = (byte) (remove + 1 >= REPLACE_ALL ? REPLACE_ALL : remove + 1);
+        System.arraycopy(lemma, common, path, i, suffixLength);
+        i += suffixLength;
+        path[i++] = SEPARATOR;
+        path[i++] = (byte) (tag >>> 8);
+        path[i++] = (byte) tag;
+        return path;
+    }
+
+    private static int indexOf(byte[] array, byte value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of distinct interpretations in the dictionary.
+     */
+    public int getEntriesCount() {
+        return entries;
+    }
+
+    /**
+     * Returns the size of the automaton, in bytes.
+     */
+    public int getAutomatonSize() {
+        return automaton.limit();
+    }
+
+    /**
+     * Returns the number of distinct tags. Tag ids are consecutive, in the
+     * order of first appearance in the source dictionary.
+     */
+    public int getTagsCount() {
+        return tags.length;
+    }
+
+    /**
+     * Returns the tag with the given id.
+     */
+    public String getTag(int tagId) {
+        try {
+            return new String(tags[tagId], Morfeusz.ENCODING_UTF8);
+        } catch (java.io.UnsupportedEncodingException e) {
+            // Practically unreachable.
+            throw new RuntimeException();
+        }
+    }
+
+    /**
+     * Returns codes of all alternatives of the tag with the given id (see
+     * {@link Tag#codesOf(String)}) or <code>null</code> if the tag cannot
+     * be parsed. The returned array is <b>shared</b> and must not be modified.
+     */
+    public long[] getTagCodes(int tagId) {
+        return tagCodes[tagId];
+    }
+
+    public String about() {
+        return "FSA dictionary backend (pure Java): " + entries + " interpretations, "
+            + tags.length + " tags, " + automaton.limit() + " bytes.";
+    }
+
+    void updateChecksum(Checksum checksum) {
+        update(checksum, new int [] {root, addressBytes, maxDepth, entries});
+        update(checksum, tags);
+        final ByteBuffer view = automaton.duplicate();
+        view.position(0);
+        final byte[] buffer = new byte[64 * 1024];
+        while (view.hasRemaining()) {
+            final int length = Math.min(buffer.length, view.remaining());
+            view.get(buffer, 0, length);
+            checksum.update(buffer, 0, length);
+        }
+    }
+
+    int lookup(byte[] key, int keyOffset, int keyLength,
+        byte[] term, int offset, int length, ByteBuffer out) {
+        if (automaton.limit() == 0) {
+            return 0;
+        }
+        int state = root;
+        for (int i = keyOffset; i < keyOffset + keyLength && state >= 0; i++) {
+            state = (key[i] == SEPARATOR ? -1 : next(state, key[i]));
+        }
+        if (state < 0 || (state = next(state, SEPARATOR)) < 0) {
+            return 0;
+        }
+
+        // Depth-first enumeration of paths following the separator.
+        final int[] arcs = new int[maxDepth];
+        final byte[] path = new byte[maxDepth];
+        int segments = 0;
+        int depth = 0;
+        arcs[0] = state;
+        while (true) {
+            final int arc = arcs[depth];
+            path[depth] = automaton.get(arc);
+            if ((automaton.get(arc + 1) & FLAG_FINAL) == 0) {
+                arcs[++depth] = target(arc);
+                continue;
+            }
+
+            if (!write(path, depth + 1, key, keyOffset, keyLength, term, offset, length, out)) {
+                return BUFFER_OVERFLOW;
+            }
+            segments++;
+
+            while ((automaton.get(arcs[depth] + 1) & FLAG_LAST) != 0) {
+                if (depth == 0) {
+                    return segments;
+                }
+                depth--;
+            }
+            arcs[depth] = nextArc(arcs[depth]);
+        }
+    }
+
+    /**
+     * Decodes a path following a form and writes its record.
+     */
+    private boolean write(byte[] path, int pathLength, byte[] key, int keyOffset, int keyLength,
+        byte[] term, int offset, int length, ByteBuffer out) {
+        final int code = path[0] & 0xff;
+        final int prefixLength = (code == REPLACE_ALL ? 0 : keyLength - (code - 1));
+        final int suffixLength = pathLength - 4;
+        final byte[] tag = tags[((path[pathLength - 2] & 0xff) << 8) | (path[pathLength - 1] & 0xff)];
+
+        final int lemmaLength = prefixLength + suffixLength;
+        if (!startRecord(out, term, offset, length, lemmaLength, tag.length)) {
+            return false;
+        }
+        out.putShort((short) lemmaLength);
+        out.put(key, keyOffset, prefixLength);
+        out.put(path, 1, suffixLength);
+        out.putShort((short) tag.length).put(tag);
+        return true;
+    }
+
+    /**
+     * Returns the target of the arc of a state with the given label or -1.
+     */
+    private int next(int state, byte label) {
+        final int l = label & 0xff;
+        for (int arc = state; ; arc = nextArc(arc)) {
+            final int arcLabel = automaton.get(arc) & 0xff;
+            if (arcLabel == l) {
+                return (automaton.get(arc + 1) & FLAG_FINAL) != 0 ? -1 : target(arc);
+            }
+            if (arcLabel > l || (automaton.get(arc + 1) & FLAG_LAST) != 0) {
+                return -1;
+            }
+        }
+    }
+
+    private int nextArc(int arc) {
+        return arc + 2 + ((automaton.get(arc + 1) & FLAG_FINAL) != 0 ? 0 : addressBytes);
+    }
+
+    private int target(int arc) {
+        int address = 0;
+        for (int i = arc + 2; i < arc + 2 + addressBytes; i++) {
+            address = (address << 8) | (automaton.get(i) & 0xff);
+        }
+        return address;
+    }
+
+    /**
+     * Builds a minimal automaton from paths added in sorted order (the
+     * incremental algorithm of Daciuk, Mihov, Watson and Watson, 2000).
+     */
+    private static final class Builder {
+        /** States equivalent to a state. */
+        private final HashMap<State, State> register = new HashMap<State, State>();
+
+        /** Registered states, in order of registration (children first). */
+        private final List<State> registered = new ArrayList<State>();
+
+        private final State root = new State();
+
+        void add(byte[] path) {
+            State state = root;
+            int i = 0;
+            while (i < path.length && state.arcs > 0 && state.labels[state.arcs - 1] == path[i]) {
+                state = state.targets[state.arcs - 1];
+                i++;
+            }
+            if (state.arcs > 0) {
+                replaceOrRegister(state);
+            }
+            for (; i < path.length; i++) {
+                final State next = new State();
+                state.add(path[i], next);
+                state = next;
+            }
+        }
+
+        void finish() {
+            if (root.arcs > 0) {
+                replaceOrRegister(root);
+            }
+            root.id = registered.size();
+            registered.add(root);
+        }
+
+        /**
+         * Replaces the last child of a state with an equivalent registered
+         * state or registers it, after doing the same for its descendants.
+         */
+        private void replaceOrRegister(State state) {
+            final State child = state.targets[state.arcs - 1];
+            if (child.arcs > 0) {
+                replaceOrRegister(child);
+            }
+            final State equivalent = register.get(child);
+            if (equivalent != null) {
+                state.targets[state.arcs - 1] = equivalent;
+            } else {
+                child.id = registered.size();
+                registered.add(child);
+                register.put(child, child);
+            }
+        }
+
+        /**
+         * Lays out states in the order of registration, so targets are
+         * written before arcs pointing at them.
+         */
+        FSADictionary compile(int maxDepth, byte[][] tags, int entries) {
+            int addressBytes = 1;
+            while (size(addressBytes) > (1L << (8 * addressBytes))) {
+                addressBytes++;
+            }
+
+            final byte[] image = new byte[(int) size(addressBytes)];
+            final int[] addresses = new int[registered.size()];
+            int position = 0;
+            for (int i = 0; i < registered.size(); i++) {
+                final State state = registered.get(i);
+                addresses[i] = position;
+                for (int j = 0; j < state.arcs; j++) {
+                    final State target = state.targets[j];
+                    image[position++] = state.labels[j];
+                    image[position++] = (byte) ((j == state.arcs - 1 ? FLAG_LAST : 0)
+                        | (target.arcs == 0 ? FLAG_FINAL : 0));
+                    if (target.arcs > 0) {
+                        final int address = addresses[target.id];
+                        for (int k = addressBytes - 1; k >= 0; k--) {
+                            image[position++] = (byte) (address >>> (8 * k));
+                        }
+                    }
+                }
+            }
+            return new FSADictionary(ByteBuffer.wrap(image), addresses[root.id], addressBytes,
+                maxDepth, tags, codesOf(tags), entries);
+        }
+
+        /**
+         * Returns the size of the automaton with the given address size.
+         */
+        private long size(int addressBytes) {
+            long size = 0;
+            for (int i = 0; i < registered.size(); i++) {
+                final State state = registered.get(i);
+                for (int j = 0; j < state.arcs; j++) {
+                    size += 2 + (state.targets[j].arcs == 0 ? 0 : addressBytes);
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * A state of the automaton under construction. Registered states never
+     * change, so they are compared by their arcs and targets' identity.
+     */
+    private static final class State {
+        byte[] labels = new byte[2];
+        State[] targets = new State[2];
+        int arcs;
+
+        /** Registration order or -1. */
+        int id = -1;
+
+        void add(byte label, State target) {
+            if (arcs == labels.length) {
+                final byte[] newLabels = new byte[arcs * 2];
+                System.arraycopy(labels, 0, newLabels, 0, arcs);
+                labels = newLabels;
+                final State[] newTargets = new State[arcs * 2];
+                System.arraycopy(targets, 0, newTargets, 0, arcs);
+                targets = newTargets;
+            }
+            labels[arcs] = label;
+            targets[arcs] = target;
+            arcs++;
+        }
+
+        public boolean equals(Object other) {
+            final State state = (State) other;
+            if (state.arcs != arcs) {
+                return false;
+            }
+            for (int i = 0; i < arcs; i++) {
+                if (labels[i] != state.labels[i] || targets[i] != state.targets[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int hashCode() {
+            int hash = arcs;
+            for (int i = 0; i < arcs; i++) {
+                hash = hash * 31 + labels[i];
+                hash = hash * 31 + targets[i].id;
+            }
+            return hash;
+        }
+    }
+}
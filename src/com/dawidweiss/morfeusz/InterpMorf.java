@@ -1,6 +1,9 @@
 package com.dawidweiss.morfeusz;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import com.dawidweiss.ipipan.corpus.TagCodeCache;
 
 
 /**
@@ -16,16 +19,20 @@ import java.io.UnsupportedEncodingException;
  *
  * Fields in this class are in package scope to speed up copying from native data structures 
  * in Morfeusz.
+ * 
+ * If the analyzer uses a direct buffer to transport results, an instance of this class is
+ * a view of a single segment record in that buffer and byte arrays are filled lazily, 
+ * only when requested.
  */
 public final class InterpMorf {
-    /** Maximum length of a single token. */
-    private static final int MAX_TOKEN_LENGTH = 200;
+    /** Initial length of the token array (grown on demand). */
+    private static final int INITIAL_TOKEN_LENGTH = 32;
     
-    /** Maximum length of a lemma. */
-    private static final int MAX_LEMMA_LENGTH = 200;
+    /** Initial length of the lemma array (grown on demand). */
+    private static final int INITIAL_LEMMA_LENGTH = 32;
     
-    /** Maximum length of a tag. */
-    private static final int MAX_TAG_LENGTH = 600;
+    /** Initial length of the tag array (grown on demand). */
+    private static final int INITIAL_TAG_LENGTH = 64;
     
     /**
      * Check if the required encoding is available (further exceptions
@@ -39,11 +46,33 @@ public final class InterpMorf {
         }
     }
     
+    /** Parts of the segment. */
+    private static final int TOKEN = 0, LEMMA = 1, TAG = 2;
+
     /**
      * Byte-to-character encoding used in Morfeusz.
      */
     private final String morfeuszCharEncoding;
 
+    /** Decoder for {@link #morfeuszCharEncoding}. */
+    private final CharDecoder decoder;
+
+    /** Character views of segment parts (lazily created). */
+    private Chars[] views;
+
+    /**
+     * <code>true</code> for segments that are never reused by an analyzer
+     * (and may be shared between threads). Such segments never change, so 
+     * their images are decoded once and cached in {@link #images}. 
+     */
+    private final boolean detached;
+
+    /** 
+     * Cached images of a detached segment. Races are benign: an image 
+     * may be decoded more than once, but strings are immutable.
+     */
+    private String[] images;
+
     /** Number of start node. */
     int p;
 
@@ -51,26 +80,172 @@ public final class InterpMorf {
     int k;
 
     /** Token, verbatim as returned by Morfeusz */
-    final byte[] token = new byte[MAX_TOKEN_LENGTH];
+    byte[] token;
 
     /** Lenght of the most recently analyzed token. */
     int tokenLength;
 
     /** Lemma, verbatim as returned by Morfeusz */
-    final byte[] lemma = new byte[MAX_LEMMA_LENGTH];
+    byte[] lemma;
 
     /** Lenght of the most recently analyzed token's lemma. */
     int lemmaLength;
 
     /** Morphosyntactic tag, verbatim as returned by Morfeusz */
-    final byte[] tag = new byte[MAX_TAG_LENGTH];
+    byte[] tag;
 
     /** Lenght of the most recently analyzed token's tag. */
     int tagLength;
 
+    /**
+     * A direct buffer with this segment's record or <code>null</code> if 
+     * byte arrays are up to date.
+     */
+    private ByteBuffer buffer;
+
+    /** Offsets of token, lemma and tag bytes in {@link #buffer}. */
+    private int tokenOffset, lemmaOffset, tagOffset;
+
     /** Constructor only accessible from within package */
     InterpMorf(String byteToCharEncoding) {
+        this(byteToCharEncoding, 
+            new byte[INITIAL_TOKEN_LENGTH], new byte[INITIAL_LEMMA_LENGTH], new byte[INITIAL_TAG_LENGTH],
+            false);
+    }
+
+    /**
+     * Creates a detached segment with the given data arrays (see {@link #copy()}). 
+     */
+    InterpMorf(String byteToCharEncoding, byte[] token, byte[] lemma, byte[] tag) {
+        this(byteToCharEncoding, token, lemma, tag, true);
+    }
+
+    private InterpMorf(String byteToCharEncoding, byte[] token, byte[] lemma, byte[] tag, 
+        boolean detached)
+    {
+        this.detached = detached;
         this.morfeuszCharEncoding = byteToCharEncoding;
+        this.decoder = CharDecoder.forEncoding(byteToCharEncoding);
+        this.token = token;
+        this.lemma = lemma;
+        this.tag = tag;
+    }
+
+    /**
+     * Returns a detached copy of this segment. The copy has its own
+     * arrays, trimmed to the actual data length, and is never reused by
+     * an {@link Analyzer}, so it can be safely kept and passed between threads.
+     */
+    InterpMorf copy() {
+        materialize();
+        final InterpMorf copy = new InterpMorf(morfeuszCharEncoding,
+            copyOf(token, tokenLength), copyOf(lemma, lemmaLength), copyOf(tag, tagLength));
+        copy.p = p;
+        copy.k = k;
+        copy.tokenLength = tokenLength;
+        copy.lemmaLength = lemmaLength;
+        copy.tagLength = tagLength;
+        return copy;
+    }
+
+    /**
+     * Binds this segment to a record in a direct buffer, written by the
+     * native code or another {@link MorfeuszBackend}. The record layout 
+     * (native byte order) is:
+     * <pre>
+     * int p, int k, 
+     * unsigned short tokenLength, byte[tokenLength] token,
+     * unsigned short lemmaLength, byte[lemmaLength] lemma,
+     * unsigned short tagLength, byte[tagLength] tag
+     * </pre>
+     * 
+     * @return Returns the position of the next record.
+     */
+    int bind(ByteBuffer buffer, int position) {
+        reset();
+        this.buffer = buffer;
+        this.p = buffer.getInt(position);
+        this.k = buffer.getInt(position + 4);
+        position += 8;
+
+        this.tokenLength = buffer.getShort(position) & 0xffff;
+        this.tokenOffset = position + 2;
+        position = tokenOffset + tokenLength;
+
+        this.lemmaLength = buffer.getShort(position) & 0xffff;
+        this.lemmaOffset = position + 2;
+        position = lemmaOffset + lemmaLength;
+
+        this.tagLength = buffer.getShort(position) & 0xffff;
+        this.tagOffset = position + 2;
+        return tagOffset + tagLength;
+    }
+
+    /**
+     * Copies token, lemma and tag bytes from the direct buffer to arrays.
+     */
+    private void materialize() {
+        if (buffer != null) {
+            ensureCapacity();
+            copyFromBuffer(tokenOffset, token, tokenLength);
+            copyFromBuffer(lemmaOffset, lemma, lemmaLength);
+            copyFromBuffer(tagOffset, tag, tagLength);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Grows byte arrays that are shorter than the current token, lemma
+     * or tag length. The native code stores the required length when an 
+     * array is too small.
+     * 
+     * @return Returns <code>true</code> if any array has been replaced.
+     */
+    boolean ensureCapacity() {
+        boolean grown = false;
+        if (token.length < tokenLength) {
+            token = new byte[grow(token.length, tokenLength)];
+            grown = true;
+        }
+        if (lemma.length < lemmaLength) {
+            lemma = new byte[grow(lemma.length, lemmaLength)];
+            grown = true;
+        }
+        if (tag.length < tagLength) {
+            tag = new byte[grow(tag.length, tagLength)];
+            grown = true;
+        }
+        return grown;
+    }
+
+    private static int grow(int length, int minLength) {
+        return Math.max(minLength, length * 2);
+    }
+
+    private void copyFromBuffer(int offset, byte[] array, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(array, 0, length);
+    }
+
+    /**
+     * Returns a read-only view of <code>length</code> bytes starting at
+     * <code>offset</code> of the direct buffer or of an array.
+     */
+    private ByteBuffer slice(byte[] array, int offset, int length) {
+        if (buffer == null) {
+            return ByteBuffer.wrap(array, 0, length).slice().asReadOnlyBuffer();
+        }
+        final ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    private static byte[] copyOf(byte[] array, int length) {
+        final byte[] copy = new byte[length];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
     }
 
     /**
@@ -81,6 +256,7 @@ public final class InterpMorf {
      * @deprecated Consider using {@link #getTokenImage()}, this method will be inaccessible in the future.
      */
     public final byte[] getToken() {
+        materialize();
         return token;
     }
 
@@ -92,6 +268,7 @@ public final class InterpMorf {
      * @deprecated Consider using {@link #getLemmaImage()}, this method will be inaccessible in the future.
      */
     public final byte[] getLemma() {
+        materialize();
         return lemma;
     }
 
@@ -103,9 +280,52 @@ public final class InterpMorf {
      * @deprecated Consider using {@link #getTagImage()}, this method will be inaccessible in the future.
      */
     public final byte[] getTag() {
+        materialize();
         return tag;
     }
 
+    /**
+     * Returns a read-only buffer with token bytes (no copying is involved
+     * if the analyzer uses a direct buffer). The view is valid until
+     * the next analysis.
+     * 
+     * @since 1.3
+     */
+    public final ByteBuffer getTokenBuffer() {
+        return slice(token, tokenOffset, tokenLength);
+    }
+
+    /**
+     * Returns a read-only buffer with lemma bytes (see {@link #getTokenBuffer()}).
+     * 
+     * @since 1.3
+     */
+    public final ByteBuffer getLemmaBuffer() {
+        return slice(lemma, lemmaOffset, lemmaLength);
+    }
+
+    /**
+     * Returns a read-only buffer with tag bytes (see {@link #getTokenBuffer()}).
+     * 
+     * @since 1.3
+     */
+    public final ByteBuffer getTagBuffer() {
+        return slice(tag, tagOffset, tagLength);
+    }
+
+    /**
+     * Returns numeric codes of all alternatives of the tag, looked up
+     * directly by tag bytes in the shared {@link TagCodeCache}. The
+     * returned array is shared and must not be modified.
+     * 
+     * @throws com.dawidweiss.ipipan.corpus.TagParserException If the tag cannot be parsed.
+     * @since 1.3
+     */
+    public final long[] getTagCodes() {
+        materialize();
+        return TagCodeCache.getInstance().getCodes(tag, 0, tagLength);
+    }
+
     /**
      * Returns the number of the start node.
      * 
@@ -155,35 +375,242 @@ public final class InterpMorf {
      * Returns the tag image as a string.
      */
     public final String getTagImage() {
-        try {
-            return new String(getTag(), 0, getTagLength(), morfeuszCharEncoding);
-        } catch (UnsupportedEncodingException e) {
-            /* Checked in a static block. */
-            throw new RuntimeException();
-        }
+        return image(TAG);
     }
 
     /**
      * Returns the lemma image as a string.
      */
     public final String getLemmaImage() {
-        try {
-            return new String(getLemma(), 0, getLemmaLength(), morfeuszCharEncoding);
-        } catch (UnsupportedEncodingException e) {
-            /* Checked in a static block. */
-            throw new RuntimeException();
-        }
+        return image(LEMMA);
     }
 
     /**
-     * Returns the lemma image as a string.
+     * Returns the token image as a string.
      */
     public final String getTokenImage() {
-        try {
-            return new String(getToken(), 0, getTokenLength(), morfeuszCharEncoding);
-        } catch (UnsupportedEncodingException e) {
-            /* Checked in a static block. */
-            throw new RuntimeException();
+        return image(TOKEN);
+    }
+
+    /**
+     * Returns a character view of the token. The view is reused and
+     * decoded lazily; its contents change with the next analysis. Segments
+     * detached from an analyzer (never reused) return their cached image.
+     * 
+     * @since 1.3
+     */
+    public final CharSequence getTokenChars() {
+        return detached ? image(TOKEN) : chars(TOKEN);
+    }
+
+    /**
+     * Returns a character view of the lemma (see {@link #getTokenChars()}).
+     * 
+     * @since 1.3
+     */
+    public final CharSequence getLemmaChars() {
+        return detached ? image(LEMMA) : chars(LEMMA);
+    }
+
+    /**
+     * Returns a character view of the tag (see {@link #getTokenChars()}).
+     * 
+     * @since 1.3
+     */
+    public final CharSequence getTagChars() {
+        return detached ? image(TAG) : chars(TAG);
+    }
+
+    /**
+     * Appends the token image to a string builder.
+     * 
+     * @since 1.3
+     */
+    public final StringBuilder appendTokenImage(StringBuilder builder) {
+        return append(TOKEN, builder);
+    }
+
+    /**
+     * Appends the lemma image to a string builder.
+     * 
+     * @since 1.3
+     */
+    public final StringBuilder appendLemmaImage(StringBuilder builder) {
+        return append(LEMMA, builder);
+    }
+
+    /**
+     * Appends the tag image to a string builder.
+     * 
+     * @since 1.3
+     */
+    public final StringBuilder appendTagImage(StringBuilder builder) {
+        return append(TAG, builder);
+    }
+
+    /**
+     * Decodes the token image into a character array. The array must have
+     * room for at least {@link #getTokenLength()} characters after 
+     * <code>offset</code>.
+     * 
+     * @return Returns the number of decoded characters.
+     * @since 1.3
+     */
+    public final int getTokenImage(char[] dst, int offset) {
+        return decode(TOKEN, dst, offset);
+    }
+
+    /**
+     * Decodes the lemma image into a character array (see {@link #getTokenImage(char[], int)}).
+     * 
+     * @since 1.3
+     */
+    public final int getLemmaImage(char[] dst, int offset) {
+        return decode(LEMMA, dst, offset);
+    }
+
+    /**
+     * Decodes the tag image into a character array (see {@link #getTokenImage(char[], int)}).
+     * 
+     * @since 1.3
+     */
+    public final int getTagImage(char[] dst, int offset) {
+        return decode(TAG, dst, offset);
+    }
+
+    /**
+     * Returns the number of bytes of a part of the segment.
+     */
+    private int byteLength(int part) {
+        switch (part) {
+            case TOKEN: return tokenLength;
+            case LEMMA: return lemmaLength;
+            case TAG:   return tagLength;
+            default:
+                throw new RuntimeException("Unreachable state.");
+        }
+    }
+
+    /**
+     * Decodes a part of the segment (from the direct buffer or from the arrays). 
+     */
+    private int decode(int part, char[] dst, int offset) {
+        final int length = byteLength(part);
+        if (offset < 0 || offset + length > dst.length) {
+            throw new IndexOutOfBoundsException("Not enough room for " + length + " characters.");
+        }
+
+        if (buffer != null) {
+            switch (part) {
+                case TOKEN: return decoder.decode(buffer, tokenOffset, length, dst, offset);
+                case LEMMA: return decoder.decode(buffer, lemmaOffset, length, dst, offset);
+                case TAG:   return decoder.decode(buffer, tagOffset, length, dst, offset);
+            }
+        } else {
+            switch (part) {
+                case TOKEN: return decoder.decode(token, 0, length, dst, offset);
+                case LEMMA: return decoder.decode(lemma, 0, length, dst, offset);
+                case TAG:   return decoder.decode(tag, 0, length, dst, offset);
+            }
+        }
+        throw new RuntimeException("Unreachable state.");
+    }
+
+    private String image(int part) {
+        if (detached) {
+            String[] images = this.images;
+            if (images == null) {
+                this.images = images = new String[3];
+            }
+            String image = images[part];
+            if (image == null) {
+                final char[] chars = new char[byteLength(part)];
+                images[part] = image = new String(chars, 0, decode(part, chars, 0));
+            }
+            return image;
+        }
+
+        if (views != null && views[part] != null && views[part].length >= 0) {
+            return views[part].toString();
+        }
+        final char[] chars = new char[byteLength(part)];
+        return new String(chars, 0, decode(part, chars, 0));
+    }
+
+    private StringBuilder append(int part, StringBuilder builder) {
+        if (detached) {
+            return builder.append(image(part));
+        }
+        final Chars view = chars(part);
+        final int length = view.length();
+        builder.append(view.chars, 0, length);
+        return builder;
+    }
+
+    private Chars chars(int part) {
+        if (views == null) {
+            views = new Chars[3];
+        }
+        if (views[part] == null) {
+            views[part] = new Chars(part);
+        }
+        return views[part];
+    }
+
+    /**
+     * Invalidates character views. Must be called whenever 
+     * segment data changes.
+     */
+    void reset() {
+        if (views != null) {
+            for (int i = 0; i < views.length; i++) {
+                if (views[i] != null) views[i].length = -1;
+            }
+        }
+    }
+
+    /**
+     * A lazily decoded, reusable character view of a part of the segment.
+     */
+    private final class Chars implements CharSequence {
+        private final int part;
+        private char[] chars = new char[0];
+
+        /** Number of decoded characters, -1 if not decoded yet. */
+        private int length = -1;
+
+        Chars(int part) {
+            this.part = part;
+        }
+
+        public int length() {
+            if (length < 0) {
+                final int bytes = byteLength(part);
+                if (chars.length < bytes) {
+                    chars = new char[bytes];
+                }
+                length = decode(part, chars, 0);
+            }
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("Index out of range: " + index);
+            }
+            return chars[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("Range out of bounds: " + start + "-" + end);
+            }
+            return new String(chars, start, end - start);
+        }
+
+        public String toString() {
+            final int length = length();
+            return new String(chars, 0, length);
         }
     }
 
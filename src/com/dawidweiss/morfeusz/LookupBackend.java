@@ -0,0 +1,158 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+
+/**
+ * A base class of pure-Java backends looking up UTF-8 forms in
+ * a dictionary (see {@link DictionaryReader} for the source format).
+ * Terms are looked up as they are and then in lower case; unknown terms
+ * get a single segment with an empty lemma and tag (see
+ * {@link DictionaryBackend}).
+ *
+ * Subclasses must be immutable, so backends are thread-safe.
+ *
+ * @since 1.3
+ */
+abstract class LookupBackend implements MorfeuszBackend {
+    private static final Locale POLISH = new Locale("pl", "PL");
+
+    /** Fixed part of a segment record: nodes and three lengths. */
+    private static final int RECORD_OVERHEAD = 4 + 4 + 3 * 2;
+
+    /** CRC32 of the dictionary, valid if {@link #checksummed}. */
+    private volatile long checksum;
+    private volatile boolean checksummed;
+
+    public final String getEncoding() {
+        return Morfeusz.ENCODING_UTF8;
+    }
+
+    public final boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Returns a CRC32 of the dictionary data, computed on first use.
+     */
+    public final long getChecksum() {
+        if (!checksummed) {
+            final CRC32 crc = new CRC32();
+            updateChecksum(crc);
+            checksum = crc.getValue();
+            checksummed = true;
+        }
+        return checksum;
+    }
+
+    public final int analyze(byte[] term, int offset, int length, ByteBuffer out) {
+        if (length > 0xffff) {
+            throw new IllegalArgumentException("Term too long: " + length);
+        }
+        out.clear();
+        if (length == 0) {
+            return 0;
+        }
+
+        int segments = lookup(term, offset, length, term, offset, length, out);
+        if (segments == 0) {
+            final byte[] lowerCase = toLowerCase(term, offset, length);
+            if (lowerCase != null) {
+                segments = lookup(lowerCase, 0, lowerCase.length, term, offset, length, out);
+            }
+        }
+        if (segments == 0) {
+            if (!startRecord(out, term, offset, length, 0, 0)) {
+                return BUFFER_OVERFLOW;
+            }
+            out.putShort((short) 0);
+            out.putShort((short) 0);
+            segments = 1;
+        }
+        return segments;
+    }
+
+    /**
+     * Writes a record for every interpretation of a form (<code>key</code>),
+     * with <code>term</code> as the token.
+     *
+     * @return Returns the number of written records, 0 if the form is unknown
+     * or {@link #BUFFER_OVERFLOW}.
+     */
+    abstract int lookup(byte[] key, int keyOffset, int keyLength,
+        byte[] term, int offset, int length, ByteBuffer out);
+
+    /**
+     * Adds all data of the dictionary that lookups depend on to a checksum.
+     */
+    abstract void updateChecksum(Checksum checksum);
+
+    /**
+     * Adds integers (big-endian) to a checksum.
+     */
+    static void update(Checksum checksum, int[] values) {
+        final byte[] buffer = new byte[4 * 1024];
+        for (int i = 0; i < values.length; ) {
+            int length = 0;
+            for (; i < values.length && length < buffer.length; i++) {
+                final int value = values[i];
+                buffer[length++] = (byte) (value >>> 24);
+                buffer[length++] = (byte) (value >>> 16);
+                buffer[length++] = (byte) (value >>> 8);
+                buffer[length++] = (byte) value;
+            }
+            checksum.update(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Adds byte sequences, each preceded by its length, to a checksum.
+     */
+    static void update(Checksum checksum, byte[][] values) {
+        final int[] lengths = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            lengths[i] = values[i].length;
+        }
+        update(checksum, lengths);
+        for (int i = 0; i < values.length; i++) {
+            checksum.update(values[i], 0, values[i].length);
+        }
+    }
+
+    /**
+     * Writes the start of a record (nodes and the token) if the whole record
+     * fits in <code>out</code>. The lemma and the tag, each preceded by its
+     * length (a <code>short</code>), must follow.
+     *
+     * @return Returns <code>false</code> if the record does not fit.
+     */
+    static boolean startRecord(ByteBuffer out, byte[] token, int offset, int length,
+        int lemmaLength, int tagLength) {
+        if (out.remaining() < RECORD_OVERHEAD + length + lemmaLength + tagLength) {
+            return false;
+        }
+        out.putInt(0);
+        out.putInt(1);
+        out.putShort((short) length).put(token, offset, length);
+        return true;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a term in lower case or <code>null</code>
+     * if the term is in lower case already.
+     */
+    private static byte[] toLowerCase(byte[] term, int offset, int length) {
+        try {
+            final String image = new String(term, offset, length, Morfeusz.ENCODING_UTF8);
+            final String lowerCase = image.toLowerCase(POLISH);
+            return lowerCase.equals(image) ? null : lowerCase.getBytes(Morfeusz.ENCODING_UTF8);
+        } catch (UnsupportedEncodingException e) {
+            // Practically unreachable.
+            throw new RuntimeException();
+        }
+    }
+}
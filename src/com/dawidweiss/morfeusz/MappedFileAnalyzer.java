@@ -0,0 +1,325 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.dawidweiss.ipipan.corpus.Tag;
+
+
+/**
+ * Analyzes a UTF-8 encoded file without converting it to characters.
+ *
+ * The file is memory-mapped in windows (so files larger than 2GB can be
+ * read) and tokens are found directly in its bytes, with the same rules as
+ * {@link Tokenizer}. Token bytes are copied to batches passed to the
+ * native library as they are (Morfeusz must use UTF-8, which is the
+ * default) and the results are written, again as bytes, through a reusable
+ * direct buffer to a channel. No strings are created on this path.
+ *
+ * The output has the format of {@link MorfeuszDemo}: a line per token,
+ * with the token and its segments (<code>token,lemma,tag</code>) separated
+ * with <code>"; "</code>, or <code>'?'</code> if there are none.
+ *
+ * Instances are not thread-safe. Like all {@link Analyzer}s, this class
+ * bypasses the lock of {@link ConcurrentAnalyzer}.
+ *
+ * @since 1.3
+ */
+public final class MappedFileAnalyzer {
+    /** Default size of a mapped window of the input, in bytes. */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Size of the output buffer. */
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    /** Maximum number of tokens analyzed with a single native call. */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * Number of bytes that must follow a token (in a window) for its end
+     * to be certain: an apostrophe and a letter, or a separator and a digit.
+     */
+    private static final int LOOKAHEAD = 8;
+
+    private static final byte[] SEPARATOR = {';', ' '};
+
+    private final Analyzer analyzer;
+    private final int windowSize;
+    private boolean parseTags;
+
+    /** Output buffer and channel. */
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private WritableByteChannel channel;
+
+    /** Tokens of the current batch (offsets in the current window). */
+    private final int[] starts = new int[BATCH_SIZE];
+    private final int[] ends = new int[BATCH_SIZE];
+    private int batchSize;
+
+    /** Packed, NUL-terminated terms of the current batch. */
+    private byte[] packed = new byte[16 * 1024];
+
+    /** Scratch arrays. */
+    private final int[] bounds = new int[4];
+    private final long[] codes = new long[16];
+
+    /** Length (in bytes) of the code point returned from {@link #decode}. */
+    private int length;
+
+    private long tokens;
+
+    /**
+     * Creates a file analyzer using an analyzer from
+     * {@link Morfeusz#getAnalyzer()}.
+     */
+    public MappedFileAnalyzer()
+        throws UnsupportedEncodingException, SecurityException, UnsatisfiedLinkError {
+        this(Morfeusz.getInstance().getAnalyzer(), DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileAnalyzer(Analyzer analyzer, int windowSize) {
+        if (!Morfeusz.ENCODING_UTF8.equalsIgnoreCase(analyzer.getEncoding())) {
+            throw new IllegalArgumentException("Morfeusz must use UTF-8 encoding: "
+                + analyzer.getEncoding());
+        }
+        if (windowSize < 4 * Tokenizer.MAX_TOKEN_LENGTH + LOOKAHEAD) {
+            throw new IllegalArgumentException("Window too small: " + windowSize);
+        }
+        this.analyzer = analyzer;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * If <code>true</code>, tags are parsed and errors reported to
+     * <code>System.err</code> (see {@link MorfeuszDemo}).
+     */
+    public void setParseTags(boolean parseTags) {
+        this.parseTags = parseTags;
+    }
+
+    /**
+     * Analyzes a file and writes results to a channel (the channel is
+     * not closed).
+     *
+     * @return Returns the number of analyzed tokens.
+     */
+    public long analyze(File input, WritableByteChannel out) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(input, "r");
+        try {
+            final FileChannel in = raf.getChannel();
+            final long size = in.size();
+            this.channel = out;
+            this.tokens = 0;
+            output.clear();
+
+            long windowStart = 0;
+            while (windowStart < size) {
+                final int windowLength = (int) Math.min(windowSize, size - windowStart);
+                final ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY,
+                    windowStart, windowLength);
+                final int consumed = analyzeWindow(window, windowStart + windowLength == size);
+                flushBatch(window);
+                windowStart += consumed;
+            }
+            flushOutput();
+            return tokens;
+        } finally {
+            channel = null;
+            raf.close();
+        }
+    }
+
+    /**
+     * Finds tokens in a window and returns the number of bytes consumed. If
+     * this is not the last window, tokens too close to its end are left for
+     * the next one.
+     */
+    private int analyzeWindow(ByteBuffer window, boolean last) throws IOException {
+        final int limit = window.limit();
+        int i = 0;
+        while (true) {
+            // Skip white space.
+            while (true) {
+                if (i >= limit || (!last && limit - i < LOOKAHEAD)) {
+                    return i;
+                }
+                final int cp = decode(window, i, limit);
+                if (!Tokenizer.isWhitespace(cp)) {
+                    break;
+                }
+                i += length;
+            }
+
+            final int end = scan(window, i, limit);
+            if (!last && end + LOOKAHEAD > limit) {
+                return i;
+            }
+
+            starts[batchSize] = i;
+            ends[batchSize] = end;
+            if (++batchSize == BATCH_SIZE) {
+                flushBatch(window);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Returns the end of the token starting at <code>i</code> (see
+     * {@link Tokenizer#next()}).
+     */
+    private int scan(ByteBuffer b, int i, int limit) {
+        int cp = decode(b, i, limit);
+        int chars = 0;
+        if (Character.isLetter(cp)) {
+            do {
+                chars += Character.charCount(cp);
+                i += length;
+                cp = decode(b, i, limit);
+                if (Tokenizer.isApostrophe(cp)) {
+                    final int apostrophe = length;
+                    final int following = decode(b, i + apostrophe, limit);
+                    if (following >= 0 && Character.isLetter(following)) {
+                        chars++;
+                        i += apostrophe;
+                        cp = decode(b, i, limit);
+                    }
+                }
+            } while (cp >= 0 && Tokenizer.isWordPart(cp) && chars <= Tokenizer.MAX_TOKEN_LENGTH - 3);
+        } else if (Character.isDigit(cp)) {
+            do {
+                chars += Character.charCount(cp);
+                i += length;
+                cp = decode(b, i, limit);
+                if (cp == '.' || cp == ',') {
+                    final int following = decode(b, i + 1, limit);
+                    if (following >= 0 && Character.isDigit(following)) {
+                        chars++;
+                        i++;
+                        cp = following;
+                    }
+                }
+            } while (cp >= 0 && Character.isDigit(cp) && chars <= Tokenizer.MAX_TOKEN_LENGTH - 3);
+        } else {
+            i += length;
+        }
+        return i;
+    }
+
+    /**
+     * Decodes the UTF-8 code point at <code>i</code> and stores its length
+     * in {@link #length}. Returns -1 at the limit and U+FFFD for malformed
+     * input (see {@link CharDecoder#decodeUtf8}).
+     */
+    private int decode(ByteBuffer b, int i, int limit) {
+        if (i >= limit) {
+            return -1;
+        }
+        final int sequence = CharDecoder.decodeUtf8(null, b, i, limit);
+        length = CharDecoder.sequenceLength(sequence);
+        return CharDecoder.codePoint(sequence);
+    }
+
+    /**
+     * Analyzes tokens of the current batch and writes the results.
+     */
+    private void flushBatch(ByteBuffer window) throws IOException {
+        if (batchSize == 0) {
+            return;
+        }
+
+        // Pack token bytes.
+        final ByteBuffer view = window.duplicate();
+        int packedLength = 0;
+        for (int k = 0; k < batchSize; k++) {
+            final int tokenLength = ends[k] - starts[k];
+            if (packedLength + tokenLength + 1 > packed.length) {
+                final byte[] grown = new byte[Math.max(packed.length * 2, packedLength + tokenLength + 1)];
+                System.arraycopy(packed, 0, grown, 0, packedLength);
+                packed = grown;
+            }
+            view.position(starts[k]);
+            view.get(packed, packedLength, tokenLength);
+            packedLength += tokenLength;
+            packed[packedLength++] = 0;
+        }
+
+        final AnalysisBatch batch = analyzer.analyzePacked(packed, batchSize);
+        final byte[] data = batch.data;
+        for (int k = 0, offset = 0; k < batchSize; k++) {
+            final int tokenLength = ends[k] - starts[k];
+            write(packed, offset, tokenLength);
+            write((byte) ' ');
+
+            final int segments = batch.getSegmentsCount(k);
+            if (segments == 0) {
+                write((byte) '?');
+            }
+            for (int j = 0; j < segments; j++) {
+                batch.getBounds(k, j, bounds);
+                if (j > 0) write(SEPARATOR, 0, SEPARATOR.length);
+                write(data, bounds[0], bounds[1] - bounds[0]);
+                write((byte) ',');
+                write(data, bounds[1], bounds[2] - bounds[1]);
+                write((byte) ',');
+                write(data, bounds[2], bounds[3] - bounds[2]);
+
+                if (parseTags) {
+                    checkTag(packed, offset, tokenLength, data, bounds[2], bounds[3] - bounds[2]);
+                }
+            }
+            write((byte) '\n');
+            offset += tokenLength + 1;
+        }
+
+        tokens += batchSize;
+        batchSize = 0;
+    }
+
+    private void checkTag(byte[] token, int tokenOffset, int tokenLength,
+        byte[] tag, int tagOffset, int tagLength) throws UnsupportedEncodingException {
+        try {
+            Tag.parseCodes(tag, tagOffset, tagLength, codes);
+        } catch (RuntimeException e) {
+            System.err.println("Could not parse tag for: "
+                + new String(token, tokenOffset, tokenLength, Morfeusz.ENCODING_UTF8)
+                + " ('" + new String(tag, tagOffset, tagLength, Morfeusz.ENCODING_UTF8)
+                + "'); Error: " + e.toString());
+        }
+    }
+
+    private void write(byte b) throws IOException {
+        if (!output.hasRemaining()) {
+            flushOutput();
+        }
+        output.put(b);
+    }
+
+    private void write(byte[] src, int offset, int count) throws IOException {
+        if (count > output.remaining()) {
+            flushOutput();
+            if (count > output.remaining()) {
+                writeFully(ByteBuffer.wrap(src, offset, count));
+                return;
+            }
+        }
+        output.put(src, offset, count);
+    }
+
+    private void flushOutput() throws IOException {
+        output.flip();
+        writeFully(output);
+        output.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -2,12 +2,19 @@ package com.dawidweiss.morfeusz;
 
 import java.io.*;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 
 
 /**
  * This class provides public access to Morfeusz. The class
  * contains a singleton object, available by a call to
  * <code>getInstance</code>.
+ *
+ * The analysis is performed by a {@link MorfeuszBackend}: Morfeusz's
+ * native library or, if it cannot be linked (or if requested with
+ * system properties, see {@link #getInstance()}), a pure-Java
+ * {@link DictionaryBackend}.
  */
 public final class Morfeusz {
     /** UTF-8 encoding name */
@@ -34,10 +41,96 @@ public final class Morfeusz {
     /** Default encoding used by Morfeusz to convert bytes to characters. */
     private final static int MORFEUSZ_DEFAULT_ENCODING = MORFEUSZ_UTF8;
 
+    /**
+     * System property with the path of a dictionary file for
+     * {@link DictionaryBackend}, used if the native library cannot be linked.
+     *
+     * @since 1.3
+     */
+    public final static String PROPERTY_DICTIONARY = "morfeusz.dictionary";
+
+    /**
+     * System property selecting the backend of {@link #getInstance()}:
+     * {@link #BACKEND_NATIVE} (the default), {@link #BACKEND_DICTIONARY}
+     * or {@link #BACKEND_FSA}.
+     *
+     * @since 1.3
+     */
+    public final static String PROPERTY_BACKEND = "morfeusz.backend";
+
+    /** A value of {@link #PROPERTY_BACKEND}: Morfeusz's native library. */
+    public final static String BACKEND_NATIVE = "native";
+
+    /**
+     * A value of {@link #PROPERTY_BACKEND}: {@link DictionaryBackend}
+     * with the dictionary from {@link #PROPERTY_DICTIONARY}.
+     */
+    public final static String BACKEND_DICTIONARY = "dictionary";
+
+    /**
+     * A value of {@link #PROPERTY_BACKEND}: {@link FSADictionary} compiled
+     * from the dictionary in {@link #PROPERTY_DICTIONARY} or memory-mapped,
+     * if the file is a compiled dictionary (see {@link FSADictionary#load(File)}).
+     */
+    public final static String BACKEND_FSA = "fsa";
+
+    /**
+     * System property with the path of a snapshot file of the caching
+     * analyzer of {@link #getInstance()}. If set, the snapshot is loaded
+     * (if it exists) when the instance is created and saved at shutdown,
+     * so analyses of frequent forms survive restarts (see
+     * {@link CachingAnalyzer#saveSnapshot(File, int)}). Errors are reported
+     * to the {@link SnapshotListener}, if there is one.
+     *
+     * @since 1.3
+     */
+    public final static String PROPERTY_CACHE_SNAPSHOT = "morfeusz.cache.snapshot";
+
+    /**
+     * System property with the maximum number of analyses in a snapshot
+     * (see {@link #PROPERTY_CACHE_SNAPSHOT}), by default
+     * {@link CachingAnalyzer#DEFAULT_SNAPSHOT_ENTRIES}.
+     *
+     * @since 1.3
+     */
+    public final static String PROPERTY_CACHE_SNAPSHOT_ENTRIES = "morfeusz.cache.snapshot.entries";
+
+    /**
+     * System property with the interval of periodic snapshots, in seconds
+     * (see {@link #PROPERTY_CACHE_SNAPSHOT}). By default, the snapshot is
+     * only saved at shutdown.
+     *
+     * @since 1.3
+     */
+    public final static String PROPERTY_CACHE_SNAPSHOT_INTERVAL = "morfeusz.cache.snapshot.interval";
+
+    /**
+     * Receives errors of loading and saving snapshots of the caching
+     * analyzer of {@link #getInstance()} (see {@link #PROPERTY_CACHE_SNAPSHOT}).
+     * Snapshots are a cache, so errors do not prevent startup.
+     *
+     * @since 1.3
+     */
+    public static interface SnapshotListener {
+        /**
+         * Called if a snapshot could not be loaded; the cache starts empty.
+         */
+        public void loadFailed(File file, IOException e);
+
+        /**
+         * Called if a snapshot could not be saved (from a timer or
+         * a shutdown hook thread).
+         */
+        public void saveFailed(File file, IOException e);
+    }
+
     /**
      * The singleton instance of Morfeusz class.
      */
     private static Morfeusz instance;
+
+    /** Receives snapshot errors, may be <code>null</code>. */
+    private static volatile SnapshotListener snapshotListener;
     
     /**
      * About information string.
@@ -47,24 +140,46 @@ public final class Morfeusz {
     /** Codepage used for converting bytes to characters. */
     private final String encoding;
 
+    /** The analysis backend. */
+    private final MorfeuszBackend backend;
+
+    /** A shared, thread-safe analyzer (lazily created). */
+    private ConcurrentAnalyzer concurrentAnalyzer;
+
+    /** A shared, thread-safe caching analyzer (lazily created). */
+    private CachingAnalyzer cachingAnalyzer;
+
     /**
      * No instantiation outside of the class scope.
      */
-    private Morfeusz(final int morfeuszEncoding) {
-        this.encoding = encodingToCodePage(morfeuszEncoding);
+    private Morfeusz(final MorfeuszBackend backend) {
+        this.backend = backend;
+        this.encoding = backend.getEncoding();
 
-        if (morfeusz_set_option(MORFOPT_ENCODING, morfeuszEncoding) != 1) {
+        if (backend instanceof NativeBackend
+            && morfeusz_set_option(MORFOPT_ENCODING, MORFEUSZ_DEFAULT_ENCODING) != 1) {
             throw new RuntimeException("Morfeusz option MORFOPT_ENCODING could not be set to the default" +
-                    " encoding: " + instance.encoding);
+                    " encoding: " + encoding);
         }
+        this.aboutInfo = backend.about() + "\n\n" + versionInfo();
     }
 
     /**
      * @return Returns the singleton object that can be used to acquire
      * new <code>Analyzer</code> instances.
      * 
+     * The native library is used unless system property {@link #PROPERTY_BACKEND}
+     * is {@link #BACKEND_DICTIONARY} or {@link #BACKEND_FSA}. If the library
+     * cannot be linked and {@link #PROPERTY_DICTIONARY} is set, a
+     * {@link DictionaryBackend} with that dictionary is used instead
+     * (or a memory-mapped {@link FSADictionary}, if the file is compiled).
+     *
+     * If {@link #PROPERTY_CACHE_SNAPSHOT} is set, the caching analyzer is
+     * created and warmed up with the snapshot before this method returns.
+     * 
      * @throws SecurityException If the native library cannot be accessed.
-     * @throws UnsatisfiedLinkError If Morfeusz library cannot be linked or found.
+     * @throws UnsatisfiedLinkError If Morfeusz library cannot be linked or found
+     *         (and there is no dictionary to fall back to).
      *         The search path depends on the operating system's shared object
      *         binding method.
      * @throws UnsupportedEncodingException If the required character encoding is not supported.
@@ -73,37 +188,170 @@ public final class Morfeusz {
         throws UnsupportedEncodingException, SecurityException, UnsatisfiedLinkError
     {
         synchronized (Morfeusz.class) {
-            if (instance != null) {
-                return instance;
+            if (instance == null) {
+                instance = new Morfeusz(loadBackend());
+                final String snapshot = System.getProperty(PROPERTY_CACHE_SNAPSHOT);
+                if (snapshot != null) {
+                    instance.startCacheSnapshots(new File(snapshot));
+                }
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Sets the listener of snapshot errors (see {@link #PROPERTY_CACHE_SNAPSHOT}).
+     * Set it before {@link #getInstance()} to be notified of loading errors.
+     * Errors are ignored if there is no listener.
+     *
+     * @since 1.3
+     */
+    public static void setSnapshotListener(SnapshotListener listener) {
+        snapshotListener = listener;
+    }
+
+    /**
+     * Creates a new instance with the given backend, independent of the
+     * singleton returned from {@link #getInstance()}. Note that the native
+     * library is process-global, so this method should only be used with
+     * other backends.
+     * 
+     * @since 1.3
+     */
+    public static Morfeusz newInstance(MorfeuszBackend backend) {
+        return new Morfeusz(backend);
+    }
+
+    /**
+     * Loads the backend of the singleton instance.
+     */
+    private static MorfeuszBackend loadBackend()
+        throws UnsupportedEncodingException, SecurityException, UnsatisfiedLinkError
+    {
+        final String dictionary = System.getProperty(PROPERTY_DICTIONARY);
+        final String backend = System.getProperty(PROPERTY_BACKEND, BACKEND_NATIVE);
+        if (BACKEND_DICTIONARY.equals(backend) || BACKEND_FSA.equals(backend)) {
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Property " + PROPERTY_DICTIONARY
+                    + " is required by the " + backend + " backend.");
             }
+            return loadDictionary(dictionary, BACKEND_FSA.equals(backend));
+        } else if (!BACKEND_NATIVE.equals(backend)) {
+            throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
 
+        try {
             Runtime.getRuntime().loadLibrary("morfeusz-java");
+        } catch (UnsatisfiedLinkError e) {
+            if (dictionary == null) {
+                throw e;
+            }
+            return loadDictionary(dictionary, false);
+        }
+        Analyzer.initIDs();
+        return new NativeBackend(encodingToCodePage(MORFEUSZ_DEFAULT_ENCODING),
+            new String(aboutJniNative(), ENCODING_ISO8859_2));
+    }
+
+    /**
+     * Loads a snapshot of the caching analyzer and schedules saving it
+     * (see {@link #PROPERTY_CACHE_SNAPSHOT}).
+     */
+    private void startCacheSnapshots(final File file) {
+        final int entries = Integer.getInteger(PROPERTY_CACHE_SNAPSHOT_ENTRIES,
+            CachingAnalyzer.DEFAULT_SNAPSHOT_ENTRIES).intValue();
+        final long interval = Long.getLong(PROPERTY_CACHE_SNAPSHOT_INTERVAL, 0).longValue();
 
-            Morfeusz instance = new Morfeusz(MORFEUSZ_DEFAULT_ENCODING);
-            instance.aboutInfo = new String(instance.aboutJniNative(), ENCODING_ISO8859_2) + "\n\n";
-            InputStream is = instance.getClass().getResourceAsStream("/res/version.txt");
-            if (is == null) {
-	            instance.aboutInfo += "Java JNI binding code (c) Dawid Weiss\n(no version info)";
-            } else {
-	            try {
-		            Properties p = new Properties();
-		            p.load(is);
-
-    	            instance.aboutInfo += p.getProperty("copyclause") + "\n";
-    	            instance.aboutInfo += "Version: " + p.getProperty("version") + "\n";
-    	            instance.aboutInfo += "SVN-Id: " + p.getProperty("svnid") + "\n";
-	            } catch (IOException e) {
-		            instance.aboutInfo += "Java JNI binding code (c) Dawid Weiss\n(exception reading version info)";
-	            } finally {
-		            try {
-			            is.close();
-		            } catch (IOException e) {
-			            // ignore
-		            }
-	            }
+        loadCacheSnapshot(file);
+        final Runnable save = new Runnable() {
+            public void run() {
+                saveCacheSnapshot(file, entries);
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(new Thread(save, "morfeusz-cache-snapshot"));
+        if (interval > 0) {
+            new Timer("morfeusz-cache-snapshot", true).schedule(new TimerTask() {
+                public void run() {
+                    save.run();
+                }
+            }, interval * 1000, interval * 1000);
+        }
+    }
+
+    /**
+     * Loads a snapshot of the caching analyzer, if the file exists. Errors
+     * are reported to the {@link SnapshotListener}.
+     *
+     * @return Returns <code>true</code> if the snapshot has been loaded.
+     */
+    boolean loadCacheSnapshot(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            getCachingAnalyzer().loadSnapshot(file);
+            return true;
+        } catch (IOException e) {
+            final SnapshotListener listener = snapshotListener;
+            if (listener != null) {
+                listener.loadFailed(file, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Saves a snapshot of the caching analyzer. Errors are reported to
+     * the {@link SnapshotListener}.
+     *
+     * @return Returns <code>true</code> if the snapshot has been saved.
+     */
+    boolean saveCacheSnapshot(File file, int entries) {
+        try {
+            getCachingAnalyzer().saveSnapshot(file, entries);
+            return true;
+        } catch (IOException e) {
+            final SnapshotListener listener = snapshotListener;
+            if (listener != null) {
+                listener.saveFailed(file, e);
+            }
+            return false;
+        }
+    }
+
+    private static MorfeuszBackend loadDictionary(String path, boolean fsa) {
+        final File file = new File(path);
+        try {
+            return (fsa || FSADictionary.isCompiled(file))
+                ? FSADictionary.load(file) : DictionaryBackend.load(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load the dictionary: " + path, e);
+        }
+    }
+
+    /**
+     * Returns the version information of this binding.
+     */
+    private static String versionInfo() {
+        InputStream is = Morfeusz.class.getResourceAsStream("/res/version.txt");
+        if (is == null) {
+            return "Java JNI binding code (c) Dawid Weiss\n(no version info)";
+        }
+        try {
+            Properties p = new Properties();
+            p.load(is);
+
+            return p.getProperty("copyclause") + "\n"
+                + "Version: " + p.getProperty("version") + "\n"
+                + "SVN-Id: " + p.getProperty("svnid") + "\n";
+        } catch (IOException e) {
+            return "Java JNI binding code (c) Dawid Weiss\n(exception reading version info)";
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
             }
-            Morfeusz.instance = instance;
-            return instance;
         }
     }
 
@@ -122,13 +370,71 @@ public final class Morfeusz {
      *         data structures after subsequent analyses.
      */
     public Analyzer getAnalyzer() {
-        return new Analyzer(encoding);
+        return new Analyzer(backend, false);
+    }
+
+    /**
+     * @param directBuffer If <code>true</code>, the analyzer will receive
+     *         results from the native code in a reusable direct buffer 
+     *         (fewer JNI calls and copies; <code>InterpMorf</code> objects
+     *         become lazy views of that buffer).
+     * @return Returns an instance of the low-level Morfeusz binding class
+     *         (see {@link #getAnalyzer()}).
+     * 
+     * @since 1.3
+     */
+    public Analyzer getAnalyzer(boolean directBuffer) {
+        return new Analyzer(backend, directBuffer);
+    }
+
+    /**
+     * @return Returns the shared, thread-safe analyzer. All threads
+     *         using this analyzer are serialized on a single lock around
+     *         the native library.
+     *
+     * @since 1.3
+     */
+    public synchronized ConcurrentAnalyzer getConcurrentAnalyzer() {
+        if (concurrentAnalyzer == null) {
+            concurrentAnalyzer = new ConcurrentAnalyzer(getAnalyzer());
+        }
+        return concurrentAnalyzer;
+    }
+
+    /**
+     * @return Returns the shared, thread-safe caching analyzer, with default
+     *         bounds, in front of {@link #getConcurrentAnalyzer()}.
+     *
+     * @since 1.3
+     */
+    public synchronized CachingAnalyzer getCachingAnalyzer() {
+        if (cachingAnalyzer == null) {
+            cachingAnalyzer = new CachingAnalyzer(getConcurrentAnalyzer(),
+                CachingAnalyzer.DEFAULT_MAX_ENTRIES, CachingAnalyzer.DEFAULT_MAX_BYTES);
+        }
+        return cachingAnalyzer;
+    }
+
+    /**
+     * Returns the codepage used for converting bytes to characters.
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the analysis backend.
+     *
+     * @since 1.3
+     */
+    public MorfeuszBackend getBackend() {
+        return backend;
     }
 
     /**
      * Returns <code>iso8859-2</code>-encoded copyright info from Morfeusz.
      */
-    private native byte[] aboutJniNative();
+    private static native byte[] aboutJniNative();
 
     /**
      * A native method for setting options declared in Morfeusz.
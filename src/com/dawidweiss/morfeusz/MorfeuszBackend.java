@@ -0,0 +1,69 @@
+package com.dawidweiss.morfeusz;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * An implementation of the morphological analysis behind {@link Morfeusz}
+ * and its {@link Analyzer}s. The default backend calls Morfeusz's native
+ * library; {@link DictionaryBackend} is a pure-Java replacement, which
+ * can be used on machines without Morfeusz (see {@link Morfeusz#getInstance()}
+ * and {@link Morfeusz#newInstance(MorfeuszBackend)}).
+ *
+ * Terms and results are passed as bytes in the backend's encoding. Results
+ * are written as a stream of segment records, the same the native code
+ * writes in direct buffer mode (see {@link Morfeusz#getAnalyzer(boolean)}).
+ * Each record has the following layout (native byte order):
+ * <pre>
+ * int p, int k,
+ * unsigned short tokenLength, byte[tokenLength] token,
+ * unsigned short lemmaLength, byte[lemmaLength] lemma,
+ * unsigned short tagLength, byte[tagLength] tag
+ * </pre>
+ * An unknown lemma or tag has zero length.
+ *
+ * @since 1.3
+ */
+public interface MorfeuszBackend {
+    /** Returned from {@link #analyze} if the output buffer is too small. */
+    public static final int BUFFER_OVERFLOW = -1;
+
+    /**
+     * Returns the name of the encoding of terms and results, a Java
+     * codepage name.
+     */
+    public String getEncoding();
+
+    /**
+     * Returns <code>true</code> if {@link #analyze} may be called by many
+     * threads at the same time. {@link ConcurrentAnalyzer} serializes calls
+     * to backends that are not thread-safe.
+     */
+    public boolean isThreadSafe();
+
+    /**
+     * Returns an information string about this backend (see
+     * {@link Morfeusz#about()}).
+     */
+    public String about();
+
+    /**
+     * Returns a checksum of the dictionary of this backend. Snapshots of
+     * cached analyses are only loaded by backends with the same checksum
+     * (see {@link CachingAnalyzer#loadSnapshot(java.io.File)}).
+     */
+    public long getChecksum();
+
+    /**
+     * Analyzes <code>length</code> bytes of <code>term</code> starting at
+     * <code>offset</code> and writes segment records to <code>out</code>,
+     * starting at index zero. The buffer is direct and in native byte order;
+     * its position and limit may be changed. If the records do not fit,
+     * {@link #BUFFER_OVERFLOW} is returned and the caller retries with
+     * a larger buffer.
+     *
+     * @return Returns the number of written segment records or
+     * {@link #BUFFER_OVERFLOW}.
+     */
+    public int analyze(byte[] term, int offset, int length, ByteBuffer out);
+}
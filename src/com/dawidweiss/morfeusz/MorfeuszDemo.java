@@ -2,14 +2,15 @@ package com.dawidweiss.morfeusz;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StreamTokenizer;
 import java.io.Writer;
+import java.nio.channels.Channels;
 
 import com.dawidweiss.ipipan.corpus.Tag;
 
@@ -17,7 +18,9 @@ import com.dawidweiss.ipipan.corpus.Tag;
 /**
  * Demonstrates Morfeusz-Java binding by taking
  * words from the input (or a file) and printing
- * the result of morphological analysis.
+ * the result of morphological analysis. The input
+ * is tokenized and analyzed as a stream (see
+ * {@link DocumentAnalyzer}).
  * 
  * @author Dawid Weiss
  * @version $Revision$
@@ -26,78 +29,120 @@ public class MorfeuszDemo {
 
 	private boolean parseTags;
 
+    /** Number of analysis threads (see {@link AnalysisPipeline}). */
+    private int threads = 1;
+
+    /** Number of worker processes (see {@link ProcessAnalyzerFarm}), none if zero. */
+    private int workers;
+
 	public MorfeuszDemo() {
     }
 
     public void analyze(Reader input, Writer output) throws IOException {
-        Analyzer analyzer = Morfeusz.getInstance().getAnalyzer();
-        int words = 0;
+        long words = 0;
         long start = System.currentTimeMillis();
-        
-        StreamTokenizer tokenizer = new StreamTokenizer(input);
-        
-        int token;
-        while (StreamTokenizer.TT_EOF != (token = tokenizer.nextToken())) {
-            if (token == StreamTokenizer.TT_WORD) {
-                output.write(tokenizer.sval);
-                output.write(" ");
 
-                words++;
-                InterpMorf[] analysis = 
-                    analyzer.analyze(tokenizer.sval);
-                if (analysis == null) {
-                    output.write("?");
-                } else {
-                    for (int j=0; j<analyzer.getTokensNumber(); j++) {
-                        String part = analysis[j].getTokenImage(); 
-                        String lemma = analysis[j].getLemmaImage();
-                        String tag = analysis[j].getTagImage();
-                        
-                        if (j>0) output.write("; ");
-                        output.write(part);
-                        output.write(",");
-                        output.write(lemma);
-                        output.write(",");
-                        output.write(tag);
-                        
-                        if (parseTags) {
-                            try {
-                                Tag.create(tag);
-                            } catch (RuntimeException e) {
-                                System.err.println("Could not parse tag for: "
-                                        + tokenizer.sval + " ('" + tag + "'); Error: "
-                                        + e.toString());
-                            }
-                        }
-                    }
-                }
+        if (threads > 1 || workers > 0) {
+            words = analyzeParallel(input, output);
+        } else {
+            DocumentAnalyzer document = new DocumentAnalyzer(input);
+            StringBuilder line = new StringBuilder();
+            while (document.next()) {
+                String token = document.getTokenImage();
+                AnalysisResult analysis = document.getAnalysis();
 
-                output.write("\n");
-            } else {
-                // ignore other tokens
+                line.setLength(0);
+                line.append(token).append(' ');
+                if (analysis.size() == 0) {
+                    line.append('?');
+                }
+                for (int j=0; j<analysis.size(); j++) {
+                    appendSegment(line, token, j, analysis.getTokenImage(j),
+                        analysis.getLemmaImage(j), analysis.getTagImage(j));
+                }
+                line.append('\n');
+                output.write(line.toString());
+                words++;
             }
         }
         input.close();
         output.close();
         
-        long time = (System.currentTimeMillis() - start);
+        report(words, System.currentTimeMillis() - start);
+    }
+
+    private static void report(long words, long time) {
         System.err.println("Analyzed: " + words + " words in " +
                 time + " milliseconds." );
         System.err.println( (int)(words / (time / 1000.0f)) + " words per second.");
     }
     
+    /**
+     * Analyzes the input with an {@link AnalysisPipeline}.
+     */
+    private long analyzeParallel(Reader input, Writer output) throws IOException {
+        final AnalysisPipeline.Formatter formatter = new AnalysisPipeline.Formatter() {
+            public void format(String token, InterpMorf[] analysis, StringBuilder out) {
+                out.append(token).append(' ');
+                if (analysis.length == 0) {
+                    out.append('?');
+                }
+                for (int j=0; j<analysis.length; j++) {
+                    appendSegment(out, token, j, analysis[j].getTokenImage(),
+                        analysis[j].getLemmaImage(), analysis[j].getTagImage());
+                }
+                out.append('\n');
+            }
+        };
+
+        if (workers > 0) {
+            ProcessAnalyzerFarm farm = ProcessAnalyzerFarm.start(workers);
+            try {
+                return new AnalysisPipeline(farm, threads).run(input, output, formatter);
+            } finally {
+                farm.close();
+            }
+        }
+        return new AnalysisPipeline(Morfeusz.getInstance().getConcurrentAnalyzer(), threads)
+            .run(input, output, formatter);
+    }
+
+    /**
+     * Appends a segment of the analysis of <code>word</code> (and checks
+     * its tag, if requested).
+     */
+    private void appendSegment(StringBuilder out, String word, int j,
+        String part, String lemma, String tag) {
+        if (j>0) out.append("; ");
+        out.append(part).append(',').append(lemma).append(',').append(tag);
+
+        if (parseTags) {
+            try {
+                Tag.codesOf(tag);
+            } catch (RuntimeException e) {
+                System.err.println("Could not parse tag for: "
+                        + word + " ('" + tag + "'); Error: "
+                        + e.toString());
+            }
+        }
+    }
+
 	public static void main(String[] args) {
         MorfeuszDemo demo = new MorfeuszDemo();
         
         Reader r = null;
         Writer w = null;
         String encoding = "utf-8";
+        String inputFile = null;
+        String outputFile = null;
+        boolean mmap = false;
 
         int i = 0;
         try {
             for (; i<args.length ; i++) {
                 if (args[i].equals("-help")) {
-                    System.err.println("Arguments: [-version] [-encoding input_stream_encoding] [-parsetags] [input file] [output file]");
+                    System.err.println("Arguments: [-version] [-encoding input_stream_encoding] [-parsetags]"
+                        + " [-threads n] [-workers n] [-mmap] [input file] [output file]");
                     return;
                 } else if (args[i].equals("-encoding")) {
                     i++;
@@ -108,29 +153,47 @@ public class MorfeuszDemo {
 	                return;
                 } else if (args[i].equals("-parsetags")) {
                     demo.setParseTags(true);
+                } else if (args[i].equals("-threads")) {
+                    i++;
+                    demo.threads = Integer.parseInt(args[i]);
+                } else if (args[i].equals("-workers")) {
+                    i++;
+                    demo.workers = Integer.parseInt(args[i]);
+                } else if (args[i].equals("-mmap")) {
+                    mmap = true;
                 } else {
-                    if (r == null) {
-                        System.err.println("Using input characters encoding: " + encoding);
-                        r = new InputStreamReader( 
-                        		new BufferedInputStream( new FileInputStream(args[i])), encoding);
+                    if (inputFile == null) {
+                        inputFile = args[i];
+                    } else if (outputFile == null) {
+                        outputFile = args[i];
                     } else {
-                        if (w == null) {
-                            w = new OutputStreamWriter( 
-                                    new BufferedOutputStream( new FileOutputStream(args[i])), "utf-8");
-                        } else {
-                            System.err.println("Too many parameters.");
-                            return;
-                        }
+                        System.err.println("Too many parameters.");
+                        return;
                     }
                 }
             }
 
-            if (r == null) {
-                System.err.println("Using input characters encoding: " + encoding);
+            if (mmap) {
+                if (inputFile == null || !"utf-8".equalsIgnoreCase(encoding)) {
+                    System.err.println("-mmap requires an input file in UTF-8.");
+                    return;
+                }
+                demo.analyzeMapped(new File(inputFile), outputFile == null ? null : new File(outputFile));
+                return;
+            }
+
+            System.err.println("Using input characters encoding: " + encoding);
+            if (inputFile != null) {
+                r = new InputStreamReader( 
+                		new BufferedInputStream( new FileInputStream(inputFile)), encoding);
+            } else {
                 System.err.println("Reading from standard input.");
                 r = new InputStreamReader( System.in, encoding );
             }
-            if (w == null) {
+            if (outputFile != null) {
+                w = new OutputStreamWriter( 
+                        new BufferedOutputStream( new FileOutputStream(outputFile)), "utf-8");
+            } else {
                 w = new OutputStreamWriter( System.out, "utf-8");
             }
 
@@ -150,6 +213,31 @@ public class MorfeuszDemo {
         }
 	}
 	
+    /**
+     * Analyzes a UTF-8 file with a {@link MappedFileAnalyzer}, writing
+     * to a file or to the standard output.
+     */
+    public void analyzeMapped(File input, File output) throws IOException {
+        long start = System.currentTimeMillis();
+
+        MappedFileAnalyzer analyzer = new MappedFileAnalyzer();
+        analyzer.setParseTags(parseTags);
+        long words;
+        if (output != null) {
+            FileOutputStream os = new FileOutputStream(output);
+            try {
+                words = analyzer.analyze(input, os.getChannel());
+            } finally {
+                os.close();
+            }
+        } else {
+            words = analyzer.analyze(input, Channels.newChannel(System.out));
+            System.out.flush();
+        }
+
+        report(words, System.currentTimeMillis() - start);
+    }
+
     private void setParseTags(boolean value) {
         this.parseTags = value;
     }
@@ -0,0 +1,107 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+
+/**
+ * The backend calling Morfeusz's native library (through the JNI glue code
+ * in <code>morfeusz-java</code>). The library is process-global, so there
+ * is only one instance of this class, created by {@link Morfeusz} once
+ * the library has been loaded.
+ *
+ * {@link Analyzer} recognizes this backend and calls the native code
+ * directly in array and batch modes; only direct buffer mode goes through
+ * {@link #analyze(byte[], int, int, ByteBuffer)}.
+ *
+ * The dictionary is compiled into the library and cannot be read, so
+ * the checksum of this backend covers the library's information string
+ * and analyses of a fixed set of terms (see {@link #probeChecksum}).
+ *
+ * @since 1.3
+ */
+final class NativeBackend implements MorfeuszBackend {
+    /**
+     * Terms analyzed by {@link #probeChecksum}: frequent and irregular
+     * forms of all parts of speech.
+     */
+    private static final String[] PROBES = {
+        "a", "i", "w", "z", "nie", "się", "jest", "był", "być", "mieć", "ma",
+        "szli", "poszedłem", "ludzie", "człowieka", "dzieci", "oko", "oczy",
+        "kot", "kota", "psa", "zamek", "Polska", "polski", "lepszy", "najlepsi",
+        "dwóch", "pięcioro", "mnie", "ją", "żółtodzioby", "zostałem", "przez",
+        "bardzo", "Warszawie", "kominiarka", "wziąć", "abcxyz"
+    };
+
+    private final String encoding;
+    private final String about;
+
+    /** Checksum of the library, computed on first use. */
+    private volatile Long checksum;
+
+    NativeBackend(String encoding, String about) {
+        this.encoding = encoding;
+        this.about = about;
+    }
+
+    /**
+     * Returns a checksum of the information string of the library and
+     * analyses of a fixed set of terms.
+     */
+    public long getChecksum() {
+        if (checksum == null) {
+            checksum = Long.valueOf(probeChecksum(this, about));
+        }
+        return checksum.longValue();
+    }
+
+    /**
+     * Returns a CRC32 of <code>about</code> and analyses of a fixed set of
+     * terms by a backend. A fingerprint of a dictionary that cannot be read
+     * (two dictionaries could differ in other terms).
+     */
+    static long probeChecksum(MorfeuszBackend backend, String about) {
+        final Analyzer analyzer = new Analyzer(backend, true);
+        final StringBuilder b = new StringBuilder(about);
+        for (int i = 0; i < PROBES.length; i++) {
+            final InterpMorf[] analysis = analyzer.analyze(PROBES[i]);
+            b.append('\n');
+            for (int j = 0; j < analyzer.getTokensNumber(); j++) {
+                b.append(analysis[j].p).append(' ')
+                    .append(analysis[j].k).append(' ')
+                    .append(analysis[j].getTokenImage()).append(' ')
+                    .append(analysis[j].getLemmaImage()).append(' ')
+                    .append(analysis[j].getTagImage()).append(';');
+            }
+        }
+        try {
+            final byte[] bytes = b.toString().getBytes(Morfeusz.ENCODING_UTF8);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            return crc.getValue();
+        } catch (UnsupportedEncodingException e) {
+            // Practically unreachable.
+            throw new RuntimeException();
+        }
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Morfeusz keeps its state in process-global buffers.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    public String about() {
+        return about;
+    }
+
+    public int analyze(byte[] term, int offset, int length, ByteBuffer out) {
+        return Analyzer.analyzeNative(term, offset, length, out);
+    }
+}
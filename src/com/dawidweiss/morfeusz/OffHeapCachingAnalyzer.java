@@ -0,0 +1,812 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A thread-safe analyzer memoizing analyses of surface forms outside of
+ * the Java heap, for vocabularies too large for {@link CachingAnalyzer}.
+ *
+ * Entries are kept in direct buffers, so the garbage collector never
+ * scans or copies them, however many there are. Buffers are divided into
+ * slots of a fixed size ({@link #DEFAULT_SLOT_BYTES} by default). An entry
+ * takes as many slots as it needs, linked in a chain; every slot starts
+ * with a header: <code>int next, byte state, byte referenced</code> (the
+ * next slot of the entry plus one or zero, whether the slot is free, the
+ * first or a following slot of an entry, and the clock mark of an entry).
+ * Data of an entry follows the headers of its slots (in the native byte
+ * order):
+ * <pre>
+ * int hash, unsigned short keyLength, unsigned short segments,
+ * byte[keyLength] key,
+ * segments times: short p, short k, int token, int lemma, int tag
+ * </pre>
+ * The key is the term in the backend's encoding. A token or lemma is the
+ * offset and length of its bytes in the key (<code>offset &lt;&lt; 16 |
+ * length</code>) or, if it is not a part of the key, <code>-1 - id</code>
+ * with the id in the stripe's table of forms. The table is on the heap and
+ * counts references, so a form is dropped with the last entry using it.
+ * Tags are ids in the table of {@link AnalysisResult}, they come from a
+ * small, fixed tagset. Analyses larger than a stripe, with nodes beyond
+ * 16 bits or tags that do not fit in the table are not cached (see
+ * {@link #getUncacheableCount()}).
+ *
+ * The cache is divided into stripes, selected by the hash of a term, each
+ * with its own lock, slots and an open addressing (linear probing) index
+ * of entries. A full stripe evicts entries with the clock algorithm: a hit
+ * marks an entry as referenced, the clock hand clears marks and evicts the
+ * first entry that was not referenced since the last pass, until there
+ * are enough free slots for a new entry. Free slots are linked in a list,
+ * like slots of an entry.
+ *
+ * Returned segments are owned by the caller (as in
+ * {@link ConcurrentAnalyzer}).
+ *
+ * @since 1.3
+ */
+public final class OffHeapCachingAnalyzer {
+    /** Default size of a slot, in bytes. */
+    public static final int DEFAULT_SLOT_BYTES = 128;
+
+    /** Minimum size of a slot, in bytes. */
+    public static final int MIN_SLOT_BYTES = 32;
+
+    /** Default number of stripes. */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /** Offsets of slot header fields and the size of the header. */
+    private static final int NEXT = 0, STATE = 4, REFERENCED = 5, SLOT_HEADER = 8;
+
+    /** Slot states. */
+    private static final byte FREE = 0, FIRST = 1, FOLLOWING = 2;
+
+    /** Offsets of entry fields (in its data). */
+    private static final int HASH = 0, KEY_LENGTH = 4, SEGMENTS = 6, KEY = 8;
+
+    /** Size of a segment record in an entry. */
+    private static final int SEGMENT_BYTES = 2 + 2 + 4 + 4 + 4;
+
+    /** An empty analysis. */
+    private static final InterpMorf[] EMPTY = new InterpMorf[0];
+
+    /** The analyzer used on cache misses. */
+    private final ConcurrentAnalyzer analyzer;
+
+    /** Encoding of keys and segments. */
+    private final String encoding;
+
+    private final Stripe[] stripes;
+
+    /** Number of bits of a hash selecting the stripe. */
+    private final int stripeBits;
+
+    private final int maxEntries;
+
+    /** Size of a slot and of the entry data it holds. */
+    private final int slotBytes;
+    private final int slotData;
+
+    /*
+     * Statistics.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+
+    /**
+     * Creates a cache of at most <code>maxEntries</code> analyses, in
+     * {@link #DEFAULT_STRIPES} stripes.
+     */
+    public OffHeapCachingAnalyzer(ConcurrentAnalyzer analyzer, int maxEntries) {
+        this(analyzer, maxEntries, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a cache of at most <code>maxEntries</code> analyses, in
+     * <code>stripes</code> stripes (rounded up to a power of two). More
+     * stripes mean less contention between threads.
+     */
+    public OffHeapCachingAnalyzer(ConcurrentAnalyzer analyzer, int maxEntries, int stripes) {
+        this(analyzer, maxEntries, stripes, DEFAULT_SLOT_BYTES);
+    }
+
+    /**
+     * Creates a cache of <code>maxEntries</code> slots of
+     * <code>slotBytes</code> bytes each, in <code>stripes</code> stripes
+     * (rounded up to a power of two). An analysis that does not fit in a
+     * slot takes several, so fewer analyses are cached. Smaller slots
+     * waste less space on short entries, larger ones take fewer links.
+     */
+    public OffHeapCachingAnalyzer(ConcurrentAnalyzer analyzer, int maxEntries, int stripes,
+        int slotBytes)
+    {
+        if (maxEntries <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive: "
+                + maxEntries + ", " + stripes);
+        }
+        if (slotBytes < MIN_SLOT_BYTES) {
+            throw new IllegalArgumentException("Slots must have at least "
+                + MIN_SLOT_BYTES + " bytes: " + slotBytes);
+        }
+        int bits = 0;
+        while ((1 << bits) < stripes) {
+            bits++;
+        }
+        final int slots = (maxEntries + (1 << bits) - 1) >> bits;
+        if ((long) slots * slotBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many entries per stripe: " + slots);
+        }
+
+        this.analyzer = analyzer;
+        this.encoding = analyzer.getBackend().getEncoding();
+        this.slotBytes = slotBytes;
+        this.slotData = slotBytes - SLOT_HEADER;
+        this.stripeBits = bits;
+        this.stripes = new Stripe[1 << bits];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(slots);
+        }
+        this.maxEntries = slots << bits;
+    }
+
+    /**
+     * Returns the analysis of a given term, from the cache if possible.
+     *
+     * @return Returns an array of segments of the analysis (the array has
+     * exactly as many elements as there are segments). The returned objects
+     * are owned by the caller.
+     */
+    public InterpMorf[] analyze(String term) {
+        final byte[] key;
+        try {
+            key = term.getBytes(encoding);
+        } catch (UnsupportedEncodingException e) {
+            // Practically unreachable, checked by the backend.
+            throw new RuntimeException(e);
+        }
+        final int hash = hash(key);
+        final Stripe stripe = stripes[stripeBits == 0 ? 0 : hash >>> (32 - stripeBits)];
+
+        InterpMorf[] analysis;
+        stripe.lock.lock();
+        try {
+            analysis = stripe.get(key, hash);
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        if (analysis != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            analysis = analyzer.analyze(term);
+            final boolean cached;
+            stripe.lock.lock();
+            try {
+                cached = stripe.put(key, hash, analysis);
+            } finally {
+                stripe.lock.unlock();
+            }
+            if (!cached) {
+                uncacheable.incrementAndGet();
+            }
+        }
+        return analysis;
+    }
+
+    /**
+     * FNV-1a, finalized with MurmurHash3's mix. Never zero (an empty slot).
+     */
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length; i++) {
+            h = (h ^ (key[i] & 0xff)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Removes all cached analyses.
+     */
+    public void clear() {
+        for (int i = 0; i < stripes.length; i++) {
+            final Stripe stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                stripe.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached analyses.
+     */
+    public int getEntriesCount() {
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            final Stripe stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                count += stripe.entries;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the maximum number of cached analyses (the requested number
+     * rounded up to a multiple of the number of stripes), if each of them
+     * fits in a slot.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the size of a slot, in bytes.
+     */
+    public int getSlotBytes() {
+        return slotBytes;
+    }
+
+    /**
+     * Returns the size of direct buffers of this cache, in bytes.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            bytes += stripes[i].slots.capacity() + stripes[i].index.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of tokens and lemmas kept on the heap (those that
+     * are not a part of their terms).
+     */
+    int getFormsCount() {
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            final Stripe stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                count += stripe.forms.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of analyses served from the cache.
+     */
+    public long getHitsCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of analyses that had to be performed by
+     * the analyzer.
+     */
+    public long getMissesCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of analyses evicted from the cache.
+     */
+    public long getEvictionsCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of analyses that could not be cached (see the
+     * class description). These are counted as misses, too.
+     */
+    public long getUncacheableCount() {
+        return uncacheable.get();
+    }
+
+    /**
+     * Returns the fraction of analyses served from the cache.
+     */
+    public double getHitRatio() {
+        final long hits = getHitsCount();
+        final long total = hits + getMissesCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Clears the collected statistics.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        uncacheable.set(0);
+    }
+
+    /**
+     * Returns a human-readable summary of the collected statistics.
+     */
+    public String toString() {
+        return "entries: " + getEntriesCount()
+            + ", off-heap bytes: " + getOffHeapBytes()
+            + ", hits: " + getHitsCount()
+            + ", misses: " + getMissesCount()
+            + ", evictions: " + getEvictionsCount()
+            + ", uncacheable: " + getUncacheableCount()
+            + ", hit ratio: " + getHitRatio();
+    }
+
+    /**
+     * A part of the cache with its own lock. All methods must be called
+     * with the lock held.
+     */
+    private final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+
+        /** Slots, {@link #slotBytes} each. */
+        final ByteBuffer slots;
+
+        /**
+         * Open addressing index: the first slot of an entry plus one at a
+         * position derived from the hash, zero if the position is empty.
+         */
+        final ByteBuffer index;
+
+        final int capacity;
+        final int mask;
+
+        /** Number of slots taken so far (slots are taken in order, then reused). */
+        int used;
+
+        /** The first free slot plus one or zero; free slots are linked. */
+        int free;
+        int freeCount;
+
+        /** Number of entries. */
+        int entries;
+
+        /** The clock hand, the next eviction candidate. */
+        int hand;
+
+        /** Tokens and lemmas that are not a part of their keys. */
+        final Forms forms = new Forms();
+
+        /** Data of the entry read last or being written. */
+        ByteBuffer data = ByteBuffer.allocate(256).order(ByteOrder.nativeOrder());
+
+        /** Tag ids of the entry being written. */
+        int[] tags = new int[16];
+
+        Stripe(int capacity) {
+            int indexSize = 2;
+            while (indexSize < 2 * capacity) {
+                indexSize <<= 1;
+            }
+            this.capacity = capacity;
+            this.mask = indexSize - 1;
+            this.slots = ByteBuffer.allocateDirect(capacity * slotBytes).order(ByteOrder.nativeOrder());
+            this.index = ByteBuffer.allocateDirect(4 * indexSize).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Returns the index position of a key or -1. Data of a found entry
+         * is left in {@link #data}.
+         */
+        private int find(byte[] key, int hash) {
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                final int slot = index.getInt(4 * i) - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                final int offset = slot * slotBytes + SLOT_HEADER;
+                if (slots.getInt(offset + HASH) == hash
+                    && (slots.getShort(offset + KEY_LENGTH) & 0xffff) == key.length) {
+                    read(slot);
+                    if (matches(key)) {
+                        return i;
+                    }
+                }
+            }
+        }
+
+        private boolean matches(byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (data.get(KEY + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copies data of the entry starting at a given slot to
+         * {@link #data}.
+         */
+        private void read(int slot) {
+            final int first = slot * slotBytes + SLOT_HEADER;
+            final int length = KEY + (slots.getShort(first + KEY_LENGTH) & 0xffff)
+                + (slots.getShort(first + SEGMENTS) & 0xffff) * SEGMENT_BYTES;
+            final byte[] bytes = data(length);
+            for (int done = 0; done < length; done += slotData) {
+                slots.position(slot * slotBytes + SLOT_HEADER);
+                slots.get(bytes, done, Math.min(slotData, length - done));
+                slot = slots.getInt(slot * slotBytes + NEXT) - 1;
+            }
+        }
+
+        /**
+         * Returns the array of {@link #data}, with room for at least
+         * <code>length</code> bytes.
+         */
+        private byte[] data(int length) {
+            if (data.capacity() < length) {
+                data = ByteBuffer.allocate(Math.max(length, 2 * data.capacity()))
+                    .order(ByteOrder.nativeOrder());
+            }
+            return data.array();
+        }
+
+        /**
+         * Returns detached segments of a cached analysis or <code>null</code>.
+         */
+        InterpMorf[] get(byte[] key, int hash) {
+            final int position = find(key, hash);
+            if (position < 0) {
+                return null;
+            }
+            final int slot = index.getInt(4 * position) - 1;
+            slots.put(slot * slotBytes + REFERENCED, (byte) 1);
+
+            final int count = data.getShort(SEGMENTS) & 0xffff;
+            if (count == 0) {
+                return EMPTY;
+            }
+            final InterpMorf[] analysis = new InterpMorf[count];
+            int record = KEY + key.length;
+            try {
+                for (int i = 0; i < count; i++, record += SEGMENT_BYTES) {
+                    final byte[] tokenBytes = decode(key, data.getInt(record + 4));
+                    final byte[] lemma = decode(key, data.getInt(record + 8));
+                    final byte[] tag = AnalysisResult.getTags().get(data.getInt(record + 12)).getBytes(encoding);
+
+                    final InterpMorf segment = new InterpMorf(encoding, tokenBytes, lemma, tag);
+                    segment.p = data.getShort(record);
+                    segment.k = data.getShort(record + 2);
+                    segment.tokenLength = tokenBytes.length;
+                    segment.lemmaLength = lemma.length;
+                    segment.tagLength = tag.length;
+                    analysis[i] = segment;
+                }
+            } catch (UnsupportedEncodingException e) {
+                // Practically unreachable.
+                throw new RuntimeException(e);
+            }
+            return analysis;
+        }
+
+        /**
+         * Returns the bytes of a token or lemma (see the class description).
+         */
+        private byte[] decode(byte[] key, int form) throws UnsupportedEncodingException {
+            if (form < 0) {
+                return forms.get(-1 - form).getBytes(encoding);
+            }
+            final byte[] bytes = new byte[form & 0xffff];
+            System.arraycopy(key, form >>> 16, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        /**
+         * Caches an analysis, unless the term is cached already. Returns
+         * <code>false</code> if the analysis cannot be cached.
+         */
+        boolean put(byte[] key, int hash, InterpMorf[] analysis) {
+            final int length = KEY + key.length + analysis.length * SEGMENT_BYTES;
+            final int count = (length + slotData - 1) / slotData;
+            if (count > capacity || key.length > 0xffff || analysis.length > 0xffff) {
+                return false;
+            }
+            if (tags.length < analysis.length) {
+                tags = new int[Math.max(analysis.length, 2 * tags.length)];
+            }
+            for (int i = 0; i < analysis.length; i++) {
+                if (analysis[i].p != (short) analysis[i].p || analysis[i].k != (short) analysis[i].k) {
+                    return false;
+                }
+                tags[i] = AnalysisResult.getTags().intern(analysis[i].getTagImage());
+                if (tags[i] < 0) {
+                    return false;
+                }
+            }
+            if (find(key, hash) >= 0) {
+                // Another thread has analyzed the same term.
+                return true;
+            }
+            while (freeCount + capacity - used < count) {
+                evict();
+            }
+
+            data(length);
+            data.putInt(HASH, hash);
+            data.putShort(KEY_LENGTH, (short) key.length);
+            data.putShort(SEGMENTS, (short) analysis.length);
+            for (int i = 0; i < key.length; i++) {
+                data.put(KEY + i, key[i]);
+            }
+            int record = KEY + key.length;
+            for (int i = 0; i < analysis.length; i++, record += SEGMENT_BYTES) {
+                final InterpMorf segment = analysis[i];
+                data.putShort(record, (short) segment.p);
+                data.putShort(record + 2, (short) segment.k);
+                // Segments from ConcurrentAnalyzer are detached, their arrays are up to date.
+                int token = locate(key, segment.token, segment.tokenLength);
+                if (token < 0) {
+                    token = -1 - forms.acquire(segment.getTokenImage());
+                }
+                int lemma = locate(key, segment.lemma, segment.lemmaLength);
+                if (lemma < 0) {
+                    lemma = -1 - forms.acquire(segment.getLemmaImage());
+                }
+                data.putInt(record + 4, token);
+                data.putInt(record + 8, lemma);
+                data.putInt(record + 12, tags[i]);
+            }
+
+            final int first = write(length);
+            int position = hash & mask;
+            while (index.getInt(4 * position) != 0) {
+                position = (position + 1) & mask;
+            }
+            index.putInt(4 * position, first + 1);
+            entries++;
+            return true;
+        }
+
+        /**
+         * Copies <code>length</code> bytes of {@link #data} to a chain of
+         * free slots and returns its first slot.
+         */
+        private int write(int length) {
+            int first = -1;
+            int previous = -1;
+            for (int done = 0; done < length; done += slotData) {
+                final int slot;
+                if (free != 0) {
+                    slot = free - 1;
+                    free = slots.getInt(slot * slotBytes + NEXT);
+                    freeCount--;
+                } else {
+                    slot = used++;
+                }
+
+                final int offset = slot * slotBytes;
+                slots.putInt(offset + NEXT, 0);
+                slots.put(offset + STATE, previous < 0 ? FIRST : FOLLOWING);
+                slots.put(offset + REFERENCED, (byte) 0);
+                slots.position(offset + SLOT_HEADER);
+                slots.put(data.array(), done, Math.min(slotData, length - done));
+                if (previous < 0) {
+                    first = slot;
+                } else {
+                    slots.putInt(previous * slotBytes + NEXT, slot + 1);
+                }
+                previous = slot;
+            }
+            return first;
+        }
+
+        /**
+         * Encodes a token or lemma as its offset and length in the key or
+         * returns -1 if it is not a part of the key.
+         */
+        private int locate(byte[] key, byte[] bytes, int length) {
+            search:
+            for (int start = 0; start + length <= key.length; start++) {
+                for (int i = 0; i < length; i++) {
+                    if (key[start + i] != bytes[i]) {
+                        continue search;
+                    }
+                }
+                return (start << 16) | length;
+            }
+            return -1;
+        }
+
+        /**
+         * Releases forms of an entry which is being removed.
+         */
+        private void release(int slot) {
+            read(slot);
+            final int count = data.getShort(SEGMENTS) & 0xffff;
+            int record = KEY + (data.getShort(KEY_LENGTH) & 0xffff);
+            for (int i = 0; i < count; i++, record += SEGMENT_BYTES) {
+                final int token = data.getInt(record + 4);
+                if (token < 0) {
+                    forms.release(-1 - token);
+                }
+                final int lemma = data.getInt(record + 8);
+                if (lemma < 0) {
+                    forms.release(-1 - lemma);
+                }
+            }
+        }
+
+        /**
+         * Advances the clock hand to an entry that was not referenced since
+         * the last pass, removes it from the index and frees its slots.
+         */
+        private void evict() {
+            while (true) {
+                final int slot = hand;
+                final int offset = slot * slotBytes;
+                hand = (hand + 1) % used;
+                if (slots.get(offset + STATE) != FIRST) {
+                    continue;
+                }
+                if (slots.get(offset + REFERENCED) != 0) {
+                    slots.put(offset + REFERENCED, (byte) 0);
+                    continue;
+                }
+
+                final int hash = slots.getInt(offset + SLOT_HEADER + HASH);
+                int position = hash & mask;
+                while (index.getInt(4 * position) != slot + 1) {
+                    position = (position + 1) & mask;
+                }
+                remove(position);
+                release(slot);
+
+                int last = slot;
+                while (true) {
+                    slots.put(last * slotBytes + STATE, FREE);
+                    freeCount++;
+                    final int next = slots.getInt(last * slotBytes + NEXT);
+                    if (next == 0) {
+                        break;
+                    }
+                    last = next - 1;
+                }
+                slots.putInt(last * slotBytes + NEXT, free);
+                free = slot + 1;
+
+                entries--;
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+
+        /**
+         * Removes an index position, shifting back entries of the same
+         * probe sequence.
+         */
+        private void remove(int position) {
+            int i = position;
+            int j = position;
+            while (true) {
+                j = (j + 1) & mask;
+                final int slot = index.getInt(4 * j) - 1;
+                if (slot < 0) {
+                    break;
+                }
+                final int home = slots.getInt(slot * slotBytes + SLOT_HEADER + HASH) & mask;
+                final boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    index.putInt(4 * i, slot + 1);
+                    i = j;
+                }
+            }
+            index.putInt(4 * i, 0);
+        }
+
+        void clear() {
+            for (int i = 0; i < index.capacity(); i += 4) {
+                index.putInt(i, 0);
+            }
+            used = 0;
+            free = 0;
+            freeCount = 0;
+            entries = 0;
+            hand = 0;
+            forms.clear();
+        }
+    }
+
+    /**
+     * Strings with reference counts and reusable ids. Guarded by the
+     * lock of the stripe.
+     */
+    private static final class Forms {
+        private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        private String[] forms = new String[16];
+        private int[] references = new int[16];
+
+        /** Ids of dropped forms, reused before new ids. */
+        private int[] free = new int[16];
+        private int freeCount;
+
+        /** Number of ids in use or free. */
+        private int size;
+
+        /**
+         * Returns the id of a form and adds a reference to it.
+         */
+        int acquire(String form) {
+            final Integer existing = ids.get(form);
+            if (existing != null) {
+                references[existing.intValue()]++;
+                return existing.intValue();
+            }
+
+            final int id;
+            if (freeCount > 0) {
+                id = free[--freeCount];
+            } else {
+                if (size == forms.length) {
+                    final String[] grown = new String[size * 2];
+                    System.arraycopy(forms, 0, grown, 0, size);
+                    forms = grown;
+                    references = grow(references);
+                    free = grow(free);
+                }
+                id = size++;
+            }
+            forms[id] = form;
+            references[id] = 1;
+            ids.put(form, Integer.valueOf(id));
+            return id;
+        }
+
+        /**
+         * Removes a reference to a form, dropping the form with its last
+         * reference.
+         */
+        void release(int id) {
+            if (--references[id] == 0) {
+                ids.remove(forms[id]);
+                forms[id] = null;
+                free[freeCount++] = id;
+            }
+        }
+
+        private static int[] grow(int[] array) {
+            final int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+
+        String get(int id) {
+            return forms[id];
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        void clear() {
+            ids.clear();
+            Arrays.fill(forms, 0, size, null);
+            size = 0;
+            freeCount = 0;
+        }
+    }
+}
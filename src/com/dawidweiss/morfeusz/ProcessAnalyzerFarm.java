@@ -0,0 +1,377 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A farm of worker processes, each one running its own copy of the
+ * native library (see {@link AnalyzerWorker}).
+ *
+ * Morfeusz keeps its state in process-global memory, so a single JVM can
+ * perform only one analysis at a time. This class works around that by
+ * sharding words across several helper processes (connected with pipes)
+ * and reassembling their results in the original order. Throughput scales
+ * with the number of workers (up to the number of available cores).
+ *
+ * Instances of this class are thread-safe. Segments returned from the farm
+ * are owned by the caller. If a request fails midway (for example, a
+ * worker dies), the workers involved are terminated, so that no stale
+ * replies are left in their pipes, and restarted on their next use.
+ *
+ * The farm is also a {@link MorfeuszBackend}: a {@link ConcurrentAnalyzer}
+ * of {@link Morfeusz#newInstance(MorfeuszBackend)} spreads the analyses of
+ * its callers over the workers.
+ *
+ * @since 1.3
+ */
+public final class ProcessAnalyzerFarm implements MorfeuszBackend {
+    /** An empty analysis. */
+    private static final InterpMorf[] EMPTY = new InterpMorf[0];
+
+    /** Worker processes and their connections. */
+    private final Worker[] workers;
+
+    /** Round-robin counter for single-word requests. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Checksum of the workers' dictionary, computed on first use. */
+    private volatile Long checksum;
+
+    /**
+     * A single worker process.
+     */
+    private static final class Worker {
+        final ReentrantLock lock = new ReentrantLock();
+        final String [] command;
+
+        /** The worker process or <code>null</code> if it has been killed. */
+        Process process;
+        DataInputStream input;
+        DataOutputStream output;
+        String encoding;
+
+        Worker(String [] command) throws IOException {
+            this.command = command;
+            start();
+        }
+
+        private void start() throws IOException {
+            final Process process = Runtime.getRuntime().exec(command);
+            drain(process.getErrorStream());
+
+            final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(process.getInputStream()));
+            try {
+                if (input.readInt() != AnalyzerWorker.MAGIC) {
+                    throw new IOException("Not an analyzer worker: " + command[command.length - 1]);
+                }
+                this.encoding = input.readUTF();
+            } catch (IOException e) {
+                process.destroy();
+                throw e;
+            }
+            this.process = process;
+            this.input = input;
+            this.output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        }
+
+        /**
+         * Terminates the worker process after a failed request: its pipes
+         * may hold a part of the request or of the reply. The worker is
+         * restarted on its next request.
+         */
+        void kill() {
+            if (process != null) {
+                process.destroy();
+                process = null;
+            }
+        }
+
+        void request(String [] words, int from, int to) throws IOException {
+            if (process == null) {
+                start();
+            }
+            output.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                output.writeUTF(words[i]);
+            }
+            output.flush();
+        }
+
+        void reply(InterpMorf[][] result, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                final int segments = input.readInt();
+                if (segments == 0) {
+                    result[i] = EMPTY;
+                } else {
+                    final InterpMorf[] analysis = new InterpMorf[segments];
+                    for (int j = 0; j < segments; j++) {
+                        analysis[j] = AnalyzerWorker.readSegment(input, encoding);
+                    }
+                    result[i] = analysis;
+                }
+            }
+        }
+
+        void close() {
+            if (process == null) {
+                return;
+            }
+            try {
+                output.writeInt(AnalyzerWorker.SHUTDOWN);
+                output.close();
+                process.waitFor();
+            } catch (IOException e) {
+                process.destroy();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Copies worker's diagnostic output to ours so that
+         * the worker never blocks on a full pipe.
+         */
+        private static void drain(final InputStream is) {
+            final Thread t = new Thread("analyzer-worker-stderr") {
+                public void run() {
+                    final byte [] buffer = new byte [1024];
+                    try {
+                        int len;
+                        while ((len = is.read(buffer)) > 0) {
+                            System.err.write(buffer, 0, len);
+                        }
+                    } catch (IOException e) {
+                        // Worker terminated.
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Starts <code>workers</code> worker processes, each one executing
+     * <code>command</code>. The command must start a process that
+     * calls {@link AnalyzerWorker#serve(InputStream, java.io.OutputStream)}
+     * on its standard input and output.
+     */
+    public ProcessAnalyzerFarm(String [] command, int workers) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("At least one worker required: " + workers);
+        }
+
+        this.workers = new Worker[workers];
+        try {
+            for (int i = 0; i < workers; i++) {
+                this.workers[i] = new Worker(command);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts <code>workers</code> JVMs running the native {@link AnalyzerWorker},
+     * using this JVM's class path and library path.
+     */
+    public static ProcessAnalyzerFarm start(int workers) throws IOException {
+        return new ProcessAnalyzerFarm(javaCommand(AnalyzerWorker.class.getName()), workers);
+    }
+
+    /**
+     * Returns a command line starting a JVM with this JVM's class path and
+     * library path, executing the given main class.
+     */
+    public static String [] javaCommand(String mainClass) {
+        final List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        final String libraryPath = System.getProperty("java.library.path");
+        if (libraryPath != null) {
+            command.add("-Djava.library.path=" + libraryPath);
+        }
+        command.add(mainClass);
+        return command.toArray(new String [command.size()]);
+    }
+
+    /**
+     * Returns the number of worker processes.
+     */
+    public int getWorkersCount() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the encoding of segment bytes (the encoding of the workers'
+     * library).
+     */
+    public String getEncoding() {
+        return workers[0].encoding;
+    }
+
+    /**
+     * Returns <code>true</code>, the farm can be used by many threads.
+     */
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    public String about() {
+        return "Process analyzer farm: " + workers.length + " workers.";
+    }
+
+    /**
+     * Returns a checksum of analyses of a fixed set of terms by the workers
+     * (see {@link NativeBackend#getChecksum()}), computed on first use.
+     */
+    public long getChecksum() {
+        if (checksum == null) {
+            checksum = Long.valueOf(NativeBackend.probeChecksum(this, ""));
+        }
+        return checksum.longValue();
+    }
+
+    /**
+     * Analyzes a term using the next available worker and writes its segment
+     * records to <code>out</code> (see {@link MorfeuszBackend}). If the
+     * records do not fit, the analysis is repeated with a larger buffer.
+     */
+    public int analyze(byte[] term, int offset, int length, ByteBuffer out) {
+        final InterpMorf[] analysis;
+        try {
+            analysis = analyze(new String(term, offset, length, getEncoding()));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException("Analyzer worker failed.", e);
+        }
+
+        out.clear();
+        for (int i = 0; i < analysis.length; i++) {
+            final InterpMorf segment = analysis[i];
+            if (out.remaining() < 4 + 4 + 3 * 2
+                + segment.tokenLength + segment.lemmaLength + segment.tagLength) {
+                return BUFFER_OVERFLOW;
+            }
+            out.putInt(segment.p);
+            out.putInt(segment.k);
+            out.putShort((short) segment.tokenLength);
+            out.put(segment.token, 0, segment.tokenLength);
+            out.putShort((short) segment.lemmaLength);
+            out.put(segment.lemma, 0, segment.lemmaLength);
+            out.putShort((short) segment.tagLength);
+            out.put(segment.tag, 0, segment.tagLength);
+        }
+        return analysis.length;
+    }
+
+    /**
+     * Analyzes a single term using the next available worker.
+     */
+    public InterpMorf[] analyze(String term) throws IOException {
+        final InterpMorf[][] result = analyze(new String [] {term});
+        return result[0];
+    }
+
+    /**
+     * Analyzes a batch of terms, sharding them across all workers.
+     *
+     * @return Returns an array of analyses, one for every input term (in
+     * the order of input terms).
+     * @throws IllegalArgumentException If a term is longer than the protocol
+     * permits (65535 bytes of modified UTF-8).
+     */
+    public InterpMorf[][] analyze(String [] terms) throws IOException {
+        final InterpMorf[][] result = new InterpMorf[terms.length][];
+        if (terms.length == 0) {
+            return result;
+        }
+        for (int i = 0; i < terms.length; i++) {
+            final int length = AnalyzerWorker.utfLength(terms[i]);
+            if (length > AnalyzerWorker.MAX_LENGTH) {
+                throw new IllegalArgumentException("Term too long: " + length);
+            }
+        }
+
+        // Shard into contiguous ranges, one per worker.
+        final int shards = Math.min(workers.length, terms.length);
+        final int first = (next.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+        final Worker[] used = new Worker[shards];
+        final boolean[] inUse = new boolean[workers.length];
+        final int[] bounds = new int[shards + 1];
+        for (int i = 0; i < shards; i++) {
+            final int index = (first + i) % workers.length;
+            used[i] = workers[index];
+            inUse[index] = true;
+            bounds[i + 1] = (int) ((long) terms.length * (i + 1) / shards);
+        }
+
+        // Workers are always locked in ascending index order to avoid deadlocks.
+        final Worker[] locked = new Worker[shards];
+        for (int i = 0, j = 0; i < workers.length; i++) {
+            if (inUse[i]) locked[j++] = workers[i];
+        }
+
+        int lockedCount = 0;
+        int requested = 0;
+        int replied = 0;
+        try {
+            for (; lockedCount < locked.length; lockedCount++) {
+                locked[lockedCount].lock.lock();
+            }
+
+            // Send all requests first so that workers run in parallel.
+            for (; requested < shards; requested++) {
+                used[requested].request(terms, bounds[requested], bounds[requested + 1]);
+            }
+            for (; replied < shards; replied++) {
+                used[replied].reply(result, bounds[replied], bounds[replied + 1]);
+            }
+        } finally {
+            // Workers with a partial request or a pending reply are out of sync.
+            if (lockedCount == locked.length) {
+                for (int i = replied; i < Math.min(requested + 1, shards); i++) {
+                    used[i].kill();
+                }
+            }
+            while (--lockedCount >= 0) {
+                locked[lockedCount].lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Terminates all worker processes.
+     */
+    public void close() {
+        for (int i = 0; i < workers.length; i++) {
+            final Worker w = workers[i];
+            if (w != null) {
+                w.lock.lock();
+                try {
+                    w.close();
+                } finally {
+                    w.lock.unlock();
+                }
+            }
+        }
+    }
+}
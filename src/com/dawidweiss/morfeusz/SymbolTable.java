@@ -0,0 +1,109 @@
+package com.dawidweiss.morfeusz;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A thread-safe, append-only table of interned strings. Every distinct
+ * string gets a small integer id (consecutive, starting from zero) which
+ * never changes, so ids of the same table can be compared instead of strings.
+ *
+ * The table may be bounded: strings beyond the limit are not added.
+ *
+ * Lookups by string are lock-free; adding a new string takes a lock.
+ *
+ * @since 1.3
+ */
+public final class SymbolTable {
+    /** Maximum number of interned strings. */
+    private final int maxSize;
+
+    /** Ids of interned strings. */
+    private final ConcurrentHashMap<String, Integer> ids =
+        new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Interned strings, by id. Replaced (under the lock) when grown; elements
+     * are written before their ids are published in {@link #ids}.
+     */
+    private volatile String[] symbols = new String[256];
+
+    /** Number of interned strings. Guarded by <code>this</code>. */
+    private int size;
+
+    /**
+     * Creates an unbounded table.
+     */
+    public SymbolTable() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a table of at most <code>maxSize</code> strings.
+     */
+    public SymbolTable(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Negative size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the id of a string, adding it to the table if needed. Returns
+     * -1 if the string is not in the table and the table is full.
+     */
+    public int intern(String symbol) {
+        final Integer id = ids.get(symbol);
+        if (id != null) {
+            return id.intValue();
+        }
+        return add(symbol);
+    }
+
+    private synchronized int add(String symbol) {
+        final Integer existing = ids.get(symbol);
+        if (existing != null) {
+            return existing.intValue();
+        }
+        if (size >= maxSize) {
+            return -1;
+        }
+
+        String[] symbols = this.symbols;
+        if (size == symbols.length) {
+            final String[] grown = new String[symbols.length * 2];
+            System.arraycopy(symbols, 0, grown, 0, size);
+            this.symbols = symbols = grown;
+        }
+        final int id = size++;
+        symbols[id] = symbol;
+        ids.put(symbol, Integer.valueOf(id));
+        return id;
+    }
+
+    /**
+     * Returns the id of a string or -1 if the string has not been interned.
+     */
+    public int getId(String symbol) {
+        final Integer id = ids.get(symbol);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the string with the given id.
+     */
+    public String get(int id) {
+        final String[] symbols = this.symbols;
+        if (id < 0 || id >= symbols.length || symbols[id] == null) {
+            throw new IndexOutOfBoundsException("No symbol with id: " + id);
+        }
+        return symbols[id];
+    }
+
+    /**
+     * Returns the number of interned strings.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,265 @@
+package com.dawidweiss.morfeusz;
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ * A streaming tokenizer splitting text into words, numbers and
+ * punctuation, with character offsets.
+ *
+ * Character classes come from the Unicode character database (see
+ * {@link Character#isLetter(int)}), so Polish (and any other) letters,
+ * supplementary characters and combining marks are handled correctly:
+ * <ul>
+ * <li>a {@link #WORD} is a sequence of letters, digits and combining marks
+ * starting with a letter; an apostrophe between letters belongs to the
+ * word (<code>Kennedy'ego</code>),</li>
+ * <li>a {@link #NUMBER} is a sequence of digits, possibly with single
+ * <code>'.'</code> or <code>','</code> separators between them
+ * (<code>3,14</code>, <code>1.000.000</code>),</li>
+ * <li>every other character, except for white space (and NUL), is
+ * a separate {@link #PUNCTUATION} token.</li>
+ * </ul>
+ *
+ * The input is read in chunks into a fixed buffer, so memory use does not
+ * depend on the length of the input. Tokens longer than
+ * {@link #MAX_TOKEN_LENGTH} are split.
+ *
+ * Offsets are in <code>char</code>s (UTF-16 code units) from the start of
+ * the input, as <code>long</code>s.
+ *
+ * @since 1.3
+ */
+public final class Tokenizer {
+    /** A word. */
+    public static final int WORD = 1;
+
+    /** A number. */
+    public static final int NUMBER = 2;
+
+    /** A punctuation character or a symbol. */
+    public static final int PUNCTUATION = 3;
+
+    /** Maximum length of a token, in <code>char</code>s. */
+    public static final int MAX_TOKEN_LENGTH = 256;
+
+    /** Default size of the input buffer. */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Number of <code>char</code>s needed to decide where a token ends. */
+    private static final int LOOKAHEAD = 4;
+
+    private final Reader reader;
+
+    /** Input buffer. Characters <code>[position, limit)</code> are not consumed yet. */
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    /** Offset of the first character of the buffer in the input. */
+    private long bufferOffset;
+
+    /** The current token. */
+    private final char[] token = new char[MAX_TOKEN_LENGTH];
+    private int tokenLength;
+    private int type;
+    private long startOffset;
+
+    /**
+     * Creates a tokenizer reading from a <code>Reader</code>. The reader
+     * is not buffered by this class beyond its own buffer.
+     */
+    public Tokenizer(Reader reader) {
+        this(reader, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a tokenizer with a given size of the input buffer.
+     */
+    public Tokenizer(Reader reader, int bufferSize) {
+        if (bufferSize < LOOKAHEAD * 2) {
+            throw new IllegalArgumentException("Buffer too small: " + bufferSize);
+        }
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return Returns <code>false</code> at the end of the input.
+     */
+    public boolean next() throws IOException {
+        tokenLength = 0;
+        type = 0;
+
+        // Skip white space.
+        int cp;
+        while (true) {
+            if ((cp = peek(0)) < 0) {
+                return false;
+            }
+            if (!isWhitespace(cp)) {
+                break;
+            }
+            position += Character.charCount(cp);
+        }
+        startOffset = bufferOffset + position;
+
+        if (Character.isLetter(cp)) {
+            type = WORD;
+            do {
+                append(cp);
+                cp = peek(0);
+                if (isApostrophe(cp)) {
+                    final int following = peek(Character.charCount(cp));
+                    if (following >= 0 && Character.isLetter(following)) {
+                        append(cp);
+                        cp = peek(0);
+                    }
+                }
+            } while (cp >= 0 && isWordPart(cp) && tokenLength <= MAX_TOKEN_LENGTH - 3);
+        } else if (Character.isDigit(cp)) {
+            type = NUMBER;
+            do {
+                append(cp);
+                cp = peek(0);
+                if (cp == '.' || cp == ',') {
+                    final int following = peek(1);
+                    if (following >= 0 && Character.isDigit(following)) {
+                        append(cp);
+                        cp = following;
+                    }
+                }
+            } while (cp >= 0 && Character.isDigit(cp) && tokenLength <= MAX_TOKEN_LENGTH - 3);
+        } else {
+            type = PUNCTUATION;
+            append(cp);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the type of the current token: {@link #WORD}, {@link #NUMBER}
+     * or {@link #PUNCTUATION}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the image of the current token.
+     */
+    public String getImage() {
+        return new String(token, 0, tokenLength);
+    }
+
+    /**
+     * Returns the number of characters of the current token.
+     */
+    public int getLength() {
+        return tokenLength;
+    }
+
+    /**
+     * Returns the characters of the current token. The array is reused
+     * (see {@link #getLength()}).
+     */
+    public char[] getBuffer() {
+        return token;
+    }
+
+    /**
+     * Returns the offset of the first character of the current token.
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Returns the offset just past the last character of the current token.
+     */
+    public long getEndOffset() {
+        return startOffset + tokenLength;
+    }
+
+    /**
+     * Closes the reader.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Consumes a code point and appends it to the token.
+     */
+    private void append(int cp) {
+        if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            token[tokenLength++] = buffer[position++];
+        }
+        token[tokenLength++] = buffer[position++];
+    }
+
+    /**
+     * Returns the code point <code>offset</code> characters past the
+     * current position or -1 at the end of the input.
+     */
+    private int peek(int offset) throws IOException {
+        if (limit - position < offset + 2 && !eof) {
+            fill();
+        }
+        if (position + offset >= limit) {
+            return -1;
+        }
+        return Character.codePointAt(buffer, position + offset, limit);
+    }
+
+    /**
+     * Moves unconsumed characters to the start of the buffer and reads
+     * more input.
+     */
+    private void fill() throws IOException {
+        final int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        bufferOffset += position;
+        position = 0;
+        limit = remaining;
+
+        do {
+            final int count = reader.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                eof = true;
+                break;
+            }
+            limit += count;
+        } while (limit < LOOKAHEAD);
+    }
+
+    /**
+     * White space. NUL characters are white space too (terms passed to the
+     * native library are NUL-terminated).
+     */
+    static boolean isWhitespace(int cp) {
+        return Character.isWhitespace(cp) || Character.isSpaceChar(cp) || cp == 0;
+    }
+
+    static boolean isApostrophe(int cp) {
+        return cp == '\'' || cp == '\u2019';
+    }
+
+    static boolean isWordPart(int cp) {
+        if (Character.isLetterOrDigit(cp)) {
+            return true;
+        }
+        switch (Character.getType(cp)) {
+            case Character.NON_SPACING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+                return true;
+            default:
+                return false;
+        }
+    }
+}